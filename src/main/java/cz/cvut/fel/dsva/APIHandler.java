@@ -1,10 +1,18 @@
 package cz.cvut.fel.dsva;
 
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.LockGrant;
+import cz.cvut.fel.dsva.base.LogEntry;
 import io.javalin.Javalin;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import static io.javalin.apibuilder.ApiBuilder.*;
 
 /**
@@ -20,12 +28,59 @@ import static io.javalin.apibuilder.ApiBuilder.*;
  *     <li><b>GET /start_election</b>: Initiate a leader election.</li>
  *     <li><b>GET /check_leader</b>: Retrieve the current leader of the network.</li>
  *     <li><b>POST /send_message</b>: Send a message to another node.</li>
+ *     <li><b>POST /request</b>: Send a request to another node and wait for its reply (form params: <code>to</code>, <code>payload</code>, optional <code>method</code>, <code>timeoutMs</code>).</li>
+ *     <li><b>GET /rpc_stats</b>: Retrieve the request/reply counters and registered handlers.</li>
+ *     <li><b>GET /bench_rpc?to=&amp;count=&amp;outstanding=</b>: Measure request/reply throughput with many requests in flight.</li>
+ *     <li><b>GET /shm_stats</b>: Retrieve the shared-memory transport's channels and call counters.</li>
+ *     <li><b>GET /bench_shm?to=ip:port&amp;count=</b>: Compare call latency to a node on this host through shared memory and RMI.</li>
+ *     <li><b>POST /send_ordered</b>: Send a message through the total-order broadcast channel.</li>
+ *     <li><b>GET /ordered_stats</b>: Retrieve the state of the total-order broadcast channel.</li>
+ *     <li><b>GET /bench_ordered?count=N</b>: Compare ordered and unordered message throughput.</li>
  *     <li><b>GET /leave</b>: Leave the network gracefully.</li>
  *     <li><b>GET /kill</b>: Simulate an abrupt node crash.</li>
  *     <li><b>GET /revive</b>: Revive a previously killed node.</li>
  *     <li><b>GET /get_status</b>: Retrieve the current status of the node.</li>
+ *     <li><b>GET /delivery_stats</b>: Retrieve message deduplication and gap counters.</li>
+ *     <li><b>GET /subscribe?topic=</b>: Subscribe this node to a topic.</li>
+ *     <li><b>GET /unsubscribe?topic=</b>: Unsubscribe this node from a topic.</li>
+ *     <li><b>POST /publish</b>: Publish a message to a topic's subscribers (form params: <code>topic</code>, <code>message</code>).</li>
+ *     <li><b>GET /topics</b>: Retrieve the subscription table and per-topic throughput counters.</li>
+ *     <li><b>GET /admission_stats</b>: Retrieve rate limits and admitted/rejected call counters.</li>
+ *     <li><b>GET /load?rate=&amp;seconds=&amp;senders=&amp;mode=</b>: Run an open-loop load test (<code>message</code> or <code>election</code>) and report latency percentiles.</li>
+ *     <li><b>GET /groups</b>: Retrieve the node's group, the directory of group leaders and the global leader.</li>
+ *     <li><b>GET /journal?since=&amp;limit=</b>: Retrieve the recorded state changes after a sequence number (default: the last 100).</li>
+ *     <li><b>GET /traces?traceId=</b>: Export the recorded spans (all, or of one trace) in OTLP-JSON format.</li>
+ *     <li><b>GET /watch?since=&amp;timeoutMs=</b>: Long-poll for leader and membership changes after a version cursor.</li>
+ *     <li><b>GET /watch_stream</b>: The same changes pushed as Server-Sent Events (needs <code>Accept: text/event-stream</code>, resumable with <code>Last-Event-ID</code>).</li>
+ *     <li><b>POST /kv_put</b>: Store a value in the key-value store (form params: <code>key</code>, <code>value</code>).</li>
+ *     <li><b>GET /kv_get?key=</b>: Read a value from the key-value store.</li>
+ *     <li><b>GET /kv_stats</b>: Retrieve the hash ring and key-value store counters.</li>
+ *     <li><b>GET /bench_kv?count=&amp;threads=</b>: Measure put/get throughput through this node.</li>
+ *     <li><b>POST /log_append</b>: Append an entry to the replicated log and wait until it is committed (form param: <code>entry</code>).</li>
+ *     <li><b>GET /log_read?from=&amp;limit=</b>: Read committed entries of this node's copy of the replicated log.</li>
+ *     <li><b>GET /log_stats</b>: Retrieve the replicated log's indexes, replication counters and followers.</li>
+ *     <li><b>GET /bench_log?count=</b>: Measure replicated log append throughput through this node.</li>
+ *     <li><b>POST /lock_acquire</b>: Acquire a lock lease from the leader, waiting in its FIFO queue (form params: <code>name</code>, <code>owner</code>, optional <code>leaseMs</code>, <code>waitMs</code>).</li>
+ *     <li><b>POST /lock_renew</b>: Extend a held lease (form params: <code>name</code>, <code>owner</code>, optional <code>leaseMs</code>).</li>
+ *     <li><b>POST /lock_release</b>: Release a held lease (form params: <code>name</code>, <code>owner</code>).</li>
+ *     <li><b>GET /lock_stats</b>: Retrieve the lock table (on the leader) and the leases held on this node.</li>
+ *     <li><b>GET /bench_lock?clients=&amp;locks=&amp;seconds=</b>: Measure acquire/release throughput under contention.</li>
+ *     <li><b>GET /next_id?count=</b>: Generate cluster-unique IDs from this node's leased ID block, one per line.</li>
+ *     <li><b>GET /id_stats</b>: Retrieve the ID blocks of this node and, on the leader, the high-water mark.</li>
+ *     <li><b>GET /bench_ids?threads=&amp;seconds=</b>: Measure local ID generation throughput.</li>
+ *     <li><b>POST /crdt_add</b>: Add to a gossiped counter (form params: <code>name</code>, optional <code>delta</code>, <code>type</code> = <code>pn</code> or <code>g</code>).</li>
+ *     <li><b>POST /crdt_set_add</b>: Add an element to a gossiped OR-set (form params: <code>name</code>, <code>element</code>).</li>
+ *     <li><b>POST /crdt_set_remove</b>: Remove an element from a gossiped OR-set (form params: <code>name</code>, <code>element</code>).</li>
+ *     <li><b>GET /crdt_get?name=</b>: Read the local value of a counter or set.</li>
+ *     <li><b>GET /crdt_stats</b>: Retrieve the CRDT gossip counters and the peers' lag.</li>
+ *     <li><b>GET /bench_crdt?updates=</b>: Measure how long other nodes take to see a burst of counter updates.</li>
+ *     <li><b>GET /tree_stats</b>: Retrieve spanning-tree dissemination counters.</li>
+ *     <li><b>POST /send_file</b>: Stream a file from the outbox to another node (form params: <code>to</code> as ip:port, <code>path</code> relative to <code>dsva.transfer.outbox</code>).</li>
+ *     <li><b>GET /transfer_stats</b>: Retrieve chunked file transfer counters and progress.</li>
  *     <li><b>GET /stop_rmi</b>: Stop the RMI registry.</li>
  *     <li><b>GET /start_rmi</b>: Start the RMI registry.</li>
+ *     <li><b>GET /partition?nodes=ip:port,...</b>: Simulate a partition by blocking calls to the given nodes.</li>
+ *     <li><b>GET /heal</b>: Heal a simulated partition.</li>
  * </ul>
  *
  * @author Kross Aleksandr
@@ -65,84 +120,573 @@ public class APIHandler implements Runnable {
      * Initializes and starts the Javalin HTTP server with defined routes and handlers.
      */
     public void start() {
-        app = Javalin.create().routes(() -> {
-            path("/join", () -> {
-                get("/{other_node_ip}/{other_node_port}", ctx -> {
-                    String ip = ctx.pathParam("other_node_ip");
-                    int portNumber = Integer.parseInt(ctx.pathParam("other_node_port"));
-                    log.info("API: Joining node at {}:{}", ip, portNumber);
-                    myNode.join(ip, portNumber);
-                    ctx.result("Attempted to join node at " + ip + ":" + portNumber + "\n");
-                });
-            });
-            path("/start_election", () -> {
-                get("", ctx -> {
-                    log.info("API: Start Election request");
-                    myNode.startElection();
-                    ctx.result("Election started\n");
-                });
-            });
-            path("/check_leader", () -> {
-                get("", ctx -> {
-                    log.info("API: Check Leader request");
-                    myNode.checkLeader();
-                    ctx.result("Current leader: " + myNode.getNeighbours().getLeader() + "\n");
-                });
-            });
-            path("/send_message", () -> {
-                post("", ctx -> {
-                    String toNick = ctx.formParam("toNick");
-                    String message = ctx.formParam("message");
-                    log.info("API: Send Message to {}: {}", toNick, message);
-                    myNode.sendMessage(toNick, message);
-                    ctx.result("Message sent to " + toNick + "\n");
-                });
-            });
-            path("/leave", () -> {
-                get("", ctx -> {
-                    log.info("API: Leave network request");
-                    myNode.leaveNetwork();
-                    ctx.result("Node has left the network\n");
-                });
-            });
-            path("/kill", () -> {
-                get("", ctx -> {
-                    log.info("API: Kill node request");
-                    myNode.killNode();
-                    ctx.result("Node killed (unresponsive)\n");
-                });
-            });
-            path("/revive", () -> {
-                get("", ctx -> {
-                    log.info("API: Revive node request");
-                    myNode.reviveNode();
-                    ctx.result("Node has been revived\n");
-                });
-            });
-            path("/get_status", () -> {
-                get("", ctx -> {
-                    log.info("API: Get Status request");
-                    ctx.result(myNode.getStatus());
-                });
-            });
-            path("/stop_rmi", () -> {
-                get("", ctx -> {
-                    log.info("API: Stop RMI request");
-                    myNode.stopRMI();
-                    ctx.result("RMI stopped\n");
-                });
-            });
-            path("/start_rmi", () -> {
-                get("", ctx -> {
-                    log.info("API: Start RMI request");
-                    myNode.startRMI();
-                    ctx.result("RMI started\n");
-                });
-            });
-        }).start(port);
+        app = Javalin.create().routes(this::routes).start(port);
         log.info("API started on port {}", port);
     }
 
+    /**
+     * Defines the node's routes. Called inside a Javalin routes block, possibly nested in a
+     * <code>path</code> when a {@link NodeHost} serves several nodes under per-node prefixes.
+     */
+    public void routes() {
+        path("/join", () -> {
+            get("/{other_node_ip}/{other_node_port}", ctx -> {
+                String ip = ctx.pathParam("other_node_ip");
+                int portNumber = Integer.parseInt(ctx.pathParam("other_node_port"));
+                log.info("API: Joining node at {}:{}", ip, portNumber);
+                myNode.join(ip, portNumber);
+                ctx.result("Attempted to join node at " + ip + ":" + portNumber + "\n");
+            });
+        });
+        path("/start_election", () -> {
+            get("", ctx -> {
+                log.info("API: Start Election request");
+                myNode.startElection();
+                ctx.result("Election started\n");
+            });
+        });
+        path("/check_leader", () -> {
+            get("", ctx -> {
+                log.info("API: Check Leader request");
+                myNode.checkLeader();
+                ctx.result("Current leader: " + myNode.describeLeader() + "\n");
+            });
+        });
+        path("/send_message", () -> {
+            post("", ctx -> {
+                String toNick = ctx.formParam("toNick");
+                String message = ctx.formParam("message");
+                log.info("API: Send Message to {}: {}", toNick, message);
+                myNode.sendMessage(toNick, message);
+                ctx.result("Message sent to " + toNick + "\n");
+            });
+        });
+        path("/request", () -> {
+            post("", ctx -> {
+                String to = ctx.formParam("to");
+                String payload = ctx.formParam("payload");
+                String method = ctx.formParam("method");
+                String timeout = ctx.formParam("timeoutMs");
+                if (to == null || payload == null || (timeout != null && !timeout.matches("\\d{1,9}"))) {
+                    ctx.status(400).result("Usage: to=<nick>&payload=<payload>[&method=<method>][&timeoutMs=]\n");
+                    return;
+                }
+                log.info("API: Request {} to {}", method == null ? RequestReply.DEFAULT_METHOD : method, to);
+                try {
+                    ctx.result(myNode.request(to, method == null ? RequestReply.DEFAULT_METHOD : method, payload,
+                            timeout == null ? 0 : Long.parseLong(timeout)).get() + "\n");
+                } catch (ExecutionException e) {
+                    ctx.status(e.getCause() instanceof TimeoutException ? 504 : 502).result(e.getCause().getMessage() + "\n");
+                }
+            });
+        });
+        path("/rpc_stats", () -> {
+            get("", ctx -> {
+                log.info("API: RPC Stats request");
+                ctx.result(myNode.getRequestReply().getStats());
+            });
+        });
+        path("/bench_rpc", () -> {
+            get("", ctx -> {
+                String to = ctx.queryParam("to");
+                String count = ctx.queryParam("count");
+                String outstanding = ctx.queryParam("outstanding");
+                if (to == null) {
+                    ctx.status(400).result("Usage: to=<nick>[&count=][&outstanding=]\n");
+                    return;
+                }
+                ctx.result(myNode.getRequestReply().benchmark(to, count == null ? 10000 : Integer.parseInt(count),
+                        outstanding == null ? 256 : Integer.parseInt(outstanding)));
+            });
+        });
+        path("/shm_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Shared-memory Stats request");
+                ctx.result(myNode.getSharedMemory().getStats());
+            });
+        });
+        path("/bench_shm", () -> {
+            get("", ctx -> {
+                List<Address> targets = Node.parseSeeds(ctx.queryParam("to") == null ? "" : ctx.queryParam("to"));
+                String count = ctx.queryParam("count");
+                if (targets.size() != 1) {
+                    ctx.status(400).result("Usage: to=<ip:port>[&count=]\n");
+                    return;
+                }
+                ctx.result(myNode.getSharedMemory().benchmark(targets.get(0), count == null ? 10000 : Integer.parseInt(count)));
+            });
+        });
+        path("/send_ordered", () -> {
+            post("", ctx -> {
+                String message = ctx.formParam("message");
+                log.info("API: Send Ordered message: {}", message);
+                myNode.sendOrdered(message);
+                ctx.result("Ordered message queued\n");
+            });
+        });
+        path("/ordered_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Ordered Stats request");
+                ctx.result(myNode.getOrderedBroadcast().getStats());
+            });
+        });
+        path("/bench_ordered", () -> {
+            get("", ctx -> {
+                String countParam = ctx.queryParam("count");
+                int count = countParam == null ? 1000 : Integer.parseInt(countParam);
+                log.info("API: Ordered benchmark with {} messages", count);
+                ctx.result(myNode.getOrderedBroadcast().benchmark(count));
+            });
+        });
+        path("/leave", () -> {
+            get("", ctx -> {
+                log.info("API: Leave network request");
+                myNode.leaveNetwork();
+                ctx.result("Node has left the network\n");
+            });
+        });
+        path("/kill", () -> {
+            get("", ctx -> {
+                log.info("API: Kill node request");
+                myNode.killNode();
+                ctx.result("Node killed (unresponsive)\n");
+            });
+        });
+        path("/revive", () -> {
+            get("", ctx -> {
+                log.info("API: Revive node request");
+                myNode.reviveNode();
+                ctx.result("Node has been revived\n");
+            });
+        });
+        path("/get_status", () -> {
+            get("", ctx -> {
+                log.info("API: Get Status request");
+                ctx.result(myNode.getStatus());
+            });
+        });
+        path("/subscribe", () -> {
+            get("", ctx -> {
+                String topic = ctx.queryParam("topic");
+                log.info("API: Subscribe to {}", topic);
+                if (topic == null || topic.isEmpty()) {
+                    ctx.status(400).result("Usage: /subscribe?topic=<topic>\n");
+                    return;
+                }
+                myNode.subscribe(topic);
+                ctx.result("Subscribed to " + topic + "\n");
+            });
+        });
+        path("/unsubscribe", () -> {
+            get("", ctx -> {
+                String topic = ctx.queryParam("topic");
+                log.info("API: Unsubscribe from {}", topic);
+                if (topic == null || topic.isEmpty()) {
+                    ctx.status(400).result("Usage: /unsubscribe?topic=<topic>\n");
+                    return;
+                }
+                myNode.unsubscribe(topic);
+                ctx.result("Unsubscribed from " + topic + "\n");
+            });
+        });
+        path("/publish", () -> {
+            post("", ctx -> {
+                String topic = ctx.formParam("topic");
+                String message = ctx.formParam("message");
+                log.info("API: Publish to {}: {}", topic, message);
+                if (topic == null || message == null) {
+                    ctx.status(400).result("Usage: topic=<topic>&message=<message>\n");
+                    return;
+                }
+                int subscribers = myNode.publish(topic, message);
+                ctx.result("Published to " + Math.max(0, subscribers) + " subscribers of " + topic + "\n");
+            });
+        });
+        path("/topics", () -> {
+            get("", ctx -> {
+                log.info("API: Topics request");
+                ctx.result(myNode.getPubSub().getStats());
+            });
+        });
+        path("/admission_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Admission Stats request");
+                ctx.result(myNode.getAdmission().getStats());
+            });
+        });
+        path("/load", () -> {
+            get("", ctx -> {
+                int rate = Integer.parseInt(ctx.queryParam("rate") == null ? "1000" : ctx.queryParam("rate"));
+                int seconds = Integer.parseInt(ctx.queryParam("seconds") == null ? "10" : ctx.queryParam("seconds"));
+                int senders = Integer.parseInt(ctx.queryParam("senders") == null ? "64" : ctx.queryParam("senders"));
+                String mode = ctx.queryParam("mode") == null ? "message" : ctx.queryParam("mode");
+                log.info("API: Load test {} ops/s for {} s, {} senders, mode {}", rate, seconds, senders, mode);
+                ctx.result(new LoadGenerator(myNode).run(rate, seconds, senders, mode));
+            });
+        });
+        path("/groups", () -> {
+            get("", ctx -> {
+                log.info("API: Groups request");
+                ctx.result(myNode.getGroups().getStats());
+            });
+        });
+        path("/journal", () -> {
+            get("", ctx -> {
+                String since = ctx.queryParam("since");
+                String limit = ctx.queryParam("limit");
+                ctx.result(myNode.getJournal().recent(since == null ? -1 : Long.parseLong(since),
+                        limit == null ? 100 : Integer.parseInt(limit)));
+            });
+        });
+        path("/traces", () -> {
+            get("", ctx -> {
+                log.info("API: Traces request");
+                ctx.contentType("application/json");
+                ctx.result(myNode.getTracing().exportJson(ctx.queryParam("traceId")));
+            });
+        });
+        path("/watch", () -> {
+            get("", ctx -> {
+                String since = ctx.queryParam("since");
+                String timeout = ctx.queryParam("timeoutMs");
+                long cursor = since == null ? -1 : Long.parseLong(since);
+                long timeoutMs = timeout == null ? 30000 : Long.parseLong(timeout);
+                ctx.header("X-Version", String.valueOf(myNode.getChangeFeed().getVersion()));
+                ctx.future(myNode.getChangeFeed().await(cursor, timeoutMs));
+            });
+        });
+        sse("/watch_stream", client -> {
+            String lastId = client.ctx.header("Last-Event-ID");
+            String since = client.ctx.queryParam("since");
+            String cursor = lastId != null ? lastId : since;
+            log.info("API: Watch stream opened (cursor {})", cursor);
+            myNode.getChangeFeed().stream(client, cursor == null ? -1 : Long.parseLong(cursor));
+        });
+        path("/kv_put", () -> {
+            post("", ctx -> {
+                String key = ctx.formParam("key");
+                String value = ctx.formParam("value");
+                log.info("API: KV put {}", key);
+                if (key == null || value == null) {
+                    ctx.status(400).result("Usage: key=<key>&value=<value>\n");
+                    return;
+                }
+                int acks = myNode.getKvStore().put(key, value);
+                if (acks == 0) {
+                    ctx.status(503).result("No replica of " + key + " reachable\n");
+                } else {
+                    ctx.result("Stored " + key + " on " + acks + " replicas\n");
+                }
+            });
+        });
+        path("/kv_get", () -> {
+            get("", ctx -> {
+                String key = ctx.queryParam("key");
+                log.info("API: KV get {}", key);
+                String value = key == null ? null : myNode.getKvStore().get(key);
+                if (value == null) {
+                    ctx.status(404).result("Not found: " + key + "\n");
+                } else {
+                    ctx.result(value + "\n");
+                }
+            });
+        });
+        path("/kv_stats", () -> {
+            get("", ctx -> {
+                log.info("API: KV Stats request");
+                ctx.result(myNode.getKvStore().getStats());
+            });
+        });
+        path("/bench_kv", () -> {
+            get("", ctx -> {
+                String countParam = ctx.queryParam("count");
+                String threadsParam = ctx.queryParam("threads");
+                int count = countParam == null ? 10000 : Integer.parseInt(countParam);
+                int threads = threadsParam == null ? 16 : Integer.parseInt(threadsParam);
+                log.info("API: KV benchmark with {} keys, {} clients", count, threads);
+                ctx.result(myNode.getKvStore().benchmark(count, threads));
+            });
+        });
+        path("/log_append", () -> {
+            post("", ctx -> {
+                String entry = ctx.formParam("entry");
+                if (entry == null) {
+                    ctx.status(400).result("Usage: entry=<data>\n");
+                    return;
+                }
+                try {
+                    long index = myNode.getReplicatedLog().append(entry)
+                            .get(ReplicatedLog.APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    ctx.result("Committed at #" + index + "\n");
+                } catch (ExecutionException | TimeoutException e) {
+                    ctx.status(503).result("Not committed: " + (e.getCause() != null ? e.getCause().getMessage() : "timeout") + "\n");
+                }
+            });
+        });
+        path("/log_read", () -> {
+            get("", ctx -> {
+                String from = ctx.queryParam("from");
+                String limit = ctx.queryParam("limit");
+                StringBuilder sb = new StringBuilder();
+                for (LogEntry e : myNode.getReplicatedLog().read(from == null ? 1 : Long.parseLong(from),
+                        limit == null ? 100 : Integer.parseInt(limit), true)) {
+                    sb.append(e).append('\n');
+                }
+                ctx.result(sb.toString());
+            });
+        });
+        path("/log_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Log Stats request");
+                ctx.result(myNode.getReplicatedLog().getStats());
+            });
+        });
+        path("/bench_log", () -> {
+            get("", ctx -> {
+                String countParam = ctx.queryParam("count");
+                int count = countParam == null ? 10000 : Integer.parseInt(countParam);
+                log.info("API: Log benchmark with {} entries", count);
+                ctx.result(myNode.getReplicatedLog().benchmark(count));
+            });
+        });
+        path("/lock_acquire", () -> {
+            post("", ctx -> {
+                String name = ctx.formParam("name");
+                String owner = ctx.formParam("owner");
+                if (name == null || owner == null) {
+                    ctx.status(400).result("Usage: name=<lock>&owner=<owner>[&leaseMs=][&waitMs=]\n");
+                    return;
+                }
+                String lease = ctx.formParam("leaseMs");
+                String wait = ctx.formParam("waitMs");
+                log.info("API: Lock acquire {} by {}", name, owner);
+                LockGrant grant = myNode.getLockService().acquire(name, owner,
+                        lease == null ? 10000 : Long.parseLong(lease), wait == null ? 10000 : Long.parseLong(wait));
+                if (grant == null) {
+                    ctx.status(409).result("Lock " + name + " not acquired in time\n");
+                } else {
+                    ctx.result("Granted " + name + " to " + owner + ", token " + grant.getToken()
+                            + ", lease " + grant.getLeaseMs() + " ms\n");
+                }
+            });
+        });
+        path("/lock_renew", () -> {
+            post("", ctx -> {
+                String name = ctx.formParam("name");
+                String owner = ctx.formParam("owner");
+                String lease = ctx.formParam("leaseMs");
+                if (name == null || owner == null) {
+                    ctx.status(400).result("Usage: name=<lock>&owner=<owner>[&leaseMs=]\n");
+                    return;
+                }
+                if (myNode.getLockService().renew(name, owner, lease == null ? 10000 : Long.parseLong(lease))) {
+                    ctx.result("Renewed " + name + "\n");
+                } else {
+                    ctx.status(409).result("Lock " + name + " is not held by " + owner + "\n");
+                }
+            });
+        });
+        path("/lock_release", () -> {
+            post("", ctx -> {
+                String name = ctx.formParam("name");
+                String owner = ctx.formParam("owner");
+                if (name == null || owner == null) {
+                    ctx.status(400).result("Usage: name=<lock>&owner=<owner>\n");
+                    return;
+                }
+                log.info("API: Lock release {} by {}", name, owner);
+                if (myNode.getLockService().release(name, owner)) {
+                    ctx.result("Released " + name + "\n");
+                } else {
+                    ctx.status(409).result("Lock " + name + " is not held by " + owner + "\n");
+                }
+            });
+        });
+        path("/lock_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Lock Stats request");
+                ctx.result(myNode.getLockService().getStats());
+            });
+        });
+        path("/bench_lock", () -> {
+            get("", ctx -> {
+                String clients = ctx.queryParam("clients");
+                String locks = ctx.queryParam("locks");
+                String seconds = ctx.queryParam("seconds");
+                ctx.result(myNode.getLockService().benchmark(clients == null ? 16 : Integer.parseInt(clients),
+                        locks == null ? 1 : Integer.parseInt(locks), seconds == null ? 10 : Integer.parseInt(seconds)));
+            });
+        });
+        path("/next_id", () -> {
+            get("", ctx -> {
+                String count = ctx.queryParam("count");
+                int n = count == null ? 1 : Integer.parseInt(count);
+                if (n < 1 || n > 100000) {
+                    ctx.status(400).result("count must be between 1 and 100000\n");
+                    return;
+                }
+                StringBuilder sb = new StringBuilder();
+                try {
+                    for (int i = 0; i < n; i++) {
+                        sb.append(myNode.nextId()).append('\n');
+                    }
+                } catch (IllegalStateException e) {
+                    ctx.status(503).result(e.getMessage() + "\n");
+                    return;
+                }
+                ctx.result(sb.toString());
+            });
+        });
+        path("/crdt_add", () -> {
+            post("", ctx -> {
+                String name = ctx.formParam("name");
+                String delta = ctx.formParam("delta");
+                String type = ctx.formParam("type");
+                if (name == null || (delta != null && !delta.matches("-?\\d{1,18}"))) {
+                    ctx.status(400).result("Usage: name=<counter>[&delta=<n>][&type=pn|g]\n");
+                    return;
+                }
+                CrdtStore.Kind kind = "g".equals(type) ? CrdtStore.Kind.G_COUNTER : CrdtStore.Kind.PN_COUNTER;
+                try {
+                    ctx.result(myNode.getCrdtStore().add(name, kind, delta == null ? 1 : Long.parseLong(delta)) + "\n");
+                } catch (IllegalArgumentException e) {
+                    ctx.status(409).result(e.getMessage() + "\n");
+                }
+            });
+        });
+        path("/crdt_set_add", () -> {
+            post("", ctx -> {
+                String name = ctx.formParam("name");
+                String element = ctx.formParam("element");
+                if (name == null || element == null) {
+                    ctx.status(400).result("Usage: name=<set>&element=<element>\n");
+                    return;
+                }
+                try {
+                    myNode.getCrdtStore().addElement(name, element);
+                    ctx.result("Added " + element + " to " + name + "\n");
+                } catch (IllegalArgumentException e) {
+                    ctx.status(409).result(e.getMessage() + "\n");
+                }
+            });
+        });
+        path("/crdt_set_remove", () -> {
+            post("", ctx -> {
+                String name = ctx.formParam("name");
+                String element = ctx.formParam("element");
+                if (name == null || element == null) {
+                    ctx.status(400).result("Usage: name=<set>&element=<element>\n");
+                    return;
+                }
+                try {
+                    ctx.result(myNode.getCrdtStore().removeElement(name, element)
+                            ? "Removed " + element + " from " + name + "\n" : element + " is not in " + name + "\n");
+                } catch (IllegalArgumentException e) {
+                    ctx.status(409).result(e.getMessage() + "\n");
+                }
+            });
+        });
+        path("/crdt_get", () -> {
+            get("", ctx -> {
+                String name = ctx.queryParam("name");
+                String value = name == null ? null : myNode.getCrdtStore().read(name);
+                if (value == null) {
+                    ctx.status(404).result("Not found: " + name + "\n");
+                } else {
+                    ctx.result(value.endsWith("\n") || value.isEmpty() ? value : value + "\n");
+                }
+            });
+        });
+        path("/crdt_stats", () -> {
+            get("", ctx -> {
+                log.info("API: CRDT Stats request");
+                ctx.result(myNode.getCrdtStore().getStats());
+            });
+        });
+        path("/bench_crdt", () -> {
+            get("", ctx -> {
+                String updates = ctx.queryParam("updates");
+                ctx.result(myNode.getCrdtStore().benchmark(updates == null ? 10000 : Integer.parseInt(updates)));
+            });
+        });
+        path("/id_stats", () -> {
+            get("", ctx -> {
+                log.info("API: ID Stats request");
+                ctx.result(myNode.getIdService().getStats());
+            });
+        });
+        path("/bench_ids", () -> {
+            get("", ctx -> {
+                String threads = ctx.queryParam("threads");
+                String seconds = ctx.queryParam("seconds");
+                ctx.result(myNode.getIdService().benchmark(threads == null ? 4 : Integer.parseInt(threads),
+                        seconds == null ? 5 : Integer.parseInt(seconds)));
+            });
+        });
+        path("/delivery_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Delivery Stats request");
+                ctx.result(myNode.getDeliveryStats());
+            });
+        });
+        path("/send_file", () -> {
+            post("", ctx -> {
+                String to = ctx.formParam("to");
+                String filePath = ctx.formParam("path");
+                log.info("API: Send File {} to {}", filePath, to);
+                List<Address> targets = Node.parseSeeds(to == null ? "" : to);
+                String id = targets.size() == 1 && filePath != null
+                        ? myNode.sendFile(targets.get(0), filePath) : null;
+                if (id == null) {
+                    ctx.status(400).result("Usage: to=<ip:port>&path=<file in the outbox>\n");
+                } else {
+                    ctx.result("Transfer " + id + " started\n");
+                }
+            });
+        });
+        path("/transfer_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Transfer Stats request");
+                ctx.result(myNode.getFileTransfer().getStats());
+            });
+        });
+        path("/tree_stats", () -> {
+            get("", ctx -> {
+                log.info("API: Tree Stats request");
+                ctx.result(myNode.getTreeDissemination().getStats());
+            });
+        });
+        path("/stop_rmi", () -> {
+            get("", ctx -> {
+                log.info("API: Stop RMI request");
+                myNode.stopRMI();
+                ctx.result("RMI stopped\n");
+            });
+        });
+        path("/start_rmi", () -> {
+            get("", ctx -> {
+                log.info("API: Start RMI request");
+                myNode.startRMI();
+                ctx.result("RMI started\n");
+            });
+        });
+        path("/partition", () -> {
+            get("", ctx -> {
+                String nodes = ctx.queryParam("nodes");
+                log.info("API: Partition from {}", nodes);
+                myNode.partition(Node.parseSeeds(nodes == null ? "" : nodes));
+                ctx.result("Partitioned from " + nodes + "\n");
+            });
+        });
+        path("/heal", () -> {
+            get("", ctx -> {
+                log.info("API: Heal partition request");
+                myNode.heal();
+                ctx.result("Partition healed\n");
+            });
+        });
+    }
+
     @Override
     public void run() {
         start();
@@ -0,0 +1,187 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.RateLimitedException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-sender, per-operation rate limiting of inbound RMI calls.
+ *
+ * <p>{@link MessageReceiver} asks for admission before it does any work for a call. The sender is taken
+ * from the transport the call arrived on, see {@link CallerIdentity}, never from the call's arguments, so a
+ * flooder cannot dodge its limit by naming someone else. Every (sender, operation type) pair has its own
+ * {@link TokenBucket}, configured per type with <code>dsva.limit.&lt;type&gt;.rate</code> (tokens per second)
+ * and <code>dsva.limit.&lt;type&gt;.burst</code>. All senders on one host also share a bucket
+ * <code>dsva.limit.hostFactor</code> times as large, so opening more connections does not multiply the budget.
+ * A call over the limit fails fast with a {@link RateLimitedException} carrying a retry hint, so a
+ * flooding sender is throttled without starving the others, and the node keeps serving
+ * elections while messages are rejected. Limits are enabled with <code>dsva.limit.enabled</code>.
+ *
+ * <p>A sender whose buckets have all refilled is forgotten, since fresh buckets would behave the same.
+ * Idle senders are swept every {@value #SWEEP_MS} ms and whenever more than <code>dsva.limit.maxSenders</code>
+ * are tracked; while that many are busy, new senders share one overflow bucket.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class AdmissionControl {
+    public static final long SWEEP_MS = 10_000;
+    private static final String OVERFLOW = "overflow";
+
+    /**
+     * Groups of calls limited together.
+     */
+    public enum Operation {
+        MESSAGE(5000, 10000),
+        ELECTION(100, 200),
+        MEMBERSHIP(200, 400),
+        DATA(20000, 40000),
+        BULK(400, 800);
+
+        private final double defaultRate;
+        private final int defaultBurst;
+
+        Operation(double defaultRate, int defaultBurst) {
+            this.defaultRate = defaultRate;
+            this.defaultBurst = defaultBurst;
+        }
+    }
+
+    private final boolean enabled;
+    private final int hostFactor;
+    private final int maxSenders;
+    private final Map<Operation, double[]> limits = new EnumMap<>(Operation.class);
+    private final Map<String, Sender> senders = new ConcurrentHashMap<>();
+    private final Map<Operation, LongAdder> admitted = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> rejected = new EnumMap<>(Operation.class);
+    private final LongAdder evicted = new LongAdder();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Reads the limits from the configuration.
+     */
+    public AdmissionControl() {
+        this.enabled = Config.getBoolean("dsva.limit.enabled", true);
+        this.hostFactor = Math.max(1, Config.getInt("dsva.limit.hostFactor", 16));
+        this.maxSenders = Math.max(16, Config.getInt("dsva.limit.maxSenders", 4096));
+        for (Operation op : Operation.values()) {
+            String key = "dsva.limit." + op.name().toLowerCase();
+            double rate = Config.getLong(key + ".rate", (long) op.defaultRate);
+            double burst = Config.getLong(key + ".burst", op.defaultBurst);
+            limits.put(op, new double[]{rate, burst});
+            admitted.put(op, new LongAdder());
+            rejected.put(op, new LongAdder());
+        }
+    }
+
+    /**
+     * Admits the call the current thread serves or rejects it.
+     *
+     * @param op The type of the call.
+     * @throws RateLimitedException If the caller or its host exceeded the limit for this type of call.
+     */
+    public void admit(Operation op) throws RateLimitedException {
+        if (!enabled) {
+            return;
+        }
+        CallerIdentity caller = CallerIdentity.current();
+        take(op, sender(caller.getSender(), 1), caller.getSender());
+        if (caller.getHost() != null) {
+            take(op, sender(caller.getHost(), hostFactor), caller.getHost());
+        }
+        admitted.get(op).increment();
+    }
+
+    private void take(Operation op, Sender sender, String name) throws RateLimitedException {
+        long retryAfter = sender.buckets.get(op).tryAcquire();
+        if (retryAfter != 0) {
+            rejected.get(op).increment();
+            sender.rejected.increment();
+            throw new RateLimitedException(op + " rate limit exceeded for " + name, retryAfter);
+        }
+    }
+
+    private Sender sender(String name, int factor) {
+        Sender sender = senders.get(name);
+        if (sender != null) {
+            return sender;
+        }
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if ((senders.size() >= maxSenders || now - last >= SWEEP_MS) && lastSweep.compareAndSet(last, now)) {
+            sweep();
+        }
+        if (senders.size() >= maxSenders) {
+            name = OVERFLOW;
+        }
+        return senders.computeIfAbsent(name, k -> new Sender(factor));
+    }
+
+    /**
+     * Forgets the senders whose buckets have all refilled.
+     */
+    private void sweep() {
+        int before = senders.size();
+        senders.values().removeIf(Sender::isIdle);
+        int removed = before - senders.size();
+        if (removed > 0) {
+            evicted.add(removed);
+            log.debug("Admission control forgot {} idle senders, {} tracked", removed, senders.size());
+        }
+    }
+
+    /**
+     * Returns the admission counters.
+     *
+     * @return A human-readable summary per operation type and per rejected sender still tracked.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("Admission control (" + (enabled ? "enabled" : "disabled") + "):\n");
+        for (Operation op : Operation.values()) {
+            double[] limit = limits.get(op);
+            sb.append(String.format(" %-10s %8.0f/s burst %6.0f  admitted %d, rejected %d%n", op, limit[0], limit[1],
+                    admitted.get(op).sum(), rejected.get(op).sum()));
+        }
+        sb.append(" Senders:   ").append(senders.size()).append(" tracked (max ").append(maxSenders)
+                .append("), ").append(evicted.sum()).append(" forgotten\n");
+        for (Map.Entry<String, Sender> e : new TreeMap<>(senders).entrySet()) {
+            long count = e.getValue().rejected.sum();
+            if (count > 0) {
+                sb.append(" Rejected from ").append(e.getKey()).append(": ").append(count).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The buckets of one sender or host.
+     */
+    private final class Sender {
+        private final Map<Operation, TokenBucket> buckets = new EnumMap<>(Operation.class);
+        private final LongAdder rejected = new LongAdder();
+
+        private Sender(int factor) {
+            for (Operation op : Operation.values()) {
+                double[] limit = limits.get(op);
+                buckets.put(op, new TokenBucket(limit[0] * factor, (int) limit[1] * factor));
+            }
+        }
+
+        private boolean isIdle() {
+            for (TokenBucket bucket : buckets.values()) {
+                if (!bucket.isFull()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import lombok.Getter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+
+/**
+ * Identifies who made the inbound call being served, from the transport it arrived on rather than from
+ * its arguments, for {@link AdmissionControl}.
+ *
+ * <p>The identity depends on the path of the call:
+ * <ul>
+ *     <li><b>RMI</b>: the calling process at the connection's address, <code>rmi:&lt;ip&gt;/&lt;process&gt;</code>,
+ *     so nodes on one host are told apart. The receivers are exported with {@link #CLIENT_SOCKETS}, which
+ *     open each connection with a short preamble naming the calling process, and {@link #SOCKETS}, whose
+ *     sockets read it and note it on the RMI thread that reads the calls. RMI drops a connection after every
+ *     exception a call throws, so the connection itself would be a new sender after each rejection. A
+ *     connection without the preamble is <code>tcp:&lt;ip&gt;:&lt;port&gt;</code>. The host is
+ *     <code>host:&lt;ip&gt;</code>, which also caps a caller that makes up new process names.</li>
+ *     <li><b>Shared memory</b>: the ring file the call came through, <code>shm:&lt;port&gt;</code>; the host
+ *     is <code>shm</code>.</li>
+ *     <li><b>In-process</b>: the calling node of the same {@link NodeHost}, <code>local:&lt;address&gt;</code>,
+ *     noted by the proxy from {@link #inProcess}. Calls within one process are not limited per host.</li>
+ * </ul>
+ * An RMI call over another socket is <code>host:&lt;ip&gt;</code>, and a call that none of these noted, e.g. one
+ * a node makes to itself, is <code>local</code>.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public final class CallerIdentity {
+    /**
+     * Server sockets for the exported receivers that record the connection of each call.
+     */
+    public static final RMIServerSocketFactory SOCKETS = new ConnectionSockets();
+    /**
+     * Client sockets for the exported receivers that introduce the calling process.
+     */
+    public static final RMIClientSocketFactory CLIENT_SOCKETS = new IntroducingSockets();
+
+    private static final int PREAMBLE = 0xD5;
+
+    private static final ThreadLocal<String> IN_PROCESS = new ThreadLocal<>();
+    private static final ThreadLocal<String> CONNECTION = new ThreadLocal<>();
+    private static final CallerIdentity LOCAL = new CallerIdentity("local", null);
+
+    private final String sender;
+    /**
+     * The group of senders limited together, or {@code null} if the sender is not limited per host.
+     */
+    private final String host;
+
+    private CallerIdentity(String sender, String host) {
+        this.sender = sender;
+        this.host = host;
+    }
+
+    /**
+     * Returns the caller of the call the current thread serves.
+     *
+     * @return The caller's identity.
+     */
+    public static CallerIdentity current() {
+        String local = IN_PROCESS.get();
+        if (local != null) {
+            return new CallerIdentity(local, null);
+        }
+        String peer = SharedMemoryTransport.servingPeer();
+        if (peer != null) {
+            return new CallerIdentity(peer, "shm");
+        }
+        String connection = CONNECTION.get();
+        if (connection != null) {
+            int end = connection.startsWith("rmi:") ? connection.indexOf('/') : connection.lastIndexOf(':');
+            return new CallerIdentity(connection, "host:" + connection.substring(4, end));
+        }
+        try {
+            return new CallerIdentity("host:" + RemoteServer.getClientHost(), null);
+        } catch (ServerNotActiveException e) {
+            return LOCAL;
+        }
+    }
+
+    /**
+     * Wraps the receiver of a co-hosted node so that it sees the calls as coming from the given node.
+     *
+     * @param target The receiver.
+     * @param iface  The remote interface to implement.
+     * @param caller The calling node.
+     * @param <T>    The type of the remote interface.
+     * @return The wrapping proxy.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T inProcess(final T target, Class<T> iface, Address caller) {
+        final String id = "local:" + caller;
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, (proxy, method, args) -> {
+            String previous = IN_PROCESS.get();
+            IN_PROCESS.set(id);
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (previous == null) {
+                    IN_PROCESS.remove();
+                } else {
+                    IN_PROCESS.set(previous);
+                }
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return sender;
+    }
+
+    /**
+     * Runs in the calling process and sends the preamble before RMI's own protocol starts.
+     */
+    private static final class IntroducingSockets implements RMIClientSocketFactory, Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final byte[] INTRODUCTION = introduction();
+
+        private static byte[] introduction() {
+            // "<pid>@<hostname>" on the usual JVMs
+            byte[] name = ManagementFactory.getRuntimeMXBean().getName().getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(name.length, 255);
+            byte[] bytes = new byte[2 + length];
+            bytes[0] = (byte) PREAMBLE;
+            bytes[1] = (byte) length;
+            System.arraycopy(name, 0, bytes, 2, length);
+            return bytes;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            Socket socket = new Socket(host, port);
+            OutputStream out = socket.getOutputStream();
+            out.write(INTRODUCTION);
+            out.flush();
+            return socket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntroducingSockets;
+        }
+
+        @Override
+        public int hashCode() {
+            return IntroducingSockets.class.hashCode();
+        }
+    }
+
+    /**
+     * RMI reads each call from its connection on the thread that then runs it, so a read notes the
+     * caller for that thread.
+     */
+    private static final class ConnectionSockets implements RMIServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return new ServerSocket(port) {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = new ConnectionSocket();
+                    implAccept(socket);
+                    return socket;
+                }
+            };
+        }
+
+        // One instance is shared by all exports, so RMI can reuse its listening sockets
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ConnectionSockets;
+        }
+
+        @Override
+        public int hashCode() {
+            return ConnectionSockets.class.hashCode();
+        }
+    }
+
+    private static final class ConnectionSocket extends Socket {
+        private InputStream in;
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new CallerStream(this, new PushbackInputStream(super.getInputStream()));
+            }
+            return in;
+        }
+    }
+
+    /**
+     * Reads the preamble, if the connection starts with one, before the first read RMI asks for.
+     */
+    private static final class CallerStream extends FilterInputStream {
+        private final Socket socket;
+        private String id;
+
+        private CallerStream(Socket socket, PushbackInputStream in) {
+            super(in);
+            this.socket = socket;
+        }
+
+        private void noteCaller() throws IOException {
+            if (id == null) {
+                String ip = socket.getInetAddress().getHostAddress();
+                id = "tcp:" + ip + ":" + socket.getPort();
+                int first = in.read();
+                if (first == PREAMBLE) {
+                    int length = in.read();
+                    byte[] name = new byte[Math.max(0, length)];
+                    int read = 0;
+                    while (read < name.length) {
+                        int n = in.read(name, read, name.length - read);
+                        if (n < 0) {
+                            break;
+                        }
+                        read += n;
+                    }
+                    id = "rmi:" + ip + "/" + new String(name, 0, read, StandardCharsets.UTF_8);
+                } else if (first >= 0) {
+                    ((PushbackInputStream) in).unread(first);
+                }
+            }
+            CONNECTION.set(id);
+        }
+
+        @Override
+        public int read() throws IOException {
+            noteCaller();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            noteCaller();
+            return super.read(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import io.javalin.http.sse.SseClient;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stream of leader and membership changes of this node, served to HTTP watchers.
+ *
+ * <p>Changes (leader announcements, joins, leaves, kills and revives) are appended to one shared
+ * ring buffer of {@link #CAPACITY} events, each stamped with an increasing version. Watchers keep
+ * only a cursor into that buffer:
+ * <ul>
+ *     <li><b>Long-poll</b>: a request with <code>since=&lt;version&gt;</code> returns the newer events
+ *     at once, or parks (without holding a thread) until the next change or a timeout.</li>
+ *     <li><b>Server-Sent Events</b>: an open stream gets every new event pushed as it happens,
+ *     with the version as event ID, so a reconnecting client resumes with <code>Last-Event-ID</code>.</li>
+ * </ul>
+ * A watcher whose cursor fell out of the buffer gets a <code>RESET</code> event first and should
+ * re-read the full state.
+ *
+ * <p>{@link #publish(String, Address)} runs on the node's state thread; waiters are completed on the I/O executor.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class ChangeFeed {
+    public static final int CAPACITY = 1024;
+
+    private final Node node;
+    private final String[] buffer = new String[CAPACITY];
+    private volatile long version = 0;
+    private final Map<CompletableFuture<String>, Long> waiters = new ConcurrentHashMap<>();
+    private final List<SseClient> streams = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs the change feed for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public ChangeFeed(Node node) {
+        this.node = node;
+    }
+
+    /**
+     * Appends a change and wakes up all watchers.
+     *
+     * @param type    The kind of change, e.g. <code>LEADER</code> or <code>JOIN</code>.
+     * @param subject The node the change is about.
+     */
+    public void publish(String type, Address subject) {
+        final String line;
+        synchronized (this) {
+            long v = version + 1;
+            line = v + " " + System.currentTimeMillis() + " " + type + " " + subject
+                    + " leader=" + node.getNeighbours().getLeader();
+            buffer[(int) (v % CAPACITY)] = line;
+            version = v;
+        }
+        if (waiters.isEmpty() && streams.isEmpty()) {
+            return;
+        }
+        node.getEventLoop().runIo(this::dispatch);
+    }
+
+    private void dispatch() {
+        Iterator<Map.Entry<CompletableFuture<String>, Long>> it = waiters.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<CompletableFuture<String>, Long> w = it.next();
+            if (w.getValue() < version) {
+                it.remove();
+                w.getKey().complete(render(since(w.getValue())));
+            }
+        }
+        for (SseClient client : streams) {
+            Long cursor = (Long) client.ctx.attribute("cursor");
+            push(client, cursor == null ? version - 1 : cursor);
+        }
+    }
+
+    /**
+     * Returns the events after a cursor.
+     *
+     * @param cursor The last version the caller has seen.
+     * @return The newer events in order, preceded by a <code>RESET</code> line if some were already overwritten.
+     */
+    public synchronized List<String> since(long cursor) {
+        List<String> events = new ArrayList<>();
+        long from = cursor + 1;
+        if (version - cursor > CAPACITY) {
+            events.add(version + " " + System.currentTimeMillis() + " RESET " + node.getAddress()
+                    + " leader=" + node.getNeighbours().getLeader());
+            from = version - CAPACITY + 1;
+        }
+        for (long v = Math.max(1, from); v <= version; v++) {
+            events.add(buffer[(int) (v % CAPACITY)]);
+        }
+        return events;
+    }
+
+    /**
+     * Waits for events after a cursor without blocking the caller.
+     *
+     * @param cursor    The last version the caller has seen; a negative value means "from now on".
+     * @param timeoutMs How long to wait for a change.
+     * @return A future with the events (one per line), completed at once if there are newer events,
+     *         or with an empty result on timeout.
+     */
+    public CompletableFuture<String> await(long cursor, long timeoutMs) {
+        final long from = cursor < 0 ? version : cursor;
+        final CompletableFuture<String> f = new CompletableFuture<>();
+        if (from < version) {
+            f.complete(render(since(from)));
+            return f;
+        }
+        waiters.put(f, from);
+        if (from < version && waiters.remove(f) != null) {
+            f.complete(render(since(from)));
+            return f;
+        }
+        node.getEventLoop().getTimer().schedule(() -> {
+            if (waiters.remove(f) != null) {
+                f.complete("");
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return f;
+    }
+
+    /**
+     * Registers a Server-Sent Events client and replays the events it missed.
+     *
+     * @param client The connected client.
+     * @param cursor The last version the client has seen; a negative value means "from now on".
+     */
+    public void stream(final SseClient client, long cursor) {
+        client.ctx.attribute("cursor", cursor < 0 ? version : cursor);
+        client.onClose(() -> streams.remove(client));
+        streams.add(client);
+        client.sendComment("version " + version);
+        push(client, (Long) client.ctx.attribute("cursor"));
+    }
+
+    private void push(SseClient client, long cursor) {
+        synchronized (client) {
+            Long current = (Long) client.ctx.attribute("cursor");
+            long from = current == null ? cursor : Math.max(cursor, current);
+            for (String line : since(from)) {
+                String[] parts = line.split(" ", 4);
+                client.sendEvent(parts[2], line, parts[0]);
+                from = Math.max(from, Long.parseLong(parts[0]));
+            }
+            client.ctx.attribute("cursor", from);
+        }
+    }
+
+    private static String render(List<String> events) {
+        StringBuilder sb = new StringBuilder();
+        for (String e : events) {
+            sb.append(e).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -1,8 +1,11 @@
 package cz.cvut.fel.dsva;
 
 import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.ControlCommands;
 import cz.cvut.fel.dsva.base.DSNeighbours;
 import cz.cvut.fel.dsva.base.NodeCommands;
+import cz.cvut.fel.dsva.base.RateLimitedException;
+import cz.cvut.fel.dsva.base.TreeMessage;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -11,15 +14,21 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages all communication between nodes, including sending and receiving messages,
  * handling elections, and notifying nodes of changes in the network.
  *
  * <p>This class abstracts the complexity of RMI communication, providing methods
- * to interact with other nodes seamlessly.
+ * to interact with other nodes seamlessly. Its methods block on the network and are
+ * meant to run on the I/O executor of the node's {@link NodeEventLoop}.
  *
  * <p>Key functionalities include:
  * <ul>
@@ -37,6 +46,18 @@ import java.util.Set;
 @Setter
 public class CommunicationHub {
     private final Node node;
+    /**
+     * Next message sequence number per destination, so receivers can drop duplicates of retried calls.
+     */
+    private final Map<Address, AtomicLong> outboundSequences = new ConcurrentHashMap<>();
+    /**
+     * Nodes this node refuses to call, used to simulate network partitions in tests.
+     */
+    private final Set<Address> blocked = ConcurrentHashMap.newKeySet();
+    /**
+     * Number of ELECTION, OK and leader announcement calls sent, to measure the cost of a failover.
+     */
+    private final LongAdder electionMessages = new LongAdder();
 
     /**
      * Constructs a CommunicationHub associated with the given node.
@@ -49,35 +70,127 @@ public class CommunicationHub {
 
     /**
      * Retrieves the RMI proxy for a given node address.
+     * A node in the same {@link NodeHost} is called in-process, without serialization,
+     * and a node in another process on this host through the {@link SharedMemoryTransport}.
      *
      * @param addr The address of the node to connect to.
      * @return The {@link NodeCommands} proxy for the specified node.
      * @throws RemoteException If an RMI error occurs or the node is not bound.
      */
-    public NodeCommands getProxy(Address addr) throws RemoteException {
+    public NodeCommands getProxy(final Address addr) throws RemoteException {
         // If attempting to connect to self
         if (addr.compareTo(node.getAddress()) == 0) {
             return node.getMessageReceiver();
         }
+        if (blocked.contains(addr)) {
+            throw new RemoteException("Partitioned from " + addr);
+        }
+        NodeCommands local = coHosted(addr);
+        if (local != null) {
+            return node.getTracing().instrument(CallerIdentity.inProcess(local, NodeCommands.class, node.getAddress()),
+                    NodeCommands.class, addr);
+        }
+        NodeCommands shared = node.getSharedMemory().proxy(addr, NodeCommands.class, () -> getRmiProxy(addr));
+        return shared != null ? shared : getRmiProxy(addr);
+    }
+
+    /**
+     * Looks up the RMI stub of a node in its registry, bypassing the in-process and shared-memory paths.
+     *
+     * @param addr The address of the node to connect to.
+     * @return The {@link NodeCommands} stub for the specified node.
+     * @throws RemoteException If an RMI error occurs or the node is not bound.
+     */
+    public NodeCommands getRmiProxy(Address addr) throws RemoteException {
         try {
-            Registry registry = LocateRegistry.getRegistry(addr.getHostname(), addr.getPort());
-            return (NodeCommands) registry.lookup(Node.COMM_INTERFACE_NAME);
+            Registry registry = LocateRegistry.getRegistry(addr.getHostname(), addr.getRegistryPort());
+            return node.getTracing().instrument((NodeCommands) registry.lookup(
+                    Node.bindingName(Node.COMM_INTERFACE_NAME, addr.getPort())), NodeCommands.class, addr);
         } catch (NotBoundException e) {
             throw new RemoteException("Node " + addr + " not bound: " + e.getMessage());
         }
     }
 
+    /**
+     * Retrieves the control-plane RMI proxy for a given node address.
+     *
+     * <p>The control endpoint is exported on its own port with its own connections, so election
+     * and membership calls do not share sockets with data-plane traffic. Nodes that do not
+     * export it are reached through the regular endpoint instead. Like {@link #getProxy(Address)},
+     * calls to a node in the same {@link NodeHost} do not leave the process, and calls to another
+     * process on this host go through shared memory.
+     *
+     * @param addr The address of the node to connect to.
+     * @return The {@link ControlCommands} proxy for the specified node.
+     * @throws RemoteException If an RMI error occurs or the node is not bound.
+     */
+    public ControlCommands getControlProxy(final Address addr) throws RemoteException {
+        if (addr.compareTo(node.getAddress()) == 0) {
+            return node.getMessageReceiver();
+        }
+        if (blocked.contains(addr)) {
+            throw new RemoteException("Partitioned from " + addr);
+        }
+        NodeCommands local = coHosted(addr);
+        if (local != null) {
+            return node.getTracing().instrument(CallerIdentity.inProcess(local, ControlCommands.class, node.getAddress()),
+                    ControlCommands.class, addr);
+        }
+        ControlCommands shared = node.getSharedMemory().proxy(addr, ControlCommands.class, () -> getRmiControlProxy(addr));
+        return shared != null ? shared : getRmiControlProxy(addr);
+    }
+
+    private ControlCommands getRmiControlProxy(Address addr) throws RemoteException {
+        try {
+            Registry registry = LocateRegistry.getRegistry(addr.getHostname(), addr.getRegistryPort());
+            return node.getTracing().instrument((ControlCommands) registry.lookup(
+                    Node.bindingName(Node.CONTROL_INTERFACE_NAME, addr.getPort())), ControlCommands.class, addr);
+        } catch (NotBoundException e) {
+            return getRmiProxy(addr);
+        }
+    }
+
+    /**
+     * Returns the receiver of a node running in the same {@link NodeHost}, so that calls to it
+     * short-circuit in-process instead of going through RMI.
+     *
+     * @param addr The address of the called node.
+     * @return The node's receiver, or {@code null} if the node is not co-hosted.
+     * @throws RemoteException If the node is co-hosted but its RMI is stopped (e.g. it was killed).
+     */
+    private NodeCommands coHosted(Address addr) throws RemoteException {
+        NodeHost host = node.getHost();
+        Node peer = host == null ? null : host.find(addr);
+        if (peer == null) {
+            return null;
+        }
+        NodeCommands receiver = peer.getMessageReceiver();
+        if (receiver == null) {
+            throw new RemoteException("Node " + addr + " not bound");
+        }
+        return receiver;
+    }
+
     /**
      * Broadcasts the addition of a new node to all known neighbors.
      *
+     * <p>In tree mode the notification is disseminated along a spanning tree instead,
+     * see {@link TreeDissemination}.
+     *
      * @param newAddr The address of the new node to broadcast.
      */
     public void broadcastNewNode(Address newAddr) {
         DSNeighbours ds = node.getNeighbours();
+        if (node.isTreeMode()) {
+            Set<Address> targets = new HashSet<>(ds.getKnownNodes());
+            targets.remove(newAddr);
+            node.getTreeDissemination().disseminate(TreeMessage.newNode(newAddr), targets);
+            return;
+        }
         for (Address a : ds.getKnownNodes()) {
             if (!a.equals(newAddr)) {
                 try {
-                    NodeCommands proxy = getProxy(a);
+                    ControlCommands proxy = getControlProxy(a);
                     proxy.broadcastNewNode(newAddr);
                     log.info("Broadcasted new node {} to {}", newAddr, a);
                 } catch (RemoteException e) {
@@ -89,21 +202,47 @@ public class CommunicationHub {
 
     /**
      * Sends an election request to all nodes with a higher ID.
+     *
+     * <p>A node that rejects the request as rate limited is alive: the request is retried after the hinted
+     * delay, and if it is still rejected, the rejection counts as an OK, so this node does not declare itself
+     * leader over a live node with a higher ID.
+     *
+     * @param term    The election term of the request.
+     * @param preempt Whether the election may replace a live leader.
      */
-    public void sendElectionToBiggerNodes() {
+    public void sendElectionToBiggerNodes(long term, boolean preempt) {
         DSNeighbours ds = node.getNeighbours();
         for (Address a : ds.getKnownNodes()) {
             if (a.compareTo(node.getAddress()) != 0) {
                 long theirId = node.computeId(a.getHostname(), a.getPort());
                 if (theirId > node.getNodeId() && node.isActive()) {
-                    try {
-                        NodeCommands proxy = getProxy(a);
-                        proxy.startElection(node.getNodeId());
-                        log.info("Sent startElection to {}", a);
-                    } catch (RemoteException e) {
-                        log.error("Error sending startElection to {}: {}", a, e.getMessage());
-                    }
+                    sendElection(a, theirId, term, preempt);
+                }
+            }
+        }
+    }
+
+    private void sendElection(Address a, long theirId, long term, boolean preempt) {
+        int MAX_ATTEMPTS = 3;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                ControlCommands proxy = getControlProxy(a);
+                electionMessages.increment();
+                proxy.startElection(term, node.getNodeId(), preempt);
+                log.info("Sent startElection (term {}) to {}", term, a);
+                return;
+            } catch (RemoteException e) {
+                RateLimitedException rejected = RateLimitedException.find(e);
+                if (rejected == null) {
+                    log.error("Error sending startElection to {}: {}", a, e.getMessage());
+                    return;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    log.warn("startElection (term {}) to {} rate limited; counting it as an OK.", term, a);
+                    node.getEventLoop().submitControl(() -> node.onOkReceived(term, theirId));
+                    return;
                 }
+                sleepQuietly(rejected.getRetryAfterMs());
             }
         }
     }
@@ -113,13 +252,13 @@ public class CommunicationHub {
      * is no longer active.
      *
      * @param killedNode The address of the node that has been killed
+     * @param targets    The nodes to notify, captured before the local state was cleared.
      */
-    public void notifyKill(Address killedNode) {
-        DSNeighbours ds = node.getNeighbours();
-        for (Address a : ds.getKnownNodes()) {
+    public void notifyKill(Address killedNode, Collection<Address> targets) {
+        for (Address a : targets) {
             if (!a.equals(killedNode)) {
                 try {
-                    NodeCommands proxy = getProxy(a);
+                    ControlCommands proxy = getControlProxy(a);
                     proxy.killNode(killedNode);
                     log.info("Notified {} that node was killed {}", a, killedNode);
                 } catch (RemoteException e) {
@@ -132,17 +271,19 @@ public class CommunicationHub {
     /**
      * Sends an OK response to the candidate initiating an election.
      *
+     * @param term        The term this node is in, which may be newer than the candidate's.
      * @param candidateId The ID of the node that initiated the election.
      */
-    public void sendRespondOk(long candidateId) {
+    public void sendRespondOk(long term, long candidateId) {
         DSNeighbours ds = node.getNeighbours();
         for (Address a : ds.getKnownNodes()) {
             long theirId = node.computeId(a.getHostname(), a.getPort());
             if (theirId == candidateId) {
                 try {
-                    NodeCommands proxy = getProxy(a);
-                    proxy.respondOk(node.getNodeId());
-                    log.info("Sent respondOk to {}", a);
+                    ControlCommands proxy = getControlProxy(a);
+                    electionMessages.increment();
+                    proxy.respondOk(term, node.getNodeId());
+                    log.info("Sent respondOk (term {}) to {}", term, a);
                 } catch (RemoteException e) {
                     log.error("Error sending respondOk to {}: {}", a, e.getMessage());
                 }
@@ -153,14 +294,27 @@ public class CommunicationHub {
 
     /**
      * Broadcasts the announcement of a new leader to all known neighbors.
+     *
+     * <p>In tree mode the leader only calls its children in the spanning tree,
+     * see {@link TreeDissemination}.
+     *
+     * @param term The term this node was elected in.
      */
-    public void broadcastLeader() {
+    public void broadcastLeader(long term) {
         DSNeighbours ds = node.getNeighbours();
+        if (node.isTreeMode()) {
+            Set<Address> targets = new HashSet<>(ds.getKnownNodes());
+            electionMessages.add(Math.min(node.getTreeDissemination().getFanout(), targets.size()));
+            node.getTreeDissemination().disseminate(
+                    TreeMessage.leader(term, node.getNodeId(), node.getAddress()), targets);
+            return;
+        }
         for (Address a : ds.getKnownNodes()) {
             try {
-                NodeCommands proxy = getProxy(a);
-                proxy.announceLeader(node.getNodeId(), node.getAddress());
-                log.info("Announced leader to {}", a);
+                ControlCommands proxy = getControlProxy(a);
+                electionMessages.increment();
+                proxy.announceLeader(term, node.getNodeId(), node.getAddress());
+                log.info("Announced leader (term {}) to {}", term, a);
             } catch (RemoteException e) {
                 log.error("Error announcing leader to {}: {}", a, e.getMessage());
             }
@@ -171,13 +325,13 @@ public class CommunicationHub {
      * Notifies all neighbors about this node leaving the network.
      *
      * @param leavingNode The address of the node that is leaving.
+     * @param targets     The nodes to notify, captured before the local state was cleared.
      */
-    public void notifyLeave(Address leavingNode) {
-        DSNeighbours ds = node.getNeighbours();
-        for (Address a : ds.getKnownNodes()) {
+    public void notifyLeave(Address leavingNode, Collection<Address> targets) {
+        for (Address a : targets) {
             if (!a.equals(leavingNode)) {
                 try {
-                    NodeCommands proxy = getProxy(a);
+                    ControlCommands proxy = getControlProxy(a);
                     proxy.leave(leavingNode);
                     log.info("Notified {} about leaving node {}", a, leavingNode);
                 } catch (RemoteException e) {
@@ -191,13 +345,13 @@ public class CommunicationHub {
      * Notifies all neighbors about this node being revived.
      *
      * @param revivedNode The address of the node that has been revived.
+     * @param targets     The nodes to notify, captured before the local state was cleared.
      */
-    public void notifyRevive(Address revivedNode) {
-        DSNeighbours ds = node.getNeighbours();
-        for (Address a : ds.getKnownNodes()) {
+    public void notifyRevive(Address revivedNode, Collection<Address> targets) {
+        for (Address a : targets) {
             if (!a.equals(revivedNode)) {
                 try {
-                    NodeCommands proxy = getProxy(a);
+                    ControlCommands proxy = getControlProxy(a);
                     proxy.revive(revivedNode);
                     log.info("Notified {} about revived node {}", a, revivedNode);
                 } catch (RemoteException e) {
@@ -213,11 +367,28 @@ public class CommunicationHub {
      * <p>Note: This method currently sends the message to all known nodes.
      * To target a specific node, implement a mapping from nickname to {@link Address}.
      *
+     * <p>Each destination gets its own monotonic sequence number, which is stamped once
+     * and reused by all retries, so the receiver can recognise a retry whose first attempt
+     * was already delivered.
+     *
      * @param toNick   The nickname of the recipient node.
      * @param fromNick The nickname of the sender node.
      * @param message  The message content to send.
      */
     public void sendMessageTo(String toNick, String fromNick, String message) {
+        sendMessageTo(toNick, fromNick, message, false);
+    }
+
+    /**
+     * Sends a message like {@link #sendMessageTo(String, String, String)}, optionally without logging
+     * every successful send at INFO, e.g. under generated load. Failures are logged either way.
+     *
+     * @param toNick   The nickname of the recipient node.
+     * @param fromNick The nickname of the sender node.
+     * @param message  The message content to send.
+     * @param quiet    Whether to log successful sends at DEBUG only.
+     */
+    public void sendMessageTo(String toNick, String fromNick, String message, boolean quiet) {
         // Snapshot of current neighbors to avoid changes inside a loop
         Set<Address> snapshot = new HashSet<>(node.getNeighbours().getKnownNodes());
 
@@ -228,25 +399,135 @@ public class CommunicationHub {
             }
             int MAX_ATTEMPTS = 3;
             boolean success = false;
+            boolean limited = false;
+            long seq = nextSequence(a);
             for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
                 try {
                     NodeCommands proxy = getProxy(a);
-                    proxy.sendMessage(fromNick, toNick, message);
-                    log.info("Sent message from {} to {} via {}", fromNick, toNick, a);
+                    proxy.sendMessage(node.getAddress(), seq, fromNick, toNick, message);
+                    if (quiet) {
+                        log.debug("Sent message from {} to {} via {}", fromNick, toNick, a);
+                    } else {
+                        log.info("Sent message from {} to {} via {}", fromNick, toNick, a);
+                    }
                     success = true;
                     break;
                 } catch (RemoteException e) {
+                    RateLimitedException rejected = RateLimitedException.find(e);
+                    if (rejected != null) {
+                        // The node is alive but overloaded by us: back off instead of declaring it dead
+                        limited = true;
+                        sleepQuietly(rejected.getRetryAfterMs());
+                        continue;
+                    }
                     log.error("Attempt {}/{} to send message to {} failed: {}",
                             attempt, MAX_ATTEMPTS, a, e.getMessage());
                 }
             }
-            if (!success) {
+            if (!success && limited) {
+                log.warn("Message to {} dropped: rate limited.", a);
+            } else if (!success) {
                 log.warn("All attempts to contact {} failed. Assuming it's dead.", a);
                 handleDeadNode(a);
             }
         }
     }
 
+    /**
+     * Tells a single node who the leader of the given term is, e.g. a node that is still
+     * electing in an older term.
+     *
+     * @param targetId The ID of the node to inform.
+     * @param term     The term of the leader.
+     * @param leader   The address of the leader.
+     */
+    public void sendLeaderTo(long targetId, long term, Address leader) {
+        Address target = findById(targetId);
+        if (target == null) {
+            return;
+        }
+        try {
+            electionMessages.increment();
+            getControlProxy(target).announceLeader(term, node.computeId(leader.getHostname(), leader.getPort()), leader);
+            log.info("Relayed leader {} (term {}) to {}", leader, term, target);
+        } catch (RemoteException e) {
+            log.error("Error relaying leader to {}: {}", target, e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a heartbeat to the leader. A single missed heartbeat says little about the leader, so
+     * it is neither declared dead nor reported to others here; the caller decides when the misses
+     * add up to a failure.
+     *
+     * @param leader The address of the leader.
+     * @param term   The term the leader was elected in.
+     * @return {@code true} if the leader confirmed it still leads that term, {@code false} if it denied
+     * it or rate limited us.
+     * @throws RemoteException If the leader could not be reached.
+     */
+    public boolean sendHeartbeat(Address leader, long term) throws RemoteException {
+        try {
+            return getControlProxy(leader).heartbeat(term);
+        } catch (RemoteException e) {
+            if (RateLimitedException.find(e) != null) {
+                return false;
+            }
+            log.warn("Heartbeat to leader {} failed: {}", leader, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up a known node by its ID.
+     *
+     * @param id The node ID.
+     * @return The address of the node, or {@code null} if it is not known.
+     */
+    public Address findById(long id) {
+        for (Address a : node.getNeighbours().getKnownNodes()) {
+            if (node.computeId(a.getHostname(), a.getPort()) == id) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the next message sequence number for the given destination.
+     *
+     * @param destination The address of the receiving node.
+     * @return A sequence number greater than any previously returned for that destination.
+     */
+    public long nextSequence(Address destination) {
+        return outboundSequences.computeIfAbsent(destination, a -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Numbers the messages to a destination from 1 again, when it (re)joins with a fresh delivery window.
+     *
+     * @param destination The address of the receiving node.
+     */
+    public void resetSequence(Address destination) {
+        outboundSequences.remove(destination);
+    }
+
+    /**
+     * Numbers the messages to all destinations from 1 again, when this node is revived and its peers
+     * reset their windows for it.
+     */
+    public void resetSequences() {
+        outboundSequences.clear();
+    }
+
     /**
      * Handles the scenario when a node is considered dead/unresponsive.
      *
@@ -255,29 +536,44 @@ public class CommunicationHub {
      *
      * @param deadAddr The address of the dead node.
      */
-    private void handleDeadNode(Address deadAddr) {
-        // Removing from list
-        node.getNeighbours().removeNode(deadAddr);
+    private void handleDeadNode(final Address deadAddr) {
+        NodeEventLoop loop = node.getEventLoop();
+        Tracing.Span span = node.getTracing().start("handleDeadNode", Tracing.INTERNAL)
+                .attribute("net.peer.name", deadAddr.toString());
+        loop.submitControl(() -> {
+            // Removing from list
+            node.getNeighbours().removeNode(deadAddr);
+            node.getPubSub().removeSubscriber(deadAddr);
+            node.getLockService().onNodeGone(deadAddr);
+            node.getKvStore().onMembershipChanged();
+            node.getChangeFeed().publish("KILL", deadAddr);
+            if (node.isQuorumMode()) {
+                node.getQuorumElection().checkQuorum();
+            }
 
-        // Notifying others
-        Set<Address> snapshot = new HashSet<>(node.getNeighbours().getKnownNodes());
-        for (Address other : snapshot) {
-            if (!other.equals(deadAddr)) {
-                try {
-                    NodeCommands proxy = getProxy(other);
-                    proxy.killNode(deadAddr);
-                    log.info("Notified {} that node was killed {}", other, deadAddr);
-                } catch (RemoteException e) {
-                    log.error("Error notifying {} about dead {}: {}",
-                            other, deadAddr, e.getMessage());
+            // Notifying others
+            final Set<Address> snapshot = new HashSet<>(node.getNeighbours().getKnownNodes());
+            loop.runControl(() -> {
+                for (Address other : snapshot) {
+                    if (!other.equals(deadAddr)) {
+                        try {
+                            ControlCommands proxy = getControlProxy(other);
+                            proxy.killNode(deadAddr);
+                            log.info("Notified {} that node was killed {}", other, deadAddr);
+                        } catch (RemoteException e) {
+                            log.error("Error notifying {} about dead {}: {}",
+                                    other, deadAddr, e.getMessage());
+                        }
+                    }
                 }
-            }
-        }
+            });
 
-        // If the dead node was the leader, initiate an election
-        if (deadAddr.equals(node.getNeighbours().getLeader())) {
-            log.info("Dead node was our leader => starting election");
-            node.startElection();
-        }
+            // If the dead node was the leader, initiate an election
+            if (deadAddr.equals(node.getNeighbours().getLeader())) {
+                log.info("Dead node was our leader => scheduling election");
+                node.scheduleElection();
+            }
+        });
+        span.end();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package cz.cvut.fel.dsva;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Node configuration read from an optional {@code dsva.properties} file in the working directory.
+ *
+ * <p>Every key can be overridden with a Java system property of the same name
+ * (e.g. {@code -Ddsva.seeds=10.0.0.1:2010,10.0.0.2:2010}). Values not set anywhere
+ * fall back to the default given by the caller.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+public final class Config {
+    public static final String FILE_NAME = "dsva.properties";
+
+    private static final Properties properties = load();
+
+    private Config() {
+    }
+
+    private static Properties load() {
+        Properties p = new Properties();
+        File file = new File(System.getProperty("dsva.config", FILE_NAME));
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                p.load(in);
+                log.info("Loaded configuration from {}", file.getAbsolutePath());
+            } catch (IOException e) {
+                log.error("Error reading configuration file {}: {}", file, e.getMessage());
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Returns the configured value of a key.
+     *
+     * @param key The configuration key.
+     * @param def The default value.
+     * @return The system property, the file value or the default, in that order.
+     */
+    public static String getString(String key, String def) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null ? def : value.trim();
+    }
+
+    public static int getInt(String key, int def) {
+        return (int) getLong(key, def);
+    }
+
+    public static long getLong(String key, long def) {
+        String value = getString(key, null);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid number for {}: {}. Using {}", key, value, def);
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String value = getString(key, null);
+        return value == null ? def : Boolean.parseBoolean(value);
+    }
+}
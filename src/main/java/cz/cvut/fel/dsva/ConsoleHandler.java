@@ -1,5 +1,6 @@
 package cz.cvut.fel.dsva;
 
+import cz.cvut.fel.dsva.base.LogEntry;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -22,10 +23,50 @@ import java.io.InputStreamReader;
  *     <li><b>start_election (se)</b>: Initiate a leader election.</li>
  *     <li><b>check_leader (cl)</b>: Check the current leader of the network.</li>
  *     <li><b>send_message (sm)</b>: Send a message to another node.</li>
+ *     <li><b>request (rq) &lt;nick&gt; &lt;payload&gt;</b>: Send a request to another node's echo handler and log the reply.</li>
+ *     <li><b>rpc_stats (rps)</b>: Display the request/reply counters and registered handlers.</li>
+ *     <li><b>bench_rpc &lt;nick&gt; [count] [outstanding]</b>: Measure request/reply throughput with many requests in flight.</li>
+ *     <li><b>shm_stats (shs)</b>: Display the shared-memory transport's channels and call counters.</li>
+ *     <li><b>bench_shm &lt;ip:port&gt; [count]</b>: Compare call latency to a node on this host through shared memory and RMI.</li>
+ *     <li><b>send_ordered (so)</b>: Send a message through the total-order broadcast channel.</li>
+ *     <li><b>ordered_stats (os)</b>: Display the state of the total-order broadcast channel.</li>
+ *     <li><b>bench_ordered</b>: Compare ordered and unordered message throughput.</li>
  *     <li><b>leave (l)</b>: Leave the network gracefully.</li>
  *     <li><b>kill (k)</b>: Simulate an abrupt node crash.</li>
  *     <li><b>revive (r)</b>: Revive a previously killed node.</li>
  *     <li><b>status (s)</b>: Display the current status of the node.</li>
+ *     <li><b>partition / heal</b>: Simulate a network partition and heal it.</li>
+ *     <li><b>delivery_stats (ds)</b>: Display message deduplication and gap counters.</li>
+ *     <li><b>subscribe (sub) &lt;topic&gt;</b>: Subscribe this node to a topic.</li>
+ *     <li><b>unsubscribe (unsub) &lt;topic&gt;</b>: Unsubscribe this node from a topic.</li>
+ *     <li><b>publish (pub) &lt;topic&gt; &lt;message&gt;</b>: Publish a message to a topic's subscribers.</li>
+ *     <li><b>topics (tp)</b>: Display the subscription table and per-topic counters.</li>
+ *     <li><b>admission_stats (as)</b>: Display rate limits and admitted/rejected call counters.</li>
+ *     <li><b>groups (gr)</b>: Display the node's group, the directory of group leaders and the global leader.</li>
+ *     <li><b>journal (jr) [count]</b>: Display the most recent state changes (default: 20).</li>
+ *     <li><b>traces (tr) [file]</b>: Export the recorded spans to a file in OTLP-JSON format.</li>
+ *     <li><b>load &lt;rate&gt; &lt;seconds&gt; [senders] [message|election]</b>: Run an open-loop load test with latency percentiles.</li>
+ *     <li><b>kv_put (put) &lt;key&gt; &lt;value&gt;</b>: Store a value in the key-value store.</li>
+ *     <li><b>kv_get (get) &lt;key&gt;</b>: Read a value from the key-value store.</li>
+ *     <li><b>kv_stats (kvs)</b>: Display the hash ring and key-value store counters.</li>
+ *     <li><b>bench_kv [count] [threads]</b>: Measure key-value put/get throughput.</li>
+ *     <li><b>log_append (la) &lt;data&gt;</b>: Append an entry to the replicated log.</li>
+ *     <li><b>log_read (lr) [from] [limit]</b>: Display committed entries of the replicated log.</li>
+ *     <li><b>log_stats (lgs)</b>: Display the replicated log's indexes, replication counters and followers.</li>
+ *     <li><b>bench_log [count]</b>: Measure replicated log append throughput.</li>
+ *     <li><b>lock (lk) &lt;name&gt; [leaseMs]</b>: Acquire a lock lease for this console, waiting in the leader's queue.</li>
+ *     <li><b>unlock (ulk) &lt;name&gt;</b>: Release a lock held by this console.</li>
+ *     <li><b>lock_stats (lks)</b>: Display the lock table (on the leader) and the leases held on this node.</li>
+ *     <li><b>bench_lock [clients] [locks] [seconds]</b>: Measure lock acquire/release throughput under contention.</li>
+ *     <li><b>next_id (id) [count]</b>: Generate cluster-unique IDs from this node's leased ID block.</li>
+ *     <li><b>id_stats (ids)</b>: Display the ID blocks of this node and, on the leader, the high-water mark.</li>
+ *     <li><b>bench_ids [threads] [seconds]</b>: Measure local ID generation throughput.</li>
+ *     <li><b>crdt_get (cg) &lt;name&gt;</b>: Display the local value of a gossiped counter or set.</li>
+ *     <li><b>crdt_stats (crs)</b>: Display the CRDT gossip counters and the peers' lag.</li>
+ *     <li><b>bench_crdt [updates]</b>: Measure how long other nodes take to see a burst of counter updates.</li>
+ *     <li><b>tree_stats (ts)</b>: Display spanning-tree dissemination counters.</li>
+ *     <li><b>send_file (sf) &lt;ip:port&gt; &lt;path&gt;</b>: Stream a file from the outbox to another node.</li>
+ *     <li><b>transfer_stats (tf)</b>: Display chunked file transfer counters and progress.</li>
  *     <li><b>? / help</b>: Display help information.</li>
  * </ul>
  *
@@ -94,6 +135,74 @@ public class ConsoleHandler implements Runnable {
                     myNode.sendMessage(toNick, message);
                 }
                 break;
+            case "request":
+            case "rq":
+                if (parts.length < 3) {
+                    log.info("Usage: request <toNick> <payload>");
+                } else {
+                    final String toNick = parts[1];
+                    myNode.request(toNick, String.join(" ", java.util.Arrays.copyOfRange(parts, 2, parts.length)))
+                            .whenComplete((reply, e) -> {
+                                if (e == null) {
+                                    log.info("Reply from {}: {}", toNick, reply);
+                                } else {
+                                    log.warn("Request to {} failed: {}", toNick, e.getMessage());
+                                }
+                            });
+                }
+                break;
+            case "rpc_stats":
+            case "rps":
+                log.info("\n{}", myNode.getRequestReply().getStats());
+                break;
+            case "bench_rpc":
+                if (parts.length < 2) {
+                    log.info("Usage: bench_rpc <toNick> [count] [outstanding]");
+                    break;
+                }
+                try {
+                    myNode.getRequestReply().benchmark(parts[1], parts.length > 2 ? Integer.parseInt(parts[2]) : 10000,
+                            parts.length > 3 ? Integer.parseInt(parts[3]) : 256);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "shm_stats":
+            case "shs":
+                log.info("\n{}", myNode.getSharedMemory().getStats());
+                break;
+            case "bench_shm":
+                if (parts.length < 2 || Node.parseSeeds(parts[1]).size() != 1) {
+                    log.info("Usage: bench_shm <ip:port> [count]");
+                    break;
+                }
+                try {
+                    myNode.getSharedMemory().benchmark(Node.parseSeeds(parts[1]).get(0),
+                            parts.length > 2 ? Integer.parseInt(parts[2]) : 10000);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "send_ordered":
+            case "so":
+                if (parts.length < 2) {
+                    log.info("Usage: send_ordered <message>");
+                } else {
+                    myNode.sendOrdered(String.join(" ", java.util.Arrays.copyOfRange(parts, 1, parts.length)));
+                }
+                break;
+            case "ordered_stats":
+            case "os":
+                log.info("\n{}", myNode.getOrderedBroadcast().getStats());
+                break;
+            case "bench_ordered":
+                try {
+                    int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 1000;
+                    myNode.getOrderedBroadcast().benchmark(count);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid message count: {}", parts[1]);
+                }
+                break;
             case "leave":
             case "l":
                 myNode.leaveNetwork();
@@ -110,6 +219,255 @@ public class ConsoleHandler implements Runnable {
             case "s":
                 myNode.printStatus();
                 break;
+            case "partition":
+                if (parts.length != 2) {
+                    log.info("Usage: partition <ip:port,ip:port,...>");
+                } else {
+                    myNode.partition(Node.parseSeeds(parts[1]));
+                }
+                break;
+            case "heal":
+                myNode.heal();
+                break;
+            case "subscribe":
+            case "sub":
+                if (parts.length != 2) {
+                    log.info("Usage: subscribe <topic>");
+                } else {
+                    myNode.subscribe(parts[1]);
+                }
+                break;
+            case "unsubscribe":
+            case "unsub":
+                if (parts.length != 2) {
+                    log.info("Usage: unsubscribe <topic>");
+                } else {
+                    myNode.unsubscribe(parts[1]);
+                }
+                break;
+            case "publish":
+            case "pub":
+                if (parts.length < 3) {
+                    log.info("Usage: publish <topic> <message>");
+                } else {
+                    myNode.publish(parts[1], String.join(" ", java.util.Arrays.copyOfRange(parts, 2, parts.length)));
+                }
+                break;
+            case "topics":
+            case "tp":
+                log.info("\n{}", myNode.getPubSub().getStats());
+                break;
+            case "admission_stats":
+            case "as":
+                log.info("\n{}", myNode.getAdmission().getStats());
+                break;
+            case "groups":
+            case "gr":
+                log.info("\n{}", myNode.getGroups().getStats());
+                break;
+            case "journal":
+            case "jr":
+                try {
+                    int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 20;
+                    log.info("\n{}", myNode.getJournal().recent(-1, count));
+                } catch (NumberFormatException e) {
+                    log.info("Usage: journal [count]");
+                }
+                break;
+            case "traces":
+            case "tr":
+                String file = parts.length > 1 ? parts[1] : "traces-" + myNode.getAddress().getPort() + ".json";
+                try {
+                    log.info("Exported {} spans to {}", myNode.getTracing().exportToFile(file), file);
+                } catch (IOException e) {
+                    log.error("Cannot write {}: {}", file, e.getMessage());
+                }
+                break;
+            case "load":
+                try {
+                    int rate = parts.length > 1 ? Integer.parseInt(parts[1]) : 1000;
+                    int seconds = parts.length > 2 ? Integer.parseInt(parts[2]) : 10;
+                    int senders = parts.length > 3 ? Integer.parseInt(parts[3]) : 64;
+                    String mode = parts.length > 4 ? parts[4] : "message";
+                    new LoadGenerator(myNode).run(rate, seconds, senders, mode);
+                } catch (NumberFormatException e) {
+                    log.info("Usage: load <rate> <seconds> [senders] [message|election]");
+                }
+                break;
+            case "kv_put":
+            case "put":
+                if (parts.length < 3) {
+                    log.info("Usage: kv_put <key> <value>");
+                } else {
+                    String value = String.join(" ", java.util.Arrays.copyOfRange(parts, 2, parts.length));
+                    log.info("Stored {} on {} replicas", parts[1], myNode.getKvStore().put(parts[1], value));
+                }
+                break;
+            case "kv_get":
+            case "get":
+                if (parts.length != 2) {
+                    log.info("Usage: kv_get <key>");
+                } else {
+                    log.info("{} = {}", parts[1], myNode.getKvStore().get(parts[1]));
+                }
+                break;
+            case "kv_stats":
+            case "kvs":
+                log.info("\n{}", myNode.getKvStore().getStats());
+                break;
+            case "bench_kv":
+                try {
+                    int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 10000;
+                    int threads = parts.length > 2 ? Integer.parseInt(parts[2]) : 16;
+                    myNode.getKvStore().benchmark(count, threads);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "log_append":
+            case "la":
+                if (parts.length < 2) {
+                    log.info("Usage: log_append <data>");
+                } else {
+                    myNode.getReplicatedLog().append(String.join(" ", java.util.Arrays.copyOfRange(parts, 1, parts.length)))
+                            .whenComplete((index, error) -> {
+                                if (error != null) {
+                                    log.warn("Log append failed: {}", error.getMessage());
+                                } else {
+                                    log.info("Committed at #{}", index);
+                                }
+                            });
+                }
+                break;
+            case "log_read":
+            case "lr":
+                try {
+                    long from = parts.length > 1 ? Long.parseLong(parts[1]) : 1;
+                    int limit = parts.length > 2 ? Integer.parseInt(parts[2]) : 20;
+                    for (LogEntry e : myNode.getReplicatedLog().read(from, limit, true)) {
+                        log.info("{}", e);
+                    }
+                } catch (NumberFormatException e) {
+                    log.info("Usage: log_read [from] [limit]");
+                }
+                break;
+            case "log_stats":
+            case "lgs":
+                log.info("\n{}", myNode.getReplicatedLog().getStats());
+                break;
+            case "bench_log":
+                try {
+                    myNode.getReplicatedLog().benchmark(parts.length > 1 ? Integer.parseInt(parts[1]) : 10000);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "lock":
+            case "lk":
+                if (parts.length < 2 || (parts.length > 2 && !parts[2].matches("\\d+"))) {
+                    log.info("Usage: lock <name> [leaseMs]");
+                } else {
+                    final String name = parts[1];
+                    long leaseMs = parts.length > 2 ? Long.parseLong(parts[2]) : 30000;
+                    myNode.getLockService().acquire(name, "console", leaseMs).thenAccept(grant ->
+                            log.info("Acquired {} with token {}", name, grant.getToken()));
+                }
+                break;
+            case "unlock":
+            case "ulk":
+                if (parts.length != 2) {
+                    log.info("Usage: unlock <name>");
+                } else {
+                    try {
+                        log.info(myNode.getLockService().release(parts[1], "console")
+                                ? "Released {}" : "Lock {} is not held by this console", parts[1]);
+                    } catch (IOException e) {
+                        log.error("Cannot release {}: {}", parts[1], e.getMessage());
+                    }
+                }
+                break;
+            case "lock_stats":
+            case "lks":
+                log.info("\n{}", myNode.getLockService().getStats());
+                break;
+            case "bench_lock":
+                try {
+                    myNode.getLockService().benchmark(parts.length > 1 ? Integer.parseInt(parts[1]) : 16,
+                            parts.length > 2 ? Integer.parseInt(parts[2]) : 1, parts.length > 3 ? Integer.parseInt(parts[3]) : 10);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "next_id":
+            case "id":
+                if (parts.length > 2 || (parts.length == 2 && !parts[1].matches("\\d{1,4}"))) {
+                    log.info("Usage: next_id [count]");
+                } else {
+                    int count = parts.length == 2 ? Integer.parseInt(parts[1]) : 1;
+                    try {
+                        for (int i = 0; i < count; i++) {
+                            log.info("{}", myNode.nextId());
+                        }
+                    } catch (IllegalStateException e) {
+                        log.error("Cannot generate an ID: {}", e.getMessage());
+                    }
+                }
+                break;
+            case "crdt_get":
+            case "cg":
+                if (parts.length != 2) {
+                    log.info("Usage: crdt_get <name>");
+                } else {
+                    String value = myNode.getCrdtStore().read(parts[1]);
+                    log.info("{}: {}", parts[1], value == null ? "not found" : value.trim().replace('\n', ' '));
+                }
+                break;
+            case "crdt_stats":
+            case "crs":
+                log.info("\n{}", myNode.getCrdtStore().getStats());
+                break;
+            case "bench_crdt":
+                try {
+                    myNode.getCrdtStore().benchmark(parts.length > 1 ? Integer.parseInt(parts[1]) : 10000);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "id_stats":
+            case "ids":
+                log.info("\n{}", myNode.getIdService().getStats());
+                break;
+            case "bench_ids":
+                try {
+                    myNode.getIdService().benchmark(parts.length > 1 ? Integer.parseInt(parts[1]) : 4,
+                            parts.length > 2 ? Integer.parseInt(parts[2]) : 5);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid benchmark parameters");
+                }
+                break;
+            case "delivery_stats":
+            case "ds":
+                log.info("\n{}", myNode.getDeliveryStats());
+                break;
+            case "send_file":
+            case "sf":
+                if (parts.length != 3 || Node.parseSeeds(parts[1]).size() != 1) {
+                    log.info("Usage: send_file <ip:port> <path>");
+                } else {
+                    String id = myNode.sendFile(Node.parseSeeds(parts[1]).get(0), parts[2]);
+                    if (id != null) {
+                        log.info("Transfer {} started", id);
+                    }
+                }
+                break;
+            case "transfer_stats":
+            case "tf":
+                log.info("\n{}", myNode.getFileTransfer().getStats());
+                break;
+            case "tree_stats":
+            case "ts":
+                log.info("\n{}", myNode.getTreeDissemination().getStats());
+                break;
             case "?":
             case "help":
                 printHelp();
@@ -128,10 +486,51 @@ public class ConsoleHandler implements Runnable {
         log.info("start_election (se)                  - Start leader election");
         log.info("check_leader (cl)                    - Check current leader");
         log.info("send_message (sm) <nick> <message>    - Send a message to a user");
+        log.info("request (rq) <nick> <payload>        - Send a request and log the reply");
+        log.info("rpc_stats (rps)                      - Show request/reply counters and handlers");
+        log.info("bench_rpc <nick> [count] [outst.]    - Measure request/reply throughput");
+        log.info("shm_stats (shs)                      - Show shared-memory transport channels and counters");
+        log.info("bench_shm <ip:port> [count]          - Compare shared-memory and RMI call latency");
+        log.info("send_ordered (so) <message>          - Send a totally ordered broadcast");
+        log.info("ordered_stats (os)                   - Show ordered channel state");
+        log.info("bench_ordered [count]                - Compare ordered vs unordered throughput");
         log.info("leave (l)                            - Leave the network gracefully");
         log.info("kill (k)                             - Simulate a node crash (killed)");
         log.info("revive (r)                           - Revive a previously killed node");
         log.info("status (s)                           - Show node status");
+        log.info("delivery_stats (ds)                  - Show message dedup/gap counters");
+        log.info("subscribe (sub) <topic>              - Subscribe to a topic");
+        log.info("unsubscribe (unsub) <topic>          - Unsubscribe from a topic");
+        log.info("publish (pub) <topic> <message>      - Publish to a topic's subscribers");
+        log.info("topics (tp)                          - Show subscriptions and per-topic counters");
+        log.info("admission_stats (as)                 - Show rate limits and rejections");
+        log.info("groups (gr)                          - Show group, group leaders and global leader");
+        log.info("journal (jr) [count]                 - Show the most recent state changes");
+        log.info("traces (tr) [file]                   - Export recorded spans as OTLP-JSON");
+        log.info("load <rate> <sec> [senders] [mode]   - Open-loop load test with p50/p99/p999");
+        log.info("kv_put (put) <key> <value>           - Store a value in the key-value store");
+        log.info("kv_get (get) <key>                   - Read a value from the key-value store");
+        log.info("kv_stats (kvs)                       - Show hash ring and key-value counters");
+        log.info("bench_kv [count] [threads]           - Measure key-value put/get throughput");
+        log.info("log_append (la) <data>               - Append an entry to the replicated log");
+        log.info("log_read (lr) [from] [limit]         - Show committed replicated log entries");
+        log.info("log_stats (lgs)                      - Show replicated log indexes and followers");
+        log.info("bench_log [count]                    - Measure replicated log append throughput");
+        log.info("lock (lk) <name> [leaseMs]           - Acquire a lock lease (waits in the leader's queue)");
+        log.info("unlock (ulk) <name>                  - Release a lock held by this console");
+        log.info("lock_stats (lks)                     - Show the lock table and leases held here");
+        log.info("bench_lock [clients] [locks] [sec]   - Measure lock acquire/release throughput");
+        log.info("next_id (id) [count]                 - Generate cluster-unique IDs from the leased block");
+        log.info("id_stats (ids)                       - Show ID blocks and the leader's high-water mark");
+        log.info("bench_ids [threads] [sec]            - Measure local ID generation throughput");
+        log.info("crdt_get (cg) <name>                 - Show a gossiped counter or set");
+        log.info("crdt_stats (crs)                     - Show CRDT gossip counters and peer lag");
+        log.info("bench_crdt [updates]                 - Measure CRDT convergence time across nodes");
+        log.info("tree_stats (ts)                      - Show spanning-tree dissemination counters");
+        log.info("send_file (sf) <ip:port> <path>      - Stream a file from the outbox to another node in chunks");
+        log.info("transfer_stats (tf)                  - Show file transfer progress");
+        log.info("partition <ip:port,...>              - Block calls to the given nodes");
+        log.info("heal                                 - Unblock all partitioned nodes");
         log.info("? / help                             - Show this help message");
     }
 
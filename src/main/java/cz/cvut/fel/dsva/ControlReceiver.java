@@ -0,0 +1,111 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.ControlCommands;
+import cz.cvut.fel.dsva.base.DSNeighbours;
+import cz.cvut.fel.dsva.base.GroupMessage;
+import cz.cvut.fel.dsva.base.TraceContext;
+import cz.cvut.fel.dsva.base.TreeMessage;
+import cz.cvut.fel.dsva.base.VoteResponse;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control-plane RMI endpoint of a node.
+ *
+ * <p>RMI cannot export one object twice, so this thin receiver delegates every
+ * {@link ControlCommands} method to the node's {@link MessageReceiver}. It is exported on a port of
+ * its own (<code>dsva.control.portOffset</code> + node port) and bound as
+ * {@link Node#CONTROL_INTERFACE_NAME}, which gives membership and election calls their own server
+ * socket, connections and RMI threads. A flood of data-plane calls on the regular endpoint
+ * therefore cannot delay them.
+ *
+ * @author Kross Aleksandr
+ */
+public class ControlReceiver implements ControlCommands {
+    private final ControlCommands delegate;
+    private final Tracing tracing;
+
+    /**
+     * Constructs the control endpoint for the given message receiver.
+     *
+     * @param delegate The receiver that handles the calls.
+     * @param tracing  The node's tracer, which serves traced calls.
+     */
+    public ControlReceiver(ControlCommands delegate, Tracing tracing) {
+        this.delegate = delegate;
+        this.tracing = tracing;
+    }
+
+    @Override
+    public DSNeighbours join(Address newNodeAddr) throws RemoteException {
+        return delegate.join(newNodeAddr);
+    }
+
+    @Override
+    public void broadcastNewNode(Address newAddr) throws RemoteException {
+        delegate.broadcastNewNode(newAddr);
+    }
+
+    @Override
+    public int disseminate(TreeMessage message, List<Address> members, int index) throws RemoteException {
+        return delegate.disseminate(message, members, index);
+    }
+
+    @Override
+    public void startElection(long term, long candidateId, boolean preempt) throws RemoteException {
+        delegate.startElection(term, candidateId, preempt);
+    }
+
+    @Override
+    public void respondOk(long term, long fromNodeId) throws RemoteException {
+        delegate.respondOk(term, fromNodeId);
+    }
+
+    @Override
+    public void announceLeader(long term, long leaderId, Address leaderAddress) throws RemoteException {
+        delegate.announceLeader(term, leaderId, leaderAddress);
+    }
+
+    @Override
+    public VoteResponse requestVote(long term, long candidateId, Address candidateAddress) throws RemoteException {
+        return delegate.requestVote(term, candidateId, candidateAddress);
+    }
+
+    @Override
+    public Map<String, Address> group(GroupMessage message) throws RemoteException {
+        return delegate.group(message);
+    }
+
+    @Override
+    public void leave(Address leavingNode) throws RemoteException {
+        delegate.leave(leavingNode);
+    }
+
+    @Override
+    public void killNode(Address killedNode) throws RemoteException {
+        delegate.killNode(killedNode);
+    }
+
+    @Override
+    public void revive(Address revivedNode) throws RemoteException {
+        delegate.revive(revivedNode);
+    }
+
+    @Override
+    public void hello() throws RemoteException {
+        delegate.hello();
+    }
+
+    @Override
+    public boolean heartbeat(long term) throws RemoteException {
+        return delegate.heartbeat(term);
+    }
+
+    @Override
+    public Object traced(TraceContext context, String method, Class<?>[] parameterTypes, Object[] args) throws RemoteException {
+        return tracing.serve(this, ControlCommands.class, context, method, parameterTypes, args);
+    }
+}
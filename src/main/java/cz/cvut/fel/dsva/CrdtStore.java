@@ -0,0 +1,524 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.CrdtDelta;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State-based CRDTs replicated by delta gossip: grow-only counters, PN-counters and observed-remove sets.
+ *
+ * <p>Updates never go through the leader and never wait for the network; they change a slot of this node
+ * and return. Every CRDT consists of slots, one per field and node, holding two numbers that only grow,
+ * so merging two states is the slot-wise maximum:
+ * <ul>
+ *     <li><b>G-counter</b>: one field; the first number counts the increments made on the node.</li>
+ *     <li><b>PN-counter</b>: one field; the numbers count the increments and decrements made on the node.</li>
+ *     <li><b>OR-set</b>: one field per element; the first number counts the adds of the element on the node,
+ *     the second is the highest of those adds that a remove has observed. The element is in the set while
+ *     some node has an add that was not removed, so a concurrent add wins over a remove.</li>
+ * </ul>
+ *
+ * <p>Every change of a slot, local or merged, gets the next local version and moves the slot to the end of
+ * a journal ordered by version, which holds each slot once. Every <code>dsva.crdt.gossipMs</code>, the node
+ * sends <code>dsva.crdt.fanout</code> random peers from {@link cz.cvut.fel.dsva.base.DSNeighbours} the slots
+ * changed since the version the peer last acknowledged, up to <code>MAX_DELTA</code> per call, encoded as a
+ * {@link CrdtDelta}. Building and merging a delta costs time in the number of changed slots, not the number of
+ * CRDTs. A slot changed by a merge is passed on in later rounds, so updates spread epidemically.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class CrdtStore {
+    public static final int MAX_DELTA = 4096;
+    public static final long CONVERGENCE_TIMEOUT_MS = 30000;
+
+    public enum Kind {
+        G_COUNTER,
+        PN_COUNTER,
+        OR_SET
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final String COUNTER_FIELD = "";
+
+    private final Node node;
+    private final long gossipMs;
+    private final int fanout;
+
+    // Guarded by this
+    private final List<Address> nodeTable = new ArrayList<>();
+    private final Map<Address, Integer> nodeIndex = new HashMap<>();
+    private final Map<String, Crdt> crdts = new HashMap<>();
+    private final TreeMap<Long, SlotRef> journal = new TreeMap<>();
+    private long version = 0;
+
+    private final Map<Address, Long> acked = new ConcurrentHashMap<>();
+    private final Set<Address> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder deltasSent = new LongAdder();
+    private final LongAdder slotsSent = new LongAdder();
+    private final LongAdder deltasReceived = new LongAdder();
+    private final LongAdder slotsReceived = new LongAdder();
+    private final LongAdder slotsChanged = new LongAdder();
+
+    /**
+     * Constructs the CRDT store of the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public CrdtStore(Node node) {
+        this.node = node;
+        this.gossipMs = Math.max(10, Config.getLong("dsva.crdt.gossipMs", 200));
+        this.fanout = Math.max(1, Config.getInt("dsva.crdt.fanout", 2));
+        indexOf(node.getAddress());
+    }
+
+    /**
+     * Starts gossiping on the node's timer. Called once the node has joined the network.
+     */
+    public void start() {
+        node.getEventLoop().getTimer().scheduleWithFixedDelay(this::gossip, gossipMs, gossipMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ---------------------------------------------------------------- local updates and reads
+
+    /**
+     * Adds to a counter, creating it if needed.
+     *
+     * @param name  The counter name.
+     * @param kind  {@link Kind#G_COUNTER} or {@link Kind#PN_COUNTER}.
+     * @param delta The amount; negative amounts are allowed for PN-counters only.
+     * @return The new local value.
+     * @throws IllegalArgumentException If the name is taken by another kind or the amount is not allowed.
+     */
+    public synchronized long add(String name, Kind kind, long delta) {
+        if (kind == Kind.OR_SET || (kind == Kind.G_COUNTER && delta < 0)) {
+            throw new IllegalArgumentException("Cannot add " + delta + " to a " + kind);
+        }
+        Field f = crdt(name, kind).field(COUNTER_FIELD, nodeTable.size());
+        if (delta >= 0) {
+            f.a[0] += delta;
+        } else {
+            f.b[0] -= delta;
+        }
+        touch(f, 0);
+        updates.increment();
+        return f.sumA() - f.sumB();
+    }
+
+    /**
+     * Adds an element to an OR-set, creating the set if needed.
+     *
+     * @param name    The set name.
+     * @param element The element.
+     * @throws IllegalArgumentException If the name is taken by a counter.
+     */
+    public synchronized void addElement(String name, String element) {
+        Field f = crdt(name, Kind.OR_SET).field(element, nodeTable.size());
+        f.a[0]++;
+        touch(f, 0);
+        updates.increment();
+    }
+
+    /**
+     * Removes an element from an OR-set: all adds of it seen so far are removed.
+     *
+     * @param name    The set name.
+     * @param element The element.
+     * @return {@code true} if the element was in the set.
+     * @throws IllegalArgumentException If the name is taken by a counter.
+     */
+    public synchronized boolean removeElement(String name, String element) {
+        Field f = crdt(name, Kind.OR_SET).fields.get(element);
+        boolean present = false;
+        if (f != null) {
+            for (int n = 0; n < f.a.length; n++) {
+                if (f.a[n] > f.b[n]) {
+                    f.b[n] = f.a[n];
+                    touch(f, n);
+                    present = true;
+                }
+            }
+        }
+        updates.increment();
+        return present;
+    }
+
+    /**
+     * Returns the local value of a CRDT: the number for counters, the sorted elements, one per line, for sets.
+     *
+     * @param name The CRDT name.
+     * @return The value, or {@code null} if this node does not know the CRDT.
+     */
+    public synchronized String read(String name) {
+        Crdt c = crdts.get(name);
+        if (c == null) {
+            return null;
+        }
+        if (c.kind != Kind.OR_SET) {
+            Field f = c.fields.get(COUNTER_FIELD);
+            return f == null ? "0" : String.valueOf(f.sumA() - f.sumB());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String element : new TreeSet<>(c.fields.keySet())) {
+            if (c.fields.get(element).present()) {
+                sb.append(element).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private Crdt crdt(String name, Kind kind) {
+        Crdt c = crdts.computeIfAbsent(name, n -> new Crdt(n, kind));
+        if (c.kind != kind) {
+            throw new IllegalArgumentException(name + " is a " + c.kind + ", not a " + kind);
+        }
+        return c;
+    }
+
+    private int indexOf(Address a) {
+        Integer i = nodeIndex.get(a);
+        if (i == null) {
+            i = nodeTable.size();
+            nodeTable.add(a);
+            nodeIndex.put(a, i);
+        }
+        return i;
+    }
+
+    /**
+     * Gives a changed slot the next version and moves it to the end of the journal.
+     */
+    private void touch(Field f, int n) {
+        if (f.version[n] != 0) {
+            journal.remove(f.version[n]);
+        }
+        f.version[n] = ++version;
+        journal.put(version, new SlotRef(f, n));
+    }
+
+    // ---------------------------------------------------------------- gossip
+
+    /**
+     * Periodic task: sends the slots changed since their last acknowledged delta to random peers.
+     */
+    private void gossip() {
+        if (!node.isActive()) {
+            return;
+        }
+        List<Address> peers = new ArrayList<>(node.getNeighbours().getKnownNodes());
+        peers.remove(node.getAddress());
+        acked.keySet().retainAll(peers);
+        Collections.shuffle(peers);
+        for (Address peer : peers.subList(0, Math.min(fanout, peers.size()))) {
+            final Address target = peer;
+            final long from = acked.getOrDefault(target, 0L);
+            final CrdtDelta delta;
+            final long upTo;
+            synchronized (this) {
+                if (version <= from) {
+                    continue;
+                }
+                Map.Entry<Long, CrdtDelta> built = delta(from);
+                upTo = built.getKey();
+                delta = built.getValue();
+            }
+            if (!inFlight.add(target)) {
+                continue;
+            }
+            node.getEventLoop().runIo(() -> {
+                try {
+                    node.getCommunicationHub().getProxy(target).crdtMerge(node.getAddress(), delta);
+                    acked.merge(target, upTo, Math::max);
+                    deltasSent.increment();
+                    slotsSent.add(delta.size());
+                } catch (RemoteException e) {
+                    log.debug("CRDT gossip to {} failed: {}", target, e.getMessage());
+                } finally {
+                    inFlight.remove(target);
+                }
+            });
+        }
+    }
+
+    /**
+     * Encodes the slots changed after the given version, up to <code>MAX_DELTA</code> of them.
+     *
+     * @param from The version the peer has acknowledged.
+     * @return The version of the last encoded slot and the delta.
+     */
+    private Map.Entry<Long, CrdtDelta> delta(long from) {
+        Map<Long, SlotRef> changed = journal.tailMap(from, false);
+        int size = Math.min(MAX_DELTA, changed.size());
+        Map<Address, Integer> nodes = new HashMap<>();
+        Map<Crdt, Integer> names = new HashMap<>();
+        List<Address> nodeList = new ArrayList<>();
+        List<Crdt> crdtList = new ArrayList<>();
+        int[] slotName = new int[size];
+        String[] slotField = new String[size];
+        int[] slotNode = new int[size];
+        long[] slotA = new long[size];
+        long[] slotB = new long[size];
+        long upTo = from;
+        int i = 0;
+        for (Map.Entry<Long, SlotRef> e : changed.entrySet()) {
+            if (i == size) {
+                break;
+            }
+            SlotRef ref = e.getValue();
+            Field f = ref.field;
+            Address a = nodeTable.get(ref.node);
+            Integer ni = nodes.get(a);
+            if (ni == null) {
+                ni = nodeList.size();
+                nodes.put(a, ni);
+                nodeList.add(a);
+            }
+            Integer ci = names.get(f.crdt);
+            if (ci == null) {
+                ci = crdtList.size();
+                names.put(f.crdt, ci);
+                crdtList.add(f.crdt);
+            }
+            slotName[i] = ci;
+            slotField[i] = f.name;
+            slotNode[i] = ni;
+            slotA[i] = f.a[ref.node];
+            slotB[i] = f.b[ref.node];
+            upTo = e.getKey();
+            i++;
+        }
+        String[] nameTable = new String[crdtList.size()];
+        byte[] kinds = new byte[crdtList.size()];
+        for (int c = 0; c < nameTable.length; c++) {
+            nameTable[c] = crdtList.get(c).name;
+            kinds[c] = (byte) crdtList.get(c).kind.ordinal();
+        }
+        CrdtDelta delta = new CrdtDelta(nodeList.toArray(new Address[0]), nameTable, kinds,
+                slotName, slotField, slotNode, slotA, slotB);
+        return new AbstractMap.SimpleImmutableEntry<>(upTo, delta);
+    }
+
+    /**
+     * Merges a delta from a peer. Slots that grow get a new local version, so they are passed on.
+     *
+     * @param from  The sending node.
+     * @param delta The delta.
+     * @return The number of slots that changed.
+     */
+    public synchronized int merge(Address from, CrdtDelta delta) {
+        int[] nodes = new int[delta.getNodes().length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = indexOf(delta.getNodes()[i]);
+        }
+        Crdt[] targets = new Crdt[delta.getNames().length];
+        for (int i = 0; i < targets.length; i++) {
+            Kind kind = KINDS[delta.getKinds()[i]];
+            Crdt c = crdts.computeIfAbsent(delta.getNames()[i], n -> new Crdt(n, kind));
+            if (c.kind == kind) {
+                targets[i] = c;
+            } else {
+                log.warn("CRDT {} from {} is a {}, but a {} here; ignoring it", c.name, from, kind, c.kind);
+            }
+        }
+        int changed = 0;
+        for (int s = 0; s < delta.size(); s++) {
+            Crdt c = targets[delta.getSlotName()[s]];
+            if (c == null) {
+                continue;
+            }
+            Field f = c.field(delta.getSlotField()[s], nodeTable.size());
+            int n = nodes[delta.getSlotNode()[s]];
+            boolean grew = false;
+            if (delta.getSlotA()[s] > f.a[n]) {
+                f.a[n] = delta.getSlotA()[s];
+                grew = true;
+            }
+            if (delta.getSlotB()[s] > f.b[n]) {
+                f.b[n] = delta.getSlotB()[s];
+                grew = true;
+            }
+            if (grew) {
+                touch(f, n);
+                changed++;
+            }
+        }
+        deltasReceived.increment();
+        slotsReceived.add(delta.size());
+        slotsChanged.add(changed);
+        return changed;
+    }
+
+    // ---------------------------------------------------------------- reporting
+
+    /**
+     * Measures convergence: applies the given number of increments to a new counter on this node and
+     * polls all known nodes until each of them reports the final value. Times are counted from the last increment.
+     *
+     * @param count The number of increments.
+     * @return A human-readable report.
+     */
+    public String benchmark(int count) {
+        String name = "bench-" + node.getMyPort() + "-" + System.currentTimeMillis();
+        List<Address> nodes = new ArrayList<>(node.getNeighbours().getKnownNodes());
+        nodes.remove(node.getAddress());
+        long sent = slotsSent.sum();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            add(name, Kind.PN_COUNTER, 1);
+        }
+        long applied = System.nanoTime();
+        String expected = String.valueOf(count);
+        Map<Address, Long> converged = new HashMap<>();
+        long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT_MS;
+        while (converged.size() < nodes.size() && System.currentTimeMillis() < deadline) {
+            for (Address a : nodes) {
+                if (converged.containsKey(a)) {
+                    continue;
+                }
+                try {
+                    if (expected.equals(node.getCommunicationHub().getProxy(a).crdtRead(name))) {
+                        converged.put(a, (System.nanoTime() - applied) / 1000000);
+                    }
+                } catch (RemoteException e) {
+                    log.debug("Reading {} from {} failed: {}", name, a, e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<Long> times = new ArrayList<>(converged.values());
+        Collections.sort(times);
+        String result = String.format("%d increments of %s applied locally in %.2f ms%n" +
+                        "Converged on %d/%d other nodes after the last update: first %s ms, median %s ms, last %s ms%n" +
+                        "Slots sent by this node meanwhile: %d (gossip every %d ms, fanout %d)%n",
+                count, name, (applied - start) / 1e6, converged.size(), nodes.size(),
+                times.isEmpty() ? "-" : times.get(0), times.isEmpty() ? "-" : times.get(times.size() / 2),
+                times.isEmpty() ? "-" : times.get(times.size() - 1), slotsSent.sum() - sent, gossipMs, fanout);
+        log.info("CRDT convergence:\n{}", result);
+        return result;
+    }
+
+    /**
+     * Builds a human-readable summary of the CRDT store.
+     *
+     * @return The CRDT store statistics.
+     */
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder("CRDT store:\n");
+        sb.append(" CRDTs:    ").append(crdts.size()).append(", slots ").append(journal.size())
+                .append(", version ").append(version).append(", local updates ").append(updates.sum()).append("\n");
+        sb.append(" Sent:     ").append(deltasSent.sum()).append(" deltas, ").append(slotsSent.sum()).append(" slots\n");
+        sb.append(" Received: ").append(deltasReceived.sum()).append(" deltas, ").append(slotsReceived.sum())
+                .append(" slots, ").append(slotsChanged.sum()).append(" changed\n");
+        for (Map.Entry<Address, Long> e : new TreeMap<>(acked).entrySet()) {
+            sb.append("  ").append(e.getKey()).append(": acknowledged version ").append(e.getValue())
+                    .append(", ").append(journal.tailMap(e.getValue(), false).size()).append(" slots behind\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A named CRDT and its fields.
+     */
+    private static class Crdt {
+        private final String name;
+        private final Kind kind;
+        private final Map<String, Field> fields = new HashMap<>();
+
+        private Crdt(String name, Kind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        private Field field(String name, int nodes) {
+            Field f = fields.computeIfAbsent(name, n -> new Field(this, n));
+            f.ensure(nodes);
+            return f;
+        }
+    }
+
+    /**
+     * The per-node slots of one field, indexed by the store's node table.
+     */
+    private static class Field {
+        private final Crdt crdt;
+        private final String name;
+        private long[] a = new long[0];
+        private long[] b = new long[0];
+        private long[] version = new long[0];
+
+        private Field(Crdt crdt, String name) {
+            this.crdt = crdt;
+            this.name = name;
+        }
+
+        private void ensure(int nodes) {
+            if (a.length < nodes) {
+                a = Arrays.copyOf(a, nodes);
+                b = Arrays.copyOf(b, nodes);
+                version = Arrays.copyOf(version, nodes);
+            }
+        }
+
+        private long sumA() {
+            long sum = 0;
+            for (long v : a) {
+                sum += v;
+            }
+            return sum;
+        }
+
+        private long sumB() {
+            long sum = 0;
+            for (long v : b) {
+                sum += v;
+            }
+            return sum;
+        }
+
+        private boolean present() {
+            for (int n = 0; n < a.length; n++) {
+                if (a[n] > b[n]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A journal entry: one slot of a field.
+     */
+    private static class SlotRef {
+        private final Field field;
+        private final int node;
+
+        private SlotRef(Field field, int node) {
+            this.field = field;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps one {@link SequenceWindow} per sending node and aggregates delivery counters.
+ *
+ * <p>Used by {@link MessageReceiver} to decide whether an incoming message is new,
+ * and exposed through the console and HTTP API so that duplicate and gap rates can be observed.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class DeliveryTracker {
+    private final Map<Address, SequenceWindow> windows = new ConcurrentHashMap<>();
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * Offers a message sequence number from the given sender.
+     *
+     * @param sender The address of the sending node.
+     * @param seq    The per-destination sequence number stamped by the sender.
+     * @return {@code true} if the message should be delivered, {@code false} if it must be dropped.
+     */
+    public boolean accept(Address sender, long seq) {
+        SequenceWindow window = windows.computeIfAbsent(sender, a -> new SequenceWindow());
+        SequenceWindow.Result result = window.offer(seq);
+        switch (result) {
+            case ACCEPTED:
+            case FILLED_GAP:
+                delivered.increment();
+                return true;
+            case DUPLICATE:
+                duplicates.increment();
+                log.warn("Dropped duplicate message #{} from {}", seq, sender);
+                return false;
+            default:
+                stale.increment();
+                log.warn("Dropped stale message #{} from {} (outside of the window)", seq, sender);
+                return false;
+        }
+    }
+
+    /**
+     * Forgets the window of a sender, e.g. when it (re)joins and restarts its sequence.
+     *
+     * @param sender The address of the sending node.
+     */
+    public void reset(Address sender) {
+        windows.remove(sender);
+    }
+
+    /**
+     * Forgets the windows of all senders, when this node is revived and its peers number from 1 again.
+     */
+    public void resetAll() {
+        windows.clear();
+    }
+
+    /**
+     * Returns the number of sequence numbers currently missing across all senders.
+     *
+     * @return The count of detected but unfilled gaps.
+     */
+    public long getMissing() {
+        long missing = 0;
+        for (SequenceWindow w : windows.values()) {
+            missing += w.getMissing();
+        }
+        return missing;
+    }
+
+    /**
+     * Builds a human-readable summary of the delivery counters.
+     *
+     * @return The delivery statistics, one sender per line.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Delivery stats:\n");
+        sb.append(" Delivered:  ").append(delivered.sum()).append("\n");
+        sb.append(" Duplicates: ").append(duplicates.sum()).append("\n");
+        sb.append(" Stale:      ").append(stale.sum()).append("\n");
+        sb.append(" Missing:    ").append(getMissing()).append("\n");
+        for (Map.Entry<Address, SequenceWindow> e : windows.entrySet()) {
+            sb.append(" ").append(e.getKey()).append(" -> ").append(e.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+}
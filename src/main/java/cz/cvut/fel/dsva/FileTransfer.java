@@ -0,0 +1,481 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.NodeCommands;
+import cz.cvut.fel.dsva.base.RateLimitedException;
+import cz.cvut.fel.dsva.base.TransferAck;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Streams large payloads (files) between nodes in fixed-size chunks instead of one RMI call.
+ *
+ * <p>The sender reads the file chunk by chunk and the receiver writes each chunk at its offset
+ * into a <code>.part</code> file, so neither side holds more than a few chunks in memory:
+ * <ul>
+ *     <li><b>Chunks</b>: <code>dsva.transfer.chunkSize</code> bytes each, with a CRC32 checksum.
+ *     A chunk with a wrong checksum is rejected and sent again.</li>
+ *     <li><b>Flow control</b>: every acknowledgement grants the sender a number of credits, the chunks
+ *     it may have in flight. The receiver grants at most <code>dsva.transfer.window</code> minus the
+ *     chunks it is still writing, so a slow disk throttles the sender.</li>
+ *     <li><b>Resume</b>: after a failed call the sender reopens the transfer, and the receiver answers
+ *     with the first chunk it is missing. Only chunks from there on are sent again; chunks the receiver
+ *     already has are acknowledged without being written twice.</li>
+ * </ul>
+ *
+ * <p>The receiver keeps the progress of unfinished transfers in memory, so a transfer resumes after
+ * a sender or network failure, but starts over if the receiving process restarts. A transfer that
+ * has seen no call for <code>dsva.transfer.idleMs</code> is abandoned: its file is closed and its
+ * <code>.part</code> file, named after the transfer ID so that transfers of equally named files do
+ * not collide, is deleted. Completed files are stored in <code>dsva.transfer.dir</code>.
+ *
+ * <p>Only files inside <code>dsva.transfer.outbox</code> can be sent, so the API cannot be used to read
+ * arbitrary files of the node's host; see {@link #resolveOutgoing(String)}.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class FileTransfer {
+    private final Node node;
+    private final int chunkSize;
+    private final int window;
+    private final int maxAttempts;
+    private final File directory;
+    private final File outbox;
+    private final long idleMs;
+
+    private final Map<String, Inbound> inbound = new ConcurrentHashMap<>();
+    private final Map<String, String> outbound = new ConcurrentHashMap<>();
+
+    private final LongAdder chunksSent = new LongAdder();
+    private final LongAdder chunksResent = new LongAdder();
+    private final LongAdder checksumErrors = new LongAdder();
+    private final LongAdder resumes = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder filesReceived = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * Constructs the file transfer helper for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public FileTransfer(Node node) {
+        this.node = node;
+        this.chunkSize = Config.getInt("dsva.transfer.chunkSize", 256 * 1024);
+        this.window = Math.max(1, Config.getInt("dsva.transfer.window", 8));
+        this.maxAttempts = Config.getInt("dsva.transfer.attempts", 5);
+        this.directory = new File(Config.getString("dsva.transfer.dir", "transfers"));
+        this.outbox = new File(Config.getString("dsva.transfer.outbox", "outbox"));
+        this.idleMs = Math.max(1000, Config.getLong("dsva.transfer.idleMs", 60000));
+        node.getEventLoop().getTimer().scheduleWithFixedDelay(() -> node.getEventLoop().runIo(this::expireIdle),
+                idleMs / 2, idleMs / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resolves the path of a file to send against the outbox. The path is taken as relative to the outbox
+     * and canonicalized, so neither <code>..</code> nor symbolic links lead out of it.
+     *
+     * @param path The path of the file within the outbox.
+     * @return The file, or {@code null} if it is outside the outbox or not a regular file.
+     */
+    public File resolveOutgoing(String path) {
+        try {
+            File root = outbox.getCanonicalFile();
+            File file = new File(root, path).getCanonicalFile();
+            if (!file.toPath().startsWith(root.toPath()) || !file.isFile()) {
+                return null;
+            }
+            return file;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends a file to another node in the background. The sender waits for the chunks it has in flight
+     * on the I/O executor, so it runs on the blocking executor.
+     *
+     * @param target The receiving node.
+     * @param file   The file to send.
+     * @return The transfer ID.
+     */
+    public String send(final Address target, final File file) {
+        final String id = UUID.randomUUID().toString();
+        outbound.put(id, "queued " + file.getName() + " -> " + target);
+        node.getEventLoop().runBlocking(() -> {
+            try {
+                sendBlocking(id, target, file);
+            } catch (IOException e) {
+                outbound.put(id, "failed " + file.getName() + " -> " + target + ": " + e.getMessage());
+                log.error("Transfer {} of {} to {} failed: {}", id, file, target, e.getMessage());
+            }
+        });
+        return id;
+    }
+
+    /**
+     * Sends a file, resuming from the receiver's first missing chunk after each failed attempt.
+     *
+     * @param id     The transfer ID.
+     * @param target The receiving node.
+     * @param file   The file to send.
+     * @throws IOException If the file cannot be read or all attempts failed.
+     */
+    private void sendBlocking(String id, Address target, File file) throws IOException {
+        final long size = file.length();
+        final int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+        final long start = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                try {
+                    NodeCommands proxy = node.getCommunicationHub().getProxy(target);
+                    TransferAck opened = proxy.openTransfer(node.getAddress(), id, file.getName(), size, chunkSize);
+                    if (attempt > 1) {
+                        resumes.increment();
+                        log.info("Transfer {} resuming at chunk {}/{}", id, opened.getNextChunk(), chunks);
+                    }
+                    streamChunks(id, proxy, channel, opened, chunks, size, file.getName(), target);
+                    if (!proxy.finishTransfer(id)) {
+                        throw new RemoteException("Receiver is missing chunks of " + id);
+                    }
+                    long ms = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+                    outbound.put(id, "done " + file.getName() + " -> " + target + ": " + size + " bytes in "
+                            + ms + " ms (" + (size * 1000 / ms / 1024) + " KiB/s)");
+                    log.info("Transfer {} of {} ({} bytes) to {} completed in {} ms", id, file, size, target, ms);
+                    return;
+                } catch (RemoteException e) {
+                    RateLimitedException limited = RateLimitedException.find(e);
+                    if (limited != null) {
+                        // The receiver is alive but throttling us: wait as told instead of using up an attempt
+                        log.info("Transfer {} rate limited by {}, retrying in {} ms", id, target, limited.getRetryAfterMs());
+                        sleepQuietly(limited.getRetryAfterMs());
+                        attempt--;
+                        continue;
+                    }
+                    log.warn("Transfer {} attempt {}/{} failed: {}", id, attempt, maxAttempts, e.getMessage());
+                    sleepQuietly(200L * attempt);
+                }
+            }
+        }
+        throw new IOException("Gave up after " + maxAttempts + " attempts");
+    }
+
+    /**
+     * Streams the chunks from the receiver's first missing one on, keeping at most as many
+     * chunks in flight as the receiver granted credits.
+     */
+    private void streamChunks(final String id, final NodeCommands proxy, FileChannel channel, TransferAck opened,
+                              int chunks, long size, String name, Address target) throws IOException {
+        int next = opened.getNextChunk();
+        int credits = Math.max(1, opened.getCredits());
+        Deque<Integer> inFlightIndex = new ArrayDeque<>();
+        Deque<CompletableFuture<TransferAck>> inFlight = new ArrayDeque<>();
+        while (next < chunks || !inFlight.isEmpty()) {
+            while (next < chunks && inFlight.size() < credits) {
+                inFlight.add(sendChunk(id, proxy, channel, next, size));
+                inFlightIndex.add(next);
+                next++;
+            }
+            int index = inFlightIndex.poll();
+            TransferAck ack = await(inFlight.poll());
+            credits = Math.max(1, ack.getCredits());
+            if (!ack.isAccepted()) {
+                checksumErrors.increment();
+                chunksResent.increment();
+                log.warn("Transfer {}: chunk {} rejected, sending again", id, index);
+                inFlight.addFirst(sendChunk(id, proxy, channel, index, size));
+                inFlightIndex.addFirst(index);
+            }
+            outbound.put(id, "sending " + name + " -> " + target + ": " + ack.getNextChunk() + "/" + chunks + " chunks");
+        }
+    }
+
+    private CompletableFuture<TransferAck> sendChunk(final String id, final NodeCommands proxy, FileChannel channel,
+                                                     final int index, long size) throws IOException {
+        final byte[] data = new byte[(int) Math.min(chunkSize, size - (long) index * chunkSize)];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) index * chunkSize;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File shrank while sending");
+            }
+        }
+        final long crc = checksum(data);
+        final CompletableFuture<TransferAck> f = new CompletableFuture<>();
+        node.getEventLoop().runIo(() -> {
+            try {
+                chunksSent.increment();
+                f.complete(proxy.putChunk(id, index, data, crc));
+            } catch (RemoteException e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    private static TransferAck await(CompletableFuture<TransferAck> f) throws RemoteException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RemoteException
+                    ? (RemoteException) e.getCause()
+                    : new RemoteException("Chunk failed", e.getCause());
+        }
+    }
+
+    /**
+     * Opens (or reopens, to resume) an incoming transfer.
+     *
+     * @param from      The sending node.
+     * @param id        The transfer ID.
+     * @param name      The file name.
+     * @param size      The total size in bytes.
+     * @param chunkSize The chunk size used by the sender.
+     * @return The first missing chunk and the initial credits.
+     * @throws IOException If the part file cannot be created.
+     */
+    public TransferAck open(Address from, String id, String name, long size, int chunkSize) throws IOException {
+        Inbound in = inbound.get(id);
+        if (in == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            in = new Inbound(new File(directory, new File(name).getName()),
+                    new File(directory, id.replaceAll("[^A-Za-z0-9_-]", "_") + ".part"), size, chunkSize);
+            Inbound other = inbound.putIfAbsent(id, in);
+            if (other != null) {
+                in.close();
+                in = other;
+            }
+            log.info("Receiving {} ({} bytes, {} chunks) from {} as transfer {}", name, size, in.chunks, from, id);
+        } else {
+            in.touch();
+            log.info("Transfer {} reopened by {}, resuming at chunk {}", id, from, in.nextMissing());
+        }
+        return new TransferAck(true, in.nextMissing(), in.credits());
+    }
+
+    /**
+     * Verifies and writes one chunk of an incoming transfer.
+     *
+     * @param id    The transfer ID.
+     * @param index The chunk index.
+     * @param data  The chunk contents.
+     * @param crc   The CRC32 of the contents computed by the sender.
+     * @return Whether the chunk was accepted, the first missing chunk and the new credits.
+     * @throws IOException If the transfer is unknown or the chunk cannot be written.
+     */
+    public TransferAck put(String id, int index, byte[] data, long crc) throws IOException {
+        Inbound in = inbound.get(id);
+        if (in == null) {
+            throw new IOException("Unknown transfer " + id);
+        }
+        in.touch();
+        if (checksum(data) != crc) {
+            checksumErrors.increment();
+            log.warn("Transfer {}: checksum mismatch in chunk {}", id, index);
+            return new TransferAck(false, in.nextMissing(), in.credits());
+        }
+        if (in.write(index, data)) {
+            bytesReceived.add(data.length);
+        }
+        return new TransferAck(true, in.nextMissing(), in.credits());
+    }
+
+    /**
+     * Completes an incoming transfer and moves the part file to its final name.
+     *
+     * @param id The transfer ID.
+     * @return {@code true} if all chunks were received, {@code false} if some are missing.
+     * @throws IOException If the transfer is unknown or the file cannot be finalised.
+     */
+    public boolean finish(String id) throws IOException {
+        Inbound in = inbound.get(id);
+        if (in == null) {
+            throw new IOException("Unknown transfer " + id);
+        }
+        in.touch();
+        if (in.nextMissing() < in.chunks) {
+            return false;
+        }
+        if (!inbound.remove(id, in)) {
+            throw new IOException("Transfer " + id + " expired");
+        }
+        in.close();
+        if (in.target.exists() && !in.target.delete()) {
+            throw new IOException("Cannot replace " + in.target);
+        }
+        if (!in.part.renameTo(in.target)) {
+            throw new IOException("Cannot rename " + in.part + " to " + in.target);
+        }
+        filesReceived.increment();
+        log.info("Transfer {} complete: {} ({} bytes)", id, in.target, in.size);
+        return true;
+    }
+
+    /**
+     * Timer task: abandons the incoming transfers that have been idle for <code>dsva.transfer.idleMs</code>.
+     */
+    private void expireIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Inbound>> it = inbound.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Inbound> e = it.next();
+            Inbound in = e.getValue();
+            if (now - in.lastActive < idleMs || !inbound.remove(e.getKey(), in)) {
+                continue;
+            }
+            expired.increment();
+            try {
+                in.close();
+            } catch (IOException ex) {
+                log.debug("Closing abandoned transfer {} failed: {}", e.getKey(), ex.getMessage());
+            }
+            if (!in.part.delete()) {
+                log.warn("Cannot delete {}", in.part);
+            }
+            log.warn("Transfer {} of {} abandoned after {} ms without calls, at chunk {}/{}",
+                    e.getKey(), in.target.getName(), idleMs, in.nextMissing(), in.chunks);
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns transfer statistics.
+     *
+     * @return A human-readable summary of the counters and the transfers.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("File transfers (chunk ").append(chunkSize).append(" B, window ").append(window).append("):\n");
+        sb.append(" Chunks sent:     ").append(chunksSent.sum()).append(" (resent ").append(chunksResent.sum()).append(")\n");
+        sb.append(" Checksum errors: ").append(checksumErrors.sum()).append("\n");
+        sb.append(" Resumes:         ").append(resumes.sum()).append("\n");
+        sb.append(" Received:        ").append(filesReceived.sum()).append(" files, ")
+                .append(bytesReceived.sum()).append(" bytes\n");
+        sb.append(" Abandoned:       ").append(expired.sum()).append("\n");
+        for (Map.Entry<String, String> e : outbound.entrySet()) {
+            sb.append(" Out ").append(e.getKey()).append(": ").append(e.getValue()).append("\n");
+        }
+        for (Map.Entry<String, Inbound> e : inbound.entrySet()) {
+            Inbound in = e.getValue();
+            sb.append(" In  ").append(e.getKey()).append(": ").append(in.target.getName()).append(" ")
+                    .append(in.nextMissing()).append("/").append(in.chunks).append(" chunks\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Receiving side of one transfer: the part file and the set of chunks written so far.
+     */
+    private final class Inbound {
+        private final File target;
+        private final File part;
+        private final long size;
+        private final int chunkSize;
+        private final int chunks;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final BitSet received = new BitSet();
+        private final AtomicInteger writing = new AtomicInteger();
+        private volatile long lastActive = System.currentTimeMillis();
+
+        Inbound(File target, File part, long size, int chunkSize) throws IOException {
+            this.target = target;
+            this.part = part;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunks = (int) ((size + chunkSize - 1) / chunkSize);
+            this.raf = new RandomAccessFile(part, "rw");
+            this.raf.setLength(size);
+            this.channel = raf.getChannel();
+        }
+
+        /**
+         * Writes a chunk at its offset unless it was written before.
+         *
+         * @return {@code true} if the chunk was new.
+         */
+        boolean write(int index, byte[] data) throws IOException {
+            if (index < 0 || index >= chunks) {
+                throw new IOException("Chunk " + index + " out of range");
+            }
+            synchronized (received) {
+                if (received.get(index)) {
+                    return false;
+                }
+            }
+            writing.incrementAndGet();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long position = (long) index * chunkSize;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+            } finally {
+                writing.decrementAndGet();
+            }
+            synchronized (received) {
+                received.set(index);
+            }
+            return true;
+        }
+
+        int nextMissing() {
+            synchronized (received) {
+                return received.nextClearBit(0);
+            }
+        }
+
+        int credits() {
+            return Math.max(1, window - writing.get());
+        }
+
+        void touch() {
+            lastActive = System.currentTimeMillis();
+        }
+
+        void close() throws IOException {
+            channel.force(false);
+            raf.close();
+        }
+    }
+}
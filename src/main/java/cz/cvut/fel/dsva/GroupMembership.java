@@ -0,0 +1,392 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.DSNeighbours;
+import cz.cvut.fel.dsva.base.GroupMessage;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hierarchical membership for large clusters, enabled with <code>dsva.group.by=subnet</code> or <code>hash</code>.
+ *
+ * <p>Every node belongs to a group derived from its address: its /24 subnet, or a hash of the address
+ * modulo <code>dsva.group.count</code>. Because any node can compute the group of any address, no
+ * protocol is needed to assign groups. A node's {@link DSNeighbours} then only holds the members of its
+ * own group, and the existing Bully election runs inside the group, so failures are handled there.
+ *
+ * <p>On top of that:
+ * <ul>
+ *     <li>Group leaders keep a directory of all group leaders. A new group leader announces itself to
+ *     the directory and the global leader ({@link GroupMessage.Kind#LEADER}) and merges the directories
+ *     returned by the others; the global leader relays the announcement to the remaining group leaders.</li>
+ *     <li>Group leaders elect a global leader among themselves with Bully: an {@link GroupMessage.Kind#ELECTION}
+ *     call to every higher group leader, where a successful call counts as OK, and a
+ *     {@link GroupMessage.Kind#COORDINATOR} announcement, which group leaders pass on to their members.
+ *     A global election is only needed when the group of the global leader replaces its leader.</li>
+ *     <li>A join for another group is routed to that group's leader; a node of a group without a leader
+ *     founds it and becomes its leader.</li>
+ * </ul>
+ * Per-node state grows with the group size plus the number of groups, and election messages with the
+ * group size (group elections) or the number of groups (global elections), not with the cluster size.
+ * Data-plane features (messages, topics, key-value store) operate within the group.
+ *
+ * <p>All methods except {@link #routeJoin(Address)} and {@link #isGroupLeader()} run on the node's state thread.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class GroupMembership {
+    private final Node node;
+    private final String mode;
+    private final int groupCount;
+    private final Map<String, Long> groupTerms = new ConcurrentHashMap<>();
+    private final LongAdder groupMessages = new LongAdder();
+    private boolean globalElectionInProgress = false;
+    private long globalElections = 0;
+
+    /**
+     * Constructs the group membership helper for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public GroupMembership(Node node) {
+        this.node = node;
+        this.mode = Config.getString("dsva.group.by", "none");
+        this.groupCount = Math.max(1, Config.getInt("dsva.group.count", 8));
+    }
+
+    public boolean isEnabled() {
+        return "subnet".equals(mode) || "hash".equals(mode);
+    }
+
+    /**
+     * Returns the group of a node.
+     *
+     * @param a The address of the node.
+     * @return The group key, e.g. <code>10.0.1</code> (subnet) or <code>g3</code> (hash).
+     */
+    public String groupOf(Address a) {
+        if ("subnet".equals(mode)) {
+            int dot = a.getHostname().lastIndexOf('.');
+            return dot < 0 ? a.getHostname() : a.getHostname().substring(0, dot);
+        }
+        int h = (a.getHostname() + ":" + a.getPort()).hashCode() * 0x9E3779B1;
+        return "g" + Math.floorMod(h ^ (h >>> 16), groupCount);
+    }
+
+    public String myGroup() {
+        return groupOf(node.getAddress());
+    }
+
+    public boolean isGroupLeader() {
+        return node.getAddress().equals(node.getNeighbours().getLeader());
+    }
+
+    private Map<String, Address> directory() {
+        return node.getNeighbours().getGroupLeaders();
+    }
+
+    private long idOf(Address a) {
+        return node.computeId(a.getHostname(), a.getPort());
+    }
+
+    /**
+     * Routes a join request of a node from another group. Runs on the RMI thread.
+     *
+     * <p>A member passes the request to its group leader. A group leader forwards it to the leader of the
+     * joiner's group; if that group has no (reachable) leader, the joiner is told to found it.
+     *
+     * @param joiner The joining node.
+     * @return The joiner's view, or {@code null} if the joiner belongs to this node's group.
+     */
+    public DSNeighbours routeJoin(Address joiner) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String group = groupOf(joiner);
+        if (group.equals(myGroup())) {
+            return null;
+        }
+        List<Address> routes = new ArrayList<>();
+        Address groupLeader = node.getNeighbours().getLeader();
+        if (!isGroupLeader() && groupLeader != null) {
+            routes.add(groupLeader);
+        }
+        Address leader = directory().get(group);
+        if (leader != null && !leader.equals(joiner)) {
+            routes.add(leader);
+        }
+        for (Address route : routes) {
+            try {
+                groupMessages.increment();
+                log.info("Routing join of {} (group {}) through {}", joiner, group, route);
+                return node.getCommunicationHub().getControlProxy(route).join(joiner);
+            } catch (RemoteException e) {
+                log.warn("Cannot route join of {} through {}: {}", joiner, route, e.getMessage());
+            }
+        }
+        log.info("Group {} has no reachable leader. {} founds it.", group, joiner);
+        DSNeighbours founder = new DSNeighbours(joiner);
+        founder.getGroupLeaders().putAll(directory());
+        founder.getGroupLeaders().put(group, joiner);
+        founder.setGlobalLeader(node.getNeighbours().getGlobalLeader());
+        founder.setGlobalTerm(node.getNeighbours().getGlobalTerm());
+        return founder;
+    }
+
+    /**
+     * Called when this node became the leader of its group: updates the directory, announces the
+     * change to the other group leaders and starts a global election if the global leader was lost.
+     */
+    public void onGroupLeader() {
+        if (!isEnabled()) {
+            return;
+        }
+        final String group = myGroup();
+        final Address self = node.getAddress();
+        final long term = node.getNeighbours().getTerm();
+        final Address previous = directory().put(group, self);
+        groupTerms.put(group, term);
+        final Address global = node.getNeighbours().getGlobalLeader();
+        final boolean lostGlobal = global == null || (!global.equals(self) && global.equals(previous));
+        final List<Address> targets = otherGroupLeaders();
+        if (global != null && !global.equals(self) && !targets.contains(global)) {
+            targets.add(global);
+        }
+        log.info("Leader of group {} (term {}). Announcing to {} group leaders.", group, term, targets.size());
+        node.getEventLoop().runControl(() -> {
+            final List<Map<String, Address>> directories = new ArrayList<>();
+            boolean globalUnreachable = false;
+            for (Address a : targets) {
+                try {
+                    groupMessages.increment();
+                    directories.add(node.getCommunicationHub().getControlProxy(a).group(GroupMessage.leader(group, term, self)));
+                } catch (RemoteException e) {
+                    log.warn("Group leader {} unreachable: {}", a, e.getMessage());
+                    globalUnreachable |= a.equals(global);
+                }
+            }
+            final boolean electGlobal = lostGlobal || globalUnreachable;
+            node.getEventLoop().submitControl(() -> {
+                for (Map<String, Address> d : directories) {
+                    for (Map.Entry<String, Address> e : d.entrySet()) {
+                        directory().putIfAbsent(e.getKey(), e.getValue());
+                    }
+                }
+                if (electGlobal) {
+                    startGlobalElection();
+                }
+            });
+        });
+    }
+
+    private List<Address> otherGroupLeaders() {
+        List<Address> result = new ArrayList<>();
+        for (Address a : directory().values()) {
+            if (!a.equals(node.getAddress()) && !result.contains(a)) {
+                result.add(a);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Handles a group protocol message.
+     *
+     * @param m The message.
+     */
+    public void onMessage(GroupMessage m) {
+        switch (m.getKind()) {
+            case LEADER:
+                onLeaderAnnounced(m);
+                break;
+            case ELECTION:
+                if (idOf(node.getAddress()) > idOf(m.getAddress())) {
+                    startGlobalElection();
+                }
+                break;
+            case COORDINATOR:
+                onCoordinator(m);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onLeaderAnnounced(GroupMessage m) {
+        String group = m.getGroup();
+        Address current = directory().get(group);
+        Long known = groupTerms.get(group);
+        if (current != null && !current.equals(m.getAddress()) && known != null) {
+            if (m.getTerm() < known || (m.getTerm() == known && idOf(current) > idOf(m.getAddress()))) {
+                log.info("Ignoring stale leader {} of group {} (term {} vs {})", m.getAddress(), group, m.getTerm(), known);
+                return;
+            }
+        }
+        directory().put(group, m.getAddress());
+        groupTerms.put(group, m.getTerm());
+        log.info("Group {} is led by {} (term {})", group, m.getAddress(), m.getTerm());
+        if (group.equals(myGroup()) && isGroupLeader() && !m.getAddress().equals(node.getAddress())) {
+            // Two nodes founded the group concurrently; the other one won, so join it
+            final Address winner = m.getAddress();
+            log.warn("Group {} has another leader {}. Re-joining through it.", group, winner);
+            node.getEventLoop().runControl(() -> node.join(winner.getHostname(), winner.getPort()));
+            return;
+        }
+        Address global = node.getNeighbours().getGlobalLeader();
+        if (node.getAddress().equals(global)) {
+            // Every new group leader announces itself to the global leader, whose directory is therefore
+            // complete; it passes the change on to the group leaders the announcer did not know about
+            List<Address> targets = otherGroupLeaders();
+            targets.remove(m.getAddress());
+            relay(m, targets);
+        }
+        if (current != null && current.equals(global) && !current.equals(m.getAddress())) {
+            log.info("Group {} of the global leader {} has a new leader.", group, global);
+            startGlobalElection();
+        }
+    }
+
+    /**
+     * Runs for global leader among the group leaders with a higher ID. Only group leaders take part.
+     */
+    public void startGlobalElection() {
+        if (!isGroupLeader() || globalElectionInProgress) {
+            return;
+        }
+        globalElectionInProgress = true;
+        globalElections++;
+        final long term = node.getNeighbours().getGlobalTerm() + 1;
+        final Address self = node.getAddress();
+        final List<Address> higher = new ArrayList<>();
+        for (Address a : otherGroupLeaders()) {
+            if (idOf(a) > idOf(self)) {
+                higher.add(a);
+            }
+        }
+        log.info("Starting global election in term {} ({} higher group leaders)", term, higher.size());
+        final NodeEventLoop loop = node.getEventLoop();
+        loop.runControl(() -> {
+            boolean answered = false;
+            for (Address a : higher) {
+                try {
+                    groupMessages.increment();
+                    node.getCommunicationHub().getControlProxy(a).group(GroupMessage.election(term, self));
+                    answered = true;
+                } catch (RemoteException e) {
+                    log.info("Higher group leader {} did not answer: {}", a, e.getMessage());
+                }
+            }
+            final boolean higherAlive = answered;
+            loop.submitControl(() -> {
+                if (!higherAlive) {
+                    becomeGlobalLeader(term);
+                    return;
+                }
+                loop.schedule(() -> {
+                    if (globalElectionInProgress) {
+                        log.info("No global coordinator after the election of term {}. Retrying.", term);
+                        globalElectionInProgress = false;
+                        startGlobalElection();
+                    }
+                }, 2 * Node.ELECTION_TIMEOUT_MS);
+            });
+        });
+    }
+
+    private void becomeGlobalLeader(long term) {
+        final Address self = node.getAddress();
+        node.getNeighbours().setGlobalLeader(self);
+        node.getNeighbours().setGlobalTerm(term);
+        globalElectionInProgress = false;
+        log.info("I am the global leader (term {}).", term);
+        node.getChangeFeed().publish("GLOBAL_LEADER", self);
+        List<Address> targets = otherGroupLeaders();
+        targets.addAll(groupMembers());
+        relay(GroupMessage.coordinator(term, self), targets);
+    }
+
+    private void onCoordinator(GroupMessage m) {
+        DSNeighbours ds = node.getNeighbours();
+        Address current = ds.getGlobalLeader();
+        if (m.getTerm() < ds.getGlobalTerm() || (m.getTerm() == ds.getGlobalTerm() && current != null
+                && !current.equals(m.getAddress()) && idOf(current) > idOf(m.getAddress()))) {
+            return;
+        }
+        ds.setGlobalLeader(m.getAddress());
+        ds.setGlobalTerm(m.getTerm());
+        // The global leader always leads its own group
+        directory().put(groupOf(m.getAddress()), m.getAddress());
+        globalElectionInProgress = false;
+        log.info("Global leader is {} (term {})", m.getAddress(), m.getTerm());
+        node.getChangeFeed().publish("GLOBAL_LEADER", m.getAddress());
+        if (isGroupLeader()) {
+            relay(m, groupMembers());
+        }
+    }
+
+    private List<Address> groupMembers() {
+        List<Address> result = new ArrayList<>();
+        for (Address a : node.getNeighbours().getKnownNodes()) {
+            if (!a.equals(node.getAddress())) {
+                result.add(a);
+            }
+        }
+        return result;
+    }
+
+    private void relay(final GroupMessage m, final List<Address> targets) {
+        node.getEventLoop().runControl(() -> {
+            for (Address a : targets) {
+                try {
+                    groupMessages.increment();
+                    node.getCommunicationHub().getControlProxy(a).group(m);
+                } catch (RemoteException e) {
+                    log.warn("Cannot send {} to {}: {}", m, a, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a snapshot of the directory, as answered to other group leaders.
+     *
+     * @return The group leaders by group.
+     */
+    public Map<String, Address> snapshot() {
+        return new HashMap<>(directory());
+    }
+
+    /**
+     * Returns a human-readable summary of the group state.
+     *
+     * @return The group, leaders and counters.
+     */
+    public String getStats() {
+        if (!isEnabled()) {
+            return "Hierarchical groups disabled (dsva.group.by=none)\n";
+        }
+        DSNeighbours ds = node.getNeighbours();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Groups by ").append(mode).append(": my group ").append(myGroup())
+                .append(" (").append(ds.getKnownNodes().size()).append(" members, leader ").append(ds.getLeader()).append(")\n");
+        sb.append(" Global leader: ").append(ds.getGlobalLeader()).append(" (term ").append(ds.getGlobalTerm())
+                .append(", global elections started here ").append(globalElections).append(")\n");
+        sb.append(" Group messages sent: ").append(groupMessages.sum()).append("\n");
+        sb.append(" Directory (").append(directory().size()).append(" groups):\n");
+        for (Map.Entry<String, Address> e : new TreeMap<>(directory()).entrySet()) {
+            sb.append("  ").append(e.getKey()).append(" -> ").append(e.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable consistent-hash ring with virtual nodes.
+ *
+ * <p>Every member is placed on the ring at {@code vnodes} positions derived from its address, and a key
+ * belongs to the first members found walking clockwise from the key's hash. Adding or removing a member
+ * produces a new ring that differs only in that member's positions, so only the key ranges next to them move.
+ * Because a ring never changes, readers on any thread can use the current one without locking.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public final class HashRing {
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int vnodes;
+    private final NavigableMap<Long, Address> ring;
+    private final Set<Address> members;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param vnodes The number of positions per member.
+     */
+    public HashRing(int vnodes) {
+        this(vnodes, new TreeMap<>(), new HashSet<>());
+    }
+
+    private HashRing(int vnodes, NavigableMap<Long, Address> ring, Set<Address> members) {
+        this.vnodes = vnodes;
+        this.ring = Collections.unmodifiableNavigableMap(ring);
+        this.members = Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * Returns a ring with the given member added.
+     *
+     * @param a The member to add.
+     * @return The new ring, or this ring if {@code a} is already a member.
+     */
+    public HashRing with(Address a) {
+        if (members.contains(a)) {
+            return this;
+        }
+        TreeMap<Long, Address> copy = new TreeMap<>(ring);
+        for (int i = 0; i < vnodes; i++) {
+            copy.put(hash(a.getHostname() + ":" + a.getPort() + "#" + i), a);
+        }
+        Set<Address> m = new HashSet<>(members);
+        m.add(a);
+        return new HashRing(vnodes, copy, m);
+    }
+
+    /**
+     * Returns a ring with the given member removed.
+     *
+     * @param a The member to remove.
+     * @return The new ring, or this ring if {@code a} is not a member.
+     */
+    public HashRing without(Address a) {
+        if (!members.contains(a)) {
+            return this;
+        }
+        TreeMap<Long, Address> copy = new TreeMap<>(ring);
+        copy.values().removeIf(a::equals);
+        Set<Address> m = new HashSet<>(members);
+        m.remove(a);
+        return new HashRing(vnodes, copy, m);
+    }
+
+    /**
+     * Returns the nodes responsible for a key.
+     *
+     * @param key      The key.
+     * @param replicas The replication factor.
+     * @return Up to {@code replicas} distinct members, the primary first.
+     */
+    public List<Address> replicasFor(String key, int replicas) {
+        int wanted = Math.min(replicas, members.size());
+        List<Address> result = new ArrayList<>(wanted);
+        if (wanted == 0) {
+            return result;
+        }
+        long h = hash(key);
+        for (Map.Entry<Long, Address> e : ring.tailMap(h, true).entrySet()) {
+            if (addReplica(result, e.getValue(), wanted)) {
+                return result;
+            }
+        }
+        for (Map.Entry<Long, Address> e : ring.headMap(h, false).entrySet()) {
+            if (addReplica(result, e.getValue(), wanted)) {
+                return result;
+            }
+        }
+        return result;
+    }
+
+    private static boolean addReplica(List<Address> result, Address a, int wanted) {
+        if (!result.contains(a)) {
+            result.add(a);
+        }
+        return result.size() >= wanted;
+    }
+
+    static long hash(String s) {
+        byte[] d = MD5.get().digest(s.getBytes(StandardCharsets.UTF_8));
+        long h = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (d[i] & 0xff);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,386 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.DSNeighbours;
+import cz.cvut.fel.dsva.base.IdBlock;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A generator of cluster-unique, roughly ordered 64-bit IDs.
+ *
+ * <p>Asking the leader for every ID would make it a bottleneck, so the work is split:
+ * <ul>
+ *     <li><b>Leader</b> (the global leader when groups are enabled, as for the {@link ReplicatedLog}): hands out
+ *     blocks of <code>dsva.id.blockSize</code> consecutive IDs from its high-water mark. The end of every block
+ *     is appended to the replicated log before the block is returned, so the high-water mark survives
+ *     leader changes.</li>
+ *     <li><b>Every node</b>: issues the IDs of its current block with a single atomic increment, without locks
+ *     or calls. When a quarter of the block is left, it fetches the next block in the background,
+ *     so callers wait for the leader only if they drain a whole block faster than one round trip.
+ *     Every time that happens, the node doubles the size of the blocks it asks for, up to <code>MAX_GROWTH</code>
+ *     times <code>dsva.id.blockSize</code>.</li>
+ * </ul>
+ *
+ * <p>A leader fences itself once per election term before the first block: it appends a marker to the
+ * replicated log and, once the marker is committed (so the log holds every block granted by earlier leaders),
+ * raises its high-water mark to the highest block end in the log, which the log keeps folded for it
+ * (see {@link ReplicatedLog#fold}), and at least to <code>term &lt;&lt; 40</code>.
+ * The term in the high bits keeps blocks of different leaders apart even if a block end never made it into
+ * the log, and makes IDs roughly ordered across leader changes. The fence starts as soon as the leader is
+ * announced, so the first request does not wait for it.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class IdService {
+    public static final int TERM_SHIFT = 40;
+    public static final long RETRY_MS = 200;
+    public static final long WAIT_MS = 10000;
+    public static final int MAX_GROWTH = 64;
+    public static final String BLOCK_PREFIX = "id-block ";
+    public static final String FENCE_PREFIX = "id-fence ";
+
+    private final Node node;
+    private final long blockSize;
+
+    // Client side: current is read by every caller, spare is guarded by this
+    private volatile Block current = new Block(new IdBlock(0, 0, 0));
+    private Block spare;
+    private Block stalledOn;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private volatile long requestSize;
+
+    // Leader side, guarded by this
+    private long highWater = 0;
+    private long fenceTerm = -1;
+    private CompletableFuture<Long> fence;
+
+    private final LongAdder blocksFetched = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder blocksGranted = new LongAdder();
+    private final LongAdder fences = new LongAdder();
+
+    /**
+     * Constructs the ID service of the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public IdService(Node node) {
+        this.node = node;
+        this.blockSize = Math.max(16, Config.getLong("dsva.id.blockSize", 100000));
+        this.requestSize = blockSize;
+        node.getReplicatedLog().fold(BLOCK_PREFIX, (a, b) -> blockEnd(a) >= blockEnd(b) ? a : b);
+    }
+
+    // ---------------------------------------------------------------- client side
+
+    /**
+     * Returns a new cluster-unique ID. Memory-speed while the current block lasts.
+     *
+     * @return The ID.
+     * @throws IllegalStateException If no block could be fetched from the leader within <code>WAIT_MS</code>.
+     */
+    public long nextId() {
+        while (true) {
+            Block b = current;
+            long id = b.next.getAndIncrement();
+            if (id < b.end) {
+                if (id == b.refillAt) {
+                    refill();
+                }
+                return id;
+            }
+            advance(b);
+        }
+    }
+
+    /**
+     * Replaces an exhausted block with the spare one, waiting for it if it has not arrived yet.
+     *
+     * @param exhausted The block the caller found exhausted.
+     */
+    private synchronized void advance(Block exhausted) {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (current == exhausted) {
+            if (spare != null) {
+                current = spare;
+                spare = null;
+                return;
+            }
+            if (stalledOn != exhausted) {
+                stalledOn = exhausted;
+                stalls.increment();
+                requestSize = Math.min(requestSize * 2, blockSize * MAX_GROWTH);
+            }
+            refill();
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                throw new IllegalStateException("No ID block from the leader within " + WAIT_MS + " ms");
+            }
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an ID block");
+            }
+        }
+    }
+
+    /**
+     * Starts fetching the spare block in the background unless it is already there or on its way.
+     */
+    private void refill() {
+        synchronized (this) {
+            if (spare != null) {
+                return;
+            }
+        }
+        if (refilling.compareAndSet(false, true)) {
+            node.getEventLoop().runIo(this::fetch);
+        }
+    }
+
+    private void fetch() {
+        IdBlock block = null;
+        try {
+            Address leader = leader();
+            if (leader == null) {
+                throw new RemoteException("No leader");
+            }
+            block = leader.equals(node.getAddress())
+                    ? allocateAsLeader(node.getAddress(), requestSize)
+                    : node.getCommunicationHub().getProxy(leader).allocateIds(node.getAddress(), requestSize);
+        } catch (RemoteException e) {
+            log.debug("Fetching an ID block failed: {}", e.getMessage());
+        }
+        if (block == null) {
+            node.getEventLoop().getTimer().schedule(() -> node.getEventLoop().runIo(this::fetch), RETRY_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        blocksFetched.increment();
+        synchronized (this) {
+            spare = new Block(block);
+            refilling.set(false);
+            notifyAll();
+        }
+        log.debug("Fetched {}", block);
+    }
+
+    private Address leader() {
+        DSNeighbours ds = node.getNeighbours();
+        return node.getGroups().isEnabled() ? ds.getGlobalLeader() : ds.getLeader();
+    }
+
+    private long term() {
+        DSNeighbours ds = node.getNeighbours();
+        return node.getGroups().isEnabled() ? ds.getGlobalTerm() : ds.getTerm();
+    }
+
+    /**
+     * Called when a new leader is announced. The new leader starts fencing its term right away.
+     *
+     * @param leader The address of the new leader.
+     */
+    public void onLeaderAnnounced(Address leader) {
+        if (leader.equals(node.getAddress()) && leader.equals(leader())) {
+            fence(term());
+        }
+    }
+
+    // ---------------------------------------------------------------- leader side
+
+    /**
+     * Leader side: allocates a block of IDs. Returns once the end of the block is committed in the replicated log.
+     *
+     * @param client The requesting node.
+     * @param count  The number of IDs.
+     * @return The block.
+     * @throws RemoteException If this node is not the leader or the block could not be made durable.
+     */
+    public IdBlock allocateAsLeader(Address client, long count) throws RemoteException {
+        long term = term();
+        if (!node.getAddress().equals(leader())) {
+            throw new RemoteException("Node " + node.getAddress() + " is not the ID leader");
+        }
+        IdBlock block;
+        try {
+            long floor = fence(term).get(ReplicatedLog.APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                highWater = Math.max(highWater, floor);
+                block = new IdBlock(highWater, highWater + Math.max(1, Math.min(count, blockSize * MAX_GROWTH)), term);
+                highWater = block.getEnd();
+            }
+            node.getReplicatedLog().append(BLOCK_PREFIX + block.getEnd()).get(ReplicatedLog.APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted");
+        } catch (Exception e) {
+            throw new RemoteException("Could not allocate an ID block: " + e.getMessage());
+        }
+        blocksGranted.increment();
+        log.debug("Granted {} to {}", block, client);
+        return block;
+    }
+
+    /**
+     * Returns the fence of the given term, starting it if needed. The fence completes with the lowest ID
+     * this leader may hand out.
+     *
+     * @param term The leader's term.
+     * @return The fence.
+     */
+    private synchronized CompletableFuture<Long> fence(final long term) {
+        if (fenceTerm == term) {
+            return fence;
+        }
+        final CompletableFuture<Long> f = new CompletableFuture<>();
+        fenceTerm = term;
+        fence = f;
+        fences.increment();
+        node.getReplicatedLog().append(FENCE_PREFIX + term).whenComplete((index, e) -> {
+            if (e != null) {
+                synchronized (this) {
+                    if (fence == f) {
+                        fenceTerm = -1;
+                    }
+                }
+                f.completeExceptionally(e);
+                return;
+            }
+            node.getEventLoop().runControl(() -> f.complete(Math.max(term << TERM_SHIFT, highestBlockEnd(term, index))));
+        });
+        return f;
+    }
+
+    /**
+     * Returns the highest block end in the committed log, including the archived blocks.
+     *
+     * @param term The leader's term.
+     * @param upTo The index of this leader's fence marker.
+     * @return The highest block end, or 0.
+     */
+    private long highestBlockEnd(long term, long upTo) {
+        String block = node.getReplicatedLog().folded(BLOCK_PREFIX, upTo);
+        long highest = block == null ? 0 : blockEnd(block);
+        log.info("ID service fenced at term {}: highest block end {}", term, highest);
+        return highest;
+    }
+
+    private static long blockEnd(String data) {
+        try {
+            return Long.parseLong(data.substring(BLOCK_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            // Not written by the ID service
+            return 0;
+        }
+    }
+
+    // ---------------------------------------------------------------- reporting
+
+    /**
+     * Measures local generation: the given number of threads draw IDs for the given time
+     * and the result is checked for duplicates.
+     *
+     * @param threads The number of threads.
+     * @param seconds The duration.
+     * @return A human-readable report.
+     */
+    public String benchmark(int threads, int seconds) {
+        final long deadline = System.currentTimeMillis() + seconds * 1000L;
+        final LongAdder generated = new LongAdder();
+        final AtomicLong lowest = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong highest = new AtomicLong(Long.MIN_VALUE);
+        final AtomicBoolean ordered = new AtomicBoolean(true);
+        long fetched = blocksFetched.sum();
+        long stalled = stalls.sum();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                long count = 0;
+                long last = Long.MIN_VALUE;
+                try {
+                    while ((count & 1023) != 0 || System.currentTimeMillis() < deadline) {
+                        long id = nextId();
+                        if (id <= last) {
+                            ordered.set(false);
+                        }
+                        if (last == Long.MIN_VALUE) {
+                            lowest.accumulateAndGet(id, Math::min);
+                        }
+                        last = id;
+                        count++;
+                    }
+                } catch (IllegalStateException e) {
+                    log.warn("ID benchmark stopped: {}", e.getMessage());
+                }
+                highest.accumulateAndGet(last, Math::max);
+                generated.add(count);
+            }, "id-bench-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        String result = String.format("%d threads for %d s: %d IDs (%.1f M/s), %d..%d%n" +
+                        "Blocks fetched: %d, stalls: %d, increasing per thread: %s%n",
+                threads, seconds, generated.sum(), generated.sum() / (seconds * 1e6), lowest.get(), highest.get(),
+                blocksFetched.sum() - fetched, stalls.sum() - stalled, ordered.get());
+        log.info("ID benchmark:\n{}", result);
+        return result;
+    }
+
+    /**
+     * Builds a human-readable summary of the ID service.
+     *
+     * @return The ID service statistics.
+     */
+    public synchronized String getStats() {
+        Block b = current;
+        StringBuilder sb = new StringBuilder("ID service:\n");
+        sb.append(" BlockSize:     ").append(blockSize).append(", requesting ").append(requestSize).append("\n");
+        sb.append(" Current block: ").append(b.block).append(", ").append(Math.max(0, b.end - b.next.get())).append(" left\n");
+        sb.append(" Spare block:   ").append(spare == null ? (refilling.get() ? "fetching" : "none") : spare.block).append("\n");
+        sb.append(" Fetched:       ").append(blocksFetched.sum()).append(" blocks, ").append(stalls.sum()).append(" stalls\n");
+        if (fenceTerm >= 0) {
+            sb.append(" Leader:        term ").append(fenceTerm).append(fence.isDone() ? "" : " (fencing)")
+                    .append(", high-water ").append(highWater).append(", ").append(blocksGranted.sum())
+                    .append(" blocks granted, ").append(fences.sum()).append(" fences\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A block being issued: the next ID and when to fetch the spare.
+     */
+    private static class Block {
+        private final IdBlock block;
+        private final AtomicLong next;
+        private final long end;
+        private final long refillAt;
+
+        private Block(IdBlock block) {
+            this.block = block;
+            this.next = new AtomicLong(block.getStart());
+            this.end = block.getEnd();
+            this.refillAt = end - Math.max(1, (end - block.getStart()) / 4);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.VersionedValue;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A partitioned, replicated in-memory key-value store spread over the cluster.
+ *
+ * <p>Keys are placed on a {@link HashRing} built from the node's membership, with
+ * <code>dsva.kv.vnodes</code> virtual nodes per member. Each key is stored on the first
+ * <code>dsva.kv.replicas</code> members clockwise from its hash:
+ * <ul>
+ *     <li><b>put</b>: the node that receives the request versions the value and writes it to all replicas;
+ *     the write succeeds if at least one replica stored it. Replicas keep the newest version.</li>
+ *     <li><b>get</b>: all replicas are asked and the newest version is returned, since a replica that missed
+ *     a write still holds an older one. With <code>dsva.kv.readRepair</code>, replicas that answered with an
+ *     older version or none are sent the newest one in the background.</li>
+ *     <li><b>Handoff</b>: when membership changes, the ring is updated by adding or removing only the
+ *     changed member's positions. In the background, and one ring change after another, every old replica
+ *     of a key whose replica set gained a node pushes it to that node, and keys this node no longer owns
+ *     are dropped once they were pushed.</li>
+ * </ul>
+ *
+ * <p>Membership updates ({@link #onMembershipChanged()}) run on the node's state thread; reads and writes
+ * can run on any thread, since the ring is immutable and the local store is concurrent.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class KeyValueStore {
+    public static final int HANDOFF_BATCH = 512;
+
+    private final Node node;
+    private final int replicas;
+    private final boolean readRepair;
+    private final Map<String, VersionedValue> local = new ConcurrentHashMap<>();
+    private volatile HashRing ring;
+    private final AtomicLong clock = new AtomicLong();
+    private final Executor handoffLane;
+
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder gets = new LongAdder();
+    private final LongAdder replicaWrites = new LongAdder();
+    private final LongAdder handedOff = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder repairs = new LongAdder();
+    private volatile long ringChanges = 0;
+
+    /**
+     * Constructs the key-value store for the given node. The ring initially contains only this node.
+     *
+     * @param node The parent Node instance.
+     */
+    public KeyValueStore(Node node) {
+        this.node = node;
+        this.replicas = Math.max(1, Config.getInt("dsva.kv.replicas", 2));
+        this.readRepair = Config.getBoolean("dsva.kv.readRepair", true);
+        this.ring = new HashRing(Config.getInt("dsva.kv.vnodes", 64)).with(node.getAddress());
+        this.handoffLane = node.getEventLoop().lane();
+    }
+
+    /**
+     * Brings the ring in line with the current membership and starts the handoff of the moved keys.
+     * Must run on the state thread.
+     */
+    public void onMembershipChanged() {
+        if (!node.isActive()) {
+            return;
+        }
+        Set<Address> members = new HashSet<>(node.getNeighbours().getKnownNodes());
+        members.add(node.getAddress());
+        final HashRing before = ring;
+        HashRing after = before;
+        for (Address a : before.getMembers()) {
+            if (!members.contains(a)) {
+                after = after.without(a);
+            }
+        }
+        for (Address a : members) {
+            after = after.with(a);
+        }
+        if (after == before) {
+            return;
+        }
+        ring = after;
+        ringChanges++;
+        log.info("Hash ring updated: {} members", after.getMembers().size());
+        final HashRing next = after;
+        handoffLane.execute(() -> handoff(before, next));
+    }
+
+    /**
+     * Pushes keys to the replicas they gained between two rings and drops keys this node no longer owns.
+     */
+    private void handoff(HashRing before, HashRing after) {
+        Address self = node.getAddress();
+        Map<Address, Map<String, VersionedValue>> batches = new HashMap<>();
+        List<String> release = new ArrayList<>();
+        for (Map.Entry<String, VersionedValue> e : local.entrySet()) {
+            List<Address> oldReplicas = before.replicasFor(e.getKey(), replicas);
+            List<Address> newReplicas = after.replicasFor(e.getKey(), replicas);
+            if (oldReplicas.contains(self)) {
+                for (Address a : newReplicas) {
+                    if (!oldReplicas.contains(a) && !a.equals(self)) {
+                        batches.computeIfAbsent(a, x -> new HashMap<>()).put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            if (!newReplicas.contains(self)) {
+                release.add(e.getKey());
+            }
+        }
+        Set<Address> failed = new HashSet<>();
+        for (Map.Entry<Address, Map<String, VersionedValue>> b : batches.entrySet()) {
+            if (!pushAll(b.getKey(), b.getValue())) {
+                failed.add(b.getKey());
+            }
+        }
+        for (String key : release) {
+            boolean pushedOrNotMine = true;
+            for (Address a : after.replicasFor(key, replicas)) {
+                if (failed.contains(a)) {
+                    pushedOrNotMine = false;
+                }
+            }
+            if (pushedOrNotMine && ring == after) {
+                local.remove(key);
+                dropped.increment();
+            }
+        }
+        if (!batches.isEmpty() || !release.isEmpty()) {
+            log.info("Handoff done: pushed to {} nodes, released {} keys", batches.size(), release.size());
+        }
+    }
+
+    private boolean pushAll(Address target, Map<String, VersionedValue> entries) {
+        Map<String, VersionedValue> batch = new HashMap<>();
+        for (Map.Entry<String, VersionedValue> e : entries.entrySet()) {
+            batch.put(e.getKey(), e.getValue());
+            if (batch.size() >= HANDOFF_BATCH) {
+                if (!push(target, batch)) {
+                    return false;
+                }
+                batch = new HashMap<>();
+            }
+        }
+        return batch.isEmpty() || push(target, batch);
+    }
+
+    private boolean push(Address target, Map<String, VersionedValue> batch) {
+        try {
+            node.getCommunicationHub().getProxy(target).kvHandoff(new HashMap<>(batch));
+            handedOff.add(batch.size());
+            return true;
+        } catch (RemoteException e) {
+            log.error("Handoff of {} keys to {} failed: {}", batch.size(), target, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes a value to all replicas of the key. Blocks on the network.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The number of replicas that stored the value.
+     */
+    public int put(String key, String value) {
+        puts.increment();
+        long version = clock.updateAndGet(prev -> Math.max(prev + 1, System.currentTimeMillis() * 1000));
+        VersionedValue v = new VersionedValue(value, version, node.getNodeId());
+        int acks = 0;
+        for (Address a : ring.replicasFor(key, replicas)) {
+            try {
+                node.getCommunicationHub().getProxy(a).kvPut(key, v);
+                acks++;
+            } catch (RemoteException e) {
+                log.warn("Put of {} to replica {} failed: {}", key, a, e.getMessage());
+            }
+        }
+        return acks;
+    }
+
+    /**
+     * Reads a value from all replicas of the key and returns the newest version. Blocks on the network.
+     *
+     * @param key The key.
+     * @return The value, or {@code null} if no replica that answered has it.
+     */
+    public String get(String key) {
+        gets.increment();
+        VersionedValue newest = null;
+        Map<Address, VersionedValue> answers = new HashMap<>();
+        for (Address a : ring.replicasFor(key, replicas)) {
+            try {
+                VersionedValue v = node.getCommunicationHub().getProxy(a).kvGet(key);
+                answers.put(a, v);
+                if (v != null && v.newerThan(newest)) {
+                    newest = v;
+                }
+            } catch (RemoteException e) {
+                log.warn("Get of {} from replica {} failed: {}", key, a, e.getMessage());
+            }
+        }
+        if (newest != null && readRepair) {
+            repair(key, newest, answers);
+        }
+        return newest == null ? null : newest.getValue();
+    }
+
+    /**
+     * Sends the newest version of a key to the replicas that answered a read with an older one or none.
+     */
+    private void repair(final String key, final VersionedValue newest, Map<Address, VersionedValue> answers) {
+        for (Map.Entry<Address, VersionedValue> e : answers.entrySet()) {
+            if (!newest.newerThan(e.getValue())) {
+                continue;
+            }
+            final Address a = e.getKey();
+            node.getEventLoop().runIo(() -> {
+                try {
+                    node.getCommunicationHub().getProxy(a).kvPut(key, newest);
+                    repairs.increment();
+                } catch (RemoteException ex) {
+                    log.warn("Read repair of {} on replica {} failed: {}", key, a, ex.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Stores a replica of a value unless a newer version is already stored.
+     *
+     * @param key   The key.
+     * @param value The versioned value.
+     */
+    public void store(String key, VersionedValue value) {
+        replicaWrites.increment();
+        local.merge(key, value, (old, v) -> v.newerThan(old) ? v : old);
+    }
+
+    /**
+     * Reads the local replica of a value.
+     *
+     * @param key The key.
+     * @return The stored value, or {@code null}.
+     */
+    public VersionedValue load(String key) {
+        return local.get(key);
+    }
+
+    /**
+     * Runs a put/get benchmark through this node.
+     *
+     * @param count   The number of keys to write and read back.
+     * @param threads The number of concurrent clients.
+     * @return A human-readable summary of the throughput.
+     */
+    public String benchmark(final int count, int threads) {
+        ExecutorService clients = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            final String prefix = "bench-" + node.getMyPort() + "-" + System.nanoTime() + "-";
+            long putMs = run(clients, count, i -> put(prefix + i, "v" + i));
+            final LongAdder misses = new LongAdder();
+            long getMs = run(clients, count, i -> {
+                if (get(prefix + i) == null) {
+                    misses.increment();
+                }
+            });
+            String result = "KV benchmark (" + count + " keys, " + threads + " clients, "
+                    + ring.getMembers().size() + " nodes, " + replicas + " replicas):\n"
+                    + " put: " + (count * 1000L / Math.max(1, putMs)) + " ops/s\n"
+                    + " get: " + (count * 1000L / Math.max(1, getMs)) + " ops/s (" + misses.sum() + " misses)\n";
+            log.info("\n{}", result);
+            return result;
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private interface Op {
+        void run(int i);
+    }
+
+    private static long run(ExecutorService clients, int count, final Op op) {
+        final CountDownLatch done = new CountDownLatch(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            clients.execute(() -> {
+                try {
+                    op.run(n);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        try {
+            done.await(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns store statistics.
+     *
+     * @return A human-readable summary of the ring and the counters.
+     */
+    public String getStats() {
+        HashRing r = ring;
+        return "Key-value store:\n"
+                + " Ring:          " + r.getMembers().size() + " members x " + r.getVnodes() + " vnodes ("
+                + ringChanges + " changes)\n"
+                + " Replicas:      " + replicas + "\n"
+                + " Local keys:    " + local.size() + "\n"
+                + " Puts/Gets:     " + puts.sum() + "/" + gets.sum() + " coordinated\n"
+                + " Replica writes: " + replicaWrites.sum() + " (" + repairs.sum() + " read repairs sent)\n"
+                + " Handed off:    " + handedOff.sum() + " (dropped " + dropped.sum() + " after handoff)\n";
+    }
+}
@@ -0,0 +1,90 @@
+package cz.cvut.fel.dsva;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with HDR-style log-linear buckets.
+ *
+ * <p>Values below 128 get one bucket each; above that, every power of two is split into 64 linear
+ * sub-buckets, so any recorded value is reported with a relative error below 1.6 % while the whole
+ * range up to about an hour in microseconds fits in under 2000 counters. Recording is one atomic
+ * increment, so many threads can record concurrently.
+ *
+ * @author Kross Aleksandr
+ */
+public class LatencyHistogram {
+    private static final int LINEAR = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int MAX_SHIFT = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + MAX_SHIFT * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private volatile long max = 0;
+
+    /**
+     * Records one value.
+     *
+     * @param value The value, e.g. a latency in microseconds. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(indexOf(v));
+        total.increment();
+        if (v > max) {
+            synchronized (this) {
+                if (v > max) {
+                    max = v;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(long v) {
+        if (v < LINEAR) {
+            return (int) v;
+        }
+        int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(v) - 6);
+        long sub = Math.min(2 * SUB_BUCKETS - 1, v >> shift);
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (sub - SUB_BUCKETS);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the value at a percentile.
+     *
+     * @param percentile The percentile, e.g. 99.9.
+     * @return The upper bound of the bucket holding that percentile, or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,149 @@
+package cz.cvut.fel.dsva;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a node at a target rate and reports latency percentiles and the achieved throughput.
+ *
+ * <p>Scheduling is open-loop: the <i>n</i>-th operation is due at <code>start + n / rate</code>
+ * whether or not earlier ones have finished, and is handed to one of the virtual senders. Its latency
+ * is measured from the time it was due, not from the time a sender picked it up, so a stalled
+ * cluster shows up as growing latency instead of silently lowering the offered load
+ * (no coordinated omission).
+ *
+ * <p>Modes:
+ * <ul>
+ *     <li><b>message</b>: each operation is one delivery round of
+ *     {@link CommunicationHub#sendMessageTo(String, String, String, boolean)}, i.e. the RMI calls to all
+ *     neighbours, made on the sender's thread so that it is measured. The sends are not logged one by one,
+ *     so the log does not become the bottleneck.</li>
+ *     <li><b>election</b>: each operation starts an election and waits for the next leader or
+ *     membership change on the {@link ChangeFeed}.</li>
+ * </ul>
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+public class LoadGenerator {
+    public static final long ELECTION_WAIT_MS = 5000;
+
+    private final Node node;
+
+    /**
+     * Constructs a load generator for the given node.
+     *
+     * @param node The node to drive.
+     */
+    public LoadGenerator(Node node) {
+        this.node = node;
+    }
+
+    /**
+     * Runs a load test and blocks until all operations have completed.
+     *
+     * @param rate    The target rate in operations per second.
+     * @param seconds The duration of the test.
+     * @param senders The number of virtual senders executing operations concurrently.
+     * @param mode    <code>message</code> or <code>election</code>.
+     * @return A report with the achieved throughput and p50/p99/p999 latencies, or the reason the test
+     * was not run.
+     */
+    public String run(int rate, int seconds, int senders, String mode) {
+        if (rate <= 0 || seconds <= 0 || senders <= 0) {
+            return "rate, seconds and senders must be positive\n";
+        }
+        final boolean elections = "election".equals(mode);
+        final long operations = (long) rate * seconds;
+        if (operations > Integer.MAX_VALUE) {
+            return "rate * seconds must not exceed " + Integer.MAX_VALUE + " operations\n";
+        }
+        final long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final CountDownLatch done = new CountDownLatch((int) operations);
+        final AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(senders, r -> {
+            Thread t = new Thread(r, "load-sender-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("Load test: {} ops/s for {} s with {} senders ({})", rate, seconds, senders, elections ? "election" : "message");
+        final long start = System.nanoTime();
+        for (long i = 0; i < operations; i++) {
+            final long due = start + i * periodNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final long n = i;
+            pool.execute(() -> {
+                try {
+                    if (elections) {
+                        electionRound();
+                    } else {
+                        node.getCommunicationHub().sendMessageTo("load", node.getNickname(), "load #" + n, true);
+                    }
+                } catch (RuntimeException e) {
+                    errors.increment();
+                } finally {
+                    histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+                    done.countDown();
+                }
+            });
+        }
+        long scheduledNanos = System.nanoTime() - start;
+        try {
+            if (!done.await(seconds + 60L, TimeUnit.SECONDS)) {
+                log.warn("Load test did not drain in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        String report = report(rate, seconds, senders, elections ? "election" : "message",
+                histogram, errors.sum(), scheduledNanos, elapsedNanos);
+        log.info("\n{}", report);
+        return report;
+    }
+
+    private void electionRound() {
+        ChangeFeed feed = node.getChangeFeed();
+        long cursor = feed.getVersion();
+        node.startElection();
+        try {
+            feed.await(cursor, ELECTION_WAIT_MS).get(ELECTION_WAIT_MS + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("No leader change", e);
+        }
+    }
+
+    private static String report(int rate, int seconds, int senders, String mode, LatencyHistogram h,
+                                 long errors, long scheduledNanos, long elapsedNanos) {
+        double elapsed = elapsedNanos / 1e9;
+        return "Load test (" + mode + ", target " + rate + " ops/s for " + seconds + " s, " + senders + " senders):\n"
+                + " Completed:  " + h.getCount() + " ops (" + errors + " errors) in "
+                + String.format("%.2f", elapsed) + " s\n"
+                + " Throughput: " + String.format("%.1f", h.getCount() / elapsed) + " ops/s achieved, "
+                + String.format("%.1f", h.getCount() / (scheduledNanos / 1e9)) + " ops/s offered\n"
+                + " Latency:    p50 " + millis(h.percentile(50)) + ", p99 " + millis(h.percentile(99))
+                + ", p999 " + millis(h.percentile(99.9)) + ", max " + millis(h.getMax()) + "\n";
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2f ms", micros / 1000.0);
+    }
+}
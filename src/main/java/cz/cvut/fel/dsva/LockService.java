@@ -0,0 +1,633 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.LockGrant;
+import cz.cvut.fel.dsva.base.NodeCommands;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distributed lock service hosted by the elected leader.
+ *
+ * <p>Every node plays two roles:
+ * <ul>
+ *     <li><b>Leader</b>: keeps the lock table. A lock is granted as a lease of the requested duration together
+ *     with a fencing token. Requests for a held lock wait in a FIFO queue; when the lock is released, its lease
+ *     expires or its holder is reported through <code>leave</code>/<code>killNode</code>, the leader grants it to
+ *     the next waiter and calls the waiter's node back ({@link NodeCommands#lockGranted}).
+ *     Lease expiry is checked by a timer task per lease, not by sweeping the table.</li>
+ *     <li><b>Client</b>: sends requests to the leader and completes the caller's future when the grant arrives,
+ *     either in the reply or through the callback. It remembers the leases it holds and the requests
+ *     still waiting.</li>
+ * </ul>
+ *
+ * <p>Fencing tokens start at <code>term &lt;&lt; 32</code> on every new leader, so they keep increasing across
+ * leader changes. After a leader is announced, the new leader rebuilds the table from the leases the nodes
+ * report as held and queues requests until it is done; clients re-send their waiting requests to it.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class LockService {
+    public static final long RETRY_MS = 500;
+    public static final long REBUILD_TIMEOUT_MS = 5000;
+
+    private final Node node;
+
+    // Leader side, guarded by this
+    private final Map<String, Lock> locks = new HashMap<>();
+    private boolean leading = false;
+    private boolean rebuilding = false;
+    private long leaderTerm = -1;
+    private long lastToken = 0;
+
+    // Client side
+    private final Map<String, LockGrant> requests = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<LockGrant>> waiters = new ConcurrentHashMap<>();
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+
+    private final LongAdder granted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+
+    /**
+     * Constructs the lock service of the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public LockService(Node node) {
+        this.node = node;
+    }
+
+    private static String key(String name, String owner) {
+        return name + "|" + owner;
+    }
+
+    // ---------------------------------------------------------------- client side
+
+    /**
+     * Requests a lock. Returns immediately.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner on this node, e.g. a client or thread name.
+     * @param leaseMs The lease duration.
+     * @return A future completed with the grant once the lock is held by the owner.
+     */
+    public CompletableFuture<LockGrant> acquire(String name, String owner, long leaseMs) {
+        String k = key(name, owner);
+        CompletableFuture<LockGrant> f = new CompletableFuture<>();
+        CompletableFuture<LockGrant> previous = waiters.putIfAbsent(k, f);
+        if (previous != null) {
+            return previous;
+        }
+        LockGrant request = new LockGrant(name, owner, node.getAddress(), 0, leaseMs);
+        requests.put(k, request);
+        send(request);
+        return f;
+    }
+
+    /**
+     * Requests a lock and waits for it.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner on this node.
+     * @param leaseMs The lease duration.
+     * @param waitMs  How long to wait in the queue.
+     * @return The grant, or {@code null} if the lock was not granted in time.
+     */
+    public LockGrant acquire(String name, String owner, long leaseMs, long waitMs) {
+        try {
+            return acquire(name, owner, leaseMs).get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.debug("Lock {} not acquired by {}: {}", name, owner, e.getMessage());
+        }
+        cancel(name, owner);
+        return null;
+    }
+
+    /**
+     * Withdraws a waiting request. A grant that arrives afterwards is released right away.
+     *
+     * @param name  The lock name.
+     * @param owner The owner on this node.
+     */
+    public void cancel(String name, String owner) {
+        String k = key(name, owner);
+        requests.remove(k);
+        CompletableFuture<LockGrant> f = waiters.remove(k);
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    private void send(final LockGrant request) {
+        node.getEventLoop().runIo(() -> {
+            String k = key(request.getName(), request.getOwner());
+            if (requests.get(k) != request) {
+                return;
+            }
+            try {
+                NodeCommands leader = leader();
+                LockGrant grant = leader == null
+                        ? acquireAsLeader(request.getName(), request.getOwner(), request.getClient(), request.getLeaseMs())
+                        : leader.lockAcquire(request.getName(), request.getOwner(), request.getClient(), request.getLeaseMs());
+                if (grant != null) {
+                    onGranted(grant);
+                }
+            } catch (RemoteException e) {
+                log.debug("Lock request {} failed: {}. Retrying.", request, e.getMessage());
+                node.getEventLoop().getTimer().schedule(() -> send(request), RETRY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Client side: accepts a grant from the leader, in a reply or a callback.
+     *
+     * @param grant The grant.
+     */
+    public void onGranted(final LockGrant grant) {
+        String k = key(grant.getName(), grant.getOwner());
+        Held h = held.get(k);
+        if (h != null && h.grant.getToken() == grant.getToken()) {
+            // Both the reply to a re-sent request and the callback carried the grant
+            return;
+        }
+        requests.remove(k);
+        CompletableFuture<LockGrant> f = waiters.remove(k);
+        held.put(k, new Held(grant, System.currentTimeMillis() + grant.getLeaseMs()));
+        if (f == null || !f.complete(grant)) {
+            // Nobody waits any more; give the lock to the next waiter
+            held.remove(k);
+            node.getEventLoop().runIo(() -> {
+                try {
+                    releaseAt(grant);
+                } catch (RemoteException e) {
+                    log.warn("Cannot return unwanted lock {}: {}", grant.getName(), e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Extends the lease of a held lock.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner on this node.
+     * @param leaseMs The new lease duration, counted from now.
+     * @return {@code true} if the lease was extended; {@code false} if the lock is no longer held.
+     * @throws RemoteException If the leader cannot be reached.
+     */
+    public boolean renew(String name, String owner, long leaseMs) throws RemoteException {
+        String k = key(name, owner);
+        Held h = held.get(k);
+        if (h == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        NodeCommands leader = leader();
+        if (leader == null ? renewAsLeader(name, owner, h.grant.getToken(), leaseMs)
+                : leader.lockRenew(name, owner, h.grant.getToken(), leaseMs)) {
+            h.expiresAt = now + leaseMs;
+            return true;
+        }
+        held.remove(k);
+        return false;
+    }
+
+    /**
+     * Releases a held lock.
+     *
+     * @param name  The lock name.
+     * @param owner The owner on this node.
+     * @return {@code true} if the leader released it; {@code false} if it was not held (any more).
+     * @throws RemoteException If the leader cannot be reached.
+     */
+    public boolean release(String name, String owner) throws RemoteException {
+        Held h = held.remove(key(name, owner));
+        return h != null && releaseAt(h.grant);
+    }
+
+    private boolean releaseAt(LockGrant grant) throws RemoteException {
+        NodeCommands leader = leader();
+        return leader == null ? releaseAsLeader(grant.getName(), grant.getOwner(), grant.getToken())
+                : leader.lockRelease(grant.getName(), grant.getOwner(), grant.getToken());
+    }
+
+    /**
+     * Returns the proxy of the leader, or {@code null} if this node is the leader. Clients on the leader call
+     * it directly, so admission control only throttles other nodes.
+     */
+    private NodeCommands leader() throws RemoteException {
+        Address leader = node.getNeighbours().getLeader();
+        if (leader == null) {
+            throw new RemoteException("No leader");
+        }
+        return leader.equals(node.getAddress()) ? null : node.getCommunicationHub().getProxy(leader);
+    }
+
+    /**
+     * Returns the leases held by owners on this node that have not expired yet, with their remaining duration.
+     *
+     * @return The held leases.
+     */
+    public List<LockGrant> heldLocks() {
+        long now = System.currentTimeMillis();
+        List<LockGrant> result = new ArrayList<>();
+        for (Iterator<Held> it = held.values().iterator(); it.hasNext(); ) {
+            Held h = it.next();
+            if (h.expiresAt <= now) {
+                it.remove();
+                continue;
+            }
+            LockGrant g = h.grant;
+            result.add(new LockGrant(g.getName(), g.getOwner(), g.getClient(), g.getToken(), h.expiresAt - now));
+        }
+        return result;
+    }
+
+    /**
+     * Called when a new leader is announced. The new leader rebuilds the lock table; every node re-sends its
+     * waiting requests to the new leader. Must run on the state thread.
+     *
+     * @param leader The address of the new leader.
+     */
+    public void onLeaderAnnounced(Address leader) {
+        if (leader.equals(node.getAddress())) {
+            final long term = node.getNeighbours().getTerm();
+            synchronized (this) {
+                if (leading && leaderTerm == term) {
+                    // Already announced to itself
+                    return;
+                }
+                leading = true;
+                rebuilding = true;
+                leaderTerm = term;
+            }
+            node.getEventLoop().runControl(() -> rebuild(term));
+        } else {
+            synchronized (this) {
+                if (leading) {
+                    log.info("Lock service: {} is the new leader. Dropping {} locks.", leader, locks.size());
+                    leading = false;
+                    locks.clear();
+                }
+            }
+        }
+        for (LockGrant request : requests.values()) {
+            send(request);
+        }
+    }
+
+    // ---------------------------------------------------------------- leader side
+
+    private void checkLeader() throws RemoteException {
+        if (!leading) {
+            throw new RemoteException("Node " + node.getAddress() + " is not the lock leader");
+        }
+    }
+
+    /**
+     * Leader side: grants a free lock or queues the request.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner.
+     * @param client  The owner's node, called back when a queued request is granted.
+     * @param leaseMs The lease duration.
+     * @return The grant, or {@code null} if the request was queued.
+     * @throws RemoteException If this node is not the leader.
+     */
+    public synchronized LockGrant acquireAsLeader(String name, String owner, Address client, long leaseMs) throws RemoteException {
+        checkLeader();
+        Lock l = locks.get(name);
+        if (l == null) {
+            l = new Lock(name);
+            locks.put(name, l);
+        }
+        if (l.holder != null && l.holder.isOf(owner, client)) {
+            // A re-sent request of the holder
+            return l.holder;
+        }
+        if (!rebuilding && l.holder == null && l.waiters.isEmpty()) {
+            return grant(l, new LockGrant(name, owner, client, 0, leaseMs));
+        }
+        for (LockGrant w : l.waiters) {
+            if (w.isOf(owner, client)) {
+                return null;
+            }
+        }
+        l.waiters.add(new LockGrant(name, owner, client, 0, leaseMs));
+        queued.increment();
+        return null;
+    }
+
+    /**
+     * Leader side: extends a lease.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner.
+     * @param token   The fencing token of the lease.
+     * @param leaseMs The new lease duration, counted from now.
+     * @return {@code true} if the lease is still held by the owner.
+     * @throws RemoteException If this node is not the leader.
+     */
+    public synchronized boolean renewAsLeader(String name, String owner, long token, long leaseMs) throws RemoteException {
+        checkLeader();
+        Lock l = locks.get(name);
+        if (l == null || l.holder == null || l.holder.getToken() != token || !l.holder.getOwner().equals(owner)) {
+            return false;
+        }
+        l.expiresAt = System.currentTimeMillis() + leaseMs;
+        return true;
+    }
+
+    /**
+     * Leader side: releases a lease and grants the lock to the next waiter.
+     *
+     * @param name  The lock name.
+     * @param owner The owner.
+     * @param token The fencing token of the lease.
+     * @return {@code true} if the lease was held by the owner.
+     * @throws RemoteException If this node is not the leader.
+     */
+    public synchronized boolean releaseAsLeader(String name, String owner, long token) throws RemoteException {
+        checkLeader();
+        Lock l = locks.get(name);
+        if (l == null || l.holder == null || l.holder.getToken() != token || !l.holder.getOwner().equals(owner)) {
+            return false;
+        }
+        l.holder = null;
+        released.increment();
+        grantNext(l);
+        return true;
+    }
+
+    /**
+     * Leader side: releases the leases and drops the requests of a node that left or died.
+     *
+     * @param gone The node reported through <code>leave</code> or <code>killNode</code>.
+     */
+    public synchronized void onNodeGone(Address gone) {
+        if (!leading) {
+            return;
+        }
+        for (Lock l : locks.values()) {
+            l.waiters.removeIf(w -> w.getClient().equals(gone));
+            if (l.holder != null && l.holder.getClient().equals(gone)) {
+                log.info("Reclaimed lock {} from {}", l.name, gone);
+                l.holder = null;
+                reclaimed.increment();
+                grantNext(l);
+            }
+        }
+    }
+
+    /**
+     * Grants a lock and arms the expiry of its lease. Must hold the lock.
+     */
+    private LockGrant grant(Lock l, LockGrant request) {
+        LockGrant g = new LockGrant(l.name, request.getOwner(), request.getClient(), ++lastToken, request.getLeaseMs());
+        l.holder = g;
+        l.expiresAt = System.currentTimeMillis() + g.getLeaseMs();
+        granted.increment();
+        scheduleExpiry(l.name, g.getToken(), g.getLeaseMs());
+        return g;
+    }
+
+    /**
+     * Grants a free lock to the first waiter and calls the waiter's node back. Must hold the lock.
+     */
+    private void grantNext(Lock l) {
+        if (l.holder != null || rebuilding) {
+            return;
+        }
+        LockGrant next = l.waiters.poll();
+        if (next == null) {
+            locks.remove(l.name);
+            return;
+        }
+        final LockGrant g = grant(l, next);
+        node.getEventLoop().runIo(() -> {
+            try {
+                node.getCommunicationHub().getProxy(g.getClient()).lockGranted(g);
+            } catch (RemoteException e) {
+                log.warn("Cannot deliver lock {} to {}: {}. Granting it to the next waiter.", g.getName(), g.getClient(), e.getMessage());
+                try {
+                    releaseAsLeader(g.getName(), g.getOwner(), g.getToken());
+                } catch (RemoteException ignored) {
+                    // No longer the leader
+                }
+            }
+        });
+    }
+
+    private void scheduleExpiry(final String name, final long token, long delayMs) {
+        node.getEventLoop().getTimer().schedule(() -> expire(name, token), Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void expire(String name, long token) {
+        Lock l = locks.get(name);
+        if (l == null || l.holder == null || l.holder.getToken() != token) {
+            return;
+        }
+        long remaining = l.expiresAt - System.currentTimeMillis();
+        if (remaining > 0) {
+            // Renewed in the meantime
+            scheduleExpiry(name, token, remaining);
+            return;
+        }
+        log.info("Lease of lock {} held by {}@{} expired", name, l.holder.getOwner(), l.holder.getClient());
+        l.holder = null;
+        expired.increment();
+        grantNext(l);
+    }
+
+    /**
+     * Rebuilds the lock table on a new leader from the leases the nodes hold, then grants the free locks
+     * to the requests queued meanwhile.
+     */
+    private void rebuild(long term) {
+        final List<LockGrant> leases = new ArrayList<>(heldLocks());
+        Set<Address> others = new HashSet<>(node.getNeighbours().getKnownNodes());
+        others.remove(node.getAddress());
+        final CountDownLatch latch = new CountDownLatch(others.size());
+        final AtomicBoolean complete = new AtomicBoolean(true);
+        for (final Address a : others) {
+            node.getEventLoop().runIo(() -> {
+                try {
+                    List<LockGrant> reported = node.getCommunicationHub().getProxy(a).heldLocks();
+                    synchronized (leases) {
+                        leases.addAll(reported);
+                    }
+                } catch (RemoteException e) {
+                    complete.set(false);
+                    log.warn("Cannot collect held locks from {}: {}", a, e.getMessage());
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            latch.await(REBUILD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!leading) {
+                return;
+            }
+            lastToken = Math.max(lastToken, term << 32);
+            long now = System.currentTimeMillis();
+            synchronized (leases) {
+                for (LockGrant g : leases) {
+                    lastToken = Math.max(lastToken, g.getToken());
+                    Lock l = locks.get(g.getName());
+                    if (l == null) {
+                        l = new Lock(g.getName());
+                        locks.put(g.getName(), l);
+                    }
+                    if (l.holder == null || g.getToken() > l.holder.getToken()) {
+                        l.holder = g;
+                        l.expiresAt = now + g.getLeaseMs();
+                        scheduleExpiry(g.getName(), g.getToken(), g.getLeaseMs());
+                    }
+                }
+            }
+            rebuilding = false;
+            for (Lock l : new ArrayList<>(locks.values())) {
+                grantNext(l);
+            }
+            log.info("Lock table rebuilt for term {}: {} leases from {} nodes{}, next token {}",
+                    term, leases.size(), others.size() + 1, complete.get() ? "" : " (some unreachable)", lastToken + 1);
+        }
+    }
+
+    // ---------------------------------------------------------------- benchmark and stats
+
+    /**
+     * Measures acquire/release throughput under contention: each client repeatedly acquires one of the locks,
+     * releases it and starts over.
+     *
+     * @param clients The number of concurrent clients on this node.
+     * @param locks   The number of locks they contend for.
+     * @param seconds The duration of the run.
+     * @return A human-readable report.
+     */
+    public String benchmark(int clients, final int locks, int seconds) {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder cycles = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final long deadline = System.currentTimeMillis() + seconds * 1000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final String owner = "bench-" + node.getMyPort() + "-" + i;
+            final String name = "bench-lock-" + (i % Math.max(1, locks));
+            Thread t = new Thread(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    long start = System.nanoTime();
+                    LockGrant g = acquire(name, owner, 5000, 5000);
+                    if (g == null) {
+                        failures.increment();
+                        continue;
+                    }
+                    latency.record((System.nanoTime() - start) / 1000);
+                    try {
+                        release(name, owner);
+                        cycles.increment();
+                    } catch (RemoteException e) {
+                        failures.increment();
+                    }
+                }
+            }, "lock-bench-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        String result = String.format("%d clients on %d locks for %d s: %d acquire/release cycles (%.0f/s), %d failures%n" +
+                        "Acquire latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                clients, locks, seconds, cycles.sum(), cycles.sum() / (double) seconds, failures.sum(),
+                latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0, latency.getMax() / 1000.0);
+        log.info("Lock benchmark:\n{}", result);
+        return result;
+    }
+
+    /**
+     * Builds a human-readable summary of the lock service.
+     *
+     * @return The lock service statistics.
+     */
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder("Lock service:\n");
+        sb.append(" Role:      ").append(leading ? (rebuilding ? "leader (rebuilding)" : "leader") : "client").append("\n");
+        sb.append(" Granted:   ").append(granted.sum()).append(" (").append(queued.sum()).append(" after waiting)\n");
+        sb.append(" Released:  ").append(released.sum()).append("\n");
+        sb.append(" Expired:   ").append(expired.sum()).append("\n");
+        sb.append(" Reclaimed: ").append(reclaimed.sum()).append("\n");
+        sb.append(" LastToken: ").append(lastToken).append("\n");
+        for (Lock l : locks.values()) {
+            sb.append("  ").append(l.name).append(": ").append(l.holder == null ? "free" : l.holder.getOwner() + "@"
+                    + l.holder.getClient() + " token=" + l.holder.getToken()).append(", ")
+                    .append(l.waiters.size()).append(" waiting\n");
+        }
+        sb.append(" Held here: ").append(held.size()).append(", waiting here: ").append(waiters.size()).append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * The leader's state of one lock.
+     */
+    private static class Lock {
+        private final String name;
+        private final ArrayDeque<LockGrant> waiters = new ArrayDeque<>();
+        private LockGrant holder;
+        private long expiresAt;
+
+        private Lock(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A lease held by an owner on this node.
+     */
+    private static class Held {
+        private final LockGrant grant;
+        private volatile long expiresAt;
+
+        private Held(LockGrant grant, long expiresAt) {
+            this.grant = grant;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.LogEntry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The committed prefix of a {@link ReplicatedLog} that was compacted out of memory, kept in an
+ * append-only file so that no committed entry is lost.
+ *
+ * <p>Entries are stored in index order, starting at index 1, as records of the term, the length of
+ * the data (-1 for none) and the UTF-8 data. The file offset of every <code>INDEX_EVERY</code>-th entry is
+ * kept in memory, so a read seeks close to its first entry and scans at most <code>INDEX_EVERY</code>
+ * records. Like the rest of the log, the archive starts empty when the node starts.
+ *
+ * <p>Not thread-safe; the owning log calls it under its lock.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class LogArchive {
+    public static final int INDEX_EVERY = 1024;
+
+    private final File file;
+    private final DataOutputStream out;
+    private final RandomAccessFile in;
+    private long[] marks = new long[16];
+    private long lastIndex = 0;
+    private long bytes = 0;
+
+    /**
+     * Creates an empty archive, replacing a file left by an earlier run.
+     *
+     * @param file The archive file.
+     * @throws IOException If the file cannot be created.
+     */
+    public LogArchive(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false), 1 << 16));
+        this.in = new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * Appends the entries that follow the last archived one.
+     *
+     * @param batch Consecutive entries, the first one at <code>lastIndex + 1</code>.
+     */
+    public void append(List<LogEntry> batch) {
+        try {
+            for (LogEntry e : batch) {
+                if (e.getIndex() != lastIndex + 1) {
+                    throw new IllegalStateException("Archive at #" + lastIndex + " cannot take #" + e.getIndex());
+                }
+                if ((lastIndex % INDEX_EVERY) == 0) {
+                    int mark = (int) (lastIndex / INDEX_EVERY);
+                    if (mark == marks.length) {
+                        marks = Arrays.copyOf(marks, marks.length * 2);
+                    }
+                    marks[mark] = bytes;
+                }
+                out.writeLong(e.getTerm());
+                if (e.getData() == null) {
+                    out.writeInt(-1);
+                    bytes += 12;
+                } else {
+                    byte[] data = e.getData().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(data.length);
+                    out.write(data);
+                    bytes += 12 + data.length;
+                }
+                lastIndex++;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the log archive " + file, e);
+        }
+    }
+
+    /**
+     * Reads archived entries.
+     *
+     * @param from The first index (inclusive), at least 1.
+     * @param to   The last index (inclusive), at most <code>lastIndex</code>.
+     * @return The entries in index order.
+     */
+    public List<LogEntry> read(long from, long to) {
+        List<LogEntry> result = new ArrayList<>((int) Math.max(0, Math.min(to - from + 1, INDEX_EVERY)));
+        if (from > to) {
+            return result;
+        }
+        long index = ((from - 1) / INDEX_EVERY) * INDEX_EVERY + 1;
+        try {
+            FileChannel channel = in.getChannel().position(marks[(int) ((from - 1) / INDEX_EVERY)]);
+            DataInputStream data = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            for (; index <= to; index++) {
+                long term = data.readLong();
+                int length = data.readInt();
+                if (index < from) {
+                    while (length > 0) {
+                        int skipped = data.skipBytes(length);
+                        if (skipped <= 0) {
+                            throw new EOFException("Archive ends inside entry #" + index);
+                        }
+                        length -= skipped;
+                    }
+                    continue;
+                }
+                String text = null;
+                if (length >= 0) {
+                    byte[] bytes = new byte[length];
+                    data.readFully(bytes);
+                    text = new String(bytes, StandardCharsets.UTF_8);
+                }
+                result.add(new LogEntry(index, term, text));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the log archive " + file, e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the term of an archived entry.
+     *
+     * @param index The index, between 1 and <code>lastIndex</code>.
+     * @return The term.
+     */
+    public long termAt(long index) {
+        return read(index, index).get(0).getTerm();
+    }
+}
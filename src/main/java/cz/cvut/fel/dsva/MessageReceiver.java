@@ -1,13 +1,34 @@
 package cz.cvut.fel.dsva;
 
+import cz.cvut.fel.dsva.AdmissionControl.Operation;
 import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.AppendResult;
+import cz.cvut.fel.dsva.base.CrdtDelta;
 import cz.cvut.fel.dsva.base.DSNeighbours;
+import cz.cvut.fel.dsva.base.GroupMessage;
+import cz.cvut.fel.dsva.base.IdBlock;
+import cz.cvut.fel.dsva.base.LockGrant;
+import cz.cvut.fel.dsva.base.LogEntry;
 import cz.cvut.fel.dsva.base.NodeCommands;
+import cz.cvut.fel.dsva.base.OrderedMessage;
+import cz.cvut.fel.dsva.base.TraceContext;
+import cz.cvut.fel.dsva.base.TransferAck;
+import cz.cvut.fel.dsva.base.VersionedValue;
+import cz.cvut.fel.dsva.base.TreeMessage;
+import cz.cvut.fel.dsva.base.VoteResponse;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Implements the {@link NodeCommands} interface to handle remote method invocations from other nodes.
@@ -17,16 +38,33 @@ import java.rmi.RemoteException;
  * <ul>
  *     <li>Handling node joins and broadcasting new nodes.</li>
  *     <li>Managing election processes and leader announcements.</li>
- *     <li>Handling message passing between nodes.</li>
+ *     <li>Handling message passing between nodes, including request/reply.</li>
+ *     <li>Sequencing and delivering totally ordered broadcasts.</li>
+ *     <li>Appending to and replicating the leader-driven log.</li>
+ *     <li>Granting, renewing and releasing leases of the lock service.</li>
+ *     <li>Allocating ID blocks and merging gossiped CRDT deltas.</li>
+ *     <li>Receiving chunked file transfers.</li>
+ *     <li>Replicating topic subscriptions and delivering published messages.</li>
+ *     <li>Storing and serving key-value replicas.</li>
  *     <li>Managing node departures and revivals.</li>
  * </ul>
  *
+ * <p>Calls are first admitted by the node's {@link AdmissionControl}; a sender over its rate limit
+ * gets a {@link cz.cvut.fel.dsva.base.RateLimitedException} before any work is done.
+ *
+ * <p>Handlers that touch the node's state do not run it on the RMI thread; they enqueue an event
+ * on the node's {@link NodeEventLoop} and return. Only {@link #join(Address)}, which has to reply
+ * with the membership, waits for its event to be processed. Control-plane handlers enqueue on the
+ * loop's urgent queue; they are also reachable through the node's {@link ControlReceiver}.
+ *
  * @see NodeCommands
  */
 @Slf4j
 @Getter
 @Setter
 public class MessageReceiver implements NodeCommands {
+    public static final long JOIN_TIMEOUT_MS = 5000;
+
     private final Node node;
 
     /**
@@ -49,15 +87,35 @@ public class MessageReceiver implements NodeCommands {
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public DSNeighbours join(Address newNodeAddr) throws RemoteException {
+    public DSNeighbours join(final Address newNodeAddr) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
         if (newNodeAddr.compareTo(node.getAddress()) == 0) {
-            return node.getNeighbours();
+            return new DSNeighbours(node.getNeighbours());
+        }
+        DSNeighbours routed = node.getGroups().routeJoin(newNodeAddr);
+        if (routed != null) {
+            return routed;
+        }
+        NodeEventLoop loop = node.getEventLoop();
+        try {
+            return loop.callControl(() -> {
+                node.getNeighbours().addNode(newNodeAddr);
+                node.getQuorumElection().addMember(newNodeAddr);
+                node.getDeliveryTracker().reset(newNodeAddr);
+                node.getCommunicationHub().resetSequence(newNodeAddr);
+                node.getKvStore().onMembershipChanged();
+                node.getChangeFeed().publish("JOIN", newNodeAddr);
+                log.info("Node {} joined. Broadcasting to others...", newNodeAddr);
+                loop.runControl(() -> node.getCommunicationHub().broadcastNewNode(newNodeAddr));
+                node.getJournal().record(StateJournal.Type.JOIN, newNodeAddr);
+                return new DSNeighbours(node.getNeighbours());
+            }).get(JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Join of " + newNodeAddr + " interrupted", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RemoteException("Join of " + newNodeAddr + " failed", e);
         }
-        node.getNeighbours().addNode(newNodeAddr);
-        log.info("Node {} joined. Broadcasting to others...", newNodeAddr);
-        node.getCommunicationHub().broadcastNewNode(newNodeAddr);
-        node.printStatus();
-        return node.getNeighbours();
     }
 
     /**
@@ -67,10 +125,46 @@ public class MessageReceiver implements NodeCommands {
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void broadcastNewNode(Address newAddr) throws RemoteException {
-        node.getNeighbours().addNode(newAddr);
-        log.info("Received broadcast about new node {}. Added to knownNodes.", newAddr);
-        node.printStatus();
+    public void broadcastNewNode(final Address newAddr) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        node.getEventLoop().submitControl(() -> {
+            node.getNeighbours().addNode(newAddr);
+            node.getQuorumElection().addMember(newAddr);
+            node.getDeliveryTracker().reset(newAddr);
+            node.getCommunicationHub().resetSequence(newAddr);
+            node.getKvStore().onMembershipChanged();
+            node.getChangeFeed().publish("JOIN", newAddr);
+            log.info("Received broadcast about new node {}. Added to knownNodes.", newAddr);
+            node.getJournal().record(StateJournal.Type.NEW_NODE, newAddr);
+        });
+    }
+
+    /**
+     * Receives a message disseminated along a spanning tree, delivers it locally and
+     * forwards it to this node's children in the tree.
+     *
+     * @param message The leader announcement or new-node notification.
+     * @param members The members in tree order, as chosen by the originator.
+     * @param index   This node's position in {@code members}.
+     * @return The number of nodes in this node's subtree, itself included, that got the message.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public int disseminate(final TreeMessage message, final List<Address> members, final int index) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        switch (message.getKind()) {
+            case LEADER:
+                announceLeader(message.getTerm(), message.getLeaderId(), message.getAddress());
+                break;
+            case NEW_NODE:
+                if (!message.getAddress().equals(node.getAddress())) {
+                    broadcastNewNode(message.getAddress());
+                }
+                break;
+            default:
+                break;
+        }
+        return 1 + node.getTreeDissemination().forwardToChildren(message, members, index);
     }
 
     /**
@@ -78,56 +172,525 @@ public class MessageReceiver implements NodeCommands {
      *
      * <p>If the current node has a higher ID, it responds with an OK and starts its own election.
      *
+     * <p>Requests from an older term than this node's are answered but do not start another round.
+     *
+     * @param term        The election term of the candidate.
      * @param candidateId The ID of the node that initiated the election.
+     * @param preempt     Whether the election may replace a live leader (see {@link Node#onElectionRequest}).
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void startElection(long candidateId) throws RemoteException {
-        log.info("Received startElection from nodeId: {}", candidateId);
-        if (node.getNodeId() > candidateId) {
-            node.getCommunicationHub().sendRespondOk(candidateId);
-            node.internalStartElection();
-        }
+    public void startElection(final long term, final long candidateId, final boolean preempt) throws RemoteException {
+        node.getAdmission().admit(Operation.ELECTION);
+        node.getEventLoop().submitControl(() -> {
+            log.info("Received startElection (term {}, preempt {}) from nodeId: {}", term, preempt, candidateId);
+            node.onElectionRequest(term, candidateId, preempt);
+        });
     }
 
     /**
      * Receives an OK response from a higher-ID node during an election.
      *
+     * @param term       The election term of the responding node.
      * @param fromNodeId The ID of the node that responded.
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void respondOk(long fromNodeId) throws RemoteException {
-        log.info("Received respondOk from nodeId: {}", fromNodeId);
-        node.setElectionInProgress(false);
+    public void respondOk(final long term, final long fromNodeId) throws RemoteException {
+        node.getAdmission().admit(Operation.ELECTION);
+        node.getEventLoop().submitControl(() -> {
+            log.info("Received respondOk (term {}) from nodeId: {}", term, fromNodeId);
+            node.onOkReceived(term, fromNodeId);
+        });
     }
 
     /**
      * Announces the new leader to this node.
      *
+     * <p>Announcements from an older term are dropped.
+     *
+     * @param term          The election term the leader was elected in.
      * @param leaderId      The ID of the new leader.
      * @param leaderAddress The address of the new leader.
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void announceLeader(long leaderId, Address leaderAddress) throws RemoteException {
-        log.info("Received announceLeader from leaderId: {}, address: {}", leaderId, leaderAddress);
-        node.getNeighbours().setLeader(leaderAddress);
-        node.setElectionInProgress(false);
-        node.printStatus();
+    public void announceLeader(final long term, final long leaderId, final Address leaderAddress) throws RemoteException {
+        node.getAdmission().admit(Operation.ELECTION);
+        node.getEventLoop().submitControl(() -> {
+            log.info("Received announceLeader (term {}) from leaderId: {}, address: {}", term, leaderId, leaderAddress);
+            if (node.onLeaderAnnouncement(term, leaderId, leaderAddress)) {
+                node.getOrderedBroadcast().onLeaderAnnounced(leaderAddress);
+                node.getLockService().onLeaderAnnounced(leaderAddress);
+                node.getIdService().onLeaderAnnounced(leaderAddress);
+                node.getJournal().record(StateJournal.Type.LEADER, leaderAddress);
+            }
+        });
+    }
+
+    /**
+     * Answers a quorum vote request from an election candidate.
+     *
+     * @param term             The election term of the candidate.
+     * @param candidateId      The ID of the candidate.
+     * @param candidateAddress The address of the candidate.
+     * @return The vote, carrying the leader this node follows if the vote is denied.
+     * @throws RemoteException If the vote could not be decided in time.
+     */
+    @Override
+    public VoteResponse requestVote(final long term, final long candidateId, final Address candidateAddress) throws RemoteException {
+        node.getAdmission().admit(Operation.ELECTION);
+        try {
+            return node.getEventLoop().callControl(() -> node.getQuorumElection().vote(term, candidateId, candidateAddress))
+                    .get(Node.ELECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Vote for " + candidateAddress + " interrupted", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RemoteException("Vote for " + candidateAddress + " failed", e);
+        }
     }
 
     /**
      * Receives a message intended for this node.
      *
+     * <p>Duplicates (retries of an already delivered call) are dropped based on the
+     * per-sender sequence number; gaps are counted by the {@link DeliveryTracker}.
+     *
+     * @param fromAddr The address of the sending node.
+     * @param seq      The sequence number stamped by the sender for this node.
      * @param fromNick The nickname of the sender.
      * @param toNick   The nickname of the intended recipient.
      * @param message  The message content.
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void sendMessage(String fromNick, String toNick, String message) throws RemoteException {
-        log.info("Received message from {} to {}: {}", fromNick, toNick, message);
+    public void sendMessage(final Address fromAddr, final long seq, final String fromNick,
+                            final String toNick, final String message) throws RemoteException {
+        node.getAdmission().admit(Operation.MESSAGE);
+        node.getEventLoop().submit(() -> {
+            if (!node.getDeliveryTracker().accept(fromAddr, seq)) {
+                return;
+            }
+            log.info("Received message #{} from {} to {}: {}", seq, fromNick, toNick, message);
+        });
+    }
+
+    /**
+     * Queues a request for the handler of its method; the result is sent back through {@link #reply}.
+     *
+     * @param fromAddr      The requesting node.
+     * @param correlationId The requester's ID of the request.
+     * @param toNick        The nickname the requester addressed.
+     * @param method        The method.
+     * @param payload       The request payload.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void request(Address fromAddr, long correlationId, String toNick, String method, String payload) throws RemoteException {
+        node.getAdmission().admit(Operation.MESSAGE);
+        node.getRequestReply().onRequest(fromAddr, correlationId, toNick, method, payload);
+    }
+
+    /**
+     * Delivers the reply to a request made by this node.
+     *
+     * @param correlationId The ID of the request.
+     * @param ok            Whether the handler succeeded.
+     * @param payload       The reply payload, or the error message.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void reply(long correlationId, boolean ok, String payload) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        node.getRequestReply().onReply(correlationId, ok, payload);
+    }
+
+    /**
+     * Returns this node's nickname, so requesters can address it by name.
+     *
+     * @return The nickname.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public String nickname() throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getNickname();
+    }
+
+    /**
+     * Applies a subscription change replicated by the subscribing node.
+     *
+     * @param subscriber The subscribing node.
+     * @param topic      The topic name.
+     * @param subscribed {@code true} for subscribe, {@code false} for unsubscribe.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void updateSubscription(final Address subscriber, final String topic, final boolean subscribed) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        node.getEventLoop().submit(() -> node.getPubSub().update(subscriber, topic, subscribed));
+    }
+
+    /**
+     * Returns this node's replica of the subscription table, for a joining node.
+     *
+     * @return The topics and their subscribers.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public Map<String, Set<Address>> subscriptions() throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        return node.getPubSub().snapshot();
+    }
+
+    /**
+     * Receives a message published to a topic this node subscribed to.
+     * Duplicates are dropped based on the per-sender sequence number.
+     *
+     * @param fromAddr The address of the publisher.
+     * @param seq      The sequence number stamped by the publisher for this node.
+     * @param topic    The topic name.
+     * @param fromNick The nickname of the publisher.
+     * @param message  The message content.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void publish(final Address fromAddr, final long seq, final String topic,
+                        final String fromNick, final String message) throws RemoteException {
+        node.getAdmission().admit(Operation.MESSAGE);
+        node.getEventLoop().submit(() -> {
+            if (node.getDeliveryTracker().accept(fromAddr, seq)) {
+                node.getPubSub().deliver(topic, fromNick, message);
+            }
+        });
+    }
+
+    /**
+     * Stores a replica of a key-value pair written through a coordinating node.
+     *
+     * @param key   The key.
+     * @param value The versioned value; an older version than the stored one is ignored.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void kvPut(String key, VersionedValue value) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        node.getKvStore().store(key, value);
+    }
+
+    /**
+     * Returns this node's replica of a key.
+     *
+     * @param key The key.
+     * @return The versioned value, or {@code null} if this node has none.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public VersionedValue kvGet(String key) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getKvStore().load(key);
+    }
+
+    /**
+     * Receives keys handed off after a membership change made this node one of their replicas.
+     *
+     * @param entries The keys and their versioned values.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void kvHandoff(Map<String, VersionedValue> entries) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        for (Map.Entry<String, VersionedValue> e : entries.entrySet()) {
+            node.getKvStore().store(e.getKey(), e.getValue());
+        }
+        log.info("Received handoff of {} keys", entries.size());
+    }
+
+    /**
+     * Accepts messages forwarded for ordered broadcast. Only the leader sequences them.
+     *
+     * @param fromAddr The address of the sender.
+     * @param epoch    The sender's channel incarnation, see {@link OrderedBroadcast#sequence}.
+     * @param firstId  The sender's ID of the first message; the others follow consecutively.
+     * @param fromNick The nickname of the original sender.
+     * @param messages The messages in the sender's order.
+     * @throws RemoteException If this node is not the leader, so the sender retries elsewhere.
+     */
+    @Override
+    public void forwardOrdered(Address fromAddr, long epoch, long firstId, String fromNick, List<String> messages)
+            throws RemoteException {
+        node.getAdmission().admit(Operation.MESSAGE);
+        if (!node.getAddress().equals(node.getNeighbours().getLeader())) {
+            throw new RemoteException("Node " + node.getAddress() + " is not the leader");
+        }
+        node.getOrderedBroadcast().sequence(fromAddr, epoch, firstId, fromNick, messages);
+    }
+
+    /**
+     * Receives a batch of sequenced messages multicast by the leader.
+     *
+     * @param leaderAddress The address of the leader that sequenced the batch.
+     * @param batch         The messages in sequence order.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void deliverOrdered(Address leaderAddress, List<OrderedMessage> batch) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        node.getOrderedBroadcast().receive(leaderAddress, batch);
+    }
+
+    /**
+     * Returns messages from the leader's retransmit buffer to fill a follower's gap.
+     *
+     * @param fromSeq The first sequence number requested (inclusive).
+     * @param toSeq   The last sequence number requested (inclusive).
+     * @return The messages still retained, in order.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public List<OrderedMessage> fetchOrdered(long fromSeq, long toSeq) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getOrderedBroadcast().fetch(fromSeq, toSeq);
+    }
+
+    /**
+     * Returns the last sequence number assigned by this node as leader.
+     *
+     * @return The highest ordered sequence number stamped so far.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public long orderedSequence() throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getOrderedBroadcast().currentSequence();
+    }
+
+    /**
+     * Appends entries to the replicated log on behalf of another node. Only the leader accepts them;
+     * the call returns once they are committed.
+     *
+     * @param entries The data of the entries, appended consecutively.
+     * @return The index of the last entry.
+     * @throws RemoteException If this node is not the leader or the entries were not committed in time.
+     */
+    @Override
+    public long logAppend(List<String> entries) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        try {
+            return node.getReplicatedLog().append(entries).get(ReplicatedLog.APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while appending to the log");
+        } catch (ExecutionException e) {
+            throw new RemoteException("Log append failed: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new RemoteException("Log entries not committed within " + ReplicatedLog.APPEND_TIMEOUT_MS + " ms");
+        }
+    }
+
+    /**
+     * Stores replicated log entries sent by the leader.
+     *
+     * @param leader       The leader that sent the entries.
+     * @param term         The leader's term.
+     * @param prevIndex    The index of the entry before the first sent one.
+     * @param prevTerm     The term of that entry.
+     * @param entries      The entries, possibly none.
+     * @param leaderCommit The leader's commit index.
+     * @return Whether the entries were stored and the index the follower matches.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public AppendResult appendEntries(Address leader, long term, long prevIndex, long prevTerm,
+                                      List<LogEntry> entries, long leaderCommit) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getReplicatedLog().receive(leader, term, prevIndex, prevTerm, entries, leaderCommit);
+    }
+
+    /**
+     * Returns entries of this node's copy of the replicated log.
+     *
+     * @param fromIndex     The first index (inclusive).
+     * @param limit         The maximum number of entries.
+     * @param committedOnly Whether to return committed entries only.
+     * @return The entries in index order.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public List<LogEntry> readLog(long fromIndex, int limit, boolean committedOnly) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getReplicatedLog().read(fromIndex, limit, committedOnly);
+    }
+
+    /**
+     * Requests a lock from this node as the leader of the lock service.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner on the client node.
+     * @param client  The client node, called back through {@link #lockGranted(LockGrant)} if the request waits.
+     * @param leaseMs The lease duration.
+     * @return The grant, or {@code null} if the request was queued.
+     * @throws RemoteException If this node is not the leader.
+     */
+    @Override
+    public LockGrant lockAcquire(String name, String owner, Address client, long leaseMs) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getLockService().acquireAsLeader(name, owner, client, leaseMs);
+    }
+
+    /**
+     * Extends a lease granted by this node as the leader of the lock service.
+     *
+     * @param name    The lock name.
+     * @param owner   The owner.
+     * @param token   The fencing token of the lease.
+     * @param leaseMs The new lease duration.
+     * @return {@code true} if the lease is still held by the owner.
+     * @throws RemoteException If this node is not the leader.
+     */
+    @Override
+    public boolean lockRenew(String name, String owner, long token, long leaseMs) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getLockService().renewAsLeader(name, owner, token, leaseMs);
+    }
+
+    /**
+     * Releases a lease granted by this node as the leader of the lock service.
+     *
+     * @param name  The lock name.
+     * @param owner The owner.
+     * @param token The fencing token of the lease.
+     * @return {@code true} if the lease was held by the owner.
+     * @throws RemoteException If this node is not the leader.
+     */
+    @Override
+    public boolean lockRelease(String name, String owner, long token) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getLockService().releaseAsLeader(name, owner, token);
+    }
+
+    /**
+     * Delivers a lock granted to a request of this node that had to wait.
+     *
+     * @param grant The grant.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void lockGranted(LockGrant grant) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        node.getLockService().onGranted(grant);
+    }
+
+    /**
+     * Reports the leases held on this node, so a new leader can rebuild its lock table.
+     *
+     * @return The held leases with their remaining duration.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public List<LockGrant> heldLocks() throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getLockService().heldLocks();
+    }
+
+    /**
+     * Allocates a block of IDs from this node as the leader of the ID service.
+     *
+     * @param client The requesting node.
+     * @param count  The number of IDs.
+     * @return The block, whose end is committed in the replicated log.
+     * @throws RemoteException If this node is not the leader or the block could not be made durable.
+     */
+    @Override
+    public IdBlock allocateIds(Address client, long count) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getIdService().allocateAsLeader(client, count);
+    }
+
+    /**
+     * Merges the changed CRDT slots gossiped by a peer.
+     *
+     * @param fromAddr The gossiping node.
+     * @param delta    The changed slots.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public void crdtMerge(Address fromAddr, CrdtDelta delta) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        node.getCrdtStore().merge(fromAddr, delta);
+    }
+
+    /**
+     * Reads the local value of a CRDT.
+     *
+     * @param name The CRDT name.
+     * @return The value (see {@link CrdtStore#read(String)}), or {@code null} if unknown here.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public String crdtRead(String name) throws RemoteException {
+        node.getAdmission().admit(Operation.DATA);
+        return node.getCrdtStore().read(name);
+    }
+
+    /**
+     * Opens or resumes an incoming chunked file transfer. Chunks are written to disk on the
+     * RMI thread and never touch the node's state thread.
+     *
+     * @param fromAddr   The sending node.
+     * @param transferId The transfer ID chosen by the sender.
+     * @param name       The file name.
+     * @param size       The total size in bytes.
+     * @param chunkSize  The chunk size used by the sender.
+     * @return The first chunk this node is missing and the initial credits.
+     * @throws RemoteException If the transfer cannot be opened.
+     */
+    @Override
+    public TransferAck openTransfer(Address fromAddr, String transferId, String name, long size, int chunkSize) throws RemoteException {
+        node.getAdmission().admit(Operation.BULK);
+        try {
+            return node.getFileTransfer().open(fromAddr, transferId, name, size, chunkSize);
+        } catch (IOException e) {
+            throw new RemoteException("Cannot open transfer " + transferId, e);
+        }
+    }
+
+    /**
+     * Receives one chunk of a file transfer.
+     *
+     * @param transferId The transfer ID.
+     * @param index      The chunk index.
+     * @param data       The chunk contents.
+     * @param crc        The CRC32 of the contents.
+     * @return Whether the chunk was accepted, the first missing chunk and the new credits.
+     * @throws RemoteException If the chunk cannot be stored.
+     */
+    @Override
+    public TransferAck putChunk(String transferId, int index, byte[] data, long crc) throws RemoteException {
+        node.getAdmission().admit(Operation.BULK);
+        try {
+            return node.getFileTransfer().put(transferId, index, data, crc);
+        } catch (IOException e) {
+            throw new RemoteException("Cannot store chunk " + index + " of " + transferId, e);
+        }
+    }
+
+    /**
+     * Completes an incoming file transfer.
+     *
+     * @param transferId The transfer ID.
+     * @return {@code true} if the file is complete, {@code false} if chunks are missing.
+     * @throws RemoteException If the file cannot be finalised.
+     */
+    @Override
+    public boolean finishTransfer(String transferId) throws RemoteException {
+        node.getAdmission().admit(Operation.BULK);
+        try {
+            return node.getFileTransfer().finish(transferId);
+        } catch (IOException e) {
+            throw new RemoteException("Cannot finish transfer " + transferId, e);
+        }
     }
 
     /**
@@ -140,15 +703,23 @@ public class MessageReceiver implements NodeCommands {
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void leave(Address leavingNode) throws RemoteException {
-        log.info("Received leave notification from {}", leavingNode);
-        node.getNeighbours().removeNode(leavingNode);
-        if (node.getNeighbours().getLeader() != null &&
-                node.getNeighbours().getLeader().equals(leavingNode)) {
-            log.info("Leader has left. Starting election...");
-            node.startElection();
-        }
-        node.printStatus();
+    public void leave(final Address leavingNode) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        node.getEventLoop().submitControl(() -> {
+            log.info("Received leave notification from {}", leavingNode);
+            node.getNeighbours().removeNode(leavingNode);
+            node.getQuorumElection().removeMember(leavingNode);
+            node.getPubSub().removeSubscriber(leavingNode);
+            node.getLockService().onNodeGone(leavingNode);
+            node.getKvStore().onMembershipChanged();
+            node.getChangeFeed().publish("LEAVE", leavingNode);
+            if (node.getNeighbours().getLeader() != null &&
+                    node.getNeighbours().getLeader().equals(leavingNode)) {
+                log.info("Leader has left. Scheduling election...");
+                node.scheduleElection();
+            }
+            node.getJournal().record(StateJournal.Type.LEAVE, leavingNode);
+        });
     }
 
     /**
@@ -161,24 +732,36 @@ public class MessageReceiver implements NodeCommands {
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void killNode(Address killedNode) throws RemoteException {
-        log.info("Received kill notification for {}", killedNode);
-        if (killedNode.equals(node.getAddress())) {
-            node.setKilled(true);
-            node.setActive(false);
-            node.getNeighbours().getKnownNodes().clear();
-            node.getNeighbours().setLeader(null);
-            node.stopRMI();
-            log.warn("Node {} is now killed/unresponsive. Cleared neighbors and leader.", killedNode);
-        } else {
-            node.getNeighbours().removeNode(killedNode);
-            if (node.getNeighbours().getLeader() != null &&
-                    node.getNeighbours().getLeader().equals(killedNode)) {
-                log.info("Leader was killed. Starting election...");
-                node.startElection();
+    public void killNode(final Address killedNode) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        final NodeEventLoop loop = node.getEventLoop();
+        loop.submitControl(() -> {
+            log.info("Received kill notification for {}", killedNode);
+            if (killedNode.equals(node.getAddress())) {
+                node.setKilled(true);
+                node.setActive(false);
+                node.setKnownBeforeKill(new HashSet<>(node.getNeighbours().getKnownNodes()));
+                node.getNeighbours().getKnownNodes().clear();
+                node.getNeighbours().setLeader(null);
+                loop.runControl(node::stopRMI);
+                log.warn("Node {} is now killed/unresponsive. Cleared neighbors and leader.", killedNode);
+            } else {
+                node.getNeighbours().removeNode(killedNode);
+                node.getPubSub().removeSubscriber(killedNode);
+                node.getLockService().onNodeGone(killedNode);
+                node.getKvStore().onMembershipChanged();
+                node.getChangeFeed().publish("KILL", killedNode);
+                if (node.isQuorumMode()) {
+                    node.getQuorumElection().checkQuorum();
+                }
+                if (node.getNeighbours().getLeader() != null &&
+                        node.getNeighbours().getLeader().equals(killedNode)) {
+                    log.info("Leader was killed. Scheduling election...");
+                    node.scheduleElection();
+                }
             }
-        }
-        node.printStatus();
+            node.getJournal().record(StateJournal.Type.KILL, killedNode);
+        });
     }
 
     /**
@@ -191,19 +774,33 @@ public class MessageReceiver implements NodeCommands {
      * @throws RemoteException If an RMI error occurs.
      */
     @Override
-    public void revive(Address revivedNode) throws RemoteException {
-        log.info("Received revive notification for {}", revivedNode);
-        if (revivedNode.equals(node.getAddress())) {
-            node.setKilled(false);
-            node.setActive(true);
-            node.getNeighbours().getKnownNodes().clear();
-            node.getNeighbours().setLeader(null);
-            node.startRMI();
-            log.warn("Node {} is revived. Cleared neighbors and leader.", revivedNode);
-        } else {
-            node.getNeighbours().addNode(revivedNode);
-        }
-        node.printStatus();
+    public void revive(final Address revivedNode) throws RemoteException {
+        node.getAdmission().admit(Operation.MEMBERSHIP);
+        final NodeEventLoop loop = node.getEventLoop();
+        loop.submitControl(() -> {
+            log.info("Received revive notification for {}", revivedNode);
+            if (revivedNode.equals(node.getAddress())) {
+                node.setKilled(false);
+                node.setActive(true);
+                node.getNeighbours().getKnownNodes().clear();
+                node.getNeighbours().setLeader(null);
+                node.getDeliveryTracker().resetAll();
+                node.getCommunicationHub().resetSequences();
+                loop.runControl(() -> {
+                    node.startRMI();
+                    node.rejoinAfterRevive();
+                });
+                log.warn("Node {} is revived. Cleared neighbors and leader.", revivedNode);
+            } else {
+                node.getNeighbours().addNode(revivedNode);
+                node.getQuorumElection().addMember(revivedNode);
+                node.getDeliveryTracker().reset(revivedNode);
+                node.getCommunicationHub().resetSequence(revivedNode);
+                node.getKvStore().onMembershipChanged();
+                node.getChangeFeed().publish("REVIVE", revivedNode);
+            }
+            node.getJournal().record(StateJournal.Type.REVIVE, revivedNode);
+        });
     }
 
     /**
@@ -213,6 +810,55 @@ public class MessageReceiver implements NodeCommands {
      */
     @Override
     public void hello() throws RemoteException {
-        log.info("Received hello from {}", node.getAddress());
+        node.getEventLoop().submitControl(() -> log.info("Received hello from {}", node.getAddress()));
+    }
+
+    /**
+     * Answers a follower's heartbeat, which renews its lease on this node's leadership.
+     *
+     * @param term The term the follower believes this node leads.
+     * @return {@code true} if this node is active and still the leader of that term.
+     * @throws RemoteException If an RMI error occurs.
+     */
+    @Override
+    public boolean heartbeat(long term) throws RemoteException {
+        node.getAdmission().admit(Operation.ELECTION);
+        DSNeighbours ds = node.getNeighbours();
+        return node.isActive() && node.getAddress().equals(ds.getLeader()) && ds.getTerm() == term;
+    }
+
+    /**
+     * Receives a message of the hierarchical group protocol, see {@link GroupMembership}.
+     *
+     * <p>An election call only succeeds (i.e. counts as OK) if this node still leads its group.
+     *
+     * @param message The group message.
+     * @return This node's directory of group leaders.
+     * @throws RemoteException If an RMI error occurs or this node cannot answer an election.
+     */
+    @Override
+    public Map<String, Address> group(final GroupMessage message) throws RemoteException {
+        node.getAdmission().admit(Operation.ELECTION);
+        final GroupMembership groups = node.getGroups();
+        if (message.getKind() == GroupMessage.Kind.ELECTION && !groups.isGroupLeader()) {
+            throw new RemoteException("Not a group leader");
+        }
+        node.getEventLoop().submitControl(() -> groups.onMessage(message));
+        return groups.snapshot();
+    }
+
+    /**
+     * Runs a call made through an instrumented stub within the caller's trace context.
+     *
+     * @param context        The caller's trace context.
+     * @param method         The name of the {@link NodeCommands} method to invoke.
+     * @param parameterTypes The parameter types of the method.
+     * @param args           The arguments.
+     * @return The result of the method.
+     * @throws RemoteException If the method is unknown or throws.
+     */
+    @Override
+    public Object traced(TraceContext context, String method, Class<?>[] parameterTypes, Object[] args) throws RemoteException {
+        return node.getTracing().serve(this, NodeCommands.class, context, method, parameterTypes, args);
     }
-}
\ No newline at end of file
+}
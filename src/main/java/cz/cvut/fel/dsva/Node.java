@@ -1,16 +1,32 @@
 package cz.cvut.fel.dsva;
 
 import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.ControlCommands;
 import cz.cvut.fel.dsva.base.DSNeighbours;
 import cz.cvut.fel.dsva.base.NodeCommands;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a node in a distributed system implementing the Bully leader election algorithm.
@@ -26,6 +42,10 @@ import java.rmi.server.UnicastRemoteObject;
  *
  * <p>The node can also be controlled via console commands and an HTTP API.
  *
+ * <p>All state transitions (flags, neighbours, leader, elections) run as events on the
+ * node's {@link NodeEventLoop}, so RMI, console, HTTP and timer threads never race on the state.
+ * Outbound RMI calls run on the loop's I/O executor.
+ *
  * @author @author Kross Aleksandr
  */
 @Slf4j
@@ -33,54 +53,164 @@ import java.rmi.server.UnicastRemoteObject;
 @Setter
 public class Node implements Runnable {
     public static final String COMM_INTERFACE_NAME = "DSVNode";
+    public static final String CONTROL_INTERFACE_NAME = "DSVNodeControl";
+    public static final long ELECTION_TIMEOUT_MS = 2500;
 
-    private boolean isActive = true;
-    private boolean isKilled = false;
-    private boolean isLeft = false;
-    private boolean electionInProgress = false;
+    private volatile boolean isActive = true;
+    private volatile boolean isKilled = false;
+    private volatile boolean isLeft = false;
+    private volatile boolean electionInProgress = false;
+    private boolean electionPending = false;
+    private long electionRound = 0;
+    private long electionTerm = 0;
+    private volatile long currentTerm = 0;
+    private long electionJitterMs = 300;
+    private volatile long staleDropped = 0;
+    private volatile long coalescedTriggers = 0;
+    private volatile long electionsStarted = 0;
+    private long leaderAnnouncements = 0;
+    private boolean quorumMode = false;
+    private boolean treeMode = false;
+    private boolean stickyLeader = false;
+    private long leaderLeaseMs = 3000;
+    private volatile long leaderHeardAt = 0;
+    private int heartbeatMissLimit = 3;
+    private int heartbeatMisses = 0;
+    private volatile long leaderSuspected = 0;
+    private volatile long stickyKept = 0;
+    private volatile Set<Address> knownBeforeKill = new HashSet<>();
+    private volatile Address cachedLeader;
 
     private String nickname = "Unknown";
     private String myIP = "127.0.0.1";
     private int myPort = 2010;
     private int apiPort = 7000;
 
-    private String otherNodeIP = "127.0.0.1";
-    private int otherNodePort = 2010;
+    private List<Address> seeds = new ArrayList<>();
 
     private long nodeId = 0;
     private Address myAddress;
     private DSNeighbours neighbours;
-    private NodeCommands messageReceiver;
+    private volatile NodeCommands messageReceiver;
+    private volatile ControlReceiver controlReceiver;
     private CommunicationHub communicationHub;
+    private final DeliveryTracker deliveryTracker = new DeliveryTracker();
+    private final AdmissionControl admission = new AdmissionControl();
+    private OrderedBroadcast orderedBroadcast;
+    private QuorumElection quorumElection;
+    private TreeDissemination treeDissemination;
+    private FileTransfer fileTransfer;
+    private PubSub pubSub;
+    private KeyValueStore kvStore;
+    private ChangeFeed changeFeed;
+    private GroupMembership groups;
+    private StateJournal journal;
+    private ReplicatedLog replicatedLog;
+    private LockService lockService;
+    private IdService idService;
+    private CrdtStore crdtStore;
+    private RequestReply requestReply;
+    private SharedMemoryTransport sharedMemory;
+    private final NodeEventLoop eventLoop;
+    private final Tracing tracing;
+    private final NodeHost host;
 
     /**
      * Constructs a Node instance with the provided command-line arguments.
      *
      * <p>The expected arguments are:
      * <ul>
-     *     <li>If length is 3: <code>nickname</code>, <code>IP</code>, <code>port</code>.</li>
+     *     <li>If length is 3: <code>nickname</code>, <code>IP</code>, <code>port</code>.
+     *     Seeds are taken from the <code>dsva.seeds</code> configuration key, if set.</li>
+     *     <li>If length is 4: <code>nickname</code>, <code>IP</code>, <code>port</code>,
+     *     <code>seeds</code> as a comma-separated list of <code>ip:port</code>.</li>
      *     <li>If length is 5: <code>nickname</code>, <code>IP</code>, <code>port</code>, <code>otherNodeIP</code>, <code>otherNodePort</code>.</li>
      * </ul>
      *
      * @param args Command-line arguments for node configuration.
      */
     public Node(String[] args) {
+        this(args, null);
+    }
+
+    /**
+     * Constructs a Node instance that runs inside a {@link NodeHost}, sharing its registry and worker pools.
+     *
+     * @param args Command-line arguments for node configuration, see {@link #Node(String[])}.
+     * @param host The host running the node, or {@code null} for a standalone node.
+     */
+    public Node(String[] args, NodeHost host) {
+        this.host = host;
         if (args.length == 3) {
             nickname = args[0];
-            myIP = otherNodeIP = args[1];
-            myPort = otherNodePort = Integer.parseInt(args[2]);
-            apiPort = 5000 + myPort;
+            myIP = args[1];
+            myPort = Integer.parseInt(args[2]);
+            seeds = parseSeeds(Config.getString("dsva.seeds", ""));
+        } else if (args.length == 4) {
+            nickname = args[0];
+            myIP = args[1];
+            myPort = Integer.parseInt(args[2]);
+            seeds = parseSeeds(args[3]);
         } else if (args.length == 5) {
             nickname = args[0];
             myIP = args[1];
             myPort = Integer.parseInt(args[2]);
-            otherNodeIP = args[3];
-            otherNodePort = Integer.parseInt(args[4]);
-            apiPort = 5000 + myPort;
+            seeds.add(new Address(args[3], Integer.parseInt(args[4])));
         } else {
             log.warn("Wrong number of parameters - using defaults (myPort=2010).");
-            apiPort = 5000 + myPort;
         }
+        apiPort = 5000 + myPort;
+        quorumMode = Config.getBoolean("dsva.election.quorum", false);
+        electionJitterMs = Config.getLong("dsva.election.jitterMs", 300);
+        treeMode = Config.getBoolean("dsva.broadcast.tree", false);
+        stickyLeader = Config.getBoolean("dsva.election.sticky", false);
+        leaderLeaseMs = Config.getLong("dsva.election.leaseMs", 3000);
+        heartbeatMissLimit = Math.max(1, Config.getInt("dsva.election.heartbeatMisses", 3));
+        tracing = new Tracing(nickname + "@" + myIP + ":" + myPort);
+        if (host == null) {
+            eventLoop = new NodeEventLoop("node-" + myPort, Config.getInt("dsva.io.threads", 8),
+                    Config.getInt("dsva.control.threads", 4));
+        } else {
+            eventLoop = new NodeEventLoop("node-" + myPort, host.getTimer(), host.getIo(), host.getControl(),
+                    host.getBlocking());
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of <code>ip:port</code> seed addresses.
+     *
+     * @param list The seed list, e.g. <code>10.0.0.1:2010,10.0.0.2:2010</code>.
+     * @return The parsed addresses; malformed entries are skipped.
+     */
+    public static List<Address> parseSeeds(String list) {
+        List<Address> result = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            String s = entry.trim();
+            if (s.isEmpty()) {
+                continue;
+            }
+            int colon = s.lastIndexOf(':');
+            try {
+                result.add(new Address(s.substring(0, colon), Integer.parseInt(s.substring(colon + 1))));
+            } catch (RuntimeException e) {
+                log.warn("Invalid seed address: {}", s);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name a node's endpoint is bound under in an RMI registry.
+     *
+     * <p>Every node binds its endpoints under names suffixed with its port, so that the nodes of a
+     * {@link NodeHost} can share one registry. A standalone node additionally keeps the plain names.
+     *
+     * @param endpoint {@link #COMM_INTERFACE_NAME} or {@link #CONTROL_INTERFACE_NAME}.
+     * @param port     The port of the node.
+     * @return The binding name, e.g. <code>DSVNode/2010</code>.
+     */
+    public static String bindingName(String endpoint, int port) {
+        return endpoint + "/" + port;
     }
 
     /**
@@ -128,27 +258,12 @@ public class Node implements Runnable {
     /**
      * The main execution method for the node.
      *
-     * <p>This method initializes the node's ID and address, starts RMI communication,
-     * joins the network if necessary, and starts console and API handlers.
+     * <p>This method starts the node (see {@link #start()}) and its console and API handlers.
      * It then enters a loop to keep the node running until it becomes inactive, killed, or leaves.
      */
     @Override
     public void run() {
-        nodeId = generateId(myIP, myPort);
-        myAddress = new Address(myIP, myPort);
-        neighbours = new DSNeighbours(myAddress);
-
-        log.info("Node {} is starting with ID={}", nickname, nodeId);
-        printStatus();
-        startRMI();
-        communicationHub = new CommunicationHub(this);
-
-        if (!(myIP.equals(otherNodeIP) && myPort == otherNodePort)) {
-            join(otherNodeIP, otherNodePort);
-        } else {
-            neighbours.setLeader(myAddress);
-            log.info("I am the first node. I become the leader: {}", myAddress);
-        }
+        start();
 
         Thread consoleThread = new Thread(new ConsoleHandler(this));
         consoleThread.start();
@@ -166,8 +281,150 @@ public class Node implements Runnable {
         log.warn("Node run() method finished for {} (ID={}).", nickname, nodeId);
     }
 
+    /**
+     * Initializes the node's ID and address, starts RMI communication and joins the network if necessary.
+     * Returns once the node is part of the network; a {@link NodeHost} calls it directly.
+     */
+    public void start() {
+        nodeId = generateId(myIP, myPort);
+        myAddress = host == null ? new Address(myIP, myPort) : new Address(myIP, myPort, host.getRegistryPort());
+        neighbours = new DSNeighbours(myAddress);
+
+        log.info("Node {} is starting with ID={}", nickname, nodeId);
+        eventLoop.start();
+        communicationHub = new CommunicationHub(this);
+        orderedBroadcast = new OrderedBroadcast(this);
+        quorumElection = new QuorumElection(this);
+        treeDissemination = new TreeDissemination(this);
+        fileTransfer = new FileTransfer(this);
+        pubSub = new PubSub(this);
+        kvStore = new KeyValueStore(this);
+        changeFeed = new ChangeFeed(this);
+        groups = new GroupMembership(this);
+        journal = new StateJournal(this);
+        journal.start();
+        journal.record(StateJournal.Type.START, myAddress);
+        replicatedLog = new ReplicatedLog(this);
+        lockService = new LockService(this);
+        idService = new IdService(this);
+        crdtStore = new CrdtStore(this);
+        requestReply = new RequestReply(this);
+        requestReply.start();
+        sharedMemory = new SharedMemoryTransport(this);
+        startRMI();
+
+        List<Address> otherSeeds = new ArrayList<>(seeds);
+        otherSeeds.remove(myAddress);
+        if (!otherSeeds.isEmpty()) {
+            joinSeeds(otherSeeds);
+        } else {
+            neighbours.setLeader(myAddress);
+            log.info("I am the first node. I become the leader: {}", myAddress);
+            eventLoop.submitControl(groups::onGroupLeader);
+            eventLoop.submitControl(() -> lockService.onLeaderAnnounced(myAddress));
+        }
+        replicatedLog.start();
+        crdtStore.start();
+        if (otherSeeds.isEmpty()) {
+            idService.onLeaderAnnounced(myAddress);
+        }
+        if (stickyLeader) {
+            long period = Math.max(1, leaderLeaseMs / 3);
+            eventLoop.getTimer().scheduleAtFixedRate(() -> eventLoop.submit(this::heartbeatLeader),
+                    period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Timer event: renews the lease on the current leader if it confirms it still leads its term.
+     * Must run on the state thread; the call itself is made on the control executor.
+     *
+     * <p>A leader that cannot be reached is suspected only after <code>dsva.election.heartbeatMisses</code>
+     * heartbeats in a row went unanswered and its lease has expired. This node then elects on its own;
+     * it does not tell the others the leader was killed, since they may still reach it.
+     */
+    private void heartbeatLeader() {
+        final Address leader = neighbours.getLeader();
+        final long term = neighbours.getTerm();
+        if (!isActive() || leader == null || leader.equals(myAddress)
+                || !neighbours.getKnownNodes().contains(leader)) {
+            // A leader that is gone has already triggered an election
+            return;
+        }
+        eventLoop.runControl(() -> {
+            try {
+                if (communicationHub.sendHeartbeat(leader, term)) {
+                    eventLoop.submit(() -> {
+                        if (leader.equals(neighbours.getLeader())) {
+                            heartbeatMisses = 0;
+                            leaderHeardAt = System.currentTimeMillis();
+                        }
+                    });
+                }
+            } catch (RemoteException e) {
+                eventLoop.submit(() -> onHeartbeatMissed(leader));
+            }
+        });
+    }
+
+    /**
+     * Counts a heartbeat the leader did not answer and elects once the misses add up to a failure.
+     * Must run on the state thread.
+     */
+    private void onHeartbeatMissed(Address leader) {
+        if (!leader.equals(neighbours.getLeader())) {
+            return;
+        }
+        heartbeatMisses++;
+        if (heartbeatMisses < heartbeatMissLimit || leaderLeaseValid()) {
+            log.info("Leader {} missed {} heartbeat(s) in a row.", leader, heartbeatMisses);
+            return;
+        }
+        heartbeatMisses = 0;
+        leaderSuspected++;
+        log.warn("Leader {} missed {} heartbeats and its lease expired => scheduling election", leader, heartbeatMissLimit);
+        scheduleElection();
+    }
+
+    /**
+     * Checks whether the current leader is known to be alive: this node itself, or a known node
+     * that was announced or answered a heartbeat within the last <code>dsva.election.leaseMs</code>.
+     *
+     * @return {@code true} if the leader's lease is valid.
+     */
+    public boolean leaderLeaseValid() {
+        Address leader = neighbours.getLeader();
+        if (leader == null) {
+            return false;
+        }
+        if (leader.equals(myAddress)) {
+            return isActive();
+        }
+        return neighbours.getKnownNodes().contains(leader)
+                && System.currentTimeMillis() - leaderHeardAt < leaderLeaseMs;
+    }
+
+    /**
+     * Rejoins the network through the nodes known before the kill, if the sticky-leader policy is on.
+     * The join response carries the current leader, so the node follows it instead of
+     * having to win an election. Blocks until joined; runs on the control executor after RMI is restarted.
+     */
+    public void rejoinAfterRevive() {
+        if (!stickyLeader) {
+            return;
+        }
+        List<Address> others = new ArrayList<>(knownBeforeKill);
+        others.remove(myAddress);
+        if (!others.isEmpty()) {
+            joinSeeds(others);
+        }
+    }
+
     /**
      * Initializes and starts the RMI registry and binds the message receiver.
+     *
+     * <p>The control-plane methods are additionally exported through a {@link ControlReceiver}
+     * on their own port, see {@link #CONTROL_INTERFACE_NAME}.
      */
     public void startRMI() {
         try {
@@ -175,31 +432,56 @@ public class Node implements Runnable {
             if (messageReceiver == null) {
                 messageReceiver = new MessageReceiver(this);
             }
-            NodeCommands stub = (NodeCommands) UnicastRemoteObject.exportObject(messageReceiver, 40000 + myPort);
+            if (controlReceiver == null) {
+                controlReceiver = new ControlReceiver(messageReceiver, tracing);
+            }
+            int registryPort = myAddress.getRegistryPort();
+            NodeCommands stub = (NodeCommands) UnicastRemoteObject.exportObject(messageReceiver, 40000 + registryPort,
+                    CallerIdentity.CLIENT_SOCKETS, CallerIdentity.SOCKETS);
+            ControlCommands controlStub = (ControlCommands) UnicastRemoteObject.exportObject(controlReceiver,
+                    Config.getInt("dsva.control.portOffset", 30000) + registryPort,
+                    CallerIdentity.CLIENT_SOCKETS, CallerIdentity.SOCKETS);
             Registry registry;
-            try {
-                registry = LocateRegistry.getRegistry(myPort);
-                registry.rebind(COMM_INTERFACE_NAME, stub);
-            } catch (RemoteException e) {
-                log.info("No registry found on port {}. Creating a new one.", myPort);
-                registry = LocateRegistry.createRegistry(myPort);
-                registry.rebind(COMM_INTERFACE_NAME, stub);
+            if (host != null) {
+                registry = host.getRegistry();
+            } else {
+                try {
+                    registry = LocateRegistry.getRegistry(myPort);
+                    registry.rebind(COMM_INTERFACE_NAME, stub);
+                } catch (RemoteException e) {
+                    log.info("No registry found on port {}. Creating a new one.", myPort);
+                    registry = LocateRegistry.createRegistry(myPort);
+                    registry.rebind(COMM_INTERFACE_NAME, stub);
+                }
+                registry.rebind(CONTROL_INTERFACE_NAME, controlStub);
             }
+            registry.rebind(bindingName(COMM_INTERFACE_NAME, myPort), stub);
+            registry.rebind(bindingName(CONTROL_INTERFACE_NAME, myPort), controlStub);
             log.info("RMI started on port {}", myPort);
+            sharedMemory.open();
         } catch (Exception e) {
             log.error("startRMI error: ", e);
         }
     }
 
     /**
-     * Stops the RMI registry and unexports the message receiver.
+     * Stops the RMI registry and unexports the message and control receivers.
+     * The shared-memory inbox is closed first, so local peers fall back to RMI and find the node gone.
      */
     public void stopRMI() {
+        sharedMemory.close();
         try {
-            Registry registry = LocateRegistry.getRegistry(myPort);
-            registry.unbind(COMM_INTERFACE_NAME);
+            Registry registry = host != null ? host.getRegistry() : LocateRegistry.getRegistry(myPort);
+            if (host == null) {
+                registry.unbind(COMM_INTERFACE_NAME);
+                registry.unbind(CONTROL_INTERFACE_NAME);
+            }
+            registry.unbind(bindingName(COMM_INTERFACE_NAME, myPort));
+            registry.unbind(bindingName(CONTROL_INTERFACE_NAME, myPort));
             UnicastRemoteObject.unexportObject(messageReceiver, false);
+            UnicastRemoteObject.unexportObject(controlReceiver, false);
             messageReceiver = null;
+            controlReceiver = null;
             log.info("RMI stopped on port {}", myPort);
         } catch (Exception e) {
             log.error("stopRMI error: ", e);
@@ -213,68 +495,494 @@ public class Node implements Runnable {
      * @param port  The port number of the node to join.
      */
     public void join(String ip, int port) {
-        Address other = new Address(ip, port);
-        try {
-            NodeCommands proxy = communicationHub.getProxy(other);
-            DSNeighbours updated = proxy.join(myAddress);
-            for (Address a : updated.getKnownNodes()) {
-                neighbours.addNode(a);
+        List<Address> single = new ArrayList<>();
+        single.add(new Address(ip, port));
+        joinSeeds(single);
+    }
+
+    /**
+     * Joins the network through any of the given seed nodes.
+     *
+     * <p>All seeds are contacted concurrently and the first successful <code>join</code> response
+     * is applied, so start-up is bounded by the fastest live seed. Responses arriving within
+     * <code>dsva.join.mergeGraceMs</code> after that are merged into the membership; the remaining
+     * calls are cancelled. If no seed answers, the whole round is retried up to
+     * <code>dsva.join.attempts</code> times before the node stays on its own.
+     *
+     * @param seedList The addresses of the seed nodes.
+     * @return {@code true} if at least one seed accepted the join.
+     */
+    public boolean joinSeeds(List<Address> seedList) {
+        int attempts = Config.getInt("dsva.join.attempts", 3);
+        long timeoutMs = Config.getLong("dsva.join.timeoutMs", 5000);
+        long mergeGraceMs = Config.getLong("dsva.join.mergeGraceMs", 500);
+
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            ExecutorService pool = Executors.newFixedThreadPool(seedList.size(), r -> {
+                Thread t = new Thread(r, "join-seed");
+                t.setDaemon(true);
+                return t;
+            });
+            CompletionService<DSNeighbours> cs = new ExecutorCompletionService<>(pool);
+            List<Future<DSNeighbours>> futures = new ArrayList<>();
+            for (final Address seed : seedList) {
+                futures.add(cs.submit(() -> communicationHub.getProxy(seed).join(myAddress)));
             }
+            try {
+                int pending = futures.size();
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                DSNeighbours first = null;
+                while (first == null && pending > 0) {
+                    Future<DSNeighbours> done = cs.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        break;
+                    }
+                    pending--;
+                    first = resultOf(done);
+                }
+                if (first == null) {
+                    log.warn("Join attempt {}/{}: no seed of {} answered.", attempt, attempts, seedList);
+                    continue;
+                }
+                final DSNeighbours response = first;
+                eventLoop.submit(() -> applyJoinResponse(response));
+
+                long graceDeadline = System.currentTimeMillis() + mergeGraceMs;
+                while (pending > 0) {
+                    Future<DSNeighbours> done = cs.poll(Math.max(0, graceDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        break;
+                    }
+                    pending--;
+                    final DSNeighbours late = resultOf(done);
+                    if (late != null) {
+                        eventLoop.submit(() -> mergeMembership(late));
+                    }
+                }
+                eventLoop.submit(() -> {
+                    log.info("Joined network through seeds {} ({} known nodes, leader {}).",
+                            seedList, neighbours.getKnownNodes().size(), neighbours.getLeader());
+                    journal.record(StateJournal.Type.JOINED, neighbours.getLeader());
+                });
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Join interrupted.", e);
+                return false;
+            } finally {
+                for (Future<DSNeighbours> f : futures) {
+                    f.cancel(true);
+                }
+                pool.shutdownNow();
+            }
+        }
+        log.error("Could not join through any of the seeds {}. Staying alone.", seedList);
+        return false;
+    }
+
+    private DSNeighbours resultOf(Future<DSNeighbours> done) {
+        try {
+            return done.get();
+        } catch (ExecutionException | InterruptedException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.warn("Seed join failed: {}", cause.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adopts the membership view of the seed that answered first. Must run on the state thread.
+     *
+     * <p>The seed's leader is adopted only if its term is not older than the one this node knows, just like
+     * the global leader, so a leader announced on the urgent queue while the response waited on the regular
+     * one is not rolled back.
+     *
+     * @param updated The seed's view.
+     */
+    private void applyJoinResponse(DSNeighbours updated) {
+        for (Address a : updated.getKnownNodes()) {
+            neighbours.addNode(a);
+            quorumElection.addMember(a);
+        }
+        if (updated.getTerm() >= neighbours.getTerm()) {
             neighbours.setLeader(updated.getLeader());
-            log.info("Joined network with node at {}. Neighbors: {}", other, neighbours);
-            printStatus();
-        } catch (RemoteException e) {
-            log.error("join error: ", e);
+            neighbours.setTerm(updated.getTerm());
+            leaderHeardAt = System.currentTimeMillis();
+        } else {
+            log.info("Keeping leader {} (term {}) over {} (term {}) from the join response.",
+                    neighbours.getLeader(), neighbours.getTerm(), updated.getLeader(), updated.getTerm());
+        }
+        currentTerm = Math.max(currentTerm, updated.getTerm());
+        kvStore.onMembershipChanged();
+        neighbours.getGroupLeaders().putAll(updated.getGroupLeaders());
+        if (updated.getGlobalTerm() >= neighbours.getGlobalTerm()) {
+            neighbours.setGlobalLeader(updated.getGlobalLeader());
+            neighbours.setGlobalTerm(updated.getGlobalTerm());
+        }
+        if (myAddress.equals(neighbours.getLeader())) {
+            groups.onGroupLeader();
+        }
+        Address through = neighbours.getLeader() != null ? neighbours.getLeader() : firstOther(updated.getKnownNodes());
+        if (through != null && !through.equals(myAddress)) {
+            pubSub.syncAfterJoin(through);
         }
     }
 
+    private Address firstOther(Set<Address> nodes) {
+        for (Address a : nodes) {
+            if (!a.equals(myAddress)) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges a membership view returned by a late seed.
+     *
+     * <p>If the late seed follows a different leader, the seeds belonged to separate clusters.
+     * The nodes of each side are then introduced to the other and a new election is started,
+     * so the merged cluster converges on a single leader instead of staying split.
+     *
+     * @param late The membership view returned by the late seed.
+     */
+    private void mergeMembership(DSNeighbours late) {
+        Set<Address> before = new HashSet<>(neighbours.getKnownNodes());
+        for (Address a : late.getKnownNodes()) {
+            neighbours.addNode(a);
+            quorumElection.addMember(a);
+        }
+        kvStore.onMembershipChanged();
+        Address ours = neighbours.getLeader();
+        Address theirs = late.getLeader();
+        if (theirs == null || theirs.equals(ours)) {
+            return;
+        }
+        log.warn("Late seed reports leader {} but we follow {}. Merging clusters.", theirs, ours);
+        final Set<Address> introduced = new LinkedHashSet<>();
+        for (Address a : neighbours.getKnownNodes()) {
+            boolean onlyOurs = before.contains(a) && !late.getKnownNodes().contains(a);
+            boolean onlyTheirs = !before.contains(a);
+            if (!a.equals(myAddress) && (onlyOurs || onlyTheirs)) {
+                introduced.add(a);
+            }
+        }
+        eventLoop.runControl(() -> {
+            for (Address a : introduced) {
+                communicationHub.broadcastNewNode(a);
+            }
+        });
+        startElection();
+    }
+
     /**
      * Initiates the leader election process using the Bully algorithm.
+     *
+     * <p>An explicit election always preempts the current leader, also under the sticky-leader policy.
      */
     public void startElection() {
-        if (!isActive() || isKilled || isLeft) {
-            log.info("Cannot start election: node is not active.");
+        eventLoop.submit(() -> {
+            if (!isActive() || isKilled || isLeft) {
+                log.info("Cannot start election: node is not active.");
+                return;
+            }
+            internalStartElection(true);
+        });
+    }
+
+    /**
+     * Requests an election after a failure was detected (leader left, was killed or stopped answering).
+     * Must run on the state thread.
+     *
+     * <p>Failures are usually noticed by several nodes at about the same time. The election starts
+     * after a random delay of up to <code>dsva.election.jitterMs</code>; triggers arriving while one
+     * is pending or running are merged into it, and the pending one is dropped if another node's
+     * election has produced a leader in a newer term in the meantime.
+     */
+    public void scheduleElection() {
+        if (electionPending || electionInProgress) {
+            coalescedTriggers++;
+            log.info("Election trigger merged into the pending/running one.");
             return;
         }
-        internalStartElection();
+        electionPending = true;
+        final long termAtTrigger = neighbours.getTerm();
+        long jitter = electionJitterMs > 0 ? ThreadLocalRandom.current().nextLong(electionJitterMs + 1) : 0;
+        Tracing.Span span = tracing.start("scheduleElection", Tracing.INTERNAL).attribute("jitterMs", jitter);
+        eventLoop.schedule(() -> {
+            electionPending = false;
+            if (!isActive()) {
+                return;
+            }
+            Address leader = neighbours.getLeader();
+            if (neighbours.getTerm() > termAtTrigger && leader != null && neighbours.getKnownNodes().contains(leader)) {
+                log.info("Leader {} already elected in term {}. Skipping election.", leader, neighbours.getTerm());
+                return;
+            }
+            internalStartElection(true);
+        }, jitter);
+        span.end();
+    }
+
+    /**
+     * Starts an election that does not preempt a live leader, see {@link #internalStartElection(boolean)}.
+     */
+    public void internalStartElection() {
+        internalStartElection(false);
     }
 
     /**
-     * Internal method to handle the election process.
+     * Internal method to handle the election process. Must run on the state thread.
      *
-     * <p>Notifies higher-ID nodes and waits for responses.
+     * <p>Starts a new election in the next term, notifies higher-ID nodes and waits for responses.
      * If no higher-ID nodes respond, declares itself as the new leader.
+     *
+     * <p>Under the sticky-leader policy (<code>dsva.election.sticky</code>), an election that does not
+     * preempt is skipped while the current leader's lease is valid.
+     *
+     * @param preempt Whether the election may replace a live leader: true after a failure or on request.
      */
-    public void internalStartElection() {
+    public void internalStartElection(boolean preempt) {
         if (electionInProgress) {
-            log.info("Election already in progress.");
+            log.info("Election already in progress (term {}).", electionTerm);
+            return;
+        }
+        if (stickyLeader && !preempt && leaderLeaseValid()) {
+            stickyKept++;
+            log.info("Leader {} holds a valid lease. Keeping it instead of electing.", neighbours.getLeader());
             return;
         }
+        startElectionRound(currentTerm + 1, preempt);
+    }
+
+    /**
+     * Runs an election in the given term. Must run on the state thread.
+     *
+     * @param term    The election term, either a new one or one started by a lower node.
+     * @param preempt Whether the election may replace a live leader.
+     */
+    private void startElectionRound(final long term, final boolean preempt) {
+        if (electionTerm >= term) {
+            log.info("Already took part in the election of term {}.", electionTerm);
+            return;
+        }
+        currentTerm = Math.max(currentTerm, term);
         electionInProgress = true;
-        log.info("Starting Bully election. My ID={}", nodeId);
-        communicationHub.sendElectionToBiggerNodes();
+        electionTerm = term;
+        electionsStarted++;
+        final long round = ++electionRound;
+        log.info("Starting Bully election in term {}. My ID={}", term, nodeId);
+        Tracing.Span span = tracing.start("startElectionRound", Tracing.INTERNAL).attribute("term", term);
+        eventLoop.runControl(() -> communicationHub.sendElectionToBiggerNodes(term, preempt));
+        eventLoop.schedule(() -> onElectionTimeout(round), ELECTION_TIMEOUT_MS);
+        span.end();
+    }
 
-        new Thread(() -> {
-            try {
-                Thread.sleep(2500);
-            } catch (InterruptedException e) {
-                log.error("Election wait interrupted.", e);
+    /**
+     * Handles an ELECTION message from a lower node. Must run on the state thread.
+     *
+     * <p>A request from an older term is stale: the candidate only gets an OK carrying the newer term
+     * and, if known, the leader of that term. Otherwise this node answers OK and joins the candidate's
+     * term, starting its own round only if it has not run one for that term or a newer one yet.
+     *
+     * <p>Under the sticky-leader policy, a request that does not preempt is answered with OK and the
+     * current leader while that leader's lease is valid, so a higher node does not take over.
+     *
+     * @param term        The candidate's election term.
+     * @param candidateId The candidate's ID.
+     * @param preempt     Whether the candidate's election may replace a live leader.
+     */
+    public void onElectionRequest(final long term, final long candidateId, final boolean preempt) {
+        if (term < currentTerm) {
+            staleDropped++;
+            final long myTerm = currentTerm;
+            final Address leader = neighbours.getLeader();
+            final long leaderTerm = neighbours.getTerm();
+            log.info("Stale startElection (term {} < {}) from nodeId {}", term, myTerm, candidateId);
+            eventLoop.runControl(() -> {
+                communicationHub.sendRespondOk(myTerm, candidateId);
+                if (leader != null && leaderTerm == myTerm) {
+                    communicationHub.sendLeaderTo(candidateId, leaderTerm, leader);
+                }
+            });
+            return;
+        }
+        currentTerm = term;
+        if (nodeId > candidateId) {
+            final Address leader = neighbours.getLeader();
+            if (stickyLeader && !preempt && isActive() && leaderLeaseValid()
+                    && computeId(leader.getHostname(), leader.getPort()) != candidateId) {
+                stickyKept++;
+                final long leaderTerm = neighbours.getTerm();
+                log.info("Leader {} holds a valid lease. Relaying it to nodeId {} instead of electing.", leader, candidateId);
+                eventLoop.runControl(() -> {
+                    communicationHub.sendRespondOk(term, candidateId);
+                    communicationHub.sendLeaderTo(candidateId, leaderTerm, leader);
+                });
+                return;
             }
-            if (electionInProgress) {
-                log.info("No higher node responded. I am the new leader.");
-                neighbours.setLeader(myAddress);
-                communicationHub.broadcastLeader();
-                electionInProgress = false;
-                printStatus();
+            eventLoop.runControl(() -> communicationHub.sendRespondOk(term, candidateId));
+            if (isActive()) {
+                startElectionRound(term, preempt);
             }
-        }).start();
+        }
+    }
+
+    /**
+     * Handles an OK from a higher node. Must run on the state thread.
+     *
+     * @param term       The term of the higher node.
+     * @param fromNodeId The ID of the higher node.
+     */
+    public void onOkReceived(long term, long fromNodeId) {
+        if (!electionInProgress || term < electionTerm) {
+            staleDropped++;
+            currentTerm = Math.max(currentTerm, term);
+            log.info("Ignoring respondOk (term {}) from nodeId {}: no election in that term.", term, fromNodeId);
+            return;
+        }
+        currentTerm = Math.max(currentTerm, term);
+        onElectionAnswered();
+    }
+
+    /**
+     * Handles a leader announcement. Must run on the state thread.
+     *
+     * <p>Announcements from an older term than the current leader's are stale and dropped.
+     * Within the same term, a live leader with a higher ID is kept.
+     *
+     * @param term          The term the leader was elected in.
+     * @param leaderId      The ID of the announced leader.
+     * @param leaderAddress The address of the announced leader.
+     * @return {@code true} if the announcement was accepted.
+     */
+    public boolean onLeaderAnnouncement(long term, long leaderId, Address leaderAddress) {
+        Address current = neighbours.getLeader();
+        if (term < neighbours.getTerm()) {
+            staleDropped++;
+            log.info("Dropped stale announceLeader {} (term {} < {})", leaderAddress, term, neighbours.getTerm());
+            return false;
+        }
+        if (term == neighbours.getTerm() && current != null && !current.equals(leaderAddress)
+                && neighbours.getKnownNodes().contains(current)
+                && computeId(current.getHostname(), current.getPort()) > leaderId) {
+            staleDropped++;
+            log.info("Dropped announceLeader {}: {} has a higher ID in the same term {}", leaderAddress, current, term);
+            return false;
+        }
+        neighbours.setTerm(term);
+        currentTerm = Math.max(currentTerm, term);
+        onLeaderAnnounced(leaderAddress);
+        return true;
+    }
+
+    /**
+     * Timer event: if no higher node answered during this election round, become the leader.
+     * In quorum mode, votes from a majority of the agreed membership are collected first.
+     *
+     * @param round The election round the timer was started for.
+     */
+    private void onElectionTimeout(long round) {
+        if (electionInProgress && round == electionRound) {
+            if (quorumMode) {
+                log.info("No higher node responded. Collecting votes.");
+                quorumElection.collectVotes(round, electionTerm);
+                return;
+            }
+            log.info("No higher node responded. I am the new leader.");
+            becomeLeader();
+        }
+    }
+
+    /**
+     * Makes this node the leader and announces it to all neighbours. Must run on the state thread.
+     */
+    public void becomeLeader() {
+        final long term = electionTerm;
+        Tracing.Span span = tracing.start("becomeLeader", Tracing.INTERNAL).attribute("term", term);
+        neighbours.setLeader(myAddress);
+        neighbours.setTerm(term);
+        electionInProgress = false;
+        changeFeed.publish("LEADER", myAddress);
+        eventLoop.runControl(() -> communicationHub.broadcastLeader(term));
+        groups.onGroupLeader();
+        lockService.onLeaderAnnounced(myAddress);
+        idService.onLeaderAnnounced(myAddress);
+        span.end();
+        journal.record(StateJournal.Type.LEADER, myAddress);
+    }
+
+    /**
+     * Records a leader announcement. Must run on the state thread.
+     *
+     * @param leaderAddress The address of the announced leader.
+     */
+    public void onLeaderAnnounced(Address leaderAddress) {
+        neighbours.setLeader(leaderAddress);
+        leaderHeardAt = System.currentTimeMillis();
+        electionInProgress = false;
+        leaderAnnouncements++;
+        if (quorumMode) {
+            quorumElection.addMember(leaderAddress);
+        }
+        changeFeed.publish("LEADER", leaderAddress);
+    }
+
+    /**
+     * Called when a higher node answered OK. In quorum mode the higher node may fail to gather
+     * a majority and never announce itself; if no announcement arrives in time, this node goes
+     * leaderless instead of following a stale leader. Must run on the state thread.
+     */
+    public void onElectionAnswered() {
+        electionInProgress = false;
+        if (!quorumMode) {
+            return;
+        }
+        final long announcements = leaderAnnouncements;
+        eventLoop.schedule(() -> {
+            if (leaderAnnouncements == announcements && !electionInProgress && isActive()) {
+                log.warn("Higher node answered but no leader was announced. Going leaderless.");
+                quorumElection.stepDown();
+            }
+        }, 3 * ELECTION_TIMEOUT_MS);
+    }
+
+    /**
+     * Describes the current leader, or the cached one while the node has no quorum.
+     *
+     * @return A human-readable leader description.
+     */
+    public String describeLeader() {
+        Address leader = neighbours.getLeader();
+        if (leader == null && quorumMode && cachedLeader != null) {
+            return "none (no quorum), last known leader: " + cachedLeader;
+        }
+        return String.valueOf(leader);
+    }
+
+    /**
+     * Simulates a network partition by refusing all calls to the given nodes.
+     *
+     * @param unreachable The nodes to cut off.
+     */
+    public void partition(List<Address> unreachable) {
+        communicationHub.getBlocked().addAll(unreachable);
+        log.warn("Partition: calls to {} are now blocked.", unreachable);
+    }
+
+    /**
+     * Heals a simulated network partition.
+     */
+    public void heal() {
+        communicationHub.getBlocked().clear();
+        log.warn("Partition healed.");
     }
 
     /**
      * Logs the current leader of the network.
      */
     public void checkLeader() {
-        log.info("Current leader: {}", neighbours.getLeader());
+        log.info("Current leader: {}", describeLeader());
     }
 
     /**
@@ -289,61 +997,200 @@ public class Node implements Runnable {
             return;
         }
         log.info("Send message from {} to {} -> {}", nickname, toNick, message);
-        communicationHub.sendMessageTo(toNick, nickname, message);
+        eventLoop.runIo(() -> communicationHub.sendMessageTo(toNick, nickname, message));
     }
 
     /**
-     * Gracefully leaves the network by notifying all neighbors and clearing internal state.
+     * Sends a message through the leader-sequenced total-order broadcast channel.
+     * Every node, including this one, delivers it in the same global order.
+     *
+     * @param message The message content to send.
      */
-    public void leaveNetwork() {
-        if (isLeft) {
-            log.warn("Already left the network.");
+    public void sendOrdered(String message) {
+        if (isKilled || isLeft) {
+            log.warn("Cannot send ordered message: node is inactive (killed or left).");
             return;
         }
-        isLeft = true;
-        setActive(false);
-        communicationHub.notifyLeave(myAddress);
-        neighbours.getKnownNodes().clear();
-        neighbours.setLeader(null);
-        log.info("Node {} has left the network. Neighbors cleared, leader set to null.", myAddress);
+        orderedBroadcast.send(message);
+    }
+
+    /**
+     * Sends a request to the <code>echo</code> handler of another node, see {@link RequestReply}.
+     *
+     * @param toNick  The nickname (or <code>ip:port</code>) of the target node.
+     * @param payload The request payload.
+     * @return A future completed with the reply, or failed on error or after <code>dsva.rpc.timeoutMs</code>.
+     */
+    public CompletableFuture<String> request(String toNick, String payload) {
+        return request(toNick, RequestReply.DEFAULT_METHOD, payload, 0);
+    }
+
+    /**
+     * Sends a request to a handler of another node, see {@link RequestReply}.
+     *
+     * @param toNick    The nickname (or <code>ip:port</code>) of the target node.
+     * @param method    The method the target's handler is registered for.
+     * @param payload   The request payload.
+     * @param timeoutMs The time to wait for the reply, or 0 for <code>dsva.rpc.timeoutMs</code>.
+     * @return A future completed with the reply, or failed on error or timeout.
+     */
+    public CompletableFuture<String> request(String toNick, String method, String payload, long timeoutMs) {
+        if (!isActive()) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Node is inactive (killed or left)"));
+            return failed;
+        }
+        return requestReply.request(toNick, method, payload, timeoutMs);
+    }
+
+    /**
+     * Registers the handler answering requests of a method on this node.
+     *
+     * @param method  The method name.
+     * @param handler The handler, run on an I/O thread.
+     */
+    public void onRequest(String method, RequestReply.Handler handler) {
+        requestReply.register(method, handler);
+    }
+
+    /**
+     * Subscribes this node to a topic.
+     *
+     * @param topic The topic name.
+     */
+    public void subscribe(final String topic) {
+        eventLoop.submit(() -> pubSub.subscribe(topic));
+    }
+
+    /**
+     * Unsubscribes this node from a topic.
+     *
+     * @param topic The topic name.
+     */
+    public void unsubscribe(final String topic) {
+        eventLoop.submit(() -> pubSub.unsubscribe(topic));
+    }
+
+    /**
+     * Publishes a message to the subscribers of a topic.
+     *
+     * @param topic   The topic name.
+     * @param message The message content.
+     * @return The number of subscribers, or -1 if the node is inactive.
+     */
+    public int publish(String topic, String message) {
+        if (!isActive()) {
+            log.warn("Cannot publish: node is inactive (killed or left).");
+            return -1;
+        }
+        return pubSub.publish(topic, message);
+    }
+
+    /**
+     * Returns a new cluster-unique ID, see {@link IdService}. Asks the leader only once per ID block.
+     *
+     * @return The ID.
+     * @throws IllegalStateException If no ID block could be fetched from the leader.
+     */
+    public long nextId() {
+        return idService.nextId();
+    }
+
+    /**
+     * Streams a file from the outbox (<code>dsva.transfer.outbox</code>) to another node in chunks,
+     * see {@link FileTransfer}.
+     *
+     * @param target The receiving node.
+     * @param path   The path of the file, relative to the outbox.
+     * @return The transfer ID, or {@code null} if the transfer could not be started.
+     */
+    public String sendFile(Address target, String path) {
+        if (!isActive()) {
+            log.warn("Cannot send file: node is inactive (killed or left).");
+            return null;
+        }
+        File file = fileTransfer.resolveOutgoing(path);
+        if (file == null) {
+            log.warn("Cannot send file: {} is not a file in the outbox {}.", path, fileTransfer.getOutbox());
+            return null;
+        }
+        return fileTransfer.send(target, file);
+    }
+
+    /**
+     * Gracefully leaves the network by notifying all neighbors and clearing internal state.
+     */
+    public void leaveNetwork() {
+        eventLoop.submit(() -> {
+            if (isLeft) {
+                log.warn("Already left the network.");
+                return;
+            }
+            isLeft = true;
+            setActive(false);
+            final Set<Address> snapshot = new HashSet<>(neighbours.getKnownNodes());
+            eventLoop.runControl(() -> communicationHub.notifyLeave(myAddress, snapshot));
+            neighbours.getKnownNodes().clear();
+            neighbours.setLeader(null);
+            log.info("Node {} has left the network. Neighbors cleared, leader set to null.", myAddress);
+            changeFeed.publish("LEAVE", myAddress);
+            journal.record(StateJournal.Type.LEAVE, myAddress);
+        });
     }
 
     /**
      * Abruptly kills the node, making it unresponsive without notifying neighbors.
      */
     public void killNode() {
-        if (isKilled) {
-            log.warn("Node {} is already killed.", myAddress);
-            return;
-        }
-        isKilled = true;
-        setActive(false);
-        stopRMI();
-        // We do not notify others ourselves, because the node "died" abruptly
-        // Clear neighbors & leader in the local node
-        communicationHub.notifyKill(myAddress);
-        neighbours.getKnownNodes().clear();
-        neighbours.setLeader(null);
-        log.warn("Node {} is killed/unresponsive. Neighbors cleared, leader set to null.", myAddress);
+        eventLoop.submit(() -> {
+            if (isKilled) {
+                log.warn("Node {} is already killed.", myAddress);
+                return;
+            }
+            isKilled = true;
+            setActive(false);
+            final Set<Address> snapshot = new HashSet<>(neighbours.getKnownNodes());
+            knownBeforeKill = snapshot;
+            eventLoop.runControl(() -> {
+                stopRMI();
+                communicationHub.notifyKill(myAddress, snapshot);
+            });
+            // Clear neighbors & leader in the local node
+            neighbours.getKnownNodes().clear();
+            neighbours.setLeader(null);
+            log.warn("Node {} is killed/unresponsive. Neighbors cleared, leader set to null.", myAddress);
+            changeFeed.publish("KILL", myAddress);
+            journal.record(StateJournal.Type.KILL, myAddress);
+        });
     }
 
     /**
      * Revives a previously killed node by restarting RMI and notifying neighbors.
      */
     public void reviveNode() {
-        if (!isKilled) {
-            log.warn("Node {} is not killed, cannot revive. Use 'leave' or 'join' if needed.", myAddress);
-            return;
-        }
-        isKilled = false;
-        setActive(true);
-        startRMI();
-        communicationHub.notifyRevive(myAddress);
+        eventLoop.submit(() -> {
+            if (!isKilled) {
+                log.warn("Node {} is not killed, cannot revive. Use 'leave' or 'join' if needed.", myAddress);
+                return;
+            }
+            isKilled = false;
+            setActive(true);
+            deliveryTracker.resetAll();
+            communicationHub.resetSequences();
+            final Set<Address> snapshot = new HashSet<>(neighbours.getKnownNodes());
+            eventLoop.runControl(() -> {
+                startRMI();
+                communicationHub.notifyRevive(myAddress, snapshot);
+                rejoinAfterRevive();
+            });
 
-        // Also clear neighbors & leader for a fresh start
-        neighbours.getKnownNodes().clear();
-        neighbours.setLeader(null);
-        log.warn("Node {} has been revived. Neighbors cleared, leader set to null.", myAddress);
+            // Also clear neighbors & leader for a fresh start
+            neighbours.getKnownNodes().clear();
+            neighbours.setLeader(null);
+            log.warn("Node {} has been revived. Neighbors cleared, leader set to null.", myAddress);
+            changeFeed.publish("REVIVE", myAddress);
+            journal.record(StateJournal.Type.REVIVE, myAddress);
+        });
     }
 
     /**
@@ -371,7 +1218,26 @@ public class Node implements Runnable {
         sb.append(" Active:   ").append(isActive()).append("\n");
         sb.append(" Killed:   ").append(isKilled).append("\n");
         sb.append(" Left:     ").append(isLeft).append("\n");
-        sb.append(" Leader:   ").append(neighbours.getLeader()).append("\n");
+        sb.append(" Leader:   ").append(describeLeader()).append("\n");
+        sb.append(" Term:     ").append(currentTerm).append(" (leader term ").append(neighbours.getTerm()).append(")\n");
+        sb.append(" Elections: ").append(electionsStarted)
+                .append(" (messages ").append(communicationHub.getElectionMessages().sum())
+                .append(", stale dropped ").append(staleDropped)
+                .append(", merged triggers ").append(coalescedTriggers).append(")\n");
+        if (groups.isEnabled()) {
+            sb.append(" Group:    ").append(groups.myGroup()).append(" (global leader ")
+                    .append(neighbours.getGlobalLeader()).append(", ")
+                    .append(neighbours.getGroupLeaders().size()).append(" groups)\n");
+        }
+        if (stickyLeader) {
+            sb.append(" Sticky:   lease ").append(leaderLeaseValid() ? "valid" : "expired")
+                    .append(", elections avoided ").append(stickyKept)
+                    .append(", leader suspected ").append(leaderSuspected).append("\n");
+        }
+        if (quorumMode) {
+            sb.append(" Quorum:   ").append(quorumElection.majority()).append(" of ")
+                    .append(quorumElection.getAgreedMembership().size()).append(" agreed members\n");
+        }
         sb.append(" Neighbors: ");
         for (Address a : neighbours.getKnownNodes()) {
             if (!a.equals(myAddress)) {
@@ -383,10 +1249,21 @@ public class Node implements Runnable {
     }
 
     /**
-     * Logs the current status of the node.
+     * Retrieves the message delivery statistics (duplicates dropped, gaps detected).
+     *
+     * @return A string representation of the delivery counters.
+     */
+    public String getDeliveryStats() {
+        return deliveryTracker.getStats();
+    }
+
+    /**
+     * Logs the current status of the node. The status is captured by the caller
+     * and written to the log on the I/O executor.
      */
     public void printStatus() {
-        log.info("\n{}", getStatus());
+        final String status = getStatus();
+        eventLoop.runIo(() -> log.info("\n{}", status));
     }
 
     /**
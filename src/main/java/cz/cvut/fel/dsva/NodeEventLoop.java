@@ -0,0 +1,370 @@
+package cz.cvut.fel.dsva;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-threaded event loop that owns all state transitions of a {@link Node}.
+ *
+ * <p>Inbound RMI calls, console and HTTP commands and timers are turned into events on a lock-free
+ * multi-producer/single-consumer queue, which one state thread drains in order. Because only that
+ * thread mutates the node's state (flags, neighbours, leader), no locks are needed, and producers
+ * only pay the cost of one enqueue.
+ *
+ * <p>Blocking work, in particular outbound RMI calls, must never run on the state thread;
+ * it is handed to a separate I/O executor with {@link #runIo(Runnable)}.
+ *
+ * <p>Events and tasks run in the trace context of the thread that handed them over, see {@link Tracing#wrap(Runnable)}.
+ *
+ * <p>Control-plane work (elections, leader announcements, failure handling) is kept apart from
+ * data-plane work so that a backlog of messages cannot delay failover:
+ * <ul>
+ *     <li>control events and timers go to an urgent queue with {@link #submitControl(Runnable)},
+ *     which the state thread always drains before the regular queue;</li>
+ *     <li>outbound control calls run on a reserved executor with {@link #runControl(Runnable)}.</li>
+ * </ul>
+ * Both executors are bounded, so a task on them must never wait for another task queued to the same
+ * executor. Work that waits on other nodes' work, such as a call that only returns once a whole subtree
+ * has answered, runs on an unbounded executor with {@link #runBlocking(Runnable)} instead.
+ *
+ * <p>Components that need their work done in order, like a dedicated thread would, take a {@link #lane()}
+ * instead of starting threads, so nodes of a {@link NodeHost} share the same threads.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class NodeEventLoop implements Runnable {
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> urgent = new ConcurrentLinkedQueue<>();
+    private final Thread stateThread;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService io;
+    private final ExecutorService control;
+    private final ExecutorService blocking;
+    private volatile boolean parked = false;
+    private volatile boolean running = true;
+
+    /**
+     * Constructs the event loop. The state thread starts with {@link #start()}.
+     *
+     * @param name           A name used for the loop's threads.
+     * @param ioThreads      The number of threads of the I/O executor.
+     * @param controlThreads The number of threads reserved for control-plane calls.
+     */
+    public NodeEventLoop(String name, int ioThreads, int controlThreads) {
+        this.stateThread = new Thread(this, name + "-state");
+        this.stateThread.setDaemon(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        final AtomicInteger counter = new AtomicInteger();
+        this.io = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread t = new Thread(r, name + "-io-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        final AtomicInteger controlCounter = new AtomicInteger();
+        this.control = Executors.newFixedThreadPool(controlThreads, r -> {
+            Thread t = new Thread(r, name + "-control-" + controlCounter.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+        this.blocking = blockingPool(name + "-blocking-");
+    }
+
+    /**
+     * Creates an unbounded executor whose threads are started on demand and retired after a minute of idleness.
+     *
+     * @param prefix The prefix of the thread names.
+     * @return The executor.
+     */
+    public static ExecutorService blockingPool(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Constructs an event loop that uses shared timer and executors, e.g. those of a {@link NodeHost}.
+     * Only the state thread is the loop's own.
+     *
+     * @param name    A name used for the state thread.
+     * @param timer   The timer for scheduled events.
+     * @param io      The executor for blocking I/O.
+     * @param control  The executor reserved for control-plane calls.
+     * @param blocking The unbounded executor for work that waits on other tasks.
+     */
+    public NodeEventLoop(String name, ScheduledExecutorService timer, ExecutorService io, ExecutorService control,
+                         ExecutorService blocking) {
+        this.stateThread = new Thread(this, name + "-state");
+        this.stateThread.setDaemon(true);
+        this.timer = timer;
+        this.io = io;
+        this.control = control;
+        this.blocking = blocking;
+    }
+
+    /**
+     * Starts the state thread.
+     */
+    public void start() {
+        stateThread.start();
+    }
+
+    /**
+     * Enqueues an event to be processed by the state thread.
+     *
+     * @param event The state transition to run.
+     */
+    public void submit(Runnable event) {
+        queue.add(Tracing.wrap(event));
+        if (parked) {
+            LockSupport.unpark(stateThread);
+        }
+    }
+
+    /**
+     * Enqueues a control-plane event, processed ahead of all regular events.
+     *
+     * @param event The state transition to run.
+     */
+    public void submitControl(Runnable event) {
+        urgent.add(Tracing.wrap(event));
+        if (parked) {
+            LockSupport.unpark(stateThread);
+        }
+    }
+
+    /**
+     * Enqueues an event that produces a result.
+     *
+     * @param event The state query or transition to run.
+     * @param <T>   The type of the result.
+     * @return A future completed by the state thread.
+     */
+    public <T> CompletableFuture<T> call(Callable<T> event) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        submit(() -> complete(future, event));
+        return future;
+    }
+
+    /**
+     * Enqueues a control-plane event that produces a result, ahead of all regular events.
+     *
+     * @param event The state query or transition to run.
+     * @param <T>   The type of the result.
+     * @return A future completed by the state thread.
+     */
+    public <T> CompletableFuture<T> callControl(Callable<T> event) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        submitControl(() -> complete(future, event));
+        return future;
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Callable<T> event) {
+        try {
+            future.complete(event.call());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Schedules an event to be enqueued after a delay.
+     * Timers drive failure detection and election timeouts, so they fire into the urgent queue.
+     *
+     * @param event   The state transition to run.
+     * @param delayMs The delay in milliseconds.
+     * @return A handle that can be used to cancel the timer.
+     */
+    public ScheduledFuture<?> schedule(Runnable event, long delayMs) {
+        final Runnable traced = Tracing.wrap(event);
+        return timer.schedule(() -> submitControl(traced), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs blocking work (e.g. outbound RMI calls) on the I/O executor.
+     *
+     * @param task The task to run.
+     */
+    public void runIo(Runnable task) {
+        final Runnable traced = Tracing.wrap(task);
+        io.execute(() -> {
+            try {
+                traced.run();
+            } catch (RuntimeException e) {
+                log.error("I/O task failed: ", e);
+            }
+        });
+    }
+
+    /**
+     * Runs a blocking control-plane call on the reserved control executor,
+     * so that it does not wait behind data-plane calls on the I/O executor.
+     *
+     * @param task The task to run.
+     */
+    public void runControl(Runnable task) {
+        final Runnable traced = Tracing.wrap(task);
+        control.execute(() -> {
+            try {
+                traced.run();
+            } catch (RuntimeException e) {
+                log.error("Control task failed: ", e);
+            }
+        });
+    }
+
+    /**
+     * Runs work that may wait on other tasks, e.g. of a subtree of nodes in the same process,
+     * on the unbounded executor, where it cannot starve the bounded I/O and control executors.
+     *
+     * @param task The task to run.
+     */
+    public void runBlocking(Runnable task) {
+        final Runnable traced = Tracing.wrap(task);
+        blocking.execute(() -> {
+            try {
+                traced.run();
+            } catch (RuntimeException e) {
+                log.error("Blocking task failed: ", e);
+            }
+        });
+    }
+
+    /**
+     * Creates a lane: an executor that runs its tasks one at a time and in order on the I/O executor.
+     * A lane holds a thread only while it has tasks. Like any I/O task, a lane task must not wait
+     * for another I/O task.
+     *
+     * @return The new lane.
+     */
+    public Executor lane() {
+        return new Lane();
+    }
+
+    /**
+     * Runs a task on a lane with a fixed delay between runs. A tick is skipped while the previous run
+     * is still queued or running, so runs never overlap or pile up.
+     *
+     * @param lane    The lane to run the task on.
+     * @param task    The task.
+     * @param delayMs The delay in milliseconds.
+     * @return A handle that can be used to cancel the task.
+     */
+    public ScheduledFuture<?> scheduleOnLane(final Executor lane, final Runnable task, long delayMs) {
+        final AtomicBoolean queued = new AtomicBoolean();
+        return timer.scheduleWithFixedDelay(() -> {
+            if (queued.compareAndSet(false, true)) {
+                lane.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        queued.set(false);
+                    }
+                });
+            }
+        }, delayMs, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tells whether the caller runs on the state thread.
+     *
+     * @return {@code true} if called from the state thread.
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == stateThread;
+    }
+
+    /**
+     * Stops the state thread after the events already queued.
+     */
+    public void stop() {
+        submit(() -> running = false);
+    }
+
+    /**
+     * Drains the queues until stopped, urgent events first, parking the state thread while there is nothing to do.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            Runnable event = urgent.poll();
+            if (event == null) {
+                event = queue.poll();
+            }
+            if (event == null) {
+                parked = true;
+                if (urgent.isEmpty() && queue.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                log.error("Event failed: ", e);
+            }
+        }
+        log.info("Event loop {} stopped.", stateThread.getName());
+    }
+
+    /**
+     * Runs a batch of tasks per turn on the I/O executor, then gives the thread back.
+     */
+    private final class Lane implements Executor {
+        private static final int BATCH = 64;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(Tracing.wrap(task));
+            schedule();
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                io.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Runnable task;
+                for (int i = 0; i < BATCH && (task = tasks.poll()) != null; i++) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Lane task failed: ", e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                schedule();
+            }
+        }
+    }
+}
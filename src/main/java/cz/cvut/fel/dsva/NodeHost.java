@@ -0,0 +1,174 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import io.javalin.Javalin;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.javalin.apibuilder.ApiBuilder.get;
+import static io.javalin.apibuilder.ApiBuilder.path;
+
+/**
+ * Runs many logical nodes in one JVM.
+ *
+ * <p>A standalone {@link Node} has its own RMI registry, exported objects, HTTP server, console and
+ * worker threads. The nodes of a host share all of these instead:
+ * <ul>
+ *     <li>one RMI registry on the host's registry port, in which every node is bound under
+ *     names suffixed with its port (see {@link Node#bindingName(String, int)}); the registry port travels
+ *     with the nodes' addresses, so nodes in other JVMs can reach them;</li>
+ *     <li>one data and one control endpoint port for all exported receivers;</li>
+ *     <li>one timer, one I/O executor, one control executor and one unbounded executor for blocking work;
+ *     each node keeps only its state thread;</li>
+ *     <li>one HTTP server on <code>5000 + registry port</code> that serves each node's API under
+ *     <code>/node/&lt;port&gt;</code>, plus <code>GET /nodes</code> listing the hosted nodes.</li>
+ * </ul>
+ * Calls between co-hosted nodes do not go through RMI; {@link CommunicationHub} hands them to the
+ * target's receiver in-process. The nodes have no console.
+ *
+ * <p>Usage: <code>NodeHost &lt;ip&gt; &lt;registryPort&gt; &lt;count&gt; [seeds]</code>. The nodes get the ports
+ * <code>registryPort</code>, <code>registryPort + 1</code>, ... and the nicknames <code>N&lt;port&gt;</code>. The
+ * first node joins the given seeds (or starts a new network), the others join through it.
+ * Nodes in other JVMs use <code>ip:registryPort</code> as their seed.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class NodeHost {
+    private final String ip;
+    private final int registryPort;
+    private final Registry registry;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService io;
+    private final ExecutorService control;
+    private final ExecutorService blocking;
+    private final Map<Address, Node> nodes = new ConcurrentHashMap<>();
+    private final List<APIHandler> handlers = new ArrayList<>();
+    private Javalin app;
+
+    /**
+     * Creates the host's registry and shared worker pools.
+     *
+     * @param ip           The IP address the nodes are reachable on.
+     * @param registryPort The port of the shared RMI registry.
+     * @throws RemoteException If the registry cannot be created.
+     */
+    public NodeHost(String ip, int registryPort) throws RemoteException {
+        this.ip = ip;
+        this.registryPort = registryPort;
+        System.setProperty("java.rmi.server.hostname", ip);
+        this.registry = LocateRegistry.createRegistry(registryPort);
+        String name = "host-" + registryPort;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.io = pool(name + "-io-", Config.getInt("dsva.io.threads", 8), Thread.NORM_PRIORITY);
+        this.control = pool(name + "-control-", Config.getInt("dsva.control.threads", 4), Thread.MAX_PRIORITY);
+        this.blocking = NodeEventLoop.blockingPool(name + "-blocking-");
+    }
+
+    private static ExecutorService pool(final String prefix, int threads, final int priority) {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(priority);
+            return t;
+        });
+    }
+
+    /**
+     * Starts a node in this host and waits until it has joined the network.
+     *
+     * @param nickname The nickname of the node.
+     * @param port     The node's port, which is part of its identity.
+     * @param seeds    Comma-separated <code>ip:port</code> seeds, or an empty string to start a new network.
+     * @return The started node.
+     */
+    public Node addNode(String nickname, int port, String seeds) {
+        String[] args = seeds.isEmpty()
+                ? new String[]{nickname, ip, String.valueOf(port)}
+                : new String[]{nickname, ip, String.valueOf(port), seeds};
+        Node node = new Node(args, this);
+        nodes.put(new Address(ip, port), node);
+        node.start();
+        synchronized (handlers) {
+            handlers.add(new APIHandler(node));
+        }
+        return node;
+    }
+
+    /**
+     * Looks up a node running in this host.
+     *
+     * @param addr The address of the node.
+     * @return The node, or {@code null} if it runs elsewhere.
+     */
+    public Node find(Address addr) {
+        return nodes.get(addr);
+    }
+
+    /**
+     * Starts the shared HTTP server with the routes of all nodes added so far.
+     *
+     * @param port The HTTP port.
+     */
+    public void startApi(int port) {
+        final List<APIHandler> snapshot;
+        synchronized (handlers) {
+            snapshot = new ArrayList<>(handlers);
+        }
+        app = Javalin.create().routes(() -> {
+            path("/nodes", () -> get("", ctx -> {
+                StringBuilder sb = new StringBuilder();
+                for (APIHandler h : snapshot) {
+                    Node n = h.getMyNode();
+                    sb.append(n.getNickname()).append(' ').append(n.getAddress())
+                            .append(" leader=").append(n.getNeighbours().getLeader())
+                            .append(" active=").append(n.isActive()).append('\n');
+                }
+                ctx.result(sb.toString());
+            }));
+            for (APIHandler h : snapshot) {
+                path("/node/" + h.getMyNode().getMyPort(), h::routes);
+            }
+        }).start(port);
+        log.info("Host API for {} nodes started on port {}", snapshot.size(), port);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            log.error("Usage: NodeHost <ip> <registryPort> <count> [seeds]");
+            return;
+        }
+        String ip = args[0];
+        int registryPort = Integer.parseInt(args[1]);
+        int count = Integer.parseInt(args[2]);
+        String seeds = args.length > 3 ? args[3] : "";
+        NodeHost host = new NodeHost(ip, registryPort);
+        for (int i = 0; i < count; i++) {
+            int port = registryPort + i;
+            host.addNode("N" + port, port, i == 0 ? seeds : ip + ":" + registryPort);
+        }
+        host.startApi(5000 + registryPort);
+        log.info("Hosting {} nodes on registry port {}", count, registryPort);
+        while (true) {
+            Thread.sleep(8000);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.OrderedMessage;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Total-order broadcast channel sequenced by the elected leader.
+ *
+ * <p>The channel works in three roles, all of which every node plays at once:
+ * <ul>
+ *     <li><b>Sender</b>: queues messages locally and forwards them to the current leader in batches.</li>
+ *     <li><b>Leader</b>: stamps every forwarded message with a global sequence number, keeps it
+ *     in an in-memory retransmit buffer and multicasts batches to all nodes. Each destination has
+ *     its own FIFO lane (see {@link NodeEventLoop#lane()}), so the leader never waits for one batch
+ *     to be acknowledged before sending the next.</li>
+ *     <li><b>Follower</b>: delivers messages strictly in sequence order, holding back out-of-order ones and
+ *     fetching gaps from the leader's retransmit buffer.</li>
+ * </ul>
+ *
+ * <p>After a new leader is announced, followers re-sync by asking it for its current sequence number
+ * and continue delivering from there. The new leader continues numbering from the highest
+ * sequence it has delivered, so sequence numbers never go backwards on a node; it does so before it
+ * stamps a message or answers a follower, so no follower re-syncs to a number it has not raised yet.
+ *
+ * <p>Senders number their messages, so the leader sequences a batch that is retried after a lost
+ * reply only once.
+ *
+ * <p>Delivered messages are handed to the registered {@link Listener}s in sequence order, on a lane of
+ * their own so a slow listener does not hold up the channel. A listener that logs every message at INFO,
+ * like unordered messages are logged, is registered from the start.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class OrderedBroadcast {
+    public static final int MAX_BATCH = 256;
+    public static final long FLUSH_INTERVAL_MS = 5;
+    public static final int RETRANSMIT_CAPACITY = 65536;
+
+    private final Node node;
+    private final Executor flusher;
+    private final Executor deliveries;
+    private final Map<Address, Executor> lanes = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Listener logger = m -> log.info("Delivered ordered message #{} from {}: {}",
+            m.getSeq(), m.getFromNick(), m.getMessage());
+
+    // Sender side; retryBuffer and retryFirstId are only touched by the flusher lane
+    private final Queue<String> outbox = new ConcurrentLinkedQueue<>();
+    private final List<String> retryBuffer = new ArrayList<>();
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    private long retryFirstId = 1;
+
+    // Leader side, guarded by sequencerLock
+    private final Object sequencerLock = new Object();
+    private long lastSeq = 0;
+    private final Map<Address, long[]> sequencedIds = new HashMap<>();
+    private List<OrderedMessage> pendingBatch = new ArrayList<>();
+    private final OrderedMessage[] retransmit = new OrderedMessage[RETRANSMIT_CAPACITY];
+
+    // Follower side, guarded by this
+    private Address currentLeader;
+    private long nextExpected = 1;
+    private final TreeMap<Long, OrderedMessage> holdback = new TreeMap<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong gapFetches = new AtomicLong();
+
+    /**
+     * Constructs the ordered broadcast channel for the given node and starts its flusher.
+     *
+     * @param node The parent Node instance.
+     */
+    public OrderedBroadcast(Node node) {
+        this.node = node;
+        this.flusher = node.getEventLoop().lane();
+        this.deliveries = node.getEventLoop().lane();
+        node.getEventLoop().scheduleOnLane(flusher, this::flush, FLUSH_INTERVAL_MS);
+        addListener(logger);
+    }
+
+    /**
+     * Receives the messages of the channel on this node.
+     */
+    public interface Listener {
+        /**
+         * Called once per message, in sequence order, never concurrently for one listener.
+         *
+         * @param message The delivered message.
+         */
+        void onDelivered(OrderedMessage message);
+    }
+
+    /**
+     * Registers a listener for the messages delivered from now on.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener. Messages already handed to it may still arrive.
+     *
+     * @param listener The listener.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a message for ordered delivery to all nodes. Returns immediately.
+     *
+     * @param message The message content.
+     */
+    public void send(String message) {
+        outbox.add(message);
+    }
+
+    /**
+     * Periodic task: forwards queued messages to the leader and, on the leader, multicasts pending batches.
+     */
+    private void flush() {
+        try {
+            if (node.isActive()) {
+                flushOutbox();
+                flushBatch();
+            }
+        } catch (Exception e) {
+            log.error("Ordered broadcast flush failed: {}", e.getMessage());
+        }
+    }
+
+    private void flushOutbox() {
+        String m;
+        while ((m = outbox.poll()) != null) {
+            retryBuffer.add(m);
+        }
+        if (retryBuffer.isEmpty()) {
+            return;
+        }
+        Address leader = node.getNeighbours().getLeader();
+        if (leader == null) {
+            return;
+        }
+        List<String> batch = new ArrayList<>(retryBuffer);
+        try {
+            node.getCommunicationHub().getProxy(leader).forwardOrdered(node.getAddress(), epoch, retryFirstId,
+                    node.getNickname(), batch);
+            retryBuffer.clear();
+            retryFirstId += batch.size();
+        } catch (RemoteException e) {
+            log.error("Error forwarding {} ordered messages to leader {}: {}", batch.size(), leader, e.getMessage());
+        }
+    }
+
+    /**
+     * Leader side: stamps the given messages with global sequence numbers.
+     *
+     * <p>Messages a sender has already had sequenced by this leader, identified by the sender's epoch
+     * and message IDs, are skipped. A new epoch means the sender was restarted and numbers from 1 again.
+     *
+     * @param fromAddr The address of the sender.
+     * @param epoch    The sender's channel incarnation.
+     * @param firstId  The sender's ID of the first message; the others follow consecutively.
+     * @param fromNick The nickname of the original sender.
+     * @param messages The messages in the sender's order.
+     */
+    public void sequence(Address fromAddr, long epoch, long firstId, String fromNick, List<String> messages) {
+        catchUpAsLeader();
+        synchronized (sequencerLock) {
+            long[] seen = sequencedIds.get(fromAddr);
+            if (seen == null || seen[0] != epoch) {
+                seen = new long[]{epoch, 0};
+                sequencedIds.put(fromAddr, seen);
+            }
+            long id = firstId;
+            for (String message : messages) {
+                if (id++ <= seen[1]) {
+                    continue;
+                }
+                seen[1] = id - 1;
+                OrderedMessage om = new OrderedMessage(++lastSeq, fromNick, message);
+                retransmit[(int) (om.getSeq() % RETRANSMIT_CAPACITY)] = om;
+                pendingBatch.add(om);
+            }
+            if (pendingBatch.size() >= MAX_BATCH) {
+                multicastPending();
+            }
+        }
+    }
+
+    private void flushBatch() {
+        synchronized (sequencerLock) {
+            if (!pendingBatch.isEmpty()) {
+                multicastPending();
+            }
+        }
+    }
+
+    /**
+     * Hands the pending batch to every destination lane. Must be called under {@code sequencerLock}
+     * so that batches enter each lane in sequence order.
+     */
+    private void multicastPending() {
+        final List<OrderedMessage> batch = pendingBatch;
+        pendingBatch = new ArrayList<>();
+        final Address self = node.getAddress();
+        Set<Address> snapshot = new HashSet<>(node.getNeighbours().getKnownNodes());
+        for (final Address a : snapshot) {
+            lanes.computeIfAbsent(a, x -> node.getEventLoop().lane()).execute(() -> {
+                try {
+                    node.getCommunicationHub().getProxy(a).deliverOrdered(self, batch);
+                } catch (RemoteException e) {
+                    log.error("Error multicasting ordered batch to {}: {}", a, e.getMessage());
+                }
+            });
+        }
+        // A dropped lane still runs the batches already handed to it
+        lanes.keySet().retainAll(snapshot);
+    }
+
+    /**
+     * Leader side: returns the retained messages with sequence numbers in the given range.
+     *
+     * @param fromSeq The first sequence number requested (inclusive).
+     * @param toSeq   The last sequence number requested (inclusive).
+     * @return The messages still held in the retransmit buffer, in order.
+     */
+    public List<OrderedMessage> fetch(long fromSeq, long toSeq) {
+        catchUpAsLeader();
+        List<OrderedMessage> result = new ArrayList<>();
+        synchronized (sequencerLock) {
+            long from = Math.max(fromSeq, Math.max(1, lastSeq - RETRANSMIT_CAPACITY + 1));
+            long to = Math.min(toSeq, lastSeq);
+            for (long s = from; s <= to; s++) {
+                OrderedMessage m = retransmit[(int) (s % RETRANSMIT_CAPACITY)];
+                // Slots this leader never stamped are empty or hold older messages
+                if (m != null && m.getSeq() == s) {
+                    result.add(m);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Leader side: returns the last assigned sequence number.
+     *
+     * @return The highest sequence number stamped so far.
+     */
+    public long currentSequence() {
+        catchUpAsLeader();
+        synchronized (sequencerLock) {
+            return lastSeq;
+        }
+    }
+
+    /**
+     * Completes this node's own re-sync if it has been elected but not re-synced yet,
+     * so the leader side never works with a sequence number below what it has delivered.
+     */
+    private void catchUpAsLeader() {
+        Address self = node.getAddress();
+        if (self.equals(node.getNeighbours().getLeader())) {
+            resync(self);
+        }
+    }
+
+    /**
+     * Follower side: accepts a batch multicast by the leader.
+     *
+     * @param leader The address of the leader that sequenced the batch.
+     * @param batch  The messages in sequence order.
+     */
+    public void receive(Address leader, List<OrderedMessage> batch) {
+        long gapFrom;
+        long gapTo;
+        synchronized (this) {
+            if (!leader.equals(currentLeader)) {
+                if (!leader.equals(node.getNeighbours().getLeader()) || batch.isEmpty()) {
+                    log.warn("Dropped ordered batch from stale leader {}", leader);
+                    return;
+                }
+                // First batch from the leader before an explicit re-sync: lanes are FIFO, so start here
+                switchLeader(leader, batch.get(0).getSeq());
+            }
+            for (OrderedMessage m : batch) {
+                if (m.getSeq() >= nextExpected) {
+                    holdback.put(m.getSeq(), m);
+                }
+            }
+            deliverReady();
+            if (holdback.isEmpty()) {
+                return;
+            }
+            gapFrom = nextExpected;
+            gapTo = holdback.firstKey() - 1;
+        }
+        fillGap(leader, gapFrom, gapTo);
+    }
+
+    private void fillGap(Address leader, long gapFrom, long gapTo) {
+        gapFetches.incrementAndGet();
+        List<OrderedMessage> fetched;
+        try {
+            fetched = node.getCommunicationHub().getProxy(leader).fetchOrdered(gapFrom, gapTo);
+        } catch (RemoteException e) {
+            log.error("Error fetching ordered messages #{}..#{} from {}: {}", gapFrom, gapTo, leader, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (!leader.equals(currentLeader)) {
+                return;
+            }
+            for (OrderedMessage m : fetched) {
+                if (m != null && m.getSeq() >= nextExpected) {
+                    holdback.put(m.getSeq(), m);
+                }
+            }
+            deliverReady();
+            if (!holdback.isEmpty() && holdback.firstKey() > nextExpected) {
+                // The leader no longer retains the gap, skip it so the channel does not stall
+                long skipped = holdback.firstKey() - nextExpected;
+                lost.addAndGet(skipped);
+                log.warn("Ordered messages #{}..#{} are no longer retained by {}. Skipping.",
+                        nextExpected, holdback.firstKey() - 1, leader);
+                nextExpected = holdback.firstKey();
+                deliverReady();
+            }
+        }
+    }
+
+    private void deliverReady() {
+        while (!holdback.isEmpty() && holdback.firstKey() == nextExpected) {
+            final OrderedMessage m = holdback.pollFirstEntry().getValue();
+            nextExpected++;
+            delivered.incrementAndGet();
+            if (!listeners.isEmpty()) {
+                // Called under the channel's lock, so the lane receives the messages in sequence order
+                deliveries.execute(() -> {
+                    for (Listener l : listeners) {
+                        l.onDelivered(m);
+                    }
+                });
+            }
+        }
+    }
+
+    private void switchLeader(Address leader, long firstSeq) {
+        currentLeader = leader;
+        holdback.clear();
+        nextExpected = firstSeq;
+        log.info("Ordered channel now follows leader {} from #{}", leader, firstSeq);
+    }
+
+    /**
+     * Schedules a re-sync with a newly announced leader on the flusher lane,
+     * so the announcing RMI call is not held up by the round-trip to the leader.
+     *
+     * @param leader The address of the new leader.
+     */
+    public void onLeaderAnnounced(final Address leader) {
+        flusher.execute(() -> resync(leader));
+    }
+
+    /**
+     * Re-synchronises the channel with a newly announced leader.
+     *
+     * <p>If this node is the new leader, it continues numbering after the last message it delivered.
+     * Otherwise it asks the leader for its current sequence number and delivers everything after it.
+     *
+     * @param leader The address of the new leader.
+     */
+    public void resync(Address leader) {
+        if (leader == null) {
+            return;
+        }
+        synchronized (this) {
+            if (leader.equals(currentLeader)) {
+                return;
+            }
+        }
+        if (leader.equals(node.getAddress())) {
+            synchronized (sequencerLock) {
+                synchronized (this) {
+                    lastSeq = Math.max(lastSeq, nextExpected - 1);
+                    switchLeader(leader, lastSeq + 1);
+                }
+            }
+            return;
+        }
+        try {
+            long leaderSeq = node.getCommunicationHub().getProxy(leader).orderedSequence();
+            synchronized (this) {
+                if (!leader.equals(currentLeader)) {
+                    switchLeader(leader, leaderSeq + 1);
+                }
+            }
+        } catch (RemoteException e) {
+            log.error("Error re-syncing ordered channel with leader {}: {}", leader, e.getMessage());
+        }
+    }
+
+    /**
+     * Measures ordered delivery throughput against the unordered flood of {@link CommunicationHub#sendMessageTo}.
+     *
+     * <p>Both runs count until this node has delivered the last message. In the ordered run every node,
+     * including the sender, receives the leader's multicast. In the unordered run every send returns once
+     * the other nodes have accepted the message, and this node delivers its own copy through its event loop,
+     * as if it had received it. The INFO log of each delivered ordered message is off during the benchmark.
+     *
+     * @param count The number of messages to send in each run.
+     * @return A human-readable comparison of both runs.
+     */
+    public String benchmark(int count) {
+        removeListener(logger);
+        try {
+            return runBenchmark(count);
+        } finally {
+            addListener(logger);
+        }
+    }
+
+    private String runBenchmark(int count) {
+        long base = delivered.get();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            send("bench-ordered-" + i);
+        }
+        long deadline = System.currentTimeMillis() + 60000;
+        while (delivered.get() < base + count && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long orderedNanos = System.nanoTime() - start;
+        long orderedDone = delivered.get() - base;
+
+        final AtomicLong selfDelivered = new AtomicLong();
+        final Address self = node.getAddress();
+        CommunicationHub hub = node.getCommunicationHub();
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            hub.sendMessageTo("*", node.getNickname(), "bench-unordered-" + i);
+            final long seq = hub.nextSequence(self);
+            node.getEventLoop().submit(() -> {
+                if (node.getDeliveryTracker().accept(self, seq)) {
+                    selfDelivered.incrementAndGet();
+                }
+            });
+        }
+        deadline = System.currentTimeMillis() + 60000;
+        while (selfDelivered.get() < count && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long unorderedNanos = System.nanoTime() - start;
+        long unorderedDone = selfDelivered.get();
+
+        String result = String.format("Ordered:   %d/%d delivered in %.1f ms (%.0f msg/s)%n" +
+                        "Unordered: %d/%d delivered in %.1f ms (%.0f msg/s)%n",
+                orderedDone, count, orderedNanos / 1e6, orderedDone * 1e9 / orderedNanos,
+                unorderedDone, count, unorderedNanos / 1e6, unorderedDone * 1e9 / unorderedNanos);
+        log.info("Ordered broadcast benchmark:\n{}", result);
+        return result;
+    }
+
+    /**
+     * Builds a human-readable summary of the channel state.
+     *
+     * @return The ordered channel statistics.
+     */
+    public String getStats() {
+        long last = currentSequence();
+        synchronized (this) {
+            return "Ordered channel:\n" +
+                    " Leader:       " + currentLeader + "\n" +
+                    " NextExpected: " + nextExpected + "\n" +
+                    " HeldBack:     " + holdback.size() + "\n" +
+                    " Delivered:    " + delivered.get() + "\n" +
+                    " GapFetches:   " + gapFetches.get() + "\n" +
+                    " Lost:         " + lost.get() + "\n" +
+                    " LastSequence: " + last + "\n";
+        }
+    }
+}
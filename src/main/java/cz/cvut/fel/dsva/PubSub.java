@@ -0,0 +1,265 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Topic-based publish/subscribe on top of the membership.
+ *
+ * <p>Every node keeps a replica of the subscription table, a per-topic index of subscriber addresses:
+ * <ul>
+ *     <li>A node that subscribes or unsubscribes tells all known nodes.</li>
+ *     <li>A node that joins fetches the table from the node it joined through and announces its own subscriptions.</li>
+ *     <li>A node that leaves, is killed or found dead is removed from every topic.</li>
+ * </ul>
+ *
+ * <p>Publishing calls only the current subscribers of the topic, so the fan-out is proportional to
+ * interest rather than to the cluster size. The subscriber sets are copy-on-write: they change rarely
+ * and are read on every publish, which iterates the current set directly without locking or copying.
+ *
+ * <p>Table updates run on the node's state thread; {@link #publish(String, String)} may be called from any thread.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class PubSub {
+    private final Node node;
+    private final Map<String, Set<Address>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, TopicCounters> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the publish/subscribe helper for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public PubSub(Node node) {
+        this.node = node;
+    }
+
+    /**
+     * Subscribes this node to a topic and replicates the change. Must run on the state thread.
+     *
+     * @param topic The topic name.
+     */
+    public void subscribe(String topic) {
+        if (update(node.getAddress(), topic, true)) {
+            replicate(topic, true, node.getNeighbours().getKnownNodes());
+        }
+    }
+
+    /**
+     * Unsubscribes this node from a topic and replicates the change. Must run on the state thread.
+     *
+     * @param topic The topic name.
+     */
+    public void unsubscribe(String topic) {
+        if (update(node.getAddress(), topic, false)) {
+            replicate(topic, false, node.getNeighbours().getKnownNodes());
+        }
+    }
+
+    private void replicate(final String topic, final boolean subscribed, Collection<Address> to) {
+        final Set<Address> targets = new HashSet<>(to);
+        final Address self = node.getAddress();
+        node.getEventLoop().runIo(() -> {
+            for (Address a : targets) {
+                if (a.equals(self)) {
+                    continue;
+                }
+                try {
+                    node.getCommunicationHub().getProxy(a).updateSubscription(self, topic, subscribed);
+                } catch (RemoteException e) {
+                    log.error("Error replicating subscription of {} to {}: {}", topic, a, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies a subscription change to the local table. Must run on the state thread.
+     *
+     * @param subscriber The subscribing node.
+     * @param topic      The topic name.
+     * @param subscribed {@code true} to subscribe, {@code false} to unsubscribe.
+     * @return {@code true} if the table changed.
+     */
+    public boolean update(Address subscriber, String topic, boolean subscribed) {
+        if (subscribed) {
+            boolean added = subscribers.computeIfAbsent(topic, t -> new CopyOnWriteArraySet<>()).add(subscriber);
+            if (added) {
+                log.info("{} subscribed to '{}'", subscriber, topic);
+            }
+            return added;
+        }
+        Set<Address> set = subscribers.get(topic);
+        boolean removed = set != null && set.remove(subscriber);
+        if (removed) {
+            log.info("{} unsubscribed from '{}'", subscriber, topic);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes a node from all topics, e.g. when it left or was killed. Must run on the state thread.
+     *
+     * @param gone The node that is no longer a member.
+     */
+    public void removeSubscriber(Address gone) {
+        for (Set<Address> set : subscribers.values()) {
+            set.remove(gone);
+        }
+    }
+
+    /**
+     * Takes over the subscription table of an existing member after joining and announces
+     * this node's own subscriptions. Must run on the state thread.
+     *
+     * @param through The node to fetch the table from.
+     */
+    public void syncAfterJoin(final Address through) {
+        final Set<String> mine = topicsOf(node.getAddress());
+        final NodeEventLoop loop = node.getEventLoop();
+        loop.runIo(() -> {
+            try {
+                final Map<String, Set<Address>> table = node.getCommunicationHub().getProxy(through).subscriptions();
+                loop.submit(() -> {
+                    for (Map.Entry<String, Set<Address>> e : table.entrySet()) {
+                        for (Address a : e.getValue()) {
+                            update(a, e.getKey(), true);
+                        }
+                    }
+                });
+            } catch (RemoteException e) {
+                log.error("Error fetching subscriptions from {}: {}", through, e.getMessage());
+            }
+        });
+        for (String topic : mine) {
+            replicate(topic, true, node.getNeighbours().getKnownNodes());
+        }
+    }
+
+    /**
+     * Returns a serializable copy of the subscription table, for a joining node.
+     *
+     * @return The topics and their subscribers.
+     */
+    public Map<String, Set<Address>> snapshot() {
+        Map<String, Set<Address>> copy = new HashMap<>();
+        for (Map.Entry<String, Set<Address>> e : subscribers.entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                copy.put(e.getKey(), new HashSet<>(e.getValue()));
+            }
+        }
+        return copy;
+    }
+
+    private Set<String> topicsOf(Address a) {
+        Set<String> topics = new HashSet<>();
+        for (Map.Entry<String, Set<Address>> e : subscribers.entrySet()) {
+            if (e.getValue().contains(a)) {
+                topics.add(e.getKey());
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Publishes a message to the current subscribers of a topic on the I/O executor.
+     *
+     * @param topic   The topic name.
+     * @param message The message content.
+     * @return The number of subscribers the message is sent to.
+     */
+    public int publish(final String topic, final String message) {
+        final Set<Address> set = subscribers.get(topic);
+        TopicCounters c = countersOf(topic);
+        c.published.increment();
+        if (set == null || set.isEmpty()) {
+            return 0;
+        }
+        final Address self = node.getAddress();
+        final CommunicationHub hub = node.getCommunicationHub();
+        final String nick = node.getNickname();
+        node.getEventLoop().runIo(() -> {
+            for (Address a : set) {
+                if (a.equals(self)) {
+                    deliver(topic, nick, message);
+                    continue;
+                }
+                try {
+                    hub.getProxy(a).publish(self, hub.nextSequence(a), topic, nick, message);
+                    c.sent.increment();
+                } catch (RemoteException e) {
+                    c.failed.increment();
+                    log.error("Error publishing to {} on '{}': {}", a, topic, e.getMessage());
+                }
+            }
+        });
+        return set.size();
+    }
+
+    /**
+     * Delivers a published message to this node.
+     *
+     * @param topic    The topic name.
+     * @param fromNick The nickname of the publisher.
+     * @param message  The message content.
+     */
+    public void deliver(String topic, String fromNick, String message) {
+        countersOf(topic).delivered.increment();
+        log.info("[{}] {}: {}", topic, fromNick, message);
+    }
+
+    private TopicCounters countersOf(String topic) {
+        return counters.computeIfAbsent(topic, t -> new TopicCounters());
+    }
+
+    /**
+     * Returns the subscription table and the per-topic counters.
+     *
+     * @return A human-readable summary.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("Topics:\n");
+        Set<String> all = new TreeSet<>(subscribers.keySet());
+        all.addAll(counters.keySet());
+        for (String topic : all) {
+            Set<Address> set = subscribers.get(topic);
+            TopicCounters c = countersOf(topic);
+            double seconds = Math.max(0.001, (System.currentTimeMillis() - c.since) / 1000.0);
+            sb.append(" ").append(topic).append(": ").append(set == null ? 0 : set.size()).append(" subscribers")
+                    .append(set != null && set.contains(node.getAddress()) ? " (subscribed)" : "").append("\n")
+                    .append("   published ").append(c.published.sum())
+                    .append(", sent ").append(c.sent.sum())
+                    .append(", failed ").append(c.failed.sum())
+                    .append(", delivered ").append(c.delivered.sum())
+                    .append(String.format(" (%.1f sent/s, %.1f delivered/s)",
+                            c.sent.sum() / seconds, c.delivered.sum() / seconds)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Throughput counters of one topic on this node.
+     */
+    private static final class TopicCounters {
+        private final long since = System.currentTimeMillis();
+        private final LongAdder published = new LongAdder();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+    }
+}
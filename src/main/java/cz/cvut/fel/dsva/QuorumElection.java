@@ -0,0 +1,268 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.DSNeighbours;
+import cz.cvut.fel.dsva.base.VoteResponse;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Quorum extension of the Bully election, enabled with <code>dsva.election.quorum=true</code>.
+ *
+ * <p>A candidate that got no OK from a higher node does not declare itself leader right away.
+ * It first asks every member of the <i>agreed membership</i> for a vote and becomes leader only
+ * with a majority. The agreed membership grows when nodes join or revive and shrinks only when
+ * a node leaves gracefully, so nodes that are merely unreachable (e.g. behind a partition) still
+ * count towards the majority. Every node votes at most once per term, so two majorities of one term
+ * share a voter that granted the same candidate: at most one leader is elected per term, and at most
+ * one side of a partition can elect a leader.
+ *
+ * <p>A node that cannot gather a majority stays leaderless, keeps the last known leader as a
+ * cached value for reads, and retries with exponential backoff. Voters that deny a vote report
+ * the leader they follow; once the partition heals, a leaderless candidate adopts that leader and
+ * re-joins through it instead of starting more elections.
+ *
+ * <p>All methods except {@link #collectVotes(long, long)}'s network part run on the node's state thread.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class QuorumElection {
+    public static final long INITIAL_RETRY_MS = 2000;
+    public static final long MAX_RETRY_MS = 30000;
+
+    private final Node node;
+    private final Set<Address> agreedMembership = ConcurrentHashMap.newKeySet();
+
+    private Address votedFor;
+    private long votedTerm = -1;
+    private long retryDelayMs = INITIAL_RETRY_MS;
+    private long votesRequested = 0;
+
+    /**
+     * Constructs the quorum election helper for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public QuorumElection(Node node) {
+        this.node = node;
+        agreedMembership.add(node.getAddress());
+    }
+
+    /**
+     * Returns the number of votes needed to become leader.
+     *
+     * @return A strict majority of the agreed membership.
+     */
+    public int majority() {
+        return agreedMembership.size() / 2 + 1;
+    }
+
+    public void addMember(Address a) {
+        agreedMembership.add(a);
+    }
+
+    public void removeMember(Address a) {
+        agreedMembership.remove(a);
+    }
+
+    /**
+     * Asks all agreed members for a vote on the control executor and processes the result on the state thread.
+     * The candidate votes for itself unless it already voted for another candidate in the term.
+     *
+     * @param round The election round the votes are collected for.
+     * @param term  The election term of the candidacy.
+     */
+    public void collectVotes(final long round, final long term) {
+        final NodeEventLoop loop = node.getEventLoop();
+        final Set<Address> voters = new HashSet<>(agreedMembership);
+        voters.remove(node.getAddress());
+        final long myId = node.getNodeId();
+        final Address self = node.getAddress();
+        final boolean selfVote = votedTerm != term || self.equals(votedFor);
+        if (selfVote) {
+            votedFor = self;
+            votedTerm = term;
+        }
+        votesRequested++;
+        log.info("Requesting votes from {} agreed members (majority={})", voters.size(), majority());
+        loop.runControl(() -> {
+            final Map<Address, VoteResponse> responses = new HashMap<>();
+            for (Address v : voters) {
+                try {
+                    responses.put(v, node.getCommunicationHub().getControlProxy(v).requestVote(term, myId, self));
+                } catch (RemoteException e) {
+                    log.warn("Vote request to {} failed: {}", v, e.getMessage());
+                }
+            }
+            loop.submit(() -> onVotesCollected(round, responses, selfVote));
+        });
+    }
+
+    private void onVotesCollected(long round, Map<Address, VoteResponse> responses, boolean selfVote) {
+        if (round != node.getElectionRound() || !node.isElectionInProgress()) {
+            log.info("Votes for election round {} arrived too late. Ignoring.", round);
+            return;
+        }
+        node.setElectionInProgress(false);
+        List<Address> granted = new ArrayList<>();
+        Map<Address, Integer> reportedLeaders = new HashMap<>();
+        Map<Address, Long> reportedTerms = new HashMap<>();
+        for (Map.Entry<Address, VoteResponse> e : responses.entrySet()) {
+            VoteResponse r = e.getValue();
+            if (r.isGranted()) {
+                granted.add(e.getKey());
+            } else if (r.getLeader() != null) {
+                reportedLeaders.merge(r.getLeader(), 1, Integer::sum);
+                reportedTerms.merge(r.getLeader(), r.getTerm(), Math::max);
+            }
+        }
+        int votes = granted.size() + (selfVote ? 1 : 0);
+        if (votes >= majority()) {
+            log.info("Won election with {}/{} votes. I am the new leader.", votes, agreedMembership.size());
+            for (Address a : granted) {
+                node.getNeighbours().addNode(a);
+            }
+            retryDelayMs = INITIAL_RETRY_MS;
+            node.becomeLeader();
+            return;
+        }
+        Address reported = null;
+        int best = 0;
+        for (Map.Entry<Address, Integer> e : reportedLeaders.entrySet()) {
+            if (e.getValue() > best) {
+                reported = e.getKey();
+                best = e.getValue();
+            }
+        }
+        if (reported != null && !reported.equals(node.getAddress())) {
+            log.info("Only {}/{} votes, but voters follow leader {}. Re-joining through it.",
+                    votes, majority(), reported);
+            adoptLeader(reported, reportedTerms.get(reported));
+            return;
+        }
+        log.warn("Only {}/{} votes. No quorum - staying leaderless.", votes, majority());
+        stepDown();
+    }
+
+    /**
+     * Adopts a leader reported by the voters and re-joins through it, to pick up membership
+     * changes that happened on the majority side while this node was partitioned.
+     *
+     * @param leader The address of the leader followed by the majority.
+     * @param term   The term that leader was elected in.
+     */
+    private void adoptLeader(final Address leader, long term) {
+        node.getNeighbours().setLeader(leader);
+        node.getNeighbours().setTerm(term);
+        node.setCurrentTerm(Math.max(node.getCurrentTerm(), term));
+        node.getNeighbours().addNode(leader);
+        retryDelayMs = INITIAL_RETRY_MS;
+        final NodeEventLoop loop = node.getEventLoop();
+        loop.runControl(() -> {
+            try {
+                final DSNeighbours view = node.getCommunicationHub().getControlProxy(leader).join(node.getAddress());
+                loop.submit(() -> {
+                    for (Address a : view.getKnownNodes()) {
+                        node.getNeighbours().addNode(a);
+                        agreedMembership.add(a);
+                    }
+                    node.getJournal().record(StateJournal.Type.JOINED, leader);
+                });
+            } catch (RemoteException e) {
+                log.error("Re-join through leader {} failed: {}", leader, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Gives up leadership (or the hope of it) when no majority is reachable.
+     * The last known leader is kept for reads, and a new election is scheduled with backoff.
+     */
+    public void stepDown() {
+        DSNeighbours ds = node.getNeighbours();
+        if (ds.getLeader() != null) {
+            node.setCachedLeader(ds.getLeader());
+        }
+        ds.setLeader(null);
+        node.getChangeFeed().publish("LEADERLESS", node.getAddress());
+        final long delay = retryDelayMs;
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+        log.info("Leaderless. Next election attempt in {} ms.", delay);
+        node.getEventLoop().schedule(() -> {
+            if (node.isActive() && node.getNeighbours().getLeader() == null) {
+                node.internalStartElection();
+            }
+        }, delay);
+        node.getJournal().record(StateJournal.Type.LEADERLESS, node.getAddress());
+    }
+
+    /**
+     * Goes leaderless if this node can no longer reach a majority of the agreed membership.
+     * A leader in that situation steps down; a follower stops trusting a leader that cannot have a quorum.
+     */
+    public void checkQuorum() {
+        if (node.getNeighbours().getLeader() == null) {
+            return;
+        }
+        int reachable = 0;
+        for (Address a : agreedMembership) {
+            if (node.getNeighbours().getKnownNodes().contains(a)) {
+                reachable++;
+            }
+        }
+        if (reachable < majority()) {
+            log.warn("Only {}/{} agreed members reachable. Going leaderless.", reachable, agreedMembership.size());
+            stepDown();
+        }
+    }
+
+    /**
+     * Decides on a vote request.
+     *
+     * <p>The vote is denied if the request comes from an older term, if this node follows a live
+     * leader with a higher ID than the candidate, or if it already voted for another candidate
+     * in the same term, even a lower one. Otherwise it is granted. A higher candidate that was
+     * denied wins in a later term, when the voters no longer follow a higher leader.
+     *
+     * @param term             The election term of the candidate.
+     * @param candidateId      The ID of the candidate.
+     * @param candidateAddress The address of the candidate.
+     * @return The vote, carrying the followed leader when denied.
+     */
+    public VoteResponse vote(long term, long candidateId, Address candidateAddress) {
+        DSNeighbours ds = node.getNeighbours();
+        Address leader = ds.getLeader();
+        if (!node.isActive()) {
+            return new VoteResponse(false, null, 0);
+        }
+        if (term < node.getCurrentTerm()) {
+            log.info("Denied vote to {}: stale term {} < {}", candidateAddress, term, node.getCurrentTerm());
+            return new VoteResponse(false, leader, ds.getTerm());
+        }
+        node.setCurrentTerm(term);
+        if (leader != null && !leader.equals(candidateAddress) && ds.getKnownNodes().contains(leader)
+                && node.computeId(leader.getHostname(), leader.getPort()) > candidateId) {
+            log.info("Denied vote to {}: following live leader {}", candidateAddress, leader);
+            return new VoteResponse(false, leader, ds.getTerm());
+        }
+        if (votedFor != null && votedTerm == term && !votedFor.equals(candidateAddress)) {
+            log.info("Denied vote to {}: already voted for {} in term {}", candidateAddress, votedFor, term);
+            return new VoteResponse(false, null, ds.getTerm());
+        }
+        votedFor = candidateAddress;
+        votedTerm = term;
+        log.info("Granted vote to {} in term {}", candidateAddress, term);
+        return new VoteResponse(true, null, ds.getTerm());
+    }
+}
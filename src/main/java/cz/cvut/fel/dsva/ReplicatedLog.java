@@ -0,0 +1,793 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.AppendResult;
+import cz.cvut.fel.dsva.base.DSNeighbours;
+import cz.cvut.fel.dsva.base.LogEntry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BinaryOperator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A replicated append-only log driven by the elected leader.
+ *
+ * <p>The leader (the global leader when groups are enabled) owns the log; every node plays these roles:
+ * <ul>
+ *     <li><b>Client</b>: {@link #append(String)} queues data locally. Non-leaders forward everything queued
+ *     since the last flush to the leader in one call, which returns once the entries are committed.</li>
+ *     <li><b>Leader</b>: every <code>FLUSH_INTERVAL_MS</code> it appends the queued data to its log in one step,
+ *     then sends each member of the agreed membership (see {@link QuorumElection}) the entries it is missing,
+ *     up to <code>MAX_BATCH</code> per call. Up to <code>dsva.log.pipeline</code> calls per follower are in flight
+ *     at once; the leader advances a follower's next index when it sends, not when the follower answers.
+ *     An entry is committed once a majority of the agreed membership stores it and it is from the
+ *     leader's term.</li>
+ *     <li><b>Follower</b>: accepts entries only if it holds the entry before them with the same term,
+ *     replacing uncommitted entries that conflict. Once it has matched the leader, a call that overtook an
+ *     earlier one of the pipeline waits up to <code>REORDER_WAIT_MS</code> for it instead of being rejected;
+ *     a probe that does not match is answered at once.</li>
+ * </ul>
+ *
+ * <p>No committed entry is ever dropped. Every <code>dsva.log.snapshotEvery</code> committed entries, the
+ * prefix moves from memory to the node's {@link LogArchive} in <code>dsva.log.dir</code>, so memory stays
+ * bounded while the disk holds the whole history for the life of the process. Reads, a follower that
+ * falls behind (e.g. one that comes back through <code>revive</code>) and a new leader reading the
+ * replicas' tails get archived entries like any others, <code>MAX_BATCH</code> per call. Entries whose
+ * data starts with a prefix registered with {@link #fold} are also merged into one value per prefix,
+ * so a service can look up its state without reading the archive.
+ *
+ * <p>A new leader first reads the uncommitted entries of a majority of the agreed membership, adopts
+ * the most up-to-date ones and appends an empty entry of its own term, which commits them. The log is as
+ * safe as the election: in quorum mode every node votes once per term, so at most one leader per term
+ * can commit; in plain Bully mode a follower accepts only the first leader it hears from in a term.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class ReplicatedLog {
+    public static final int MAX_BATCH = 512;
+    public static final long FLUSH_INTERVAL_MS = 2;
+    public static final long REORDER_WAIT_MS = 200;
+    public static final long APPEND_TIMEOUT_MS = 5000;
+    public static final long RETRY_MS = 500;
+
+    private final Node node;
+    private final int pipeline;
+    private final int snapshotEvery;
+    private final Executor flusher;
+
+    // Client side
+    private final Queue<PendingAppend> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, BinaryOperator<String>> folds = new ConcurrentHashMap<>();
+
+    // Log state, guarded by this
+    private final LogArchive archive;
+    private final Map<String, String> state = new HashMap<>();
+    private final List<LogEntry> entries = new ArrayList<>();
+    private long snapshotIndex = 0;
+    private long snapshotTerm = 0;
+    private long commitIndex = 0;
+    private long knownTerm = 0;
+    private Address knownLeader;
+    private boolean following = false;
+
+    // Leader side, guarded by this
+    private boolean leading = false;
+    private boolean ready = false;
+    private long leaderTerm = -1;
+    private long recoverRetryAt = 0;
+    private final Map<Address, Follower> followers = new HashMap<>();
+    private final TreeMap<Long, CompletableFuture<Long>> waiting = new TreeMap<>();
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder appendCalls = new LongAdder();
+    private final LongAdder entriesSent = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder archivedSent = new LongAdder();
+
+    /**
+     * Constructs the replicated log for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public ReplicatedLog(Node node) {
+        this.node = node;
+        this.pipeline = Math.max(1, Config.getInt("dsva.log.pipeline", 4));
+        this.snapshotEvery = Math.max(1, Config.getInt("dsva.log.snapshotEvery", 10000));
+        this.flusher = node.getEventLoop().lane();
+        File file = new File(Config.getString("dsva.log.dir", "log"), "node-" + node.getMyPort() + ".log");
+        try {
+            this.archive = new LogArchive(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the log archive " + file, e);
+        }
+    }
+
+    /**
+     * Starts the flusher. Called once the node has joined the network, so that a joining node
+     * does not take over the log while it still considers itself the leader.
+     */
+    public void start() {
+        node.getEventLoop().scheduleOnLane(flusher, this::flush, FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Registers how entries whose data starts with the given prefix are folded into one value.
+     * Every node must register the same folds before it starts.
+     *
+     * @param prefix The data prefix.
+     * @param merge  Merges the folded value with the data of a later entry.
+     */
+    public void fold(String prefix, BinaryOperator<String> merge) {
+        folds.put(prefix, merge);
+    }
+
+    /**
+     * Returns the committed entries with the given prefix, up to the given index, folded into one value.
+     *
+     * @param prefix The data prefix registered with {@link #fold}.
+     * @param upTo   The last index to fold.
+     * @return The folded data, or {@code null} if no such entry was committed.
+     */
+    public synchronized String folded(String prefix, long upTo) {
+        BinaryOperator<String> merge = folds.get(prefix);
+        if (merge == null) {
+            throw new IllegalArgumentException("No fold registered for '" + prefix + "'");
+        }
+        String value = state.get(prefix);
+        for (long i = snapshotIndex + 1; i <= Math.min(upTo, commitIndex); i++) {
+            String data = entryAt(i).getData();
+            if (data != null && data.startsWith(prefix)) {
+                value = value == null ? data : merge.apply(value, data);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Queues data to be appended to the log. Returns immediately.
+     *
+     * @param data The data of the entry.
+     * @return A future completed with the index of the entry once it is committed.
+     */
+    public CompletableFuture<Long> append(String data) {
+        return append(Collections.singletonList(data));
+    }
+
+    /**
+     * Queues data to be appended to the log as consecutive entries. Returns immediately.
+     *
+     * @param data The data of the entries, in order.
+     * @return A future completed with the index of the last entry once all of them are committed.
+     */
+    public CompletableFuture<Long> append(List<String> data) {
+        PendingAppend p = new PendingAppend(data);
+        pending.add(p);
+        return p.done;
+    }
+
+    private Address leader() {
+        DSNeighbours ds = node.getNeighbours();
+        return node.getGroups().isEnabled() ? ds.getGlobalLeader() : ds.getLeader();
+    }
+
+    private long term() {
+        DSNeighbours ds = node.getNeighbours();
+        return node.getGroups().isEnabled() ? ds.getGlobalTerm() : ds.getTerm();
+    }
+
+    /**
+     * Periodic task: follows leadership changes, appends or forwards queued data and replicates.
+     */
+    private void flush() {
+        try {
+            if (!node.isActive()) {
+                return;
+            }
+            Address self = node.getAddress();
+            Address leader = leader();
+            long term = term();
+            boolean isLeader = self.equals(leader);
+            boolean recover;
+            boolean leaderReady;
+            Address forwardTo;
+            long from = 0;
+            synchronized (this) {
+                if (leading && (!isLeader || leaderTerm != term)) {
+                    stepDown("leader is now " + leader + " in term " + term);
+                }
+                recover = isLeader && !leading && term >= knownTerm
+                        && (term > knownTerm || knownLeader == null || knownLeader.equals(self))
+                        && System.currentTimeMillis() >= recoverRetryAt;
+                if (recover) {
+                    leading = true;
+                    ready = false;
+                    leaderTerm = term;
+                    knownTerm = term;
+                    knownLeader = self;
+                    followers.clear();
+                    from = commitIndex + 1;
+                }
+                leaderReady = leading && ready;
+                // A revived node has no leader until the next election; the one replicating to it will do
+                forwardTo = leader != null ? leader : knownLeader;
+            }
+            if (recover) {
+                final long recoverFrom = from;
+                // Recovery waits on calls that run on the I/O executor, so it must not hold an I/O thread
+                node.getEventLoop().runBlocking(() -> recover(term, recoverFrom));
+            } else if (leaderReady) {
+                List<PendingAppend> batch = drain();
+                if (!batch.isEmpty()) {
+                    appendAsLeader(batch);
+                }
+                replicate();
+            } else if (!isLeader && forwardTo != null && !forwardTo.equals(self) && !pending.isEmpty()) {
+                forward(forwardTo, drain());
+            }
+        } catch (Exception e) {
+            log.error("Replicated log flush failed: {}", e.getMessage());
+        }
+    }
+
+    private List<PendingAppend> drain() {
+        List<PendingAppend> batch = new ArrayList<>();
+        PendingAppend p;
+        while ((p = pending.poll()) != null) {
+            batch.add(p);
+        }
+        return batch;
+    }
+
+    /**
+     * Sends the queued data to the leader in one call on the I/O executor. The leader appends it
+     * as consecutive entries, so the index of each caller's last entry follows from the returned one.
+     */
+    private void forward(final Address leader, final List<PendingAppend> batch) {
+        final List<String> data = new ArrayList<>();
+        for (PendingAppend p : batch) {
+            data.addAll(p.data);
+        }
+        forwarded.add(data.size());
+        node.getEventLoop().runIo(() -> {
+            try {
+                long index = node.getCommunicationHub().getProxy(leader).logAppend(data) - data.size();
+                for (PendingAppend p : batch) {
+                    index += p.data.size();
+                    p.done.complete(index);
+                }
+            } catch (RemoteException e) {
+                log.error("Error forwarding {} log entries to leader {}: {}", data.size(), leader, e.getMessage());
+                for (PendingAppend p : batch) {
+                    p.done.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private synchronized void appendAsLeader(List<PendingAppend> batch) {
+        for (PendingAppend p : batch) {
+            if (p.data.isEmpty()) {
+                p.done.complete(lastIndex());
+                continue;
+            }
+            for (String d : p.data) {
+                entries.add(new LogEntry(lastIndex() + 1, leaderTerm, d));
+            }
+            appended.add(p.data.size());
+            waiting.put(lastIndex(), p.done);
+        }
+        advanceCommit();
+    }
+
+    /**
+     * Leader side: fills every follower's pipeline with the entries it is missing.
+     */
+    private void replicate() {
+        final Address self = node.getAddress();
+        Set<Address> members = new HashSet<>(node.getQuorumElection().getAgreedMembership());
+        members.remove(self);
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            if (!leading || !ready) {
+                return;
+            }
+            followers.keySet().retainAll(members);
+            long now = System.currentTimeMillis();
+            for (Address a : members) {
+                Follower f = followers.get(a);
+                if (f == null) {
+                    f = new Follower(lastIndex() + 1);
+                    followers.put(a, f);
+                }
+                if (now < f.retryAt) {
+                    continue;
+                }
+                while (f.inFlight < pipeline) {
+                    long from = f.nextIndex;
+                    long to = Math.min(lastIndex(), from + MAX_BATCH - 1);
+                    if (to < from && f.sentCommit >= commitIndex) {
+                        break;
+                    }
+                    List<LogEntry> batch = range(from, to);
+                    if (from <= snapshotIndex) {
+                        archivedSent.add(Math.min(to, snapshotIndex) - from + 1);
+                    }
+                    f.nextIndex = Math.max(from, to + 1);
+                    f.inFlight++;
+                    f.sentCommit = commitIndex;
+                    calls.add(appendCall(a, f, leaderTerm, from - 1, termAt(from - 1), batch, commitIndex));
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+        }
+        for (Runnable call : calls) {
+            node.getEventLoop().runIo(call);
+        }
+    }
+
+    private Runnable appendCall(final Address a, final Follower f, final long term, final long prevIndex,
+                                final long prevTerm, final List<LogEntry> batch, final long leaderCommit) {
+        final Address self = node.getAddress();
+        return () -> {
+            AppendResult r;
+            try {
+                r = node.getCommunicationHub().getProxy(a).appendEntries(self, term, prevIndex, prevTerm, batch, leaderCommit);
+            } catch (RemoteException e) {
+                onFailure(a, f, e);
+                return;
+            }
+            appendCalls.increment();
+            entriesSent.add(batch.size());
+            onResult(f, term, r);
+        };
+    }
+
+    private synchronized void onFailure(Address a, Follower f, RemoteException e) {
+        f.inFlight--;
+        f.nextIndex = f.matchIndex + 1;
+        f.retryAt = System.currentTimeMillis() + RETRY_MS;
+        if (f.failures++ == 0) {
+            log.warn("Error replicating log to {}: {}. Retrying every {} ms.", a, e.getMessage(), RETRY_MS);
+        }
+    }
+
+    private synchronized void onResult(Follower f, long term, AppendResult r) {
+        f.inFlight--;
+        f.failures = 0;
+        if (r.getTerm() > term) {
+            knownTerm = Math.max(knownTerm, r.getTerm());
+            knownLeader = null;
+            if (leading && leaderTerm == term) {
+                stepDown("a follower is in term " + r.getTerm());
+            }
+            return;
+        }
+        if (!leading || leaderTerm != term) {
+            return;
+        }
+        if (r.isSuccess()) {
+            f.matchIndex = Math.max(f.matchIndex, r.getMatchIndex());
+            f.nextIndex = Math.max(f.nextIndex, f.matchIndex + 1);
+            advanceCommit();
+            return;
+        }
+        rejected.increment();
+        if (r.getMatchIndex() < 0) {
+            // The follower follows another leader of this term; wait for the election to settle
+            f.retryAt = System.currentTimeMillis() + RETRY_MS;
+            return;
+        }
+        f.nextIndex = Math.max(f.matchIndex + 1, Math.min(f.nextIndex, r.getMatchIndex() + 1));
+    }
+
+    /**
+     * Commits the highest index stored by a majority, if it is from the leader's term. Must hold the lock.
+     */
+    private void advanceCommit() {
+        List<Long> matches = new ArrayList<>();
+        for (Address a : node.getQuorumElection().getAgreedMembership()) {
+            if (a.equals(node.getAddress())) {
+                matches.add(lastIndex());
+            } else {
+                Follower f = followers.get(a);
+                matches.add(f == null ? 0L : f.matchIndex);
+            }
+        }
+        if (matches.isEmpty()) {
+            matches.add(lastIndex());
+        }
+        Collections.sort(matches, Collections.reverseOrder());
+        long n = matches.get(matches.size() / 2);
+        if (n > commitIndex && termAt(n) == leaderTerm) {
+            commitTo(n);
+        }
+    }
+
+    private void commitTo(long n) {
+        commitIndex = n;
+        Map<Long, CompletableFuture<Long>> done = waiting.headMap(n, true);
+        for (Map.Entry<Long, CompletableFuture<Long>> e : done.entrySet()) {
+            e.getValue().complete(e.getKey());
+        }
+        done.clear();
+        if (commitIndex - snapshotIndex >= snapshotEvery) {
+            long term = termAt(commitIndex);
+            List<LogEntry> prefix = entries.subList(0, (int) (commitIndex - snapshotIndex));
+            archive.append(prefix);
+            for (LogEntry e : prefix) {
+                apply(e);
+            }
+            prefix.clear();
+            snapshotIndex = commitIndex;
+            snapshotTerm = term;
+            log.debug("Log archived up to #{}", snapshotIndex);
+        }
+    }
+
+    /**
+     * Folds an archived entry into the values of the registered prefixes. Must hold the lock.
+     */
+    private void apply(LogEntry e) {
+        String data = e.getData();
+        if (data == null) {
+            return;
+        }
+        for (Map.Entry<String, BinaryOperator<String>> fold : folds.entrySet()) {
+            if (data.startsWith(fold.getKey())) {
+                state.merge(fold.getKey(), data, fold.getValue());
+            }
+        }
+    }
+
+    private void truncateFrom(long index) {
+        entries.subList((int) (index - snapshotIndex - 1), entries.size()).clear();
+        Map<Long, CompletableFuture<Long>> lost = waiting.tailMap(index, true);
+        for (CompletableFuture<Long> f : lost.values()) {
+            f.completeExceptionally(new IllegalStateException("Entry #" + index + " was replaced by another leader"));
+        }
+        lost.clear();
+    }
+
+    private void stepDown(String reason) {
+        leading = false;
+        ready = false;
+        followers.clear();
+        for (CompletableFuture<Long> f : waiting.values()) {
+            f.completeExceptionally(new IllegalStateException("Leadership lost: " + reason));
+        }
+        waiting.clear();
+        if (node.getAddress().equals(knownLeader)) {
+            knownLeader = null;
+        }
+        log.info("Replicated log: no longer the leader ({})", reason);
+    }
+
+    /**
+     * Takes over the log as a new leader: adopts the most up-to-date uncommitted entries of a majority
+     * and appends an entry of the new term that commits them. The flusher has already taken over the log
+     * for the term.
+     *
+     * @param term The new leader's term.
+     * @param from The first uncommitted index when the flusher took over.
+     */
+    private void recover(final long term, final long from) {
+        final Address self = node.getAddress();
+        Set<Address> members = new HashSet<>(node.getQuorumElection().getAgreedMembership());
+        members.remove(self);
+        final Map<Address, List<LogEntry>> tails = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(members.size());
+        for (final Address a : members) {
+            node.getEventLoop().runIo(() -> {
+                try {
+                    tails.put(a, readTail(a, from));
+                } catch (RemoteException e) {
+                    log.warn("Cannot read log of {}: {}", a, e.getMessage());
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            latch.await(APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int majority = (members.size() + 1) / 2 + 1;
+        synchronized (this) {
+            if (!leading || leaderTerm != term) {
+                return;
+            }
+            if (tails.size() + 1 < majority) {
+                log.warn("Only {}/{} log replicas reachable. The log accepts no appends until a majority is.",
+                        tails.size() + 1, members.size() + 1);
+                leading = false;
+                recoverRetryAt = System.currentTimeMillis() + RETRY_MS;
+                return;
+            }
+            List<LogEntry> best = null;
+            long bestTerm = termAt(lastIndex());
+            long bestIndex = lastIndex();
+            for (List<LogEntry> tail : tails.values()) {
+                if (tail.isEmpty()) {
+                    continue;
+                }
+                LogEntry last = tail.get(tail.size() - 1);
+                if (last.getTerm() > bestTerm || (last.getTerm() == bestTerm && last.getIndex() > bestIndex)) {
+                    best = tail;
+                    bestTerm = last.getTerm();
+                    bestIndex = last.getIndex();
+                }
+            }
+            if (best != null) {
+                store(best);
+            }
+            entries.add(new LogEntry(lastIndex() + 1, term, null));
+            ready = true;
+            log.info("Replicated log ready as leader of term {}: last #{}, committed #{}", term, lastIndex(), commitIndex);
+            advanceCommit();
+        }
+    }
+
+    /**
+     * Reads a replica's log from the given index to its end, <code>MAX_BATCH</code> entries per call.
+     */
+    private List<LogEntry> readTail(Address a, long from) throws RemoteException {
+        List<LogEntry> tail = new ArrayList<>();
+        while (true) {
+            List<LogEntry> part = node.getCommunicationHub().getProxy(a).readLog(from + tail.size(), MAX_BATCH, false);
+            tail.addAll(part);
+            if (part.size() < MAX_BATCH) {
+                return tail;
+            }
+        }
+    }
+
+    /**
+     * Stores entries that follow the log's matching prefix, replacing conflicting uncommitted entries.
+     * Must hold the lock.
+     */
+    private void store(List<LogEntry> batch) {
+        for (LogEntry e : batch) {
+            if (e.getIndex() > lastIndex() + 1) {
+                break;
+            }
+            if (e.getIndex() <= lastIndex()) {
+                if (e.getIndex() <= commitIndex || termAt(e.getIndex()) == e.getTerm()) {
+                    continue;
+                }
+                truncateFrom(e.getIndex());
+            }
+            entries.add(e);
+        }
+    }
+
+    /**
+     * Accepts a leader for the given term. A follower sticks with the first leader it hears from in a term.
+     * Must hold the lock.
+     */
+    private boolean accept(Address leader, long term) {
+        if (term < knownTerm || (term == knownTerm && knownLeader != null && !knownLeader.equals(leader))) {
+            return false;
+        }
+        if (term > knownTerm || knownLeader == null) {
+            knownTerm = term;
+            knownLeader = leader;
+            following = false;
+            if (leading && !leader.equals(node.getAddress())) {
+                stepDown("leader " + leader + " appends in term " + term);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Follower side: stores entries sent by the leader.
+     *
+     * @param leader       The leader that sent the entries.
+     * @param term         The leader's term.
+     * @param prevIndex    The index of the entry before the first sent one.
+     * @param prevTerm     The term of that entry.
+     * @param batch        The entries, possibly none.
+     * @param leaderCommit The leader's commit index.
+     * @return The outcome, see {@link AppendResult}.
+     */
+    public synchronized AppendResult receive(Address leader, long term, long prevIndex, long prevTerm,
+                                             List<LogEntry> batch, long leaderCommit) {
+        if (!accept(leader, term)) {
+            return new AppendResult(knownTerm, false, -1);
+        }
+        // Only a pipelined call can have overtaken another, and only while this node follows the leader
+        long deadline = following && prevIndex - lastIndex() <= (long) pipeline * MAX_BATCH
+                ? System.currentTimeMillis() + REORDER_WAIT_MS : 0;
+        while (prevIndex > lastIndex()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (term != knownTerm || !leader.equals(knownLeader)) {
+                return new AppendResult(knownTerm, false, -1);
+            }
+        }
+        if (prevIndex > lastIndex()) {
+            return new AppendResult(knownTerm, false, lastIndex());
+        }
+        // Archived entries are committed, so they match any leader's
+        if (prevIndex >= snapshotIndex && termAt(prevIndex) != prevTerm) {
+            return new AppendResult(knownTerm, false, commitIndex);
+        }
+        store(batch);
+        following = true;
+        long match = prevIndex + batch.size();
+        long newCommit = Math.min(leaderCommit, match);
+        if (newCommit > commitIndex) {
+            commitTo(newCommit);
+        }
+        notifyAll();
+        return new AppendResult(knownTerm, true, match);
+    }
+
+    /**
+     * Returns entries of the log, reading archived ones from disk.
+     *
+     * @param from          The first index (inclusive).
+     * @param limit         The maximum number of entries.
+     * @param committedOnly Whether to stop at the commit index.
+     * @return The entries in index order.
+     */
+    public synchronized List<LogEntry> read(long from, int limit, boolean committedOnly) {
+        long start = Math.max(1, from);
+        long end = Math.min(committedOnly ? commitIndex : lastIndex(), start + Math.max(0, limit) - 1);
+        return range(start, end);
+    }
+
+    /**
+     * Returns the entries from <code>from</code> to <code>to</code>, both inclusive. Must hold the lock.
+     */
+    private List<LogEntry> range(long from, long to) {
+        List<LogEntry> result = from <= snapshotIndex
+                ? archive.read(from, Math.min(to, snapshotIndex)) : new ArrayList<LogEntry>();
+        for (long i = Math.max(from, snapshotIndex + 1); i <= to; i++) {
+            result.add(entryAt(i));
+        }
+        return result;
+    }
+
+    private long lastIndex() {
+        return snapshotIndex + entries.size();
+    }
+
+    private LogEntry entryAt(long index) {
+        return entries.get((int) (index - snapshotIndex - 1));
+    }
+
+    private long termAt(long index) {
+        if (index == snapshotIndex) {
+            return snapshotTerm;
+        }
+        if (index <= 0) {
+            return 0;
+        }
+        return index < snapshotIndex ? archive.termAt(index) : entryAt(index).getTerm();
+    }
+
+    /**
+     * Measures append throughput: appends entries through this node without waiting for each one
+     * and waits until all are committed.
+     *
+     * @param count The number of entries to append.
+     * @return A human-readable report.
+     */
+    public String benchmark(int count) {
+        long calls = appendCalls.sum();
+        long sent = entriesSent.sum();
+        long start = System.nanoTime();
+        List<CompletableFuture<Long>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(append("bench-" + i));
+        }
+        int done = 0;
+        long deadline = System.currentTimeMillis() + 60000;
+        for (CompletableFuture<Long> f : futures) {
+            try {
+                f.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                done++;
+            } catch (Exception e) {
+                log.debug("Benchmark append failed: {}", e.getMessage());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        calls = appendCalls.sum() - calls;
+        sent = entriesSent.sum() - sent;
+        String result = String.format("Committed %d/%d entries in %.1f ms (%.0f entries/s)%n" +
+                        "Append calls from this node: %d (%.1f entries per call)%n",
+                done, count, nanos / 1e6, done * 1e9 / nanos, calls, calls == 0 ? 0.0 : (double) sent / calls);
+        log.info("Replicated log benchmark:\n{}", result);
+        return result;
+    }
+
+    /**
+     * Builds a human-readable summary of the log state.
+     *
+     * @return The replicated log statistics.
+     */
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder("Replicated log:\n");
+        sb.append(" Role:        ").append(leading ? (ready ? "leader" : "recovering leader") : "follower of " + knownLeader)
+                .append(" (term ").append(knownTerm).append(")\n");
+        sb.append(" LastIndex:   ").append(lastIndex()).append("\n");
+        sb.append(" CommitIndex: ").append(commitIndex).append("\n");
+        sb.append(" Archived:    #").append(snapshotIndex).append(" (").append(archive.getBytes())
+                .append(" bytes in ").append(archive.getFile()).append(")\n");
+        sb.append(" Pending:     ").append(pending.size()).append("\n");
+        sb.append(" Appended:    ").append(appended.sum()).append("\n");
+        sb.append(" Forwarded:   ").append(forwarded.sum()).append("\n");
+        sb.append(" AppendCalls: ").append(appendCalls.sum()).append(" (").append(entriesSent.sum()).append(" entries)\n");
+        sb.append(" Rejected:    ").append(rejected.sum()).append("\n");
+        sb.append(" ArchiveSent: ").append(archivedSent.sum()).append(" entries read from disk for followers\n");
+        for (Map.Entry<Address, Follower> e : followers.entrySet()) {
+            Follower f = e.getValue();
+            sb.append("  ").append(e.getKey()).append(" next=").append(f.nextIndex).append(" match=").append(f.matchIndex)
+                    .append(" inFlight=").append(f.inFlight).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Data queued by a client of this node, appended as consecutive entries.
+     */
+    private static class PendingAppend {
+        private final List<String> data;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        private PendingAppend(List<String> data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * The leader's replication state of one follower.
+     */
+    private static class Follower {
+        private long nextIndex;
+        private long matchIndex = 0;
+        private long sentCommit = -1;
+        private int inFlight = 0;
+        private int failures = 0;
+        private long retryAt = 0;
+
+        private Follower(long nextIndex) {
+            this.nextIndex = nextIndex;
+        }
+    }
+}
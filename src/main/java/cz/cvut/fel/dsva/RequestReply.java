@@ -0,0 +1,368 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request/reply messaging between nodes addressed by nickname.
+ *
+ * <p>A request is two one-way calls, so no thread waits for the answer:
+ * <ul>
+ *     <li><b>Requester</b>: {@link #request(String, String, String, long)} gives the request the next correlation ID,
+ *     puts it into the pending table and returns a future. An I/O thread resolves the nickname (asking the known
+ *     nodes once and caching the answers) and hands the request over with {@code NodeCommands.request}, which
+ *     returns as soon as the target has queued it.</li>
+ *     <li><b>Target</b>: runs the handler registered for the request's method on an I/O thread and sends the
+ *     result back with {@code NodeCommands.reply}, which completes the future and removes it from the table.</li>
+ * </ul>
+ *
+ * <p>Timeouts are kept in a timing wheel of <code>WHEEL_SIZE</code> buckets of <code>TICK_MS</code>: a request is
+ * queued in the bucket of its deadline, and every tick the timer thread fails the requests of one bucket that
+ * are still pending and due, and moves later ones to a later round. Answered requests are only removed from
+ * the table; their bucket entry is dropped when its tick comes. Each request is thus touched a constant number
+ * of times however many are outstanding, and a timeout costs no timer task of its own.
+ *
+ * <p>Built-in handlers: <code>echo</code> (the default method) returns the payload, <code>status</code> the node status.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class RequestReply {
+    public static final long TICK_MS = 10;
+    public static final int WHEEL_SIZE = 512;
+    public static final String DEFAULT_METHOD = "echo";
+
+    /**
+     * Answers requests of one method. Runs on an I/O thread.
+     */
+    public interface Handler {
+        /**
+         * Answers a request.
+         *
+         * @param from    The requesting node.
+         * @param payload The request payload.
+         * @return The reply payload.
+         * @throws Exception If the request fails; the requester's future fails with the message.
+         */
+        String handle(Address from, String payload) throws Exception;
+    }
+
+    private final Node node;
+    private final long defaultTimeoutMs;
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Queue<Long>> wheel = new AtomicReferenceArray<>(WHEEL_SIZE);
+    private volatile long sweptTick;
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Address> addresses = new ConcurrentHashMap<>();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+
+    /**
+     * Constructs the request/reply service of the given node and registers the built-in handlers.
+     *
+     * @param node The parent Node instance.
+     */
+    public RequestReply(Node node) {
+        this.node = node;
+        this.defaultTimeoutMs = Math.max(TICK_MS, Config.getLong("dsva.rpc.timeoutMs", 5000));
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.set(i, new ConcurrentLinkedQueue<>());
+        }
+        this.sweptTick = System.currentTimeMillis() / TICK_MS;
+        register(DEFAULT_METHOD, (from, payload) -> payload);
+        register("status", (from, payload) -> node.getStatus());
+    }
+
+    /**
+     * Starts the timeout wheel on the node's timer.
+     */
+    public void start() {
+        node.getEventLoop().getTimer().scheduleWithFixedDelay(this::sweep, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers the handler of a method, replacing the previous one.
+     *
+     * @param method  The method name.
+     * @param handler The handler.
+     */
+    public void register(String method, Handler handler) {
+        handlers.put(method, handler);
+    }
+
+    // ---------------------------------------------------------------- requester side
+
+    /**
+     * Sends a request. Returns immediately.
+     *
+     * @param toNick    The nickname (or <code>ip:port</code>) of the target node.
+     * @param method    The method the target's handler is registered for.
+     * @param payload   The request payload.
+     * @param timeoutMs The time to wait for the reply, or 0 for <code>dsva.rpc.timeoutMs</code>.
+     * @return A future completed with the reply payload, or failed with a {@link TimeoutException} or
+     * a {@link RemoteException} carrying the target's error.
+     */
+    public CompletableFuture<String> request(final String toNick, final String method, final String payload, long timeoutMs) {
+        final long id = nextId.incrementAndGet();
+        long deadline = System.currentTimeMillis() + (timeoutMs > 0 ? Math.max(TICK_MS, timeoutMs) : defaultTimeoutMs);
+        final Pending p = new Pending(toNick, deadline);
+        pending.put(id, p);
+        schedule(id, p.tick);
+        sent.increment();
+        node.getEventLoop().runIo(() -> send(id, p, method, payload));
+        return p.future;
+    }
+
+    private void send(long id, Pending p, String method, String payload) {
+        try {
+            Address target = resolve(p.toNick);
+            if (target == null) {
+                throw new RemoteException("Unknown node " + p.toNick);
+            }
+            node.getCommunicationHub().getProxy(target).request(node.getAddress(), id, p.toNick, method, payload);
+        } catch (RemoteException e) {
+            addresses.remove(p.toNick);
+            if (pending.remove(id) != null) {
+                failed.increment();
+                p.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Resolves a nickname. Unknown nicknames are looked up by asking the known nodes for theirs.
+     *
+     * @param nick The nickname or <code>ip:port</code>.
+     * @return The address, or {@code null} if no known node has the nickname.
+     */
+    private Address resolve(String nick) {
+        if (nick.equals(node.getNickname())) {
+            return node.getAddress();
+        }
+        Address a = addresses.get(nick);
+        if (a != null) {
+            return a;
+        }
+        if (nick.matches("[^:]+:\\d+")) {
+            String[] parts = nick.split(":");
+            Address addr = new Address(parts[0], Integer.parseInt(parts[1]));
+            for (Address known : node.getNeighbours().getKnownNodes()) {
+                if (known.equals(addr)) {
+                    // Keeps the registry port of nodes in a shared host
+                    return known;
+                }
+            }
+            return addr;
+        }
+        for (Address known : new ArrayList<>(node.getNeighbours().getKnownNodes())) {
+            if (known.equals(node.getAddress()) || addresses.containsValue(known)) {
+                continue;
+            }
+            try {
+                String name = node.getCommunicationHub().getProxy(known).nickname();
+                addresses.put(name, known);
+                if (name.equals(nick)) {
+                    return known;
+                }
+            } catch (RemoteException e) {
+                log.debug("Cannot ask {} for its nickname: {}", known, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Completes a pending request with the target's reply.
+     *
+     * @param id      The correlation ID.
+     * @param ok      Whether the handler succeeded.
+     * @param payload The reply payload, or the error message.
+     */
+    public void onReply(long id, boolean ok, String payload) {
+        Pending p = pending.remove(id);
+        if (p == null) {
+            late.increment();
+            return;
+        }
+        if (ok) {
+            answered.increment();
+            p.future.complete(payload);
+        } else {
+            failed.increment();
+            addresses.remove(p.toNick);
+            p.future.completeExceptionally(new RemoteException(payload));
+        }
+    }
+
+    private void schedule(long id, long tick) {
+        // A deadline the wheel has already passed goes to the next tick
+        long t = Math.max(tick, sweptTick + 1);
+        wheel.get((int) (t % WHEEL_SIZE)).add(id);
+    }
+
+    /**
+     * Timer task: fails the due requests of the buckets whose ticks passed since the last run.
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis() / TICK_MS;
+        for (long t = Math.max(sweptTick + 1, now - WHEEL_SIZE + 1); t <= now; t++) {
+            Queue<Long> bucket = wheel.getAndSet((int) (t % WHEEL_SIZE), new ConcurrentLinkedQueue<>());
+            sweptTick = t;
+            for (Long id; (id = bucket.poll()) != null; ) {
+                Pending p = pending.get(id);
+                if (p == null) {
+                    continue;
+                }
+                if (p.tick > t) {
+                    schedule(id, p.tick);
+                } else if (pending.remove(id) != null) {
+                    timedOut.increment();
+                    p.future.completeExceptionally(new TimeoutException("No reply from " + p.toNick + " to request #" + id));
+                }
+            }
+        }
+        sweptTick = Math.max(sweptTick, now);
+    }
+
+    // ---------------------------------------------------------------- target side
+
+    /**
+     * Runs the handler of a request on an I/O thread and sends the result back.
+     *
+     * @param from    The requesting node.
+     * @param id      The requester's correlation ID.
+     * @param toNick  The nickname the requester addressed.
+     * @param method  The method.
+     * @param payload The request payload.
+     */
+    public void onRequest(final Address from, final long id, final String toNick, final String method, final String payload) {
+        node.getEventLoop().runIo(() -> {
+            boolean ok = false;
+            String result;
+            Handler handler = handlers.get(method);
+            if (!toNick.equals(node.getNickname()) && !toNick.equals(node.getAddress().getHostname() + ":" + node.getAddress().getPort())) {
+                result = node.getAddress() + " is " + node.getNickname() + ", not " + toNick;
+            } else if (handler == null) {
+                result = "No handler for method " + method + " on " + node.getNickname();
+            } else {
+                try {
+                    result = handler.handle(from, payload);
+                    ok = true;
+                } catch (Exception e) {
+                    result = method + " failed on " + node.getNickname() + ": " + e.getMessage();
+                }
+            }
+            handled.increment();
+            try {
+                node.getCommunicationHub().getProxy(from).reply(id, ok, result);
+            } catch (RemoteException e) {
+                log.debug("Reply #{} to {} failed: {}", id, from, e.getMessage());
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------- reporting
+
+    /**
+     * Measures request throughput and latency with up to the given number of requests outstanding at once.
+     *
+     * @param toNick      The target node.
+     * @param count       The number of requests.
+     * @param outstanding The maximum number of requests in flight.
+     * @return A human-readable report.
+     */
+    public String benchmark(String toNick, int count, int outstanding) {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final Semaphore window = new Semaphore(Math.max(1, outstanding));
+        List<CompletableFuture<String>> futures = new ArrayList<>(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            try {
+                window.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            final long sentAt = System.nanoTime();
+            futures.add(request(toNick, DEFAULT_METHOD, "bench-" + i, 0).whenComplete((reply, e) -> {
+                window.release();
+                if (e == null) {
+                    latency.record((System.nanoTime() - sentAt) / 1000);
+                    ok.increment();
+                } else {
+                    errors.increment();
+                }
+            }));
+        }
+        for (CompletableFuture<String> f : futures) {
+            try {
+                f.get();
+            } catch (Exception ignored) {
+                // Counted by the callback
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        String result = String.format("%d requests to %s, up to %d outstanding: %d replies, %d failed in %.1f ms (%.0f req/s)%n" +
+                        "Latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                count, toNick, outstanding, ok.sum(), errors.sum(), nanos / 1e6, ok.sum() * 1e9 / nanos,
+                latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0, latency.getMax() / 1000.0);
+        log.info("Request/reply benchmark:\n{}", result);
+        return result;
+    }
+
+    /**
+     * Builds a human-readable summary of the request/reply service.
+     *
+     * @return The request/reply statistics.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("Request/reply:\n");
+        sb.append(" Sent:      ").append(sent.sum()).append(", pending ").append(pending.size()).append("\n");
+        sb.append(" Answered:  ").append(answered.sum()).append(", failed ").append(failed.sum())
+                .append(", timed out ").append(timedOut.sum()).append(", late replies ").append(late.sum()).append("\n");
+        sb.append(" Handled:   ").append(handled.sum()).append(" requests\n");
+        sb.append(" Handlers:  ").append(new TreeSet<>(handlers.keySet())).append("\n");
+        sb.append(" Nicknames: ").append(addresses).append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * A request waiting for its reply.
+     */
+    private static class Pending {
+        private final String toNick;
+        private final long tick;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Pending(String toNick, long deadline) {
+            this.toNick = toNick;
+            this.tick = (deadline + TICK_MS - 1) / TICK_MS;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cz.cvut.fel.dsva;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Sliding-window bitmap over the sequence numbers received from a single sender.
+ *
+ * <p>The window remembers which of the last {@link #WINDOW_SIZE} sequence numbers below the
+ * highest one seen have already been delivered. This is enough to:
+ * <ul>
+ *     <li>Drop duplicates caused by a retried call whose first attempt actually arrived.</li>
+ *     <li>Detect gaps (sequence numbers skipped because a message was lost or is still in flight).</li>
+ *     <li>Accept late messages that fill a previously detected gap.</li>
+ * </ul>
+ *
+ * <p>A fresh window starts at 0, since senders number from 1, so every unmarked slot within the window
+ * is a gap that was counted: a late message is reported as {@link Result#FILLED_GAP} only if it fills
+ * one, and {@link #getMissing()} never goes negative. Both ends start over together when a node joins
+ * or is revived: the receivers reset its window and it numbers from 1 again, see {@link DeliveryTracker}.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class SequenceWindow {
+    /** Number of sequence numbers tracked below the highest one; must be a multiple of 64. */
+    public static final int WINDOW_SIZE = 1024;
+
+    /** Outcome of offering a sequence number to the window. */
+    public enum Result {
+        /** In-order or ahead-of-order message, delivered. */
+        ACCEPTED,
+        /** Late message that fills a previously detected gap, delivered. */
+        FILLED_GAP,
+        /** Already delivered, dropped. */
+        DUPLICATE,
+        /** Too far behind the window to tell whether it was delivered, dropped. */
+        STALE
+    }
+
+    @Getter(AccessLevel.NONE)
+    private final long[] bits = new long[WINDOW_SIZE / 64];
+    private long highest = 0;
+
+    private long accepted = 0;
+    private long duplicates = 0;
+    private long gaps = 0;
+    private long filledGaps = 0;
+    private long stale = 0;
+
+    /**
+     * Records the given sequence number and tells whether the message should be delivered.
+     *
+     * @param seq The sequence number stamped by the sender.
+     * @return The classification of the message.
+     */
+    public synchronized Result offer(long seq) {
+        if (seq > highest) {
+            long distance = seq - highest;
+            if (distance >= WINDOW_SIZE) {
+                Arrays.fill(bits, 0L);
+            } else {
+                for (long s = highest + 1; s < seq; s++) {
+                    clear(s);
+                }
+            }
+            gaps += distance - 1;
+            highest = seq;
+            mark(seq);
+            accepted++;
+            return Result.ACCEPTED;
+        }
+        if (seq < 1 || highest - seq >= WINDOW_SIZE) {
+            stale++;
+            return Result.STALE;
+        }
+        if (isMarked(seq)) {
+            duplicates++;
+            return Result.DUPLICATE;
+        }
+        mark(seq);
+        filledGaps++;
+        accepted++;
+        return Result.FILLED_GAP;
+    }
+
+    /**
+     * Returns the number of detected gaps that have not been filled by a late message yet.
+     *
+     * @return The count of missing sequence numbers.
+     */
+    public synchronized long getMissing() {
+        return gaps - filledGaps;
+    }
+
+    private void mark(long seq) {
+        int idx = (int) (seq % WINDOW_SIZE);
+        bits[idx >>> 6] |= 1L << (idx & 63);
+    }
+
+    private void clear(long seq) {
+        int idx = (int) (seq % WINDOW_SIZE);
+        bits[idx >>> 6] &= ~(1L << (idx & 63));
+    }
+
+    private boolean isMarked(long seq) {
+        int idx = (int) (seq % WINDOW_SIZE);
+        return (bits[idx >>> 6] & (1L << (idx & 63))) != 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SequenceWindow{ highest=" + highest +
+                ", accepted=" + accepted +
+                ", duplicates=" + duplicates +
+                ", gaps=" + gaps +
+                ", filledGaps=" + filledGaps +
+                ", stale=" + stale + " }";
+    }
+}
@@ -0,0 +1,1169 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.ControlCommands;
+import cz.cvut.fel.dsva.base.NodeCommands;
+import cz.cvut.fel.dsva.base.RateLimitedException;
+import cz.cvut.fel.dsva.base.TraceContext;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Calls between nodes running in separate processes on the same host, through memory-mapped files
+ * instead of loopback TCP.
+ *
+ * <p>Every node serves an inbox directory <code>&lt;dsva.shm.dir&gt;/&lt;port&gt;</code>. A caller that finds
+ * the inbox of a local peer creates two files in it, one for {@link ControlCommands} operations and one for
+ * the rest, so elections and heartbeats do not queue behind data. Each file holds two single-producer/single-consumer
+ * rings: requests from the caller and replies from the peer. The positions are published with ordered stores
+ * and need no locks in the shared memory; in each process a lock per ring keeps a single writer and a single
+ * reader. Several calls can be in flight on one file: each request carries a call id, and whichever waiting
+ * caller holds the reply ring hands every reply it reads to the caller with that id. A caller waits for the
+ * request ring no longer than the call's deadline.
+ *
+ * <p>The node's poller, a long-running task on the node's blocking executor, adopts new files and hands each
+ * call to the node's control executor or I/O executor, by the kind of file, which runs it on the
+ * {@link MessageReceiver} and writes the reply, so a slow call holds up only its own caller. At most
+ * {@value #MAX_IN_FLIGHT} calls per file run at a time. An idle poller backs off to parks of
+ * {@value #MAX_PARK_MS} ms.
+ *
+ * <p>Operations are encoded in a compact binary form: an operation number, the caller's trace context and
+ * the arguments. Only {@link NodeCommands} methods whose arguments and results are primitives, strings,
+ * addresses or byte arrays are encoded (elections, leader announcements, heartbeats, messages,
+ * request/reply, membership notices and the like); the others, and every call while the peer's poller has
+ * not adopted the file yet or stopped answering, take the regular RMI path, as does a call that could not
+ * be written to the ring within <code>dsva.shm.timeoutMs</code>. A call that was written but got no reply in
+ * that time may have run on the peer, so only the operations in {@link #IDEMPOTENT} are retried over RMI,
+ * which keeps a busy peer from being mistaken for a dead one; the others fail with a
+ * {@link RemoteException}. A reply that still comes is discarded. A peer that is killed closes its inbox, so callers fall
+ * back to RMI and see it as unreachable there.
+ *
+ * <p>Ring positions and header stamps are plain longs in the mapped buffer. Each of them is read before and
+ * written after a volatile access of a process-local {@link AtomicLong}, which keeps the JIT from moving the
+ * ring contents across them and makes HotSpot emit the matching hardware fences. A dropped file is unmapped
+ * once its last user is done instead of holding its memory in <code>/dev/shm</code> until the buffer is collected.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class SharedMemoryTransport {
+    private static final int MAGIC = 0x44535348;
+    private static final int HEADER = 512;
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_SERVER_GENERATION = 8;
+    private static final int OFF_SERVER_ALIVE = 16;
+    private static final int OFF_CLIENT_CLOSED = 24;
+    private static final int OFF_CAPACITY = 32;
+    private static final int OFF_CONTROL = 40;
+    private static final int OFF_REQUEST_HEAD = 64;
+    private static final int OFF_REQUEST_TAIL = 128;
+    private static final int OFF_REPLY_HEAD = 192;
+    private static final int OFF_REPLY_TAIL = 256;
+    private static final long CLOSED = -1;
+    private static final int PADDING = -1;
+    /**
+     * A peer that has not refreshed its alive stamp for this long is treated as gone.
+     */
+    private static final long ALIVE_MS = 1000;
+    /**
+     * How often the poller looks for new files and refreshes its alive stamps.
+     */
+    private static final long SCAN_MS = 20;
+    /**
+     * The longest park of an idle poller, reached by doubling <code>dsva.shm.parkUs</code>.
+     */
+    private static final long MAX_PARK_MS = 1;
+    /**
+     * The most calls from one file that the poller runs at a time; further requests wait in the ring.
+     */
+    private static final int MAX_IN_FLIGHT = 32;
+
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+    private static final byte STATUS_LIMITED = 2;
+
+    private static final AtomicLong FENCE = new AtomicLong();
+    private static final Object CLEANER;
+    private static final Method INVOKE_CLEANER;
+    private static final List<Method> OPERATIONS;
+    private static final Map<Method, Integer> OPERATION_IDS = new HashMap<>();
+    private static final ThreadLocal<String> SERVING = new ThreadLocal<>();
+    /**
+     * Returned by a call that has to be repeated over RMI: too large for the ring or left without a reply.
+     */
+    private static final Object USE_RMI = new Object();
+    /**
+     * The encoded operations a peer may run twice without harm: reads, updates that set a state, and messages
+     * the receiver deduplicates by sequence number. Only these are retried over RMI after a call timed out.
+     */
+    private static final Set<String> IDEMPOTENT = new HashSet<>(Arrays.asList(
+            "broadcastNewNode", "startElection", "respondOk", "announceLeader", "leave", "killNode", "revive",
+            "hello", "heartbeat", "sendMessage", "publish", "reply", "nickname", "updateSubscription",
+            "orderedSequence", "crdtRead"));
+
+    static {
+        // Unmapping has no public API; on Java 8, which lacks invokeCleaner, mappings go away with the GC
+        Object cleaner = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field f = type.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            cleaner = f.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception | LinkageError e) {
+            cleaner = null;
+            invokeCleaner = null;
+        }
+        CLEANER = cleaner;
+        INVOKE_CLEANER = invokeCleaner;
+        OPERATIONS = operations();
+        for (int i = 0; i < OPERATIONS.size(); i++) {
+            OPERATION_IDS.put(OPERATIONS.get(i), i);
+        }
+    }
+
+    private final Node node;
+    private final boolean enabled;
+    private final File dir;
+    private final int ringBytes;
+    private final long timeoutNanos;
+    private final long spinNanos;
+    private final long parkNanos;
+    private final Map<Integer, Channel> outbound = new ConcurrentHashMap<>();
+    private final Map<Integer, Channel> controlOutbound = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> localHosts = new ConcurrentHashMap<>();
+    private final AtomicLong callIds = new AtomicLong();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder served = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile Thread poller;
+    private volatile CountDownLatch pollerDone = new CountDownLatch(0);
+    private volatile boolean serving = false;
+    private volatile int inboundCount = 0;
+    private volatile long lastHandled = 0;
+
+    /**
+     * Constructs the transport of a node. Nodes in a {@link NodeHost} already call each other in-process
+     * and do not use it.
+     *
+     * @param node The node.
+     */
+    public SharedMemoryTransport(Node node) {
+        this.node = node;
+        File shm = new File("/dev/shm");
+        String defaultDir = shm.isDirectory() ? new File(shm, "dsva").getPath()
+                : new File(System.getProperty("java.io.tmpdir"), "dsva-shm").getPath();
+        this.dir = new File(Config.getString("dsva.shm.dir", defaultDir));
+        this.ringBytes = align(Math.max(4096, Config.getInt("dsva.shm.ringBytes", 1 << 20)));
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Config.getLong("dsva.shm.timeoutMs", 1000));
+        this.spinNanos = TimeUnit.MICROSECONDS.toNanos(Config.getLong("dsva.shm.spinUs", 200));
+        this.parkNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, Config.getLong("dsva.shm.parkUs", 50)));
+        this.enabled = Config.getBoolean("dsva.shm.enabled", true) && node.getHost() == null;
+    }
+
+    /**
+     * Returns who the current call came from while the poller serves it, for admission control.
+     *
+     * @return <code>shm:&lt;port&gt;</code> of the caller, or {@code null} outside a shared-memory call.
+     */
+    public static String servingPeer() {
+        return SERVING.get();
+    }
+
+    /**
+     * Opens this node's inbox and starts the poller. Called when the node's RMI endpoints are exported.
+     */
+    public synchronized void open() {
+        if (!enabled || serving) {
+            return;
+        }
+        File inbox = inbox(node.getMyPort());
+        deleteFiles(inbox);
+        if (!inbox.isDirectory() && !inbox.mkdirs()) {
+            log.warn("Shared-memory transport disabled: cannot create {}", inbox);
+            return;
+        }
+        serving = true;
+        final long generation = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        final CountDownLatch done = new CountDownLatch(1);
+        pollerDone = done;
+        node.getEventLoop().runBlocking(() -> {
+            poller = Thread.currentThread();
+            try {
+                serve(inbox, generation);
+            } finally {
+                poller = null;
+                done.countDown();
+            }
+        });
+        log.info("Shared-memory inbox open at {}", inbox);
+    }
+
+    /**
+     * Closes the inbox: callers see it closed and fall back to RMI. The node's own outbound files are
+     * dropped as well. Called when the node's RMI endpoints are unexported, e.g. when it is killed.
+     */
+    public synchronized void close() {
+        if (!serving) {
+            return;
+        }
+        serving = false;
+        Thread t = poller;
+        if (t != Thread.currentThread()) {
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+            try {
+                pollerDone.await(1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Channel c : new ArrayList<>(outbound.values())) {
+            drop(c);
+        }
+        for (Channel c : new ArrayList<>(controlOutbound.values())) {
+            drop(c);
+        }
+    }
+
+    /**
+     * Returns a proxy that calls a local peer through shared memory, falling back to RMI per call.
+     * {@link ControlCommands} operations go through the control file, whatever the interface.
+     *
+     * @param addr     The peer.
+     * @param iface    The remote interface to implement.
+     * @param fallback Looks up the RMI stub for the calls that cannot go through shared memory.
+     * @param <T>      The type of the remote interface.
+     * @return The proxy, or {@code null} if the peer is not on this host or has no inbox.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends ControlCommands> T proxy(final Address addr, Class<T> iface, final Lookup<T> fallback) {
+        if (!serving || !isLocal(addr)) {
+            return null;
+        }
+        if (!outbound.containsKey(addr.getPort()) && !controlOutbound.containsKey(addr.getPort())
+                && !inbox(addr.getPort()).isDirectory()) {
+            return null;
+        }
+        final Object[] stub = new Object[1];
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, (proxy, method, args) -> {
+            Integer op = OPERATION_IDS.get(method);
+            Channel channel = op == null ? null : channel(addr, method.getDeclaringClass() == ControlCommands.class);
+            if (channel != null) {
+                Object result = call(channel, addr, method, op, args);
+                if (result != USE_RMI) {
+                    return result;
+                }
+            }
+            if (op != null) {
+                fallbacks.increment();
+            }
+            if (stub[0] == null) {
+                stub[0] = fallback.get();
+            }
+            return invoke(method, stub[0], args);
+        });
+    }
+
+    /**
+     * Looks up the RMI stub of a peer.
+     *
+     * @param <T> The type of the remote interface.
+     */
+    public interface Lookup<T> {
+        T get() throws RemoteException;
+    }
+
+    /**
+     * Measures the latency of one small call to a local peer through shared memory and through RMI.
+     *
+     * @param target The peer, which must run on this host.
+     * @param count  The number of calls per transport.
+     * @return A human-readable summary.
+     */
+    public String benchmark(Address target, int count) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            NodeCommands shm = proxy(target, NodeCommands.class, () -> {
+                throw new RemoteException("no shared-memory path");
+            });
+            if (shm == null) {
+                return "No shared-memory path to " + target + " (not local, not serving or transport disabled).\n";
+            }
+            long waitUntil = System.currentTimeMillis() + 2000;
+            while (channel(target, false) == null && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(SCAN_MS);
+            }
+            if (channel(target, false) == null) {
+                return "Peer " + target + " has not adopted the shared-memory channel.\n";
+            }
+            sb.append(measure("shared memory", shm, count));
+            sb.append(measure("RMI", node.getCommunicationHub().getRmiProxy(target), count));
+        } catch (RemoteException e) {
+            sb.append("Benchmark failed: ").append(e.getMessage()).append("\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Shared-memory benchmark:\n{}", sb);
+        return sb.toString();
+    }
+
+    private String measure(String transport, NodeCommands proxy, int count) throws RemoteException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < Math.min(1000, count); i++) {
+            proxy.nickname();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long sentAt = System.nanoTime();
+            proxy.nickname();
+            histogram.record((System.nanoTime() - sentAt) / 1000);
+        }
+        long nanos = System.nanoTime() - start;
+        return String.format("%-14s %d calls in %.1f ms (%.0f calls/s), latency p50 %d us, p99 %d us, max %d us%n",
+                transport + ":", count, nanos / 1e6, count * 1e9 / nanos,
+                histogram.percentile(50), histogram.percentile(99), histogram.getMax());
+    }
+
+    /**
+     * Builds a human-readable summary of the transport.
+     *
+     * @return The transport statistics.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("Shared-memory transport:\n");
+        if (!enabled) {
+            return sb.append(" Disabled\n").toString();
+        }
+        sb.append(" Inbox:     ").append(inbox(node.getMyPort())).append(serving ? "" : " (closed)").append("\n");
+        sb.append(" Channels:  ").append(outbound.size()).append(" outbound ").append(outbound.keySet())
+                .append(", ").append(controlOutbound.size()).append(" control ").append(controlOutbound.keySet())
+                .append(", ").append(inboundCount).append(" inbound\n");
+        sb.append(" Calls:     ").append(calls.sum()).append(" sent, ").append(served.sum()).append(" served, ")
+                .append(fallbacks.sum()).append(" fell back to RMI (").append(timeouts.sum()).append(" timed out), ")
+                .append(failures.sum()).append(" failed\n");
+        sb.append(" Latency:   p50 ").append(latency.percentile(50)).append(" us, p99 ")
+                .append(latency.percentile(99)).append(" us, max ").append(latency.getMax()).append(" us\n");
+        sb.append(" Encoded:   ").append(OPERATIONS.size()).append(" operations\n");
+        return sb.toString();
+    }
+
+    private File inbox(int port) {
+        return new File(dir, String.valueOf(port));
+    }
+
+    private boolean isLocal(Address addr) {
+        return localHosts.computeIfAbsent(addr.getHostname(), h -> {
+            try {
+                InetAddress a = InetAddress.getByName(h);
+                return a.isLoopbackAddress() || a.isAnyLocalAddress() || NetworkInterface.getByInetAddress(a) != null;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Returns the data or control channel to a peer if it is ready for calls. Creates the file on first use;
+     * until the peer's poller adopts it, calls go through RMI.
+     */
+    private Channel channel(Address addr, boolean control) {
+        int port = addr.getPort();
+        Map<Integer, Channel> channels = control ? controlOutbound : outbound;
+        Channel c = channels.get(port);
+        if (c == null) {
+            c = create(port, control);
+            if (c == null) {
+                return null;
+            }
+            Channel raced = channels.putIfAbsent(port, c);
+            if (raced != null) {
+                c.release();
+                c.delete();
+                c = raced;
+            }
+        }
+        long generation;
+        long alive;
+        if (!c.retain()) {
+            return null;
+        }
+        try {
+            generation = c.load(OFF_SERVER_GENERATION);
+            alive = c.load(OFF_SERVER_ALIVE);
+        } finally {
+            c.unretain();
+        }
+        if (generation == 0) {
+            if (System.currentTimeMillis() - c.createdAt > ALIVE_MS) {
+                drop(c);
+            }
+            return null;
+        }
+        if (generation == CLOSED || System.currentTimeMillis() - alive > ALIVE_MS) {
+            drop(c);
+            return null;
+        }
+        return c;
+    }
+
+    private Channel create(int port, boolean control) {
+        File peerInbox = inbox(port);
+        if (!serving || !peerInbox.isDirectory()) {
+            return null;
+        }
+        String name = node.getMyPort() + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        File tmp = new File(peerInbox, name + ".tmp");
+        File file = new File(peerInbox, name + ".ring");
+        try {
+            Channel c = map(tmp, HEADER + 2L * ringBytes, "shm:" + port);
+            c.control = control;
+            c.put(OFF_CAPACITY, ringBytes);
+            c.put(OFF_CONTROL, control ? 1 : 0);
+            c.store(OFF_MAGIC, MAGIC);
+            if (!tmp.renameTo(file)) {
+                c.release();
+                c.delete();
+                return null;
+            }
+            c.file = file;
+            return c;
+        } catch (IOException e) {
+            log.debug("Cannot create shared-memory channel in {}: {}", peerInbox, e.getMessage());
+            tmp.delete();
+            return null;
+        }
+    }
+
+    private void drop(Channel c) {
+        if ((c.control ? controlOutbound : outbound).remove(c.port(), c)) {
+            if (c.retain()) {
+                try {
+                    c.store(OFF_CLIENT_CLOSED, 1);
+                } finally {
+                    c.unretain();
+                }
+            }
+            c.release();
+            c.delete();
+        }
+    }
+
+    private Object call(Channel c, Address addr, Method method, int op, Object[] args) throws Throwable {
+        Tracing tracing = node.getTracing();
+        Tracing.Span span = tracing.isEnabled()
+                ? tracing.start(method.getName(), Tracing.CLIENT)
+                .attribute("net.peer.name", addr.toString()).attribute("transport", "shm")
+                : null;
+        long start = System.nanoTime();
+        try {
+            long callId = callIds.incrementAndGet();
+            ByteBuffer request = Codec.allocate(64);
+            request.putLong(callId).putInt(op);
+            TraceContext context = span != null ? span.getContext() : null;
+            request.put((byte) (context != null ? 1 : 0));
+            if (context != null) {
+                request.putLong(context.getTraceIdHigh()).putLong(context.getTraceIdLow()).putLong(context.getSpanId());
+            }
+            Class<?>[] types = method.getParameterTypes();
+            for (int i = 0; i < types.length; i++) {
+                request = Codec.write(request, types[i], args[i]);
+            }
+            request.flip();
+            if (request.remaining() + 8 > ringBytes / 2) {
+                return USE_RMI;
+            }
+            if (!c.retain()) {
+                return USE_RMI;
+            }
+            boolean sent = false;
+            ByteBuffer reply = null;
+            Pending pending = new Pending(Thread.currentThread());
+            c.pending.put(callId, pending);
+            try {
+                long deadline = System.nanoTime() + timeoutNanos;
+                sent = send(c, request, deadline);
+                if (sent) {
+                    reply = await(c, pending, deadline);
+                }
+            } finally {
+                c.pending.remove(callId);
+                c.unretain();
+            }
+            if (reply == null) {
+                timeouts.increment();
+                if (sent && !IDEMPOTENT.contains(method.getName())) {
+                    throw new RemoteException("Shared-memory call " + method.getName() + " to " + addr
+                            + " got no reply; not retried, it may have run");
+                }
+                log.warn("Shared-memory call {} to {} got no reply, retrying over RMI", method.getName(), addr);
+                if (span != null) {
+                    span.attribute("fallback", "rmi");
+                }
+                return USE_RMI;
+            }
+            reply.getLong();
+            byte status = reply.get();
+            if (status == STATUS_LIMITED) {
+                long retryAfter = reply.getLong();
+                throw new RateLimitedException(Codec.readString(reply), retryAfter);
+            }
+            if (status != STATUS_OK) {
+                throw new RemoteException(Codec.readString(reply));
+            }
+            calls.increment();
+            latency.record((System.nanoTime() - start) / 1000);
+            return Codec.read(reply, method.getReturnType());
+        } catch (RemoteException | RuntimeException e) {
+            failures.increment();
+            if (span != null) {
+                span.fail(e);
+            }
+            throw e;
+        } finally {
+            if (span != null) {
+                span.end();
+            }
+        }
+    }
+
+    /**
+     * Writes a request once the caller gets the request ring, waiting for it no longer than the deadline.
+     */
+    private boolean send(Channel c, ByteBuffer request, long deadline) {
+        try {
+            if (!c.writing.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            return write(c, c.requests, OFF_REQUEST_HEAD, OFF_REQUEST_TAIL, HEADER, request, deadline);
+        } finally {
+            c.writing.unlock();
+        }
+    }
+
+    /**
+     * Waits for the reply to one call. While it waits, the caller takes every reply it finds in the ring
+     * unless another caller is reading it already, and hands each to the caller it belongs to.
+     */
+    private ByteBuffer await(Channel c, Pending pending, long deadline) {
+        long waitStart = System.nanoTime();
+        int spins = 0;
+        while (true) {
+            if (pending.reply != null) {
+                return pending.reply;
+            }
+            if (c.reading.tryLock()) {
+                try {
+                    ByteBuffer reply;
+                    while ((reply = read(c, c.replies, OFF_REPLY_HEAD, OFF_REPLY_TAIL, HEADER + ringBytes)) != null) {
+                        Pending waiting = c.pending.get(reply.getLong(0));
+                        if (waiting != null) {
+                            waiting.reply = reply;
+                            LockSupport.unpark(waiting.waiter);
+                        }
+                    }
+                } finally {
+                    c.reading.unlock();
+                }
+                if (pending.reply != null) {
+                    return pending.reply;
+                }
+            }
+            long now = System.nanoTime();
+            if (now > deadline || c.closed || c.load(OFF_SERVER_GENERATION) == CLOSED) {
+                return null;
+            }
+            idle(++spins, now - waitStart);
+        }
+    }
+
+    /**
+     * Backs off while a caller waits on the other side: spins briefly, yields for up to
+     * <code>dsva.shm.spinUs</code> and parks for <code>dsva.shm.parkUs</code> after that.
+     */
+    private void idle(int spins, long waitedNanos) {
+        if (spins < 64) {
+            return;
+        }
+        if (waitedNanos < spinNanos) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+        }
+    }
+
+    /**
+     * Appends one record to a ring. The caller holds the channel's writing lock.
+     *
+     * @return {@code false} if the ring stayed full until the deadline.
+     */
+    private boolean write(Channel c, ByteBuffer view, int headOffset, int tailOffset, int base, ByteBuffer record,
+                          long deadline) {
+        int length = record.remaining();
+        int size = align(4 + length);
+        long head = c.get(headOffset);
+        int spins = 0;
+        long waitStart = System.nanoTime();
+        while (true) {
+            long tail = c.load(tailOffset);
+            int toEnd = ringBytes - (int) (head % ringBytes);
+            int needed = size <= toEnd ? size : toEnd + size;
+            if (ringBytes - (head - tail) >= needed) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (now > deadline || !serving || c.closed) {
+                return false;
+            }
+            idle(++spins, now - waitStart);
+        }
+        int position = (int) (head % ringBytes);
+        if (size > ringBytes - position) {
+            view.putInt(base + position, PADDING);
+            head += ringBytes - position;
+            position = 0;
+        }
+        view.putInt(base + position, length);
+        view.position(base + position + 4);
+        view.put(record);
+        c.store(headOffset, head + size);
+        return true;
+    }
+
+    /**
+     * Takes the next record from a ring, or returns {@code null} if it is empty. Only one thread reads each ring
+     * at a time: the poller for requests, the caller holding the channel's reading lock for replies.
+     */
+    private ByteBuffer read(Channel c, ByteBuffer view, int headOffset, int tailOffset, int base) {
+        long tail = c.get(tailOffset);
+        long head = c.load(headOffset);
+        if (head == tail) {
+            return null;
+        }
+        int position = (int) (tail % ringBytes);
+        int length = view.getInt(base + position);
+        if (length == PADDING) {
+            tail += ringBytes - position;
+            position = 0;
+            length = view.getInt(base);
+        }
+        byte[] bytes = new byte[length];
+        view.position(base + position + 4);
+        view.get(bytes);
+        c.store(tailOffset, tail + align(4 + length));
+        return ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * The poller: adopts the files callers create in the inbox and dispatches their calls until the inbox is closed.
+     *
+     * <p>While idle it spins briefly, yields for up to <code>dsva.shm.spinUs</code> and then parks, doubling
+     * the park from <code>dsva.shm.parkUs</code> up to {@value #MAX_PARK_MS} ms. A finished call wakes it,
+     * since the caller usually sends its next request right after the reply.
+     */
+    private void serve(File inbox, long generation) {
+        Map<String, Channel> inbound = new HashMap<>();
+        long maxParkNanos = Math.max(parkNanos, TimeUnit.MILLISECONDS.toNanos(MAX_PARK_MS));
+        long lastScan = 0;
+        long idleSince = System.nanoTime();
+        long handledSeen = lastHandled;
+        int spins = 0;
+        int parks = 0;
+        try {
+            while (serving) {
+                long now = System.currentTimeMillis();
+                if (now - lastScan >= SCAN_MS) {
+                    scan(inbox, inbound, generation, now);
+                    lastScan = now;
+                }
+                boolean worked = false;
+                for (Channel c : inbound.values()) {
+                    while (c.inFlight.get() < MAX_IN_FLIGHT) {
+                        ByteBuffer request = read(c, c.requests, OFF_REQUEST_HEAD, OFF_REQUEST_TAIL, HEADER);
+                        if (request == null) {
+                            break;
+                        }
+                        c.inFlight.incrementAndGet();
+                        worked = true;
+                        dispatch(c, request);
+                    }
+                }
+                if (worked || handledSeen != lastHandled) {
+                    handledSeen = lastHandled;
+                    idleSince = System.nanoTime();
+                    spins = 0;
+                    parks = 0;
+                } else if (++spins >= 64) {
+                    if (System.nanoTime() - idleSince < spinNanos) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(Math.min(maxParkNanos, parkNanos << Math.min(parks++, 20)));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Shared-memory poller failed; callers fall back to RMI.", e);
+            serving = false;
+        } finally {
+            for (Channel c : inbound.values()) {
+                c.store(OFF_SERVER_GENERATION, CLOSED);
+                c.release();
+            }
+            inboundCount = 0;
+            deleteFiles(inbox);
+            inbox.delete();
+            log.info("Shared-memory inbox {} closed.", inbox);
+        }
+    }
+
+    private void scan(File inbox, Map<String, Channel> inbound, long generation, long now) {
+        String[] names = inbox.list();
+        Set<String> present = names == null ? Collections.<String>emptySet() : new HashSet<>(Arrays.asList(names));
+        for (Iterator<Map.Entry<String, Channel>> it = inbound.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Channel> e = it.next();
+            Channel c = e.getValue();
+            if (!present.contains(e.getKey()) || c.load(OFF_CLIENT_CLOSED) != 0) {
+                it.remove();
+                c.release();
+            } else {
+                c.store(OFF_SERVER_ALIVE, now);
+            }
+        }
+        for (String name : present) {
+            if (!name.endsWith(".ring") || inbound.containsKey(name)) {
+                continue;
+            }
+            File file = new File(inbox, name);
+            if (file.length() < HEADER + 2L * ringBytes) {
+                // Deleted by a caller that gave up on it; mapping would recreate it empty
+                continue;
+            }
+            try {
+                Channel c = map(file, file.length(), "shm:" + name.substring(0, name.indexOf('-')));
+                if (c.load(OFF_MAGIC) != MAGIC || c.get(OFF_CAPACITY) != ringBytes) {
+                    log.warn("Ignoring shared-memory file {} with a different layout.", file);
+                    c.release();
+                    file.delete();
+                    continue;
+                }
+                c.control = c.get(OFF_CONTROL) != 0;
+                c.store(OFF_SERVER_ALIVE, now);
+                c.store(OFF_SERVER_GENERATION, generation);
+                inbound.put(name, c);
+                log.info("Adopted shared-memory {} channel from {}", c.control ? "control" : "data", c.peer);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Cannot adopt shared-memory file {}: {}", file, e.getMessage());
+            }
+        }
+        inboundCount = inbound.size();
+    }
+
+    /**
+     * Runs one call on the control or I/O executor and makes room for the next request of the file afterwards.
+     */
+    private void dispatch(final Channel c, final ByteBuffer request) {
+        final Thread pollerThread = Thread.currentThread();
+        Runnable task = () -> {
+            try {
+                handle(c, request);
+            } finally {
+                c.inFlight.decrementAndGet();
+                lastHandled = System.nanoTime();
+                LockSupport.unpark(pollerThread);
+            }
+        };
+        if (c.control) {
+            node.getEventLoop().runControl(task);
+        } else {
+            node.getEventLoop().runIo(task);
+        }
+    }
+
+    private void handle(Channel c, ByteBuffer request) {
+        long callId = request.getLong();
+        int op = request.getInt();
+        TraceContext context = request.get() != 0
+                ? new TraceContext(request.getLong(), request.getLong(), request.getLong()) : null;
+        ByteBuffer reply = Codec.allocate(64);
+        reply.putLong(callId);
+        SERVING.set(c.peer);
+        try {
+            Method method = OPERATIONS.get(op);
+            Class<?>[] types = method.getParameterTypes();
+            Object[] args = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                args[i] = Codec.read(request, types[i]);
+            }
+            NodeCommands receiver = node.getMessageReceiver();
+            Object result = context != null
+                    ? receiver.traced(context, method.getName(), types, args)
+                    : invoke(method, receiver, args);
+            reply.put(STATUS_OK);
+            reply = Codec.write(reply, method.getReturnType(), result);
+            served.increment();
+        } catch (Throwable e) {
+            RateLimitedException limited = RateLimitedException.find(e);
+            reply.clear();
+            reply.putLong(callId);
+            if (limited != null) {
+                reply.put(STATUS_LIMITED).putLong(limited.getRetryAfterMs());
+                reply = Codec.write(reply, String.class, limited.getMessage());
+            } else {
+                reply.put(STATUS_ERROR);
+                reply = Codec.write(reply, String.class, e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        } finally {
+            SERVING.remove();
+        }
+        reply.flip();
+        // The poller releases the file once the caller has closed it
+        if (!c.retain()) {
+            return;
+        }
+        try {
+            if (c.writing.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                try {
+                    write(c, c.replies, OFF_REPLY_HEAD, OFF_REPLY_TAIL, HEADER + ringBytes, reply,
+                            System.nanoTime() + timeoutNanos);
+                } finally {
+                    c.writing.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            c.unretain();
+        }
+    }
+
+    private static Object invoke(Method method, Object receiver, Object[] args) throws Throwable {
+        try {
+            return method.invoke(receiver, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Channel map(File file, long size, String peer) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            return new Channel(file, buffer, peer);
+        }
+    }
+
+    private static void deleteFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Collects the {@link NodeCommands} methods that can be encoded, in an order that is the same in every process.
+     */
+    private static List<Method> operations() {
+        List<Method> result = new ArrayList<>();
+        for (Method m : NodeCommands.class.getMethods()) {
+            if (!"traced".equals(m.getName()) && Codec.supports(m.getReturnType(), true)
+                    && Arrays.stream(m.getParameterTypes()).allMatch(t -> Codec.supports(t, false))) {
+                result.add(m);
+            }
+        }
+        result.sort((a, b) -> (a.getName() + Arrays.toString(a.getParameterTypes()))
+                .compareTo(b.getName() + Arrays.toString(b.getParameterTypes())));
+        return result;
+    }
+
+    /**
+     * One mapped file: a request ring and a reply ring behind a shared header. Each ring has its own view,
+     * since the poller reads requests while an I/O thread writes a reply.
+     *
+     * <p>An unmapped file would crash the process on any access, so every thread but the one that owns the
+     * channel takes a reference with {@link #retain()} first. {@link #release()} drops the owner's reference,
+     * and the file is unmapped when the last one is gone.
+     */
+    private static final class Channel {
+        private File file;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer requests;
+        private final ByteBuffer replies;
+        private final String peer;
+        private final long createdAt = System.currentTimeMillis();
+        /**
+         * Held by the thread that writes to the ring this process writes: requests on the caller's side,
+         * replies on the peer's.
+         */
+        private final ReentrantLock writing = new ReentrantLock();
+        /**
+         * Held by the caller that reads the reply ring for all callers waiting on the channel.
+         */
+        private final ReentrantLock reading = new ReentrantLock();
+        private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger users = new AtomicInteger(1);
+        private boolean control = false;
+        private volatile boolean closed = false;
+
+        private Channel(File file, MappedByteBuffer buffer, String peer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.requests = buffer.duplicate().order(ByteOrder.nativeOrder());
+            this.replies = buffer.duplicate().order(ByteOrder.nativeOrder());
+            this.peer = peer;
+        }
+
+        /**
+         * Reads a header field written by this process.
+         */
+        private long get(int offset) {
+            return buffer.getLong(offset);
+        }
+
+        /**
+         * Writes a header field that the other process does not read yet.
+         */
+        private void put(int offset, long value) {
+            buffer.putLong(offset, value);
+        }
+
+        /**
+         * Reads a header field published by the other process; later reads of the rings are not moved before it.
+         */
+        private long load(int offset) {
+            long value = buffer.getLong(offset);
+            FENCE.get();
+            return value;
+        }
+
+        /**
+         * Publishes a header field to the other process after all earlier writes to the rings.
+         */
+        private void store(int offset, long value) {
+            FENCE.set(value);
+            buffer.putLong(offset, value);
+        }
+
+        /**
+         * Keeps the file mapped until {@link #unretain()}.
+         *
+         * @return {@code false} if the channel is released already and must not be touched.
+         */
+        private boolean retain() {
+            while (true) {
+                int n = users.get();
+                if (n == 0) {
+                    return false;
+                }
+                if (users.compareAndSet(n, n + 1)) {
+                    break;
+                }
+            }
+            if (closed) {
+                unretain();
+                return false;
+            }
+            return true;
+        }
+
+        private void unretain() {
+            if (users.decrementAndGet() == 0) {
+                unmap();
+            }
+        }
+
+        /**
+         * Releases the owner's reference: no new user gets the channel, and the file is unmapped once the
+         * current ones are done.
+         */
+        private synchronized void release() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            unretain();
+        }
+
+        private void unmap() {
+            if (INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invoke(CLEANER, buffer);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    log.debug("Cannot unmap {}: {}", file, e.getMessage());
+                }
+            }
+        }
+
+        private int port() {
+            return Integer.parseInt(peer.substring("shm:".length()));
+        }
+
+        private void delete() {
+            file.delete();
+        }
+    }
+
+    /**
+     * A call waiting for its reply.
+     */
+    private static final class Pending {
+        private final Thread waiter;
+        private volatile ByteBuffer reply;
+
+        private Pending(Thread waiter) {
+            this.waiter = waiter;
+        }
+    }
+
+    /**
+     * The binary encoding of arguments and results.
+     */
+    private static final class Codec {
+        private static boolean supports(Class<?> type, boolean result) {
+            return type == long.class || type == int.class || type == boolean.class || type == String.class
+                    || type == Address.class || type == byte[].class || (result && type == void.class);
+        }
+
+        private static ByteBuffer allocate(int size) {
+            return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        }
+
+        private static ByteBuffer ensure(ByteBuffer out, int more) {
+            if (out.remaining() >= more) {
+                return out;
+            }
+            ByteBuffer bigger = allocate(Math.max(out.capacity() * 2, out.position() + more));
+            out.flip();
+            return bigger.put(out);
+        }
+
+        private static ByteBuffer write(ByteBuffer out, Class<?> type, Object value) {
+            if (type == void.class) {
+                return out;
+            }
+            if (type == long.class) {
+                return ensure(out, 8).putLong((Long) value);
+            }
+            if (type == int.class) {
+                return ensure(out, 4).putInt((Integer) value);
+            }
+            if (type == boolean.class) {
+                return ensure(out, 1).put((byte) ((Boolean) value ? 1 : 0));
+            }
+            if (type == String.class) {
+                return writeBytes(out, value == null ? null : ((String) value).getBytes(StandardCharsets.UTF_8));
+            }
+            if (type == byte[].class) {
+                return writeBytes(out, (byte[]) value);
+            }
+            Address a = (Address) value;
+            if (a == null) {
+                return writeBytes(out, null);
+            }
+            out = writeBytes(out, a.getHostname().getBytes(StandardCharsets.UTF_8));
+            return ensure(out, 8).putInt(a.getPort()).putInt(a.getRegistryPort());
+        }
+
+        private static ByteBuffer writeBytes(ByteBuffer out, byte[] bytes) {
+            if (bytes == null) {
+                return ensure(out, 4).putInt(-1);
+            }
+            return ensure(out, 4 + bytes.length).putInt(bytes.length).put(bytes);
+        }
+
+        private static Object read(ByteBuffer in, Class<?> type) {
+            if (type == void.class) {
+                return null;
+            }
+            if (type == long.class) {
+                return in.getLong();
+            }
+            if (type == int.class) {
+                return in.getInt();
+            }
+            if (type == boolean.class) {
+                return in.get() != 0;
+            }
+            if (type == String.class) {
+                return readString(in);
+            }
+            byte[] bytes = readBytes(in);
+            if (type == byte[].class || bytes == null) {
+                return bytes;
+            }
+            String hostname = new String(bytes, StandardCharsets.UTF_8);
+            int port = in.getInt();
+            int registryPort = in.getInt();
+            return registryPort == port ? new Address(hostname, port) : new Address(hostname, port, registryPort);
+        }
+
+        private static String readString(ByteBuffer in) {
+            byte[] bytes = readBytes(in);
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] readBytes(ByteBuffer in) {
+            int length = in.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return bytes;
+        }
+    }
+}
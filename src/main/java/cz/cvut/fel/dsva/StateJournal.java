@@ -0,0 +1,155 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A journal of the node's state changes (joins, leaves, kills, revivals, leader changes).
+ *
+ * <p>Handlers used to log the full node status on every change, which costs a walk over all neighbours
+ * and a multi-line log entry per message and floods the log during a join storm. Instead, each change is
+ * now a compact record: time, {@link Type}, the node it is about, the leader term and the number of known
+ * nodes after the change, stored in preallocated parallel arrays that form a ring buffer of
+ * <code>dsva.journal.capacity</code> records. Recording is O(1) and allocates nothing.
+ *
+ * <p>Humans get a one-line summary at most every <code>dsva.journal.summaryMs</code>, written by the timer
+ * thread and only if something changed. Recent records can be read with {@link #recent(long, int)};
+ * the full status is built on demand only (<code>status</code> command, <code>/get_status</code>).
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class StateJournal {
+    public enum Type {
+        /** The node started. */
+        START,
+        /** The node joined a network; the subject is its leader. */
+        JOINED,
+        /** A node joined through this node. */
+        JOIN,
+        /** A node joined through another node. */
+        NEW_NODE,
+        /** A new leader was accepted. */
+        LEADER,
+        /** The node lost its leader and could not elect a new one. */
+        LEADERLESS,
+        /** A node left gracefully. */
+        LEAVE,
+        /** A node was killed or found dead. */
+        KILL,
+        /** A killed node was revived. */
+        REVIVE
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private final Node node;
+    private final int capacity;
+    private final long[] times;
+    private final byte[] types;
+    private final Address[] subjects;
+    private final long[] terms;
+    private final int[] sizes;
+    private final long[] pendingCounts = new long[TYPES.length];
+    private long next = 0;
+    private long summarized = 0;
+    private long lastSummaryMs = System.currentTimeMillis();
+
+    /**
+     * Constructs the journal of the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public StateJournal(Node node) {
+        this.node = node;
+        this.capacity = Math.max(16, Config.getInt("dsva.journal.capacity", 4096));
+        this.times = new long[capacity];
+        this.types = new byte[capacity];
+        this.subjects = new Address[capacity];
+        this.terms = new long[capacity];
+        this.sizes = new int[capacity];
+    }
+
+    /**
+     * Starts writing the periodic summary on the node's timer.
+     */
+    public void start() {
+        long periodMs = Config.getLong("dsva.journal.summaryMs", 5000);
+        if (periodMs > 0) {
+            node.getEventLoop().getTimer().scheduleWithFixedDelay(this::summarize, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records a state change. Cheap enough to call from any handler.
+     *
+     * @param type    The kind of change.
+     * @param subject The node the change is about.
+     */
+    public void record(Type type, Address subject) {
+        long term = node.getNeighbours().getTerm();
+        int size = node.getNeighbours().getKnownNodes().size();
+        synchronized (this) {
+            int slot = (int) (next % capacity);
+            times[slot] = System.currentTimeMillis();
+            types[slot] = (byte) type.ordinal();
+            subjects[slot] = subject;
+            terms[slot] = term;
+            sizes[slot] = size;
+            pendingCounts[type.ordinal()]++;
+            next++;
+        }
+    }
+
+    /**
+     * Writes one summary line if anything changed since the last one.
+     */
+    private void summarize() {
+        StringBuilder counts = new StringBuilder();
+        long changes;
+        long windowMs;
+        synchronized (this) {
+            changes = next - summarized;
+            if (changes == 0) {
+                return;
+            }
+            for (int i = 0; i < TYPES.length; i++) {
+                if (pendingCounts[i] > 0) {
+                    counts.append(counts.length() == 0 ? "" : ", ").append(TYPES[i]).append(' ').append(pendingCounts[i]);
+                    pendingCounts[i] = 0;
+                }
+            }
+            summarized = next;
+            long now = System.currentTimeMillis();
+            windowMs = now - lastSummaryMs;
+            lastSummaryMs = now;
+        }
+        log.info("{} state changes in {} ms ({}); {} known nodes, leader {} (term {})",
+                changes, windowMs, counts, node.getNeighbours().getKnownNodes().size(),
+                node.getNeighbours().getLeader(), node.getNeighbours().getTerm());
+    }
+
+    /**
+     * Returns recent records, oldest first, one per line:
+     * <code>&lt;seq&gt; &lt;timeMs&gt; &lt;TYPE&gt; &lt;subject&gt; term=&lt;term&gt; nodes=&lt;count&gt;</code>.
+     *
+     * @param since Only records with a sequence number above this one, or -1 for all buffered records.
+     * @param limit The maximum number of records, counted from the newest.
+     * @return The records.
+     */
+    public synchronized String recent(long since, int limit) {
+        long from = Math.max(Math.max(since + 1, next - capacity), next - Math.max(0, limit));
+        StringBuilder sb = new StringBuilder();
+        for (long seq = Math.max(0, from); seq < next; seq++) {
+            int slot = (int) (seq % capacity);
+            sb.append(seq).append(' ').append(times[slot]).append(' ').append(TYPES[types[slot]])
+                    .append(' ').append(subjects[slot]).append(" term=").append(terms[slot])
+                    .append(" nodes=").append(sizes[slot]).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package cz.cvut.fel.dsva;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket.
+ *
+ * <p>Instead of a token count and a refill timestamp, the bucket keeps a single value, the time at
+ * which it will be full again (the "theoretical arrival time" of the generic cell rate algorithm).
+ * Taking a token moves that time forward by one refill interval; the call is rejected if it would move
+ * more than <code>burst</code> intervals into the future. Refill therefore happens implicitly as time
+ * passes, and both refill and acquisition are one compare-and-set.
+ *
+ * @author Kross Aleksandr
+ */
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param ratePerSecond The refill rate in tokens per second.
+     * @param burst         The capacity of the bucket.
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return 0 if a token was taken, otherwise the time in milliseconds until the next token is available.
+     */
+    public long tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (next - now > burstNanos) {
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now - burstNanos));
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the bucket has refilled completely, so that it behaves like a new one.
+     *
+     * @return {@code true} if no tokens have been taken within the last refill period.
+     */
+    public boolean isFull() {
+        return fullAt.get() - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,377 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.ControlCommands;
+import cz.cvut.fel.dsva.base.TraceContext;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Distributed tracing of remote calls and the local steps between them.
+ *
+ * <p>The current {@link TraceContext} is kept per thread and follows the work of a node:
+ * <ul>
+ *     <li>outbound RMI stubs are wrapped by {@link #instrument(ControlCommands, Class, Address)}; each call
+ *     records a <i>client</i> span and is sent through {@link ControlCommands#traced} together with the context;</li>
+ *     <li>the receiver restores the context and records a <i>server</i> span around the real method
+ *     in {@link #serve(Object, Class, TraceContext, String, Class[], Object[])};</li>
+ *     <li>events, timers and I/O tasks handed to the {@link NodeEventLoop} carry the context of the
+ *     thread that created them (see {@link #wrap(Runnable)}), so asynchronous steps such as an election
+ *     timeout stay in the trace of the failover that started them.</li>
+ * </ul>
+ * Finished spans go to a ring buffer of <code>dsva.trace.capacity</code> spans and can be exported in
+ * OTLP-JSON format (one <code>resourceSpans</code> entry per node), which tracing back-ends and viewers accept
+ * as it is. Merging the exports of all nodes gives the whole cross-node chain of a trace.
+ *
+ * <p>Tracing is off unless <code>dsva.trace.enabled</code> is set, since it puts a reflective proxy and a span
+ * around every remote call. It is meant to be switched on, on all nodes, while debugging e.g. a failover.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class Tracing {
+    public static final int INTERNAL = 1;
+    public static final int SERVER = 2;
+    public static final int CLIENT = 3;
+
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+    private final String serviceName;
+    private final boolean enabled;
+    private final Span[] buffer;
+    private final AtomicLong recorded = new AtomicLong();
+    private final long epochOffsetNanos = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    /**
+     * Constructs the tracer of one node.
+     *
+     * @param serviceName The name the node's spans are exported under.
+     */
+    public Tracing(String serviceName) {
+        this.serviceName = serviceName;
+        this.enabled = Config.getBoolean("dsva.trace.enabled", false);
+        this.buffer = new Span[Math.max(1, Config.getInt("dsva.trace.capacity", 4096))];
+    }
+
+    /**
+     * Returns the trace context of the calling thread.
+     *
+     * @return The current context, or {@code null} outside of any trace.
+     */
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds a task to the trace context of the calling thread.
+     *
+     * @param task The task to run later, possibly on another thread.
+     * @return A task that runs within the captured context, or {@code task} itself outside of any trace.
+     */
+    public static Runnable wrap(final Runnable task) {
+        final TraceContext captured = CURRENT.get();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            TraceContext previous = CURRENT.get();
+            CURRENT.set(captured);
+            try {
+                task.run();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Starts a span as a child of the current context, or as the root of a new trace,
+     * and makes it the current context until {@link Span#end()}. While tracing is off, the span is neither
+     * made current nor recorded.
+     *
+     * @param name The operation name.
+     * @param kind {@link #INTERNAL}, {@link #SERVER} or {@link #CLIENT}.
+     * @return The started span.
+     */
+    public Span start(String name, int kind) {
+        TraceContext parent = CURRENT.get();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        TraceContext context = parent == null
+                ? new TraceContext(random.nextLong(), random.nextLong(), random.nextLong())
+                : new TraceContext(parent.getTraceIdHigh(), parent.getTraceIdLow(), random.nextLong());
+        Span span = new Span(name, kind, context, parent, now());
+        if (enabled) {
+            CURRENT.set(context);
+        }
+        return span;
+    }
+
+    /**
+     * Wraps an RMI stub so that every call on it is traced and carries the current context.
+     *
+     * @param stub   The stub returned by the registry.
+     * @param iface  The remote interface of the stub.
+     * @param target The address of the called node, recorded as the peer of the client spans.
+     * @param <T>    The type of the remote interface.
+     * @return The instrumented stub, or {@code stub} itself when tracing is disabled.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends ControlCommands> T instrument(final T stub, Class<T> iface, final Address target) {
+        if (!enabled) {
+            return stub;
+        }
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                try {
+                    return method.invoke(stub, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            Span span = start(method.getName(), CLIENT).attribute("net.peer.name", target.toString());
+            try {
+                return stub.traced(span.getContext(), method.getName(), method.getParameterTypes(), args);
+            } catch (RemoteException | RuntimeException e) {
+                span.fail(e);
+                throw e;
+            } finally {
+                span.end();
+            }
+        });
+    }
+
+    /**
+     * Runs an inbound traced call within the caller's context, recording a server span.
+     *
+     * @param receiver       The object implementing the call.
+     * @param iface          The remote interface the call must belong to.
+     * @param context        The caller's context.
+     * @param method         The name of the called method.
+     * @param parameterTypes The parameter types of the called method.
+     * @param args           The arguments.
+     * @return The result of the method.
+     * @throws RemoteException If the method is unknown or throws.
+     */
+    public Object serve(Object receiver, Class<?> iface, TraceContext context, String method,
+                        Class<?>[] parameterTypes, Object[] args) throws RemoteException {
+        final Method m;
+        try {
+            m = iface.getMethod(method, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new RemoteException("Unknown method " + method);
+        }
+        if ("traced".equals(method)) {
+            throw new RemoteException("Nested traced call");
+        }
+        TraceContext previous = CURRENT.get();
+        CURRENT.set(enabled ? context : null);
+        Span span = enabled ? start(method, SERVER) : null;
+        try {
+            return m.invoke(receiver, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (span != null) {
+                span.fail(cause);
+            }
+            if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RemoteException(method + " failed", cause);
+        } catch (IllegalAccessException e) {
+            throw new RemoteException(method + " not accessible", e);
+        } finally {
+            if (span != null) {
+                span.end();
+            }
+            CURRENT.set(previous);
+        }
+    }
+
+    private long now() {
+        return epochOffsetNanos + System.nanoTime();
+    }
+
+    private void record(Span span) {
+        if (enabled) {
+            buffer[(int) (recorded.getAndIncrement() % buffer.length)] = span;
+        }
+    }
+
+    /**
+     * Returns the finished spans still in the ring buffer, oldest first.
+     *
+     * @param traceId A trace ID (32 hex digits) to filter on, or {@code null} for all spans.
+     * @return The matching spans.
+     */
+    public List<Span> spans(String traceId) {
+        long end = recorded.get();
+        long start = Math.max(0, end - buffer.length);
+        List<Span> result = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            Span s = buffer[(int) (i % buffer.length)];
+            if (s != null && (traceId == null || traceId.equalsIgnoreCase(s.getContext().traceIdHex()))) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Exports the buffered spans as an OTLP-JSON <code>ExportTraceServiceRequest</code>.
+     *
+     * @param traceId A trace ID to filter on, or {@code null} for all spans.
+     * @return The JSON document.
+     */
+    public String exportJson(String traceId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        appendAttribute(sb, "service.name", serviceName);
+        sb.append("]},\"scopeSpans\":[{\"scope\":{\"name\":\"cz.cvut.fel.dsva\"},\"spans\":[");
+        boolean first = true;
+        for (Span s : spans(traceId)) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            s.appendJson(sb);
+        }
+        sb.append("]}]}]}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Writes the OTLP-JSON export of all buffered spans to a file.
+     *
+     * @param file The path of the file.
+     * @return The number of spans written.
+     * @throws IOException If the file cannot be written.
+     */
+    public int exportToFile(String file) throws IOException {
+        String json = exportJson(null);
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            w.write(json);
+        }
+        return spans(null).size();
+    }
+
+    private static void appendAttribute(StringBuilder sb, String key, String value) {
+        sb.append("{\"key\":\"").append(escape(key)).append("\",\"value\":{\"stringValue\":\"")
+                .append(escape(value)).append("\"}}");
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One timed operation of a trace. Ended spans are immutable.
+     */
+    @Getter
+    public class Span {
+        private final String name;
+        private final int kind;
+        private final TraceContext context;
+        private final TraceContext parent;
+        private final long startNanos;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private volatile long endNanos;
+        private volatile String error;
+
+        private Span(String name, int kind, TraceContext context, TraceContext parent, long startNanos) {
+            this.name = name;
+            this.kind = kind;
+            this.context = context;
+            this.parent = parent;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Adds an attribute to the span.
+         *
+         * @param key   The attribute name.
+         * @param value The attribute value.
+         * @return This span.
+         */
+        public Span attribute(String key, Object value) {
+            attributes.put(key, String.valueOf(value));
+            return this;
+        }
+
+        /**
+         * Marks the span as failed.
+         *
+         * @param cause The failure.
+         */
+        public void fail(Throwable cause) {
+            error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        }
+
+        /**
+         * Ends the span, records it and restores the context that was current when it started.
+         */
+        public void end() {
+            endNanos = now();
+            CURRENT.set(parent);
+            record(this);
+        }
+
+        private void appendJson(StringBuilder sb) {
+            sb.append("{\"traceId\":\"").append(context.traceIdHex())
+                    .append("\",\"spanId\":\"").append(String.format("%016x", context.getSpanId())).append('"');
+            if (parent != null) {
+                sb.append(",\"parentSpanId\":\"").append(String.format("%016x", parent.getSpanId())).append('"');
+            }
+            sb.append(",\"name\":\"").append(escape(name))
+                    .append("\",\"kind\":").append(kind)
+                    .append(",\"startTimeUnixNano\":\"").append(startNanos)
+                    .append("\",\"endTimeUnixNano\":\"").append(endNanos)
+                    .append("\",\"attributes\":[");
+            boolean first = true;
+            for (Map.Entry<String, String> a : attributes.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendAttribute(sb, a.getKey(), a.getValue());
+            }
+            sb.append("],\"status\":{");
+            if (error != null) {
+                sb.append("\"code\":2,\"message\":\"").append(escape(error)).append('"');
+            }
+            sb.append("}}");
+        }
+    }
+}
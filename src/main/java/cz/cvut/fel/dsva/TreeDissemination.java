@@ -0,0 +1,173 @@
+package cz.cvut.fel.dsva;
+
+import cz.cvut.fel.dsva.base.Address;
+import cz.cvut.fel.dsva.base.TreeMessage;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Disseminates leader announcements and new-node notifications along a k-ary spanning tree
+ * instead of having one node call every other node, enabled with <code>dsva.broadcast.tree=true</code>.
+ *
+ * <p>The originator puts itself at the root and the rest of its membership, sorted, after it;
+ * the node at position <i>i</i> has the children at positions <i>k*i+1 ... k*i+k</i>, where
+ * <i>k</i> is <code>dsva.broadcast.fanout</code>. The member list travels with the message, so
+ * every node derives the same tree. Each node delivers the message locally, calls its children
+ * in parallel and returns the number of nodes in its subtree that got the message, so the root
+ * learns the total as acknowledgements are aggregated back up the tree. The originator makes
+ * only <i>k</i> calls, and a message reaches all nodes after about log<sub>k</sub>(n) hops.
+ *
+ * <p>If a child cannot be reached, its parent repairs the tree by calling the child's children itself,
+ * recursively, so a failed interior node does not cut off its subtree. A child that is only slow is
+ * not repaired, which would deliver the message twice; its parent stops waiting for it after
+ * <code>dsva.broadcast.ackTimeoutMs</code> and reports the acknowledgements it has.
+ *
+ * @author Kross Aleksandr
+ */
+@Slf4j
+@Getter
+public class TreeDissemination {
+    private final Node node;
+    private final int fanout;
+    private final long ackTimeoutMs;
+
+    private final LongAdder disseminations = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder repairs = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile int lastAcks = 0;
+    private volatile int lastMembers = 0;
+    private volatile long lastLatencyMs = 0;
+
+    /**
+     * Constructs the tree dissemination helper for the given node.
+     *
+     * @param node The parent Node instance.
+     */
+    public TreeDissemination(Node node) {
+        this.node = node;
+        this.fanout = Math.max(1, Config.getInt("dsva.broadcast.fanout", 4));
+        this.ackTimeoutMs = Config.getLong("dsva.broadcast.ackTimeoutMs", 3000);
+    }
+
+    /**
+     * Sends a message to the given members along a spanning tree rooted at this node.
+     * Blocks until the acknowledgements are aggregated; must run on the I/O executor.
+     *
+     * @param message The message to disseminate. It is not delivered to this node.
+     * @param targets The nodes to reach.
+     * @return The number of nodes that acknowledged the message.
+     */
+    public int disseminate(TreeMessage message, Collection<Address> targets) {
+        List<Address> members = new ArrayList<>();
+        members.add(node.getAddress());
+        List<Address> others = new ArrayList<>(targets);
+        others.remove(node.getAddress());
+        Collections.sort(others);
+        members.addAll(others);
+
+        long start = System.nanoTime();
+        disseminations.increment();
+        int acks = forwardToChildren(message, members, 0);
+        lastAcks = acks;
+        lastMembers = others.size();
+        lastLatencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Disseminated {} to {}/{} nodes in {} ms", message, acks, others.size(), lastLatencyMs);
+        return acks;
+    }
+
+    /**
+     * Sends a message to the subtree below the given position and aggregates the acknowledgements.
+     * Unreachable children are skipped and their own children are called instead.
+     *
+     * <p>The calls run on the unbounded executor of the node's event loop: each one only returns once the
+     * child's own subtree has answered, and in a {@link NodeHost} the child's part runs on the calling
+     * thread, so they must not hold the bounded executors. Waits up to <code>dsva.broadcast.ackTimeoutMs</code>
+     * and then reports the acknowledgements so far; a slow child is not repaired, as its call may still
+     * deliver the message.
+     *
+     * @param message The message to forward.
+     * @param members The members in tree order, root first.
+     * @param index   The position whose children are called.
+     * @return The number of nodes below {@code index} that acknowledged the message in time.
+     */
+    public int forwardToChildren(final TreeMessage message, final List<Address> members, int index) {
+        AtomicInteger acks = new AtomicInteger();
+        try {
+            forward(message, members, index, acks).get(ackTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Tree dissemination below {} failed: {}", members.get(index), e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            log.warn("Subtree below {} did not acknowledge within {} ms ({} acks so far).",
+                    members.get(index), ackTimeoutMs, acks.get());
+        }
+        return acks.get();
+    }
+
+    private CompletableFuture<Void> forward(final TreeMessage message, final List<Address> members, int index,
+                                            final AtomicInteger acks) {
+        List<Integer> children = children(index, members.size());
+        NodeEventLoop loop = node.getEventLoop();
+        CompletableFuture<?>[] subtrees = new CompletableFuture<?>[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            final int child = children.get(i);
+            final CompletableFuture<Integer> call = new CompletableFuture<>();
+            loop.runBlocking(() -> {
+                Address target = members.get(child);
+                try {
+                    calls.increment();
+                    call.complete(node.getCommunicationHub().getControlProxy(target).disseminate(message, members, child));
+                } catch (RemoteException e) {
+                    call.completeExceptionally(e);
+                }
+            });
+            subtrees[i] = call.handle((n, e) -> {
+                if (e == null) {
+                    acks.addAndGet(n);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                repairs.increment();
+                log.warn("Tree child {} unreachable ({}). Repairing its subtree.", members.get(child), e.getMessage());
+                return forward(message, members, child, acks);
+            }).thenCompose(f -> f);
+        }
+        return CompletableFuture.allOf(subtrees);
+    }
+
+    private List<Integer> children(int index, int size) {
+        List<Integer> result = new ArrayList<>(fanout);
+        for (long c = (long) fanout * index + 1; c <= (long) fanout * index + fanout && c < size; c++) {
+            result.add((int) c);
+        }
+        return result;
+    }
+
+    /**
+     * Returns dissemination statistics.
+     *
+     * @return A human-readable summary of the counters.
+     */
+    public String getStats() {
+        return "Tree dissemination (fanout " + fanout + "):\n"
+                + " Disseminations: " + disseminations.sum() + "\n"
+                + " Calls sent:     " + calls.sum() + "\n"
+                + " Repairs:        " + repairs.sum() + "\n"
+                + " Ack timeouts:   " + timeouts.sum() + "\n"
+                + " Last:           " + lastAcks + "/" + lastMembers + " acks in " + lastLatencyMs + " ms\n";
+    }
+}
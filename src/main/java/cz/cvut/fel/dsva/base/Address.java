@@ -12,6 +12,10 @@ import java.io.Serializable;
  * <p>This class implements {@link Comparable} to allow comparison based on hostname and port.
  * It also overrides {@link #equals(Object)} and {@link #hashCode()} for proper comparison and usage in collections.
  *
+ * <p>A node hosted by a {@link cz.cvut.fel.dsva.NodeHost} is bound in the host's shared RMI registry,
+ * whose port differs from the node's own. That registry port travels with the address but is not
+ * part of the node's identity, so it is ignored by comparisons.
+ *
  * @author Kross Aleksandr
  */
 @Slf4j
@@ -20,6 +24,7 @@ import java.io.Serializable;
 public class Address implements Comparable<Address>, Serializable {
     private String hostname;
     private Integer port;
+    private Integer registryPort;
 
     public Address() {
         this("127.0.0.1", 2010);
@@ -30,8 +35,23 @@ public class Address implements Comparable<Address>, Serializable {
         this.port = port;
     }
 
+    public Address(String hostname, int port, int registryPort) {
+        this(hostname, port);
+        this.registryPort = registryPort;
+    }
+
     public Address(Address other) {
         this(other.hostname, other.port);
+        this.registryPort = other.registryPort;
+    }
+
+    /**
+     * Returns the port of the RMI registry the node is bound in.
+     *
+     * @return The registry port, which is the node's own port unless it runs in a shared host.
+     */
+    public int getRegistryPort() {
+        return registryPort != null ? registryPort : port;
     }
 
     @Override
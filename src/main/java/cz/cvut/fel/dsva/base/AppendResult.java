@@ -0,0 +1,32 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * The answer of a follower to a replicated log append.
+ *
+ * <p>On success, <code>matchIndex</code> is the last index the follower now shares with the leader.
+ * On failure, it is the index the leader should continue from: the follower's last index if entries
+ * were missing, its commit index if its log diverged, or -1 if it follows another leader.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class AppendResult implements Serializable {
+    private final long term;
+    private final boolean success;
+    private final long matchIndex;
+
+    public AppendResult(long term, boolean success, long matchIndex) {
+        this.term = term;
+        this.success = success;
+        this.matchIndex = matchIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "AppendResult[term=" + term + ", success=" + success + ", matchIndex=" + matchIndex + "]";
+    }
+}
@@ -0,0 +1,46 @@
+package cz.cvut.fel.dsva.base;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control-plane remote methods: membership, elections and liveness.
+ *
+ * <p>Besides being part of {@link NodeCommands}, these methods are exported by every node on a
+ * dedicated control endpoint (its own port and registry name), so that election and failover traffic
+ * does not queue behind bulk data-plane calls such as <code>sendMessage</code>.
+ *
+ * @see java.rmi.Remote
+ */
+public interface ControlCommands extends Remote {
+        DSNeighbours join(Address newNodeAddr) throws RemoteException;
+        void broadcastNewNode(Address newAddr) throws RemoteException;
+        int disseminate(TreeMessage message, List<Address> members, int index) throws RemoteException;
+
+        void startElection(long term, long candidateId, boolean preempt) throws RemoteException;
+        void respondOk(long term, long fromNodeId) throws RemoteException;
+        void announceLeader(long term, long leaderId, Address leaderAddress) throws RemoteException;
+        VoteResponse requestVote(long term, long candidateId, Address candidateAddress) throws RemoteException;
+        Map<String, Address> group(GroupMessage message) throws RemoteException;
+
+        void leave(Address leavingNode) throws RemoteException;
+        void killNode(Address killedNode) throws RemoteException;
+        void revive(Address revivedNode) throws RemoteException;
+        void hello() throws RemoteException;
+        boolean heartbeat(long term) throws RemoteException;
+
+        /**
+         * Invokes one of the endpoint's methods on behalf of a traced caller, see {@link cz.cvut.fel.dsva.Tracing}.
+         * Callers do not use it directly; instrumented stubs route every call through it.
+         *
+         * @param context        The caller's trace context.
+         * @param method         The name of the method to invoke.
+         * @param parameterTypes The parameter types of the method.
+         * @param args           The arguments.
+         * @return The result of the method, {@code null} for void methods.
+         * @throws RemoteException If an RMI error occurs or the method throws.
+         */
+        Object traced(TraceContext context, String method, Class<?>[] parameterTypes, Object[] args) throws RemoteException;
+}
@@ -0,0 +1,48 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * The changed slots of a node's CRDTs, sent to a peer in one gossip call.
+ *
+ * <p>Every CRDT is a set of slots, each holding two counters that only grow: for counters, the increments
+ * and decrements made on one node; for OR-sets, how often one node added an element and the highest of
+ * those adds removed anywhere. Slot <code>i</code> is described by the entries <code>i</code> of the parallel
+ * arrays. Node addresses and CRDT names are sent once, in tables, and referenced by index.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class CrdtDelta implements Serializable {
+    private final Address[] nodes;
+    private final String[] names;
+    private final byte[] kinds;
+    private final int[] slotName;
+    private final String[] slotField;
+    private final int[] slotNode;
+    private final long[] slotA;
+    private final long[] slotB;
+
+    public CrdtDelta(Address[] nodes, String[] names, byte[] kinds, int[] slotName, String[] slotField,
+                     int[] slotNode, long[] slotA, long[] slotB) {
+        this.nodes = nodes;
+        this.names = names;
+        this.kinds = kinds;
+        this.slotName = slotName;
+        this.slotField = slotField;
+        this.slotNode = slotNode;
+        this.slotA = slotA;
+        this.slotB = slotB;
+    }
+
+    public int size() {
+        return slotName.length;
+    }
+
+    @Override
+    public String toString() {
+        return "CrdtDelta[" + size() + " slots of " + names.length + " CRDTs from " + nodes.length + " nodes]";
+    }
+}
@@ -5,8 +5,9 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Serializable;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages the collection of known neighboring nodes in the network.
@@ -17,23 +18,42 @@ import java.util.Set;
  * <p>Key functionalities include:
  * <ul>
  *     <li>Adding and removing nodes from the known neighbors.</li>
- *     <li>Setting and retrieving the current leader.</li>
+ *     <li>Setting and retrieving the current leader and the election term it was elected in.</li>
  * </ul>
  *
+ * <p>With hierarchical groups enabled, the known nodes and the leader are those of the node's own group.
+ * The view then also carries the directory of group leaders and the global leader elected among them.
+ *
+ * <p>The set is only modified by the node's state thread, but it is concurrent so that
+ * other threads (I/O, HTTP, RMI) can iterate over it without copying or locking.
+ *
  * @author Kross Aleksandr
  */
 @Slf4j
 @Getter
 @Setter
 public class DSNeighbours implements Serializable {
-    private Set<Address> knownNodes = new HashSet<>();
-    private Address leader;
+    private Set<Address> knownNodes = ConcurrentHashMap.newKeySet();
+    private volatile Address leader;
+    private volatile long term = 0;
+    private Map<String, Address> groupLeaders = new ConcurrentHashMap<>();
+    private volatile Address globalLeader;
+    private volatile long globalTerm = 0;
 
     public DSNeighbours(Address self) {
         this.leader = self;
         knownNodes.add(self);
     }
 
+    public DSNeighbours(DSNeighbours other) {
+        this.leader = other.leader;
+        this.term = other.term;
+        knownNodes.addAll(other.knownNodes);
+        groupLeaders.putAll(other.groupLeaders);
+        this.globalLeader = other.globalLeader;
+        this.globalTerm = other.globalTerm;
+    }
+
     public void addNode(Address addr) {
         knownNodes.add(addr);
     }
@@ -44,6 +64,6 @@ public class DSNeighbours implements Serializable {
 
     @Override
     public String toString() {
-        return "DSNeighbours{ leader=" + leader + ", knownNodes=" + knownNodes + " }";
+        return "DSNeighbours{ leader=" + leader + ", term=" + term + ", knownNodes=" + knownNodes + " }";
     }
 }
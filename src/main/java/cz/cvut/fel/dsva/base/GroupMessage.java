@@ -0,0 +1,58 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A message of the hierarchical group protocol, exchanged between group leaders
+ * and sent by group leaders to their members.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class GroupMessage implements Serializable {
+    public enum Kind {
+        /**
+         * A node became the leader of {@code group} in the group term {@code term}.
+         */
+        LEADER,
+        /**
+         * A group leader runs for global leader in the global term {@code term}.
+         */
+        ELECTION,
+        /**
+         * {@code address} is the global leader of the global term {@code term}.
+         */
+        COORDINATOR
+    }
+
+    private final Kind kind;
+    private final String group;
+    private final long term;
+    private final Address address;
+
+    private GroupMessage(Kind kind, String group, long term, Address address) {
+        this.kind = kind;
+        this.group = group;
+        this.term = term;
+        this.address = address;
+    }
+
+    public static GroupMessage leader(String group, long term, Address leader) {
+        return new GroupMessage(Kind.LEADER, group, term, leader);
+    }
+
+    public static GroupMessage election(long term, Address candidate) {
+        return new GroupMessage(Kind.ELECTION, null, term, candidate);
+    }
+
+    public static GroupMessage coordinator(long term, Address globalLeader) {
+        return new GroupMessage(Kind.COORDINATOR, null, term, globalLeader);
+    }
+
+    @Override
+    public String toString() {
+        return "GroupMessage[" + kind + (group != null ? " " + group : "") + " " + address + " term " + term + "]";
+    }
+}
@@ -0,0 +1,31 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A range of cluster-unique IDs leased from the leader of the ID service.
+ *
+ * <p>The range is <code>[start, end)</code>. It is never handed out again, not even by a later leader,
+ * so the node holding it can issue its IDs without asking anyone.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class IdBlock implements Serializable {
+    private final long start;
+    private final long end;
+    private final long term;
+
+    public IdBlock(long start, long end, long term) {
+        this.start = start;
+        this.end = end;
+        this.term = term;
+    }
+
+    @Override
+    public String toString() {
+        return "IdBlock[" + start + ".." + end + ") term=" + term;
+    }
+}
@@ -0,0 +1,47 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A lease on a named lock, or a request for one.
+ *
+ * <p>The fencing token increases with every grant of the lock service, also across leader changes, so a
+ * resource guarded by the lock can reject writes carrying a token lower than one it has already seen.
+ * A request carries token 0. The lease is given as a duration because the nodes' clocks are not synchronized.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class LockGrant implements Serializable {
+    private final String name;
+    private final String owner;
+    private final Address client;
+    private final long token;
+    private final long leaseMs;
+
+    public LockGrant(String name, String owner, Address client, long token, long leaseMs) {
+        this.name = name;
+        this.owner = owner;
+        this.client = client;
+        this.token = token;
+        this.leaseMs = leaseMs;
+    }
+
+    /**
+     * Tells whether this grant or request is made by the given owner on the given node.
+     *
+     * @param owner  The owner name.
+     * @param client The owner's node.
+     * @return {@code true} if both match.
+     */
+    public boolean isOf(String owner, Address client) {
+        return this.owner.equals(owner) && this.client.equals(client);
+    }
+
+    @Override
+    public String toString() {
+        return "LockGrant[" + name + " owner=" + owner + "@" + client + " token=" + token + " lease=" + leaseMs + "ms]";
+    }
+}
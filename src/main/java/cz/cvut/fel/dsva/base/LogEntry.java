@@ -0,0 +1,29 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * An entry of the replicated log: its position, the term of the leader that created it and the appended data.
+ * A {@code null} data marks the entry a new leader appends to commit the entries of earlier terms.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class LogEntry implements Serializable {
+    private final long index;
+    private final long term;
+    private final String data;
+
+    public LogEntry(long index, long term, String data) {
+        this.index = index;
+        this.term = term;
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + index + " [term " + term + "] " + (data == null ? "<leader change>" : data);
+    }
+}
@@ -1,29 +1,55 @@
 package cz.cvut.fel.dsva.base;
 
-import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Defines the remote methods that can be invoked by other nodes via RMI.
  *
- * <p>This interface extends {@link Remote} and includes methods for joining the network,
- * starting elections, responding to elections, announcing leaders, sending messages,
- * handling node departures and revivals, and receiving simple hello messages.
+ * <p>This interface extends {@link ControlCommands} (joining the network, elections, leader
+ * announcements, departures, revivals and hello messages) with the data-plane methods:
+ * sending messages, request/reply, topic publish/subscribe, key-value replica operations,
+ * leader-sequenced ordered broadcast, the replicated log, the lock service, the ID service, CRDT gossip and chunked file transfers.
  *
  * @see java.rmi.Remote
  */
-public interface NodeCommands extends Remote {
-        DSNeighbours join(Address newNodeAddr) throws RemoteException;
-        void broadcastNewNode(Address newAddr) throws RemoteException;
+public interface NodeCommands extends ControlCommands {
+        void sendMessage(Address fromAddr, long seq, String fromNick, String toNick, String message) throws RemoteException;
+        void request(Address fromAddr, long correlationId, String toNick, String method, String payload) throws RemoteException;
+        void reply(long correlationId, boolean ok, String payload) throws RemoteException;
+        String nickname() throws RemoteException;
 
-        void startElection(long candidateId) throws RemoteException;
-        void respondOk(long fromNodeId) throws RemoteException;
-        void announceLeader(long leaderId, Address leaderAddress) throws RemoteException;
+        void updateSubscription(Address subscriber, String topic, boolean subscribed) throws RemoteException;
+        Map<String, Set<Address>> subscriptions() throws RemoteException;
+        void publish(Address fromAddr, long seq, String topic, String fromNick, String message) throws RemoteException;
 
-        void sendMessage(String fromNick, String toNick, String message) throws RemoteException;
+        void kvPut(String key, VersionedValue value) throws RemoteException;
+        VersionedValue kvGet(String key) throws RemoteException;
+        void kvHandoff(Map<String, VersionedValue> entries) throws RemoteException;
 
-        void leave(Address leavingNode) throws RemoteException;
-        void killNode(Address killedNode) throws RemoteException;
-        void revive(Address revivedNode) throws RemoteException;
-        void hello() throws RemoteException;
+        void forwardOrdered(Address fromAddr, long epoch, long firstId, String fromNick, List<String> messages) throws RemoteException;
+        void deliverOrdered(Address leaderAddress, List<OrderedMessage> batch) throws RemoteException;
+        List<OrderedMessage> fetchOrdered(long fromSeq, long toSeq) throws RemoteException;
+        long orderedSequence() throws RemoteException;
+
+        long logAppend(List<String> entries) throws RemoteException;
+        AppendResult appendEntries(Address leader, long term, long prevIndex, long prevTerm, List<LogEntry> entries, long leaderCommit) throws RemoteException;
+        List<LogEntry> readLog(long fromIndex, int limit, boolean committedOnly) throws RemoteException;
+
+        LockGrant lockAcquire(String name, String owner, Address client, long leaseMs) throws RemoteException;
+        boolean lockRenew(String name, String owner, long token, long leaseMs) throws RemoteException;
+        boolean lockRelease(String name, String owner, long token) throws RemoteException;
+        void lockGranted(LockGrant grant) throws RemoteException;
+        List<LockGrant> heldLocks() throws RemoteException;
+
+        IdBlock allocateIds(Address client, long count) throws RemoteException;
+
+        void crdtMerge(Address fromAddr, CrdtDelta delta) throws RemoteException;
+        String crdtRead(String name) throws RemoteException;
+
+        TransferAck openTransfer(Address fromAddr, String transferId, String name, long size, int chunkSize) throws RemoteException;
+        TransferAck putChunk(String transferId, int index, byte[] data, long crc) throws RemoteException;
+        boolean finishTransfer(String transferId) throws RemoteException;
 }
@@ -0,0 +1,28 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A message of the total-order broadcast channel, stamped with a global sequence number by the leader.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class OrderedMessage implements Serializable {
+    private final long seq;
+    private final String fromNick;
+    private final String message;
+
+    public OrderedMessage(long seq, String fromNick, String message) {
+        this.seq = seq;
+        this.fromNick = fromNick;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderedMessage[#" + seq + " " + fromNick + ": " + message + "]";
+    }
+}
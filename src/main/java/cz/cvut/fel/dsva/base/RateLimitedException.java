@@ -0,0 +1,50 @@
+package cz.cvut.fel.dsva.base;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown by a node that rejects a call because the caller exceeded its rate limit.
+ *
+ * <p>The call was not processed, so it is safe to retry after {@link #getRetryAfterMs()}.
+ * A caller must not treat the node as dead. Because RMI wraps remote exceptions thrown by
+ * the server, callers should test for it with {@link #isCause(Throwable)}.
+ *
+ * @author Kross Aleksandr
+ */
+public class RateLimitedException extends RemoteException {
+    private final long retryAfterMs;
+
+    public RateLimitedException(String message, long retryAfterMs) {
+        super(message);
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * Finds a rate limit rejection in an exception chain.
+     *
+     * @param t The exception caught by the caller.
+     * @return The rejection, or {@code null} if the call failed for another reason.
+     */
+    public static RateLimitedException find(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof RateLimitedException) {
+                return (RateLimitedException) c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether an exception is (or wraps) a rate limit rejection.
+     *
+     * @param t The exception caught by the caller.
+     * @return {@code true} if the call was rejected by a rate limit.
+     */
+    public static boolean isCause(Throwable t) {
+        return find(t) != null;
+    }
+}
@@ -0,0 +1,40 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * The trace context that travels with a traced remote call.
+ *
+ * <p>It names the trace (a 128-bit ID shared by all spans of one causal chain, e.g. one failover)
+ * and the span of the caller, which becomes the parent of the span recorded by the callee.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class TraceContext implements Serializable {
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final long spanId;
+
+    public TraceContext(long traceIdHigh, long traceIdLow, long spanId) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+    }
+
+    /**
+     * Returns the trace ID in the hex form used by OTLP-JSON.
+     *
+     * @return 32 lowercase hex digits.
+     */
+    public String traceIdHex() {
+        return String.format("%016x%016x", traceIdHigh, traceIdLow);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceContext[trace=" + traceIdHex() + ", span=" + String.format("%016x", spanId) + "]";
+    }
+}
@@ -0,0 +1,32 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * The receiver's answer to a chunked transfer call.
+ *
+ * <p>It carries the first chunk the receiver is still missing, which is where a sender resumes
+ * after a failure, and the number of chunks the sender may have in flight (its credits).
+ * A chunk whose checksum did not match is not accepted and has to be sent again.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class TransferAck implements Serializable {
+    private final boolean accepted;
+    private final int nextChunk;
+    private final int credits;
+
+    public TransferAck(boolean accepted, int nextChunk, int credits) {
+        this.accepted = accepted;
+        this.nextChunk = nextChunk;
+        this.credits = credits;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferAck[accepted=" + accepted + ", nextChunk=" + nextChunk + ", credits=" + credits + "]";
+    }
+}
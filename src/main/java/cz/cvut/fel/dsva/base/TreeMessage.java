@@ -0,0 +1,51 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A membership or leader notification disseminated along a spanning tree of the cluster.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class TreeMessage implements Serializable {
+    public enum Kind {
+        /**
+         * A leader announcement; {@code term}, {@code leaderId} and {@code address} are set.
+         */
+        LEADER,
+        /**
+         * A new node in the network; {@code address} is the new node.
+         */
+        NEW_NODE
+    }
+
+    private final Kind kind;
+    private final long term;
+    private final long leaderId;
+    private final Address address;
+
+    private TreeMessage(Kind kind, long term, long leaderId, Address address) {
+        this.kind = kind;
+        this.term = term;
+        this.leaderId = leaderId;
+        this.address = address;
+    }
+
+    public static TreeMessage leader(long term, long leaderId, Address leaderAddress) {
+        return new TreeMessage(Kind.LEADER, term, leaderId, leaderAddress);
+    }
+
+    public static TreeMessage newNode(Address newAddr) {
+        return new TreeMessage(Kind.NEW_NODE, 0, 0, newAddr);
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.LEADER
+                ? "TreeMessage[LEADER " + address + " term " + term + "]"
+                : "TreeMessage[NEW_NODE " + address + "]";
+    }
+}
@@ -0,0 +1,39 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A value of the key-value store with the version assigned by the node that coordinated the write.
+ * Replicas keep the value with the highest version (last writer wins); the writer's ID breaks ties.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class VersionedValue implements Serializable {
+    private final String value;
+    private final long version;
+    private final long writerId;
+
+    public VersionedValue(String value, long version, long writerId) {
+        this.value = value;
+        this.version = version;
+        this.writerId = writerId;
+    }
+
+    /**
+     * Tells whether this value supersedes another one.
+     *
+     * @param other The value currently stored, may be {@code null}.
+     * @return {@code true} if this value is newer.
+     */
+    public boolean newerThan(VersionedValue other) {
+        return other == null || version > other.version || (version == other.version && writerId > other.writerId);
+    }
+
+    @Override
+    public String toString() {
+        return "VersionedValue[" + value + " v" + version + "]";
+    }
+}
@@ -0,0 +1,32 @@
+package cz.cvut.fel.dsva.base;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * The answer of a node to a quorum vote request.
+ *
+ * <p>A denied vote carries the leader the voter currently follows (if any),
+ * so that a candidate in a healed minority partition can adopt it instead of
+ * running further elections.
+ *
+ * @author Kross Aleksandr
+ */
+@Getter
+public class VoteResponse implements Serializable {
+    private final boolean granted;
+    private final Address leader;
+    private final long term;
+
+    public VoteResponse(boolean granted, Address leader, long term) {
+        this.granted = granted;
+        this.leader = leader;
+        this.term = term;
+    }
+
+    @Override
+    public String toString() {
+        return "VoteResponse[granted=" + granted + ", leader=" + leader + ", term=" + term + "]";
+    }
+}
@@ -0,0 +1,89 @@
+#!/bin/bash
+
+# This script partitions a 5-node cluster into a minority {Node4, Node5}
+# and a majority {Node1, Node2, Node3}, then heals the partition.
+# Nodes must be started in quorum mode (-Ddsva.election.quorum=true) and joined in a full mesh.
+# Expected result:
+#  - only the majority side elects a leader while partitioned, the minority stays leaderless,
+#  - after healing, the number of elections stays bounded (no election storm).
+
+source bash_variables.sh
+
+SLEEP_TIME=1
+SETTLE_TIME=12
+HEAL_TIME=40
+MAX_ELECTIONS_AFTER_HEAL=$((2 * NUM_NODES))
+
+MINORITY="4 5"
+MAJORITY="1 2 3"
+
+addr_list() {
+  local list=""
+  for i in "$@"; do
+    list="${list:+$list,}${NODE_IP[$i]}:${NODE_PORT[$i]}"
+  done
+  echo "$list"
+}
+
+elections() {
+  curl -s "http://${NODE_IP[$1]}:${NODE_API_PORT[$1]}/get_status" | awk '/Elections:/ {print $2}'
+}
+
+total_elections() {
+  local sum=0
+  for i in $(seq 1 $NUM_NODES); do
+    local n=$(elections $i)
+    sum=$((sum + ${n:-0}))
+  done
+  echo $sum
+}
+
+echo "==== SCENARIO: PARTITION WITH QUORUM ELECTIONS ===="
+
+# 1) Cut the cluster in two
+echo "Partitioning {$MINORITY} from {$MAJORITY}..."
+for i in $MAJORITY; do
+  curl -s "http://${NODE_IP[$i]}:${NODE_API_PORT[$i]}/partition?nodes=$(addr_list $MINORITY)"
+done
+for i in $MINORITY; do
+  curl -s "http://${NODE_IP[$i]}:${NODE_API_PORT[$i]}/partition?nodes=$(addr_list $MAJORITY)"
+done
+
+# 2) Let every node notice the partition through failed message delivery
+for i in $(seq 1 $NUM_NODES); do
+  curl -s -X POST "http://${NODE_IP[$i]}:${NODE_API_PORT[$i]}/send_message" \
+       -d "toNick=all" -d "message=probe from node $i" > /dev/null
+done
+sleep $SETTLE_TIME
+
+echo "Leaders while partitioned:"
+for i in $(seq 1 $NUM_NODES); do
+  echo -n "Node $i: "
+  curl -s "http://${NODE_IP[$i]}:${NODE_API_PORT[$i]}/check_leader"
+  sleep $SLEEP_TIME
+done
+
+# 3) Heal and count elections from now on
+BEFORE=$(total_elections)
+echo "Healing the partition (elections so far: $BEFORE)..."
+for i in $(seq 1 $NUM_NODES); do
+  curl -s "http://${NODE_IP[$i]}:${NODE_API_PORT[$i]}/heal"
+done
+sleep $HEAL_TIME
+
+AFTER=$(total_elections)
+echo "Leaders after healing:"
+for i in $(seq 1 $NUM_NODES); do
+  echo -n "Node $i: "
+  curl -s "http://${NODE_IP[$i]}:${NODE_API_PORT[$i]}/check_leader"
+done
+
+DELTA=$((AFTER - BEFORE))
+echo "Elections after healing: $DELTA (bound: $MAX_ELECTIONS_AFTER_HEAL)"
+if [ $DELTA -le $MAX_ELECTIONS_AFTER_HEAL ]; then
+  echo "PASS: elections after heal stayed bounded"
+else
+  echo "FAIL: election storm after heal"
+fi
+
+echo "==== PARTITION SCENARIO COMPLETE ===="